@@ -103,6 +103,10 @@ public class RecordScanReader implements EntityReader<RecordScan> {
 
         scan.setCacheBlocks(JsonUtil.getBoolean(node, "cacheBlocks", scan.getCacheBlocks()));
 
+        scan.setParallelism(JsonUtil.getInt(node, "parallelism", scan.getParallelism()));
+
+        scan.setOrdered(JsonUtil.getBoolean(node, "ordered", scan.getOrdered()));
+
         return scan;
     }
 }
@@ -170,6 +170,19 @@ public class JsonConversionTest {
         assertEquals(false, parsedScan.getCacheBlocks());
         assertEquals(500, parsedScan.getCaching());
     }
+
+    @Test
+    public void testScanParallelism() throws Exception {
+        RecordScan scan = new RecordScan();
+        scan.setParallelism(4);
+        scan.setOrdered(false);
+
+        byte[] data = scanToBytes(scan);
+        RecordScan parsedScan = scanFromBytes(data);
+
+        assertEquals(4, parsedScan.getParallelism());
+        assertEquals(false, parsedScan.getOrdered());
+    }
     
     @Test
     public void testScanRecordTypeFilter() throws Exception {
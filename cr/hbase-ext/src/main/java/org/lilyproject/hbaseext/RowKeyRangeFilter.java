@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseext;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Filter which only lets through the rows whose key lies between a lower and an upper bound.
+ * The bounds are compared with the row key prefix of the same length as the bound, so that
+ * a bound can be a partial (struct) key.
+ *
+ * <p>This does the same as the combination of a {@link org.apache.hadoop.hbase.filter.WhileMatchFilter}
+ * on a LESS(_OR_EQUAL) {@link org.apache.hadoop.hbase.filter.RowFilter} with a GREATER RowFilter, but
+ * makes use of the fact that the rows arrive in sorted order:
+ *
+ * <ul>
+ *     <li>once a row is past the lower bound, the lower bound is not checked anymore. Rows before the
+ *     lower bound are not iterated over but skipped by asking the region server to reseek to the
+ *     first row after the lower bound.</li>
+ *     <li>once a row is past the upper bound, all remaining rows are filtered, which stops the scan.</li>
+ * </ul>
+ *
+ * <p>Since the region server uses a new instance of this filter for each region, the bounds are
+ * evaluated only once per region.
+ */
+public class RowKeyRangeFilter extends FilterBase {
+    private byte[] lowerBound;
+    private boolean lowerBoundInclusive;
+    private byte[] upperBound;
+    private boolean upperBoundInclusive;
+
+    /** The first row which can lie past the lower bound, null if there is no such row. */
+    private byte[] seekRow;
+
+    private boolean lowerBoundPassed;
+    private boolean upperBoundPassed;
+    private boolean seekToLowerBound;
+
+    /**
+     * Nullary constructor, for Writable
+     */
+    public RowKeyRangeFilter() {
+        super();
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param lowerBound the lower bound, or null if there is none (in which case the start row of the scan
+     *                   serves as lower bound)
+     * @param upperBound the upper bound, or null if there is none
+     */
+    public RowKeyRangeFilter(byte[] lowerBound, boolean lowerBoundInclusive, byte[] upperBound,
+            boolean upperBoundInclusive) {
+        this.lowerBound = lowerBound;
+        this.lowerBoundInclusive = lowerBoundInclusive;
+        this.upperBound = upperBound;
+        this.upperBoundInclusive = upperBoundInclusive;
+        initSeekRow();
+    }
+
+    private void initSeekRow() {
+        if (lowerBound != null) {
+            seekRow = lowerBoundInclusive ? lowerBound : prefixSuccessor(lowerBound);
+        }
+    }
+
+    @Override
+    public boolean filterRowKey(byte[] buffer, int offset, int length) {
+        seekToLowerBound = false;
+
+        if (upperBound != null) {
+            int cmp = comparePrefix(upperBound, buffer, offset, length);
+            if (cmp < 0 || (cmp == 0 && !upperBoundInclusive)) {
+                upperBoundPassed = true;
+                return true;
+            }
+        }
+
+        if (!lowerBoundPassed && lowerBound != null) {
+            int cmp = comparePrefix(lowerBound, buffer, offset, length);
+            if (cmp > 0 || (cmp == 0 && !lowerBoundInclusive)) {
+                if (seekRow == null) {
+                    // nothing can come after the lower bound
+                    upperBoundPassed = true;
+                    return true;
+                }
+                // Let the row through to filterKeyValue, which will ask to seek to the lower bound
+                seekToLowerBound = true;
+                return false;
+            }
+        }
+
+        lowerBoundPassed = true;
+        return false;
+    }
+
+    @Override
+    public ReturnCode filterKeyValue(KeyValue kv) {
+        return seekToLowerBound ? ReturnCode.SEEK_NEXT_USING_HINT : ReturnCode.INCLUDE;
+    }
+
+    @Override
+    public KeyValue getNextKeyHint(KeyValue currentKV) {
+        return KeyValue.createFirstOnRow(seekRow);
+    }
+
+    @Override
+    public boolean filterAllRemaining() {
+        return upperBoundPassed;
+    }
+
+    /**
+     * Compares the bound with the prefix of the row key of the same length.
+     */
+    private static int comparePrefix(byte[] bound, byte[] buffer, int offset, int length) {
+        return Bytes.compareTo(bound, 0, bound.length, buffer, offset, Math.min(bound.length, length));
+    }
+
+    /**
+     * Returns the smallest key which is larger than all keys starting with the given prefix,
+     * or null if there is no such key.
+     */
+    private static byte[] prefixSuccessor(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte)0xFF) {
+                byte[] successor = Bytes.head(prefix, i + 1);
+                successor[i]++;
+                return successor;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        lowerBound = in.readBoolean() ? Bytes.readByteArray(in) : null;
+        lowerBoundInclusive = in.readBoolean();
+        upperBound = in.readBoolean() ? Bytes.readByteArray(in) : null;
+        upperBoundInclusive = in.readBoolean();
+        initSeekRow();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeBoolean(lowerBound != null);
+        if (lowerBound != null) {
+            Bytes.writeByteArray(out, lowerBound);
+        }
+        out.writeBoolean(lowerBoundInclusive);
+        out.writeBoolean(upperBound != null);
+        if (upperBound != null) {
+            Bytes.writeByteArray(out, upperBound);
+        }
+        out.writeBoolean(upperBoundInclusive);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RowKeyRangeFilterTest {
+    @Test
+    public void testNoBounds() {
+        RowKeyRangeFilter filter = new RowKeyRangeFilter(null, false, null, false);
+        assertIncluded(filter, bytes(0x00));
+        assertIncluded(filter, bytes(0x05, 0x06));
+        assertIncluded(filter, bytes(0xFF, 0xFF));
+        assertIncluded(filter, new byte[0]);
+        assertFalse(filter.filterAllRemaining());
+    }
+
+    @Test
+    public void testInclusiveUpperBound() {
+        RowKeyRangeFilter filter = new RowKeyRangeFilter(null, false, bytes(0x05), true);
+        assertIncluded(filter, bytes(0x04, 0xFF));
+        // The bound is compared with the prefix of the row key: rows starting with the bound are included
+        assertIncluded(filter, bytes(0x05));
+        assertIncluded(filter, bytes(0x05, 0xFF, 0xFF));
+        assertFalse(filter.filterAllRemaining());
+
+        assertTrue(filter.filterRowKey(bytes(0x06), 0, 1));
+        assertTrue(filter.filterAllRemaining());
+    }
+
+    @Test
+    public void testExclusiveUpperBound() {
+        RowKeyRangeFilter filter = new RowKeyRangeFilter(null, false, bytes(0x05), false);
+        assertIncluded(filter, bytes(0x04, 0xFF));
+
+        assertTrue(filter.filterRowKey(bytes(0x05, 0x00), 0, 2));
+        assertTrue(filter.filterAllRemaining());
+    }
+
+    @Test
+    public void testUpperBoundLongerThanRowKey() {
+        RowKeyRangeFilter filter = new RowKeyRangeFilter(null, false, bytes(0x05, 0x05), false);
+        // A row key which is a prefix of the bound sorts before it
+        assertIncluded(filter, bytes(0x05));
+        assertTrue(filter.filterRowKey(bytes(0x05, 0x05), 0, 2));
+    }
+
+    @Test
+    public void testInclusiveLowerBound() {
+        RowKeyRangeFilter filter = new RowKeyRangeFilter(bytes(0x05), true, null, false);
+
+        // A row before the lower bound: seek to the lower bound itself
+        assertSeek(filter, bytes(0x04, 0xFF), bytes(0x05));
+
+        assertIncluded(filter, bytes(0x05));
+        assertIncluded(filter, bytes(0x06));
+        assertFalse(filter.filterAllRemaining());
+    }
+
+    @Test
+    public void testExclusiveLowerBound() {
+        RowKeyRangeFilter filter = new RowKeyRangeFilter(bytes(0x05, 0x01), false, null, false);
+
+        // Rows starting with the bound are excluded: seek to the first row after all of them
+        assertSeek(filter, bytes(0x05, 0x01), bytes(0x05, 0x02));
+        assertSeek(filter, bytes(0x05, 0x01, 0xFF), bytes(0x05, 0x02));
+
+        assertIncluded(filter, bytes(0x05, 0x02));
+        // Once past the lower bound, it is not checked anymore
+        assertIncluded(filter, bytes(0x05, 0x01));
+    }
+
+    @Test
+    public void testLowerBoundEndingInFF() {
+        RowKeyRangeFilter filter = new RowKeyRangeFilter(bytes(0x05, 0xFF), false, null, false);
+        // The trailing 0xFF can't be incremented, so the successor is the shorter prefix incremented
+        assertSeek(filter, bytes(0x05, 0xFF, 0x00), bytes(0x06));
+        assertIncluded(filter, bytes(0x06));
+
+        filter = new RowKeyRangeFilter(bytes(0xFF, 0xFF), false, null, false);
+        // Nothing can come after all rows starting with 0xFF 0xFF: all remaining rows are filtered
+        assertTrue(filter.filterRowKey(bytes(0xFF, 0xFF, 0x01), 0, 3));
+        assertTrue(filter.filterAllRemaining());
+    }
+
+    @Test
+    public void testLowerAndUpperBound() {
+        RowKeyRangeFilter filter = new RowKeyRangeFilter(bytes(0x02), false, bytes(0x04), true);
+        assertSeek(filter, bytes(0x01), bytes(0x03));
+        assertSeek(filter, bytes(0x02, 0x07), bytes(0x03));
+        assertIncluded(filter, bytes(0x03));
+        assertIncluded(filter, bytes(0x04, 0x09));
+        assertTrue(filter.filterRowKey(bytes(0x05), 0, 1));
+        assertTrue(filter.filterAllRemaining());
+    }
+
+    @Test
+    public void testEmptyBounds() {
+        // An empty bound is a prefix of every row key
+        RowKeyRangeFilter filter = new RowKeyRangeFilter(new byte[0], true, new byte[0], true);
+        assertIncluded(filter, bytes(0x00));
+        assertIncluded(filter, bytes(0xFF));
+        assertIncluded(filter, new byte[0]);
+
+        filter = new RowKeyRangeFilter(null, false, new byte[0], false);
+        assertTrue(filter.filterRowKey(bytes(0x00), 0, 1));
+        assertTrue(filter.filterAllRemaining());
+
+        filter = new RowKeyRangeFilter(new byte[0], false, null, false);
+        assertTrue(filter.filterRowKey(bytes(0x00), 0, 1));
+        assertTrue(filter.filterAllRemaining());
+    }
+
+    @Test
+    public void testRowKeyAtOffset() {
+        RowKeyRangeFilter filter = new RowKeyRangeFilter(null, false, bytes(0x05), false);
+        // The row key is only a part of the buffer, the bytes around it should be ignored
+        byte[] buffer = bytes(0x09, 0x04, 0x09);
+        assertFalse(filter.filterRowKey(buffer, 1, 1));
+        buffer = bytes(0x00, 0x05, 0x00);
+        assertTrue(filter.filterRowKey(buffer, 1, 1));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        RowKeyRangeFilter filter = new RowKeyRangeFilter(bytes(0x02), false, bytes(0x04), true);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        filter.write(new DataOutputStream(bos));
+
+        RowKeyRangeFilter copy = new RowKeyRangeFilter();
+        copy.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        assertSeek(copy, bytes(0x02), bytes(0x03));
+        assertIncluded(copy, bytes(0x04));
+        assertTrue(copy.filterRowKey(bytes(0x05), 0, 1));
+
+        filter = new RowKeyRangeFilter(null, false, null, false);
+        bos = new ByteArrayOutputStream();
+        filter.write(new DataOutputStream(bos));
+        copy = new RowKeyRangeFilter();
+        copy.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        assertIncluded(copy, bytes(0x00));
+    }
+
+    private void assertIncluded(RowKeyRangeFilter filter, byte[] row) {
+        assertFalse("row " + Bytes.toStringBinary(row), filter.filterRowKey(row, 0, row.length));
+        assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(new KeyValue(row, 0L)));
+    }
+
+    private void assertSeek(RowKeyRangeFilter filter, byte[] row, byte[] expectedSeekRow) {
+        assertFalse(filter.filterRowKey(row, 0, row.length));
+        KeyValue kv = new KeyValue(row, 0L);
+        assertEquals(ReturnCode.SEEK_NEXT_USING_HINT, filter.filterKeyValue(kv));
+        assertArrayEquals(expectedSeekRow, filter.getNextKeyHint(kv).getRow());
+        assertFalse(filter.filterAllRemaining());
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte)values[i];
+        }
+        return result;
+    }
+}
@@ -43,6 +43,17 @@ public class DummyRowLog implements RowLog {
         throw new RuntimeException(failMessage);
     }
 
+    @Override
+    public List<RowLogMessage> putMessages(List<Put> puts, List<byte[]> payloads) throws RowLogException {
+        throw new RuntimeException(failMessage);
+    }
+
+    @Override
+    public List<RowLogMessage> putMessagesForRows(List<byte[]> rowKeys, List<byte[]> payloads)
+            throws RowLogException {
+        throw new RuntimeException(failMessage);
+    }
+
     @Override
     public boolean processMessage(RowLogMessage message, RowLock rowLock) throws RowLogException {
         throw new RuntimeException(failMessage);
@@ -53,6 +64,11 @@ public class DummyRowLog implements RowLog {
         throw new RuntimeException(failMessage);
     }
 
+    @Override
+    public boolean messagesDone(List<RowLogMessage> messages, String subscriptionId) throws RowLogException {
+        throw new RuntimeException(failMessage);
+    }
+
     @Override
     public boolean isMessageDone(RowLogMessage message, String subscriptionId) throws RowLogException {
         throw new RuntimeException(failMessage);
@@ -23,8 +23,10 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.TableMapper;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.lilyproject.client.HBaseConnections;
 import org.lilyproject.client.LilyClient;
@@ -43,13 +45,17 @@ import org.lilyproject.rowlog.api.RowLog;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
 import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.VTaggedRecord;
+import org.lilyproject.util.repo.VersionTag;
 import org.lilyproject.util.zookeeper.ZkUtil;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -61,11 +67,16 @@ public class IndexingMapper extends TableMapper<ImmutableBytesWritable, Result>
     private Indexer indexer;
     private MultiThreadedHttpConnectionManager connectionManager;
     private IndexLocker indexLocker;
+    private IndexLockerMetrics lockerMetrics;
     private ZooKeeperItf zk;
     private Repository repository;
     private ThreadPoolExecutor executor;
     private Log log = LogFactory.getLog(getClass());
     private HBaseTableFactory hbaseTableFactory;
+    private RecordDecoder recordDecoder;
+    /** If true, records are indexed from the scanned rows rather than being read again. */
+    private boolean indexFromScan;
+    private boolean allVersionsScanned;
 
     @Override
     protected void setup(Context context) throws IOException, InterruptedException {
@@ -123,14 +134,28 @@ public class IndexingMapper extends TableMapper<ImmutableBytesWritable, Result>
             solrConfig.setRequestWriter(jobConf.get("org.lilyproject.indexer.batchbuild.requestwriter", null));
             solrConfig.setResponseParser(jobConf.get("org.lilyproject.indexer.batchbuild.responseparser", null));
 
-            String indexName = "batchjob"; // we should pass on the real index name.
+            String indexName = jobConf.get("org.lilyproject.indexer.batchbuild.indexname", "batchjob");
 
             SolrShardManager solrShardMgr = new SolrShardManager(indexName, solrShards, shardSelector, httpClient,
                     solrConfig);
 
             boolean enableLocking = Boolean.parseBoolean(jobConf.get("org.lilyproject.indexer.batchbuild.enableLocking"));
 
-            indexLocker = new IndexLocker(zk, enableLocking);
+            // When locking is enabled, the record might have been updated between the scan and taking the lock,
+            // and only by reading the record after taking the lock we are sure not to index an outdated record.
+            indexFromScan = !enableLocking;
+            allVersionsScanned = needsAllVersions(indexerConf, typeManager);
+            recordDecoder = new RecordDecoder(typeManager, idGenerator);
+
+            IndexLockStrategy lockStrategy = IndexLockStrategy.valueOf(
+                    jobConf.get("org.lilyproject.indexer.batchbuild.lockStrategy", IndexLockStrategy.ZOOKEEPER.name()));
+
+            if (enableLocking && lockStrategy == IndexLockStrategy.STRIPED) {
+                lockerMetrics = new IndexLockerMetrics(indexName);
+                indexLocker = new StripedIndexLocker(zk, indexName, StripedIndexLocker.Role.BATCH, lockerMetrics);
+            } else {
+                indexLocker = new ZkIndexLocker(zk, enableLocking);
+            }
 
             indexer = new Indexer(indexName, indexerConf, repository, solrShardMgr, indexLocker,
                     new IndexerMetrics(indexName));
@@ -145,6 +170,68 @@ public class IndexingMapper extends TableMapper<ImmutableBytesWritable, Result>
         }
     }
 
+    /**
+     * Configures the scan over the record table to read the columns and versions needed for indexing, so that
+     * the mapper can index the records from the scanned rows. Should only be used when locking is disabled,
+     * otherwise it is useless to fetch more than the row keys.
+     */
+    public static void configureScan(Scan scan, IndexerConf indexerConf, TypeManager typeManager)
+            throws RepositoryException, InterruptedException {
+        if (!indexerConf.getDynamicFields().isEmpty()) {
+            // Dynamic index fields can match any field
+            scan.addFamily(RecordCf.DATA.bytes);
+        } else {
+            RecordDecoder.addSystemColumnsToScan(scan);
+            Set<SchemaId> fields = new HashSet<SchemaId>(indexerConf.getFieldDependencies());
+            fields.addAll(indexerConf.getVtags());
+            for (SchemaId field : fields) {
+                scan.addColumn(RecordCf.DATA.bytes, Bytes.add(new byte[]{RecordColumn.DATA_PREFIX}, field.getBytes()));
+            }
+        }
+
+        if (needsAllVersions(indexerConf, typeManager)) {
+            scan.setMaxVersions();
+        }
+    }
+
+    /**
+     * Other versions than the last one are only needed if there are vtags which can point to them.
+     */
+    static boolean needsAllVersions(IndexerConf indexerConf, TypeManager typeManager)
+            throws RepositoryException, InterruptedException {
+        SchemaId lastVTag = typeManager.getFieldTypeByName(VersionTag.LAST).getId();
+        for (SchemaId vtag : indexerConf.getVtags()) {
+            if (!vtag.equals(lastVTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the record from the scanned row. Other versions than the latest one are also decoded from
+     * the row if the scan fetched all versions, otherwise they are read from the repository.
+     */
+    static VTaggedRecord decodeRecord(final RecordId recordId, final Result result, final RecordDecoder recordDecoder,
+            final boolean allVersionsScanned, final Repository repository)
+            throws RepositoryException, InterruptedException {
+        final FieldTypes fieldTypes = repository.getTypeManager().getFieldTypesSnapshot();
+        IdRecord record = recordDecoder.decodeRecordWithIds(recordId, null, result, fieldTypes);
+
+        VTaggedRecord.VersionLoader versionLoader = new VTaggedRecord.VersionLoader() {
+            @Override
+            public IdRecord loadVersion(long version) throws RepositoryException, InterruptedException {
+                if (allVersionsScanned) {
+                    return recordDecoder.decodeRecordWithIds(recordId, version, result, fieldTypes);
+                } else {
+                    return repository.readWithIds(recordId, version, null);
+                }
+            }
+        };
+
+        return new VTaggedRecord(record, versionLoader, repository);
+    }
+
     private int getIntProp(String name, Integer defaultValue, Configuration conf) {
         String value = conf.get(name);
         if (value == null) {
@@ -173,6 +260,8 @@ public class IndexingMapper extends TableMapper<ImmutableBytesWritable, Result>
         Closer.close(connectionManager);
         Closer.close(repository);
         super.cleanup(context);
+        Closer.close(indexLocker);
+        Closer.close(lockerMetrics);
         Closer.close(zk);
     }
 
@@ -180,15 +269,17 @@ public class IndexingMapper extends TableMapper<ImmutableBytesWritable, Result>
     public void map(ImmutableBytesWritable key, Result value, Context context)
             throws IOException, InterruptedException {
 
-        executor.submit(new MappingTask(context.getCurrentKey().get(), context));
+        executor.submit(new MappingTask(context.getCurrentKey().get(), indexFromScan ? value : null, context));
     }
 
     public class MappingTask implements Runnable {
         private byte[] key;
+        private Result result;
         private Context context;
 
-        private MappingTask(byte[] key, Context context) {
+        private MappingTask(byte[] key, Result result, Context context) {
             this.key = key;
+            this.result = result;
             this.context = context;
         }
 
@@ -200,7 +291,11 @@ public class IndexingMapper extends TableMapper<ImmutableBytesWritable, Result>
                 recordId = idGenerator.fromBytes(key);
                 indexLocker.lock(recordId);
                 locked = true;
-                indexer.index(recordId);
+                if (result != null) {
+                    indexer.index(decodeRecord(recordId, result, recordDecoder, allVersionsScanned, repository));
+                } else {
+                    indexer.index(recordId);
+                }
             } catch (Throwable t) {
                 context.getCounter(IndexBatchBuildCounters.NUM_FAILED_RECORDS).increment(1);
 
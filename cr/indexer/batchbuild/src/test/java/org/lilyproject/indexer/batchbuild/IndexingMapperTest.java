@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.batchbuild;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.NavigableSet;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.indexer.model.indexerconf.IndexerConf;
+import org.lilyproject.indexer.model.indexerconf.IndexerConfBuilder;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.RecordDecoder;
+import org.lilyproject.repotestfw.RepositorySetup;
+import org.lilyproject.util.hbase.LilyHBaseSchema;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.VTaggedRecord;
+import org.lilyproject.util.repo.VersionTag;
+
+public class IndexingMapperTest {
+    private final static RepositorySetup repoSetup = new RepositorySetup();
+    private static final String NS = "org.lilyproject.indexer.batchbuild.test";
+
+    private static Repository repository;
+    private static TypeManager typeManager;
+    private static FieldType field1;
+    private static FieldType liveTag;
+    private static RecordType recordType;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        TestHelper.setupLogging();
+        repoSetup.setupCore();
+        repoSetup.setupRepository(true);
+
+        repository = repoSetup.getRepository();
+        typeManager = repoSetup.getTypeManager();
+
+        field1 = typeManager.createFieldType(typeManager.newFieldType(typeManager.getValueType("STRING"),
+                new QName(NS, "field1"), Scope.VERSIONED));
+        liveTag = typeManager.createFieldType(typeManager.newFieldType(typeManager.getValueType("LONG"),
+                VersionTag.qname("live"), Scope.NON_VERSIONED));
+
+        recordType = typeManager.newRecordType(new QName(NS, "MapperRecordType"));
+        recordType.addFieldTypeEntry(field1.getId(), false);
+        recordType.addFieldTypeEntry(liveTag.getId(), false);
+        recordType = typeManager.createRecordType(recordType);
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        Closer.close(repoSetup);
+    }
+
+    @Test
+    public void testConfigureScanWithoutVersionedVTags() throws Exception {
+        IndexerConf indexerConf = loadConf("indexerconf_last.xml");
+        assertFalse(IndexingMapper.needsAllVersions(indexerConf, typeManager));
+
+        Scan scan = new Scan();
+        IndexingMapper.configureScan(scan, indexerConf, typeManager);
+
+        // Only the system columns and the columns of the indexed fields, of the last version
+        assertEquals(1, scan.getMaxVersions());
+        assertEquals(1, scan.getFamilyMap().size());
+        NavigableSet<byte[]> columns = scan.getFamilyMap().get(RecordCf.DATA.bytes);
+        assertNotNull(columns);
+        assertTrue(columns.contains(RecordColumn.VERSION.bytes));
+        assertTrue(columns.contains(Bytes.add(new byte[]{RecordColumn.DATA_PREFIX}, field1.getId().getBytes())));
+    }
+
+    @Test
+    public void testConfigureScanWithVersionedVTags() throws Exception {
+        IndexerConf indexerConf = loadConf("indexerconf_versioned.xml");
+        assertTrue(IndexingMapper.needsAllVersions(indexerConf, typeManager));
+
+        Scan scan = new Scan();
+        IndexingMapper.configureScan(scan, indexerConf, typeManager);
+
+        // The dynamic fields can match any field, so the whole family is scanned, in all versions
+        assertEquals(Integer.MAX_VALUE, scan.getMaxVersions());
+        assertEquals(1, scan.getFamilyMap().size());
+        assertTrue(scan.getFamilyMap().containsKey(RecordCf.DATA.bytes));
+        assertNull(scan.getFamilyMap().get(RecordCf.DATA.bytes));
+    }
+
+    @Test
+    public void testDecodeRecord() throws Exception {
+        Record record = repository.newRecord();
+        record.setRecordType(recordType.getName());
+        record.setField(field1.getName(), "value1");
+        record = repository.create(record);
+        record.setField(field1.getName(), "value2");
+        record.setField(liveTag.getName(), new Long(1));
+        record = repository.update(record);
+        assertEquals(new Long(2), record.getVersion());
+
+        byte[] row = record.getId().toBytes();
+        Scan scan = new Scan(row, Bytes.add(row, new byte[]{0}));
+        IndexingMapper.configureScan(scan, loadConf("indexerconf_versioned.xml"), typeManager);
+
+        HTableInterface recordTable = LilyHBaseSchema.getRecordTable(repoSetup.getHbaseTableFactory());
+        ResultScanner scanner = recordTable.getScanner(scan);
+        Result result;
+        try {
+            result = scanner.next();
+        } finally {
+            Closer.close(scanner);
+        }
+        assertNotNull(result);
+
+        RecordDecoder recordDecoder = new RecordDecoder(typeManager, repository.getIdGenerator());
+        FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+        assertIdRecordEquals(repository.readWithIds(record.getId(), null, null),
+                recordDecoder.decodeRecordWithIds(record.getId(), null, result, fieldTypes));
+        assertIdRecordEquals(repository.readWithIds(record.getId(), 1L, null),
+                recordDecoder.decodeRecordWithIds(record.getId(), 1L, result, fieldTypes));
+
+        // The version pointed to by the live vtag is decoded from the scanned row as well
+        VTaggedRecord vtRecord = IndexingMapper.decodeRecord(record.getId(), result, recordDecoder, true,
+                repository);
+        assertIdRecordEquals(repository.readWithIds(record.getId(), null, null), vtRecord.getRecord());
+        assertEquals(new Long(1), vtRecord.getVTags().get(liveTag.getId()));
+        assertIdRecordEquals(repository.readWithIds(record.getId(), 1L, null), vtRecord.getIdRecord(1L));
+        assertEquals("value1", vtRecord.getIdRecord(liveTag.getId()).getField(field1.getName()));
+    }
+
+    private static IndexerConf loadConf(String name) throws Exception {
+        return IndexerConfBuilder.build(IndexingMapperTest.class.getResourceAsStream(name), repository);
+    }
+
+    private static void assertIdRecordEquals(IdRecord expected, IdRecord actual) {
+        assertEquals(expected.getRecord(), actual.getRecord());
+        assertEquals(expected.getFieldsById(), actual.getFieldsById());
+        assertEquals(expected.getFieldIdToNameMapping(), actual.getFieldIdToNameMapping());
+        for (Scope scope : Scope.values()) {
+            assertEquals(expected.getRecordTypeId(scope), actual.getRecordTypeId(scope));
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.SolrParams;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A SolrClient which collects the adds and deletes by id of concurrent callers, and sends them to Solr
+ * in batches.
+ *
+ * <p>Adds and deletes by id are buffered and return immediately, with a null response. Callers which need to
+ * know their updates have been sent to Solr, such as the IndexUpdater before acknowledging a message, call
+ * {@link #waitForPendingUpdates()}, which blocks until the batches containing the updates of the calling
+ * thread have been flushed, and throws the exception of the flush if it failed.
+ *
+ * <p>A batch is flushed when it reaches the maximum batch size, when all threads which contributed to it are
+ * waiting for it, or at the latest when its oldest update is older than the maximum delay. Within a batch,
+ * only the last update for each document key is sent. The other operations (delete by query, commit, query)
+ * first flush the pending updates, so that they are ordered after them.
+ */
+public class BufferedSolrClient implements SolrClient {
+    private final SolrClient delegate;
+    private final String keyField;
+    private final int maxBatchSize;
+    private final long maxDelay;
+    private final SolrClientMetrics metrics;
+
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private Batch currentBatch = new Batch();
+    private volatile boolean stopped = false;
+    private final Thread flusher;
+
+    private final ThreadLocal<Set<Batch>> pendingBatches = new ThreadLocal<Set<Batch>>() {
+        @Override
+        protected Set<Batch> initialValue() {
+            return new HashSet<Batch>();
+        }
+    };
+
+    private Log log = LogFactory.getLog(getClass());
+
+    /**
+     * @param keyField name of the field which holds the key of the Solr documents, i.e. the value used
+     *                 to delete them by id
+     * @param maxDelay maximum time, in milliseconds, an update is buffered
+     */
+    public BufferedSolrClient(SolrClient delegate, String keyField, int maxBatchSize, long maxDelay,
+            SolrClientMetrics metrics) {
+        this.delegate = delegate;
+        this.keyField = keyField;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+        this.metrics = metrics;
+
+        flusher = new Thread(new Flusher(), "Solr batch flusher " + delegate.getDescription());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public void shutdown() throws InterruptedException {
+        stopped = true;
+        flusher.interrupt();
+        flusher.join();
+    }
+
+    @Override
+    public String getDescription() {
+        return delegate.getDescription();
+    }
+
+    @Override
+    public UpdateResponse add(SolrInputDocument doc) throws SolrClientException, InterruptedException {
+        Object key = doc.getFieldValue(keyField);
+        if (key == null) {
+            flushPendingUpdates();
+            return delegate.add(doc);
+        }
+        buffer(key.toString(), doc);
+        return null;
+    }
+
+    @Override
+    public UpdateResponse add(Collection<SolrInputDocument> docs) throws SolrClientException, InterruptedException {
+        for (SolrInputDocument doc : docs) {
+            add(doc);
+        }
+        return null;
+    }
+
+    @Override
+    public UpdateResponse deleteById(String id) throws SolrClientException, InterruptedException {
+        buffer(id, null);
+        return null;
+    }
+
+    @Override
+    public UpdateResponse deleteById(List<String> ids) throws SolrClientException, InterruptedException {
+        for (String id : ids) {
+            buffer(id, null);
+        }
+        return null;
+    }
+
+    @Override
+    public UpdateResponse deleteByQuery(String query) throws SolrClientException, InterruptedException {
+        flushPendingUpdates();
+        return delegate.deleteByQuery(query);
+    }
+
+    @Override
+    public UpdateResponse commit(boolean waitFlush, boolean waitSearcher) throws SolrClientException,
+            InterruptedException {
+        flushPendingUpdates();
+        return delegate.commit(waitFlush, waitSearcher);
+    }
+
+    @Override
+    public UpdateResponse commit() throws SolrClientException, InterruptedException {
+        flushPendingUpdates();
+        return delegate.commit();
+    }
+
+    @Override
+    public QueryResponse query(SolrParams params) throws SolrClientException, InterruptedException {
+        flushPendingUpdates();
+        return delegate.query(params);
+    }
+
+    /**
+     * Waits until the updates done by the calling thread have been sent to Solr.
+     */
+    public void waitForPendingUpdates() throws SolrClientException, InterruptedException {
+        Set<Batch> batches = pendingBatches.get();
+        if (batches.isEmpty()) {
+            return;
+        }
+
+        try {
+            synchronized (lock) {
+                if (batches.contains(currentBatch)) {
+                    currentBatch.waiting++;
+                    if (currentBatch.waiting >= currentBatch.contributors.size()) {
+                        // Nothing more will be added by the contributors, no use in waiting any longer
+                        lock.notifyAll();
+                    }
+                }
+            }
+
+            SolrClientException error = null;
+            for (Batch batch : batches) {
+                batch.flushed.await();
+                if (batch.error != null) {
+                    error = batch.error;
+                }
+            }
+
+            if (error != null) {
+                throw error;
+            }
+        } finally {
+            batches.clear();
+        }
+    }
+
+    private void buffer(String key, SolrInputDocument doc) {
+        synchronized (lock) {
+            Batch batch = currentBatch;
+            if (batch.updates.isEmpty()) {
+                batch.createdAt = System.currentTimeMillis();
+            }
+            batch.updates.put(key, doc);
+            batch.contributors.add(Thread.currentThread());
+            pendingBatches.get().add(batch);
+
+            if (batch.updates.size() == 1 || batch.updates.size() >= maxBatchSize) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Sends the buffered updates of all threads to Solr, in the calling thread.
+     */
+    private void flushPendingUpdates() throws SolrClientException {
+        Batch batch;
+        synchronized (flushLock) {
+            synchronized (lock) {
+                batch = currentBatch;
+                currentBatch = new Batch();
+            }
+            flush(batch);
+        }
+
+        if (batch.error != null) {
+            throw batch.error;
+        }
+        pendingBatches.get().remove(batch);
+    }
+
+    /**
+     * Sends the given batch to Solr. Should be called while holding the flushLock, from the moment the batch
+     * was taken, so that the batches are sent in the order in which they were filled.
+     */
+    private void flush(Batch batch) {
+        if (batch.updates.isEmpty()) {
+            batch.flushed.countDown();
+            return;
+        }
+
+        long before = System.currentTimeMillis();
+        try {
+            List<SolrInputDocument> adds = new ArrayList<SolrInputDocument>(batch.updates.size());
+            List<String> deletes = new ArrayList<String>();
+            for (Map.Entry<String, SolrInputDocument> update : batch.updates.entrySet()) {
+                if (update.getValue() != null) {
+                    adds.add(update.getValue());
+                } else {
+                    deletes.add(update.getKey());
+                }
+            }
+
+            // Since each key occurs only once, the order of the deletes and adds does not matter
+            if (!deletes.isEmpty()) {
+                delegate.deleteById(deletes);
+            }
+            if (!adds.isEmpty()) {
+                delegate.add(adds);
+            }
+        } catch (SolrClientException e) {
+            batch.error = e;
+        } catch (InterruptedException e) {
+            batch.error = new SolrClientException(delegate.getDescription(), e);
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            batch.error = new SolrClientException(delegate.getDescription(), t);
+        } finally {
+            batch.flushed.countDown();
+        }
+        metrics.flushes.inc(System.currentTimeMillis() - before);
+        metrics.flushedUpdates.inc(batch.updates.size());
+    }
+
+    private class Flusher implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (!stopped && !Thread.currentThread().isInterrupted()) {
+                    synchronized (lock) {
+                        while (currentBatch.updates.isEmpty()) {
+                            lock.wait();
+                        }
+
+                        long now = System.currentTimeMillis();
+                        long deadline = currentBatch.createdAt + maxDelay;
+                        while (currentBatch.updates.size() < maxBatchSize
+                                && currentBatch.waiting < currentBatch.contributors.size() && now < deadline) {
+                            lock.wait(deadline - now);
+                            now = System.currentTimeMillis();
+                        }
+                    }
+
+                    // Only take the batch once we hold the flushLock, otherwise flushPendingUpdates could send a
+                    // newer batch, and the deleteByQuery or commit that called it, before this one
+                    synchronized (flushLock) {
+                        Batch batch;
+                        synchronized (lock) {
+                            batch = currentBatch;
+                            currentBatch = new Batch();
+                        }
+                        flush(batch);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // we are asked to stop
+            } finally {
+                // Don't leave waiting threads hanging
+                synchronized (lock) {
+                    currentBatch.error = new SolrClientException(delegate.getDescription(),
+                            new IllegalStateException("Solr client has been shut down"));
+                    currentBatch.flushed.countDown();
+                }
+            }
+            log.debug("Solr batch flusher stopped for " + delegate.getDescription());
+        }
+    }
+
+    private static class Batch {
+        /** Key = document key, value = document to add, or null for a delete. */
+        final Map<String, SolrInputDocument> updates = new HashMap<String, SolrInputDocument>();
+        final Set<Thread> contributors = new HashSet<Thread>();
+        int waiting;
+        long createdAt;
+        final CountDownLatch flushed = new CountDownLatch(1);
+        volatile SolrClientException error;
+    }
+}
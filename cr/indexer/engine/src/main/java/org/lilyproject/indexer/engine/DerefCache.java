@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import org.lilyproject.repository.api.*;
+import org.lilyproject.util.repo.VTaggedRecord;
+
+import java.util.*;
+
+/**
+ * Caches the records to which deref expressions resolve, for the duration of one indexing pass.
+ *
+ * <p>The same linked record is typically needed by several index fields, and again for each vtag under which
+ * a record is indexed. This cache makes sure each linked record is only read once per pass. Records are read
+ * restricted to the fields needed by the deref expressions, and the targets of multi-value links can be
+ * read together using {@link #prefetch}.
+ *
+ * <p>A DerefCache is not thread safe and should not be kept around beyond the indexing of one record:
+ * it does not see changes made to the linked records.
+ */
+public class DerefCache {
+    private final Repository repository;
+    private final List<SchemaId> fields;
+    private final IndexerMetrics metrics;
+
+    /** Latest version of the linked records, the value is null for records which do not exist. */
+    private final Map<RecordId, VTaggedRecord> records = new HashMap<RecordId, VTaggedRecord>();
+
+    private final Map<RecordVTag, IdRecord> resolved = new HashMap<RecordVTag, IdRecord>();
+
+    /**
+     * @param fields the fields to read from the linked records, null to read all fields
+     * @param metrics optional, can be null
+     */
+    public DerefCache(Repository repository, List<SchemaId> fields, IndexerMetrics metrics) {
+        this.repository = repository;
+        this.fields = fields;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the record for the given vtag, or null if the record, the vtag or the version it points to
+     * does not exist.
+     */
+    public IdRecord getIdRecord(RecordId recordId, SchemaId vtag) throws RepositoryException, InterruptedException {
+        RecordVTag key = new RecordVTag(recordId, vtag);
+        if (resolved.containsKey(key)) {
+            if (metrics != null)
+                metrics.derefCacheHits.inc();
+            return resolved.get(key);
+        }
+
+        if (metrics != null)
+            metrics.derefCacheMisses.inc();
+
+        if (!records.containsKey(recordId)) {
+            prefetch(Collections.singletonList(recordId));
+        }
+
+        IdRecord record = null;
+        VTaggedRecord vtRecord = records.get(recordId);
+        if (vtRecord != null) {
+            try {
+                record = vtRecord.getIdRecord(vtag);
+            } catch (RecordNotFoundException e) {
+                // It's ok for a link to point to a non-existing record
+            } catch (VersionNotFoundException e) {
+                // It's ok for a vtag to point to a non-existing version
+            }
+        }
+
+        resolved.put(key, record);
+        return record;
+    }
+
+    /**
+     * Reads the given records, insofar they are not cached yet, using one call on the repository.
+     */
+    public void prefetch(Collection<RecordId> recordIds) throws RepositoryException, InterruptedException {
+        List<RecordId> toRead = new ArrayList<RecordId>(recordIds.size());
+        for (RecordId recordId : recordIds) {
+            if (!records.containsKey(recordId) && !toRead.contains(recordId)) {
+                toRead.add(recordId);
+            }
+        }
+
+        if (toRead.isEmpty())
+            return;
+
+        for (IdRecord record : repository.readWithIds(toRead, fields)) {
+            records.put(record.getId(), new VTaggedRecord(record, new CachingVersionLoader(record.getId()),
+                    repository));
+        }
+
+        // Remember the records which do not exist
+        for (RecordId recordId : toRead) {
+            if (!records.containsKey(recordId)) {
+                records.put(recordId, null);
+            }
+        }
+    }
+
+    /**
+     * Loads older versions of a linked record, restricted to the same fields. Different vtags can point
+     * to the same version, hence the versions are cached too.
+     */
+    private class CachingVersionLoader implements VTaggedRecord.VersionLoader {
+        private final RecordId recordId;
+        private final Map<Long, IdRecord> versions = new HashMap<Long, IdRecord>();
+
+        public CachingVersionLoader(RecordId recordId) {
+            this.recordId = recordId;
+        }
+
+        @Override
+        public IdRecord loadVersion(long version) throws RepositoryException, InterruptedException {
+            IdRecord record = versions.get(version);
+            if (record == null) {
+                record = repository.readWithIds(recordId, version, fields);
+                versions.put(version, record);
+            }
+            return record;
+        }
+    }
+
+    private static final class RecordVTag {
+        private final RecordId recordId;
+        private final SchemaId vtag;
+
+        public RecordVTag(RecordId recordId, SchemaId vtag) {
+            this.recordId = recordId;
+            this.vtag = vtag;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof RecordVTag))
+                return false;
+            RecordVTag other = (RecordVTag)obj;
+            return recordId.equals(other.recordId) && vtag.equals(other.vtag);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * recordId.hashCode() + vtag.hashCode();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import org.apache.hadoop.metrics.MetricsContext;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.MetricsUtil;
+import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+import org.lilyproject.util.hbase.metrics.MBeanUtil;
+import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+
+import javax.management.ObjectName;
+
+public class IndexLockerMetrics implements Updater {
+    private final String indexName;
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final MetricsRecord metricsRecord;
+    private final MetricsContext context;
+    private final IndexLockerMetricsMBean mbean;
+
+    /** Time waited for the in-process striped lock. */
+    public MetricsTimeVaryingRate stripedLockWait = new MetricsTimeVaryingRate("striped_lock_wait", registry);
+
+    /** Time waited for the ZooKeeper record lock. */
+    public MetricsTimeVaryingRate zkLockWait = new MetricsTimeVaryingRate("zk_lock_wait", registry);
+
+    /**
+     * Number of locks which were taken while processes of another role hold a lease on the index, thus which
+     * needed a ZooKeeper record lock.
+     */
+    public MetricsTimeVaryingLong sharedLeaseLocks = new MetricsTimeVaryingLong("shared_lease_locks", registry);
+
+    public IndexLockerMetrics(String indexName) {
+        this.indexName = indexName;
+        context = MetricsUtil.getContext("indexLocker");
+        metricsRecord = MetricsUtil.createRecord(context, indexName);
+        context.registerUpdater(this);
+        mbean = new IndexLockerMetricsMBean(this.registry);
+    }
+
+    public void shutdown() {
+        mbean.shutdown();
+        context.unregisterUpdater(this);
+    }
+
+    @Override
+    public void doUpdates(MetricsContext metricsContext) {
+        synchronized (this) {
+          for (MetricsBase m : registry.getMetricsList()) {
+            m.pushMetric(metricsRecord);
+          }
+        }
+        metricsRecord.update();
+    }
+
+    public class IndexLockerMetricsMBean extends MetricsDynamicMBeanBase {
+        private final ObjectName mbeanName;
+
+        public IndexLockerMetricsMBean(MetricsRegistry registry) {
+            super(registry, "Lily Index Locker");
+
+            mbeanName = MBeanUtil.registerMBean("Index Locker", indexName, this);
+        }
+
+        public void shutdown() {
+            if (mbeanName != null)
+                MBeanUtil.unregisterMBean(mbeanName);
+        }
+    }
+}
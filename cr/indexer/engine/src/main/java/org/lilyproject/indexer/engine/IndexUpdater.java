@@ -24,12 +24,13 @@ import org.lilyproject.indexer.model.sharding.ShardSelectorException;
 import org.lilyproject.linkindex.LinkIndex;
 import org.lilyproject.linkindex.LinkIndexException;
 import org.lilyproject.repository.api.*;
+import org.lilyproject.repository.impl.RecordSnapshots;
 import org.lilyproject.rowlog.api.RowLog;
+import org.lilyproject.rowlog.api.RowLogBatchMessageListener;
 import org.lilyproject.rowlog.api.RowLogException;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.VTaggedRecord;
 import org.lilyproject.rowlog.api.RowLogMessage;
-import org.lilyproject.rowlog.api.RowLogMessageListener;
 import org.lilyproject.util.ObjectUtils;
 
 import static org.lilyproject.util.repo.RecordEvent.Type.*;
@@ -72,7 +73,7 @@ import java.util.*;
 /**
  * Updates the index in response to repository events.
  */
-public class IndexUpdater implements RowLogMessageListener {
+public class IndexUpdater implements RowLogBatchMessageListener {
     private Repository repository;
     private LinkIndex linkIndex;
     private Indexer indexer;
@@ -84,6 +85,11 @@ public class IndexUpdater implements RowLogMessageListener {
     private Log log = LogFactory.getLog(getClass());
     private IdGenerator idGenerator;
 
+    /**
+     * Maximum number of reindex messages for denormalized data which are put on the queue in one go.
+     */
+    private static final int MESSAGE_BATCH_SIZE = 500;
+
     /**
      *
      * @param rowLog this should be the message queue
@@ -113,6 +119,7 @@ public class IndexUpdater implements RowLogMessageListener {
 
         RecordEvent event = null;
         RecordId recordId = null;
+        boolean processed = true;
 
         ClassLoader currentCL = Thread.currentThread().getContextClassLoader();
         try {
@@ -124,79 +131,239 @@ public class IndexUpdater implements RowLogMessageListener {
                 log.debug("Received message: " + event.toJson());
             }
 
-            if (event.getType().equals(INDEX)) {
-                boolean forUs = indexer.getIndexName().equals(event.getIndexName());
+            processEvent(recordId, event);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (IndexFlushException e) {
+            // The message should only be acknowledged once the index updates have been sent to Solr
+            log.error("Failure sending index updates to Solr. Record '" + recordId + "', event type " +
+                    event.getType() + ". The message will be offered again later.", e);
+            metrics.errors.inc();
+            processed = false;
+        } catch (Exception e) {
+            if (recordId != null) {
+                String eventType = event != null && event.getType() != null ? event.getType().toString() : "(unknown)";
+                log.error("Failure in IndexUpdater. Record '" + recordId + "', event type " + eventType, e);
+                metrics.errors.inc();
+            } else {
+                log.error("Failure in IndexUpdater. Failed before/while reading payload.", e);
+                metrics.errors.inc();
+            }
+        } finally {
+            long after = System.currentTimeMillis();
+            metrics.updates.inc(after - before);
+            Thread.currentThread().setContextClassLoader(currentCL);
+        }
+        return processed;
+    }
 
-                if (forUs) {
-                    if (log.isDebugEnabled()) {
-                        log.debug(String.format("Record %1$s: reindex requested for these vtags: %2$s", recordId,
-                                indexer.vtagSetToNameString(event.getVtagsToIndex())));
-                    }
+    /**
+     * Processes the outstanding messages of one record in one go: index requests are combined into one
+     * reindex, events before the last delete event are skipped (the delete triggers the update of all
+     * denormalized data anyway), and the remaining create and update events are merged so that the
+     * record is read and indexed only once.
+     */
+    @Override
+    public boolean processMessages(List<RowLogMessage> msgs) throws InterruptedException {
+        long before = System.currentTimeMillis();
+
+        List<RecordEvent> events = new ArrayList<RecordEvent>(msgs.size());
+        RecordId recordId = null;
+
+        ClassLoader currentCL = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(myContextClassLoader);
+            recordId = idGenerator.fromBytes(msgs.get(0).getRowKey());
+            for (RowLogMessage msg : msgs) {
+                events.add(new RecordEvent(msg.getPayload(), idGenerator));
+            }
+        } catch (Exception e) {
+            // Let the messages be processed one by one, which will log the failing one
+            events = null;
+        } finally {
+            Thread.currentThread().setContextClassLoader(currentCL);
+        }
 
-                    index(recordId, event.getVtagsToIndex());
+        if (events == null) {
+            for (RowLogMessage msg : msgs) {
+                if (!processMessage(msg)) {
+                    return false;
                 }
-            } else if (event.getType().equals(DELETE)) {
-                // For deleted records, we cannot determine the record type, so we do not know if there was
-                // an applicable index case, so we always perform a delete.
-                indexLocker.lock(recordId);
+            }
+            return true;
+        }
+
+        int lastDelete = -1;
+        for (int i = 0; i < events.size(); i++) {
+            if (events.get(i).getType().equals(DELETE)) {
+                lastDelete = i;
+            }
+        }
+
+        // Index events from before the last delete concern the deleted record, not the one recreated after it
+        Set<SchemaId> vtagsToIndex = new HashSet<SchemaId>();
+        for (int i = lastDelete + 1; i < events.size(); i++) {
+            RecordEvent event = events.get(i);
+            if (event.getType().equals(INDEX) && indexer.getIndexName().equals(event.getIndexName())) {
+                vtagsToIndex.addAll(event.getVtagsToIndex());
+            }
+        }
+
+        List<RowLogMessage> updateMsgs = new ArrayList<RowLogMessage>();
+        List<RecordEvent> updateEvents = new ArrayList<RecordEvent>();
+        for (int i = lastDelete + 1; i < events.size(); i++) {
+            if (!events.get(i).getType().equals(INDEX)) {
+                updateMsgs.add(msgs.get(i));
+                updateEvents.add(events.get(i));
+            }
+        }
+
+        // If sending the index updates to Solr fails, all messages are offered again later
+        if (lastDelete != -1) {
+            if (!processMessage(msgs.get(lastDelete))) {
+                return false;
+            }
+        }
+
+        if (updateEvents.size() == 1) {
+            if (!processMessage(updateMsgs.get(0))) {
+                return false;
+            }
+        } else if (updateEvents.size() > 1) {
+            RecordEvent merged = RecordEvent.merge(updateEvents);
+            if (merged == null) {
+                for (RowLogMessage msg : updateMsgs) {
+                    if (!processMessage(msg)) {
+                        return false;
+                    }
+                }
+            } else {
+                currentCL = Thread.currentThread().getContextClassLoader();
                 try {
-                    indexer.delete(recordId);
+                    Thread.currentThread().setContextClassLoader(myContextClassLoader);
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("Record %1$s: merged %2$s events into: %3$s", recordId,
+                                updateEvents.size(), merged.toJson()));
+                    }
+                    processEvent(recordId, merged);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (IndexFlushException e) {
+                    log.error("Failure sending index updates to Solr. Record '" + recordId + "', merged event " +
+                            "type " + merged.getType() + ". The messages will be offered again later.", e);
+                    metrics.errors.inc();
+                    return false;
+                } catch (Exception e) {
+                    log.error("Failure in IndexUpdater. Record '" + recordId + "', merged event type " +
+                            merged.getType(), e);
+                    metrics.errors.inc();
                 } finally {
-                    indexLocker.unlockLogFailure(recordId);
+                    Thread.currentThread().setContextClassLoader(currentCL);
                 }
+            }
+        }
 
+        if (!vtagsToIndex.isEmpty()) {
+            currentCL = Thread.currentThread().getContextClassLoader();
+            try {
+                Thread.currentThread().setContextClassLoader(myContextClassLoader);
                 if (log.isDebugEnabled()) {
-                    log.debug(String.format("Record %1$s: deleted from index (if present) because of " +
-                            "delete record event", recordId));
+                    log.debug(String.format("Record %1$s: reindex requested for these vtags: %2$s", recordId,
+                            indexer.vtagSetToNameString(vtagsToIndex)));
                 }
+                index(recordId, vtagsToIndex);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (IndexFlushException e) {
+                log.error("Failure sending index updates to Solr. Record '" + recordId + "', event type " + INDEX +
+                        ". The messages will be offered again later.", e);
+                metrics.errors.inc();
+                return false;
+            } catch (Exception e) {
+                log.error("Failure in IndexUpdater. Record '" + recordId + "', event type " + INDEX, e);
+                metrics.errors.inc();
+            } finally {
+                Thread.currentThread().setContextClassLoader(currentCL);
+            }
+        }
 
-                // After this we can go to update denormalized data
-                updateDenormalizedData(recordId, event, null, null, null);
-            } else {
-                VTaggedRecord vtRecord;
+        metrics.updates.inc(System.currentTimeMillis() - before);
+        return true;
+    }
 
-                indexLocker.lock(recordId);
-                try {
-                    try {
-                        // Read the vtags of the record. Note that while this algorithm is running, the record can
-                        // meanwhile undergo changes. However, we continuously work with the snapshot of the vtags
-                        // mappings read here. The processing of later events will bring the index up to date with
-                        // any new changes.
-                        vtRecord = new VTaggedRecord(recordId, event, null, repository);
-                    } catch (RecordNotFoundException e) {
-                        // The record has been deleted in the meantime.
-                        // For now, we do nothing, when the delete event is received the record will be removed
-                        // from the index (as well as update of denormalized data).
-                        // TODO: we should process all outstanding messages for the record (up to delete) in one go
-                        return true;
-                    }
+    private void processEvent(RecordId recordId, RecordEvent event) throws Exception {
+        if (event.getType().equals(INDEX)) {
+            boolean forUs = indexer.getIndexName().equals(event.getIndexName());
 
-                    handleRecordCreateUpdate(vtRecord);
-                } finally {
-                    indexLocker.unlockLogFailure(recordId);
+            if (forUs) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Record %1$s: reindex requested for these vtags: %2$s", recordId,
+                            indexer.vtagSetToNameString(event.getVtagsToIndex())));
                 }
 
-                updateDenormalizedData(recordId, event, vtRecord.getUpdatedFieldsByScope(), vtRecord.getVTagsByVersion(),
-                        vtRecord.getModifiedVTags());
+                index(recordId, event.getVtagsToIndex());
+            }
+        } else if (event.getType().equals(DELETE)) {
+            // For deleted records, we cannot determine the record type, so we do not know if there was
+            // an applicable index case, so we always perform a delete.
+            indexLocker.lock(recordId);
+            boolean succeeded = false;
+            try {
+                indexer.delete(recordId);
+                succeeded = true;
+            } finally {
+                flushAndUnlock(recordId, succeeded);
             }
 
-        } catch (InterruptedException e) {
-            throw e;
-        } catch (Exception e) {
-            if (recordId != null) {
-                String eventType = event != null && event.getType() != null ? event.getType().toString() : "(unknown)";
-                log.error("Failure in IndexUpdater. Record '" + recordId + "', event type " + eventType, e);
-                metrics.errors.inc();
-            } else {
-                log.error("Failure in IndexUpdater. Failed before/while reading payload.", e);
-                metrics.errors.inc();
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Record %1$s: deleted from index (if present) because of " +
+                        "delete record event", recordId));
             }
-        } finally {
-            long after = System.currentTimeMillis();
-            metrics.updates.inc(after - before);
-            Thread.currentThread().setContextClassLoader(currentCL);
+
+            // After this we can go to update denormalized data
+            updateDenormalizedData(recordId, event, null, null, null);
+        } else {
+            VTaggedRecord vtRecord;
+
+            indexLocker.lock(recordId);
+            boolean succeeded = false;
+            try {
+                try {
+                    // Read the vtags of the record. Note that while this algorithm is running, the record can
+                    // meanwhile undergo changes. However, we continuously work with the snapshot of the vtags
+                    // mappings read here. The processing of later events will bring the index up to date with
+                    // any new changes.
+                    // The record snapshot of the event can only be used if the message queue respects the
+                    // order: otherwise a retried older event would bring back the old state in the index.
+                    IdRecord snapshot = null;
+                    if (rowLog.getConfig().isRespectOrder()) {
+                        snapshot = RecordSnapshots.read(event, repository);
+                        if (snapshot != null) {
+                            metrics.recordSnapshotsUsed.inc();
+                        } else {
+                            metrics.recordSnapshotsMissing.inc();
+                        }
+                    }
+                    vtRecord = new VTaggedRecord(recordId, snapshot, event, null, repository);
+                } catch (RecordNotFoundException e) {
+                    // The record has been deleted in the meantime.
+                    // For now, we do nothing, when the delete event is received the record will be removed
+                    // from the index (as well as update of denormalized data).
+                    // When the rowlog coalesces the messages of a row, the outstanding messages for the record
+                    // are processed in one go, see processMessages.
+                    succeeded = true;
+                    return;
+                }
+
+                handleRecordCreateUpdate(vtRecord);
+                succeeded = true;
+            } finally {
+                flushAndUnlock(recordId, succeeded);
+            }
+
+            updateDenormalizedData(recordId, event, vtRecord.getUpdatedFieldsByScope(), vtRecord.getVTagsByVersion(),
+                    vtRecord.getModifiedVTags());
         }
-        return true;
     }
 
     private void handleRecordCreateUpdate(VTaggedRecord vtRecord) throws Exception {
@@ -450,10 +617,8 @@ public class IndexUpdater implements RowLogMessageListener {
 
                     if (follow instanceof DerefValue.LinkFieldFollow) {
                         SchemaId fieldId = ((DerefValue.LinkFieldFollow)follow).getOwnerFieldType().getId();
-                        for (RecordId referrer : referrers) {
-                            Set<RecordId> linkReferrers = linkIndex.getReferrers(referrer, referrerVtag, fieldId);
-                            newReferrers.addAll(linkReferrers);
-                        }
+                        // The link index is queried for all referrers concurrently
+                        newReferrers.addAll(linkIndex.getReferrers(referrers, referrerVtag, fieldId));
                     } else if (follow instanceof DerefValue.VariantFollow) {
                         DerefValue.VariantFollow varFollow = (DerefValue.VariantFollow)follow;
                         Set<String> dimensions = varFollow.getDimensions();
@@ -531,8 +696,11 @@ public class IndexUpdater implements RowLogMessageListener {
 
         //
         // Now add an index message to each of the found referrers, their actual indexing
-        // will be triggered by the message queue.
+        // will be triggered by the message queue. The messages are put on the queue in batches.
         //
+        List<byte[]> rowKeys = new ArrayList<byte[]>(Math.min(referrersAndVTags.size(), MESSAGE_BATCH_SIZE));
+        List<byte[]> payloads = new ArrayList<byte[]>(Math.min(referrersAndVTags.size(), MESSAGE_BATCH_SIZE));
+
         for (Map.Entry<RecordId, Set<SchemaId>> entry : referrersAndVTags.entrySet()) {
             RecordId referrer = entry.getKey();
             Set<SchemaId> vtagsToIndex = entry.getValue();
@@ -548,24 +716,51 @@ public class IndexUpdater implements RowLogMessageListener {
                 payload.addVTagToIndex(vtag);
             }
 
-            // TODO how will this behave if the row was meanwhile deleted?
-            try {
-               rowLog.putMessage(referrer.toBytes(), null, payload.toJsonBytes(), null);
-            } catch (Exception e) {
-                // We failed to put the message: this is pretty important since it means the record's index
-                // won't get updated, therefore log as error, but after this we continue with the next one.
-                log.error("Error putting index message on queue of record " + referrer, e);
-                metrics.errors.inc();
+            rowKeys.add(referrer.toBytes());
+            payloads.add(payload.toJsonBytes());
+
+            if (rowKeys.size() >= MESSAGE_BATCH_SIZE) {
+                putIndexMessages(rowKeys, payloads);
+            }
+        }
+
+        putIndexMessages(rowKeys, payloads);
+    }
+
+    /**
+     * Puts the index messages on the queue, and clears the supplied lists.
+     */
+    private void putIndexMessages(List<byte[]> rowKeys, List<byte[]> payloads) throws InterruptedException {
+        if (rowKeys.isEmpty())
+            return;
+
+        // TODO how will this behave if the row was meanwhile deleted?
+        try {
+            rowLog.putMessagesForRows(rowKeys, payloads);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // We failed to put the messages: this is pretty important since it means the records' index
+            // won't get updated, therefore log as error, but after this we continue with the next batch.
+            List<RecordId> referrers = new ArrayList<RecordId>(rowKeys.size());
+            for (byte[] rowKey : rowKeys) {
+                referrers.add(idGenerator.fromBytes(rowKey));
             }
+            log.error("Error putting index messages on queue of records " + referrers, e);
+            metrics.errors.inc();
         }
+
+        rowKeys.clear();
+        payloads.clear();
     }
 
     /**
      * Index a record for all the specified vtags.
      */
     private void index(RecordId recordId, Set<SchemaId> vtagsToIndex) throws RepositoryException, InterruptedException,
-            SolrClientException, ShardSelectorException, IndexLockException {
+            SolrClientException, ShardSelectorException, IndexLockException, IndexFlushException {
         boolean lockObtained = false;
+        boolean succeeded = false;
         try {
             indexLocker.lock(recordId);
             lockObtained = true;
@@ -575,6 +770,7 @@ public class IndexUpdater implements RowLogMessageListener {
                 vtRecord = new VTaggedRecord(recordId, repository);
             } catch (RecordNotFoundException e) {
                 // can't index what doesn't exist
+                succeeded = true;
                 return;
             }
 
@@ -584,6 +780,7 @@ public class IndexUpdater implements RowLogMessageListener {
                     record.getId().getVariantProperties());
 
             if (indexCase == null) {
+                succeeded = true;
                 return;
             }
 
@@ -593,13 +790,36 @@ public class IndexUpdater implements RowLogMessageListener {
             vtagsToIndex.retainAll(vtRecord.getVTags().keySet());
 
             indexer.index(vtRecord, vtagsToIndex);
+            succeeded = true;
         } finally {
             if (lockObtained) {
-                indexLocker.unlockLogFailure(recordId);
+                flushAndUnlock(recordId, succeeded);
             }
         }
     }
 
+    /**
+     * Releases the index lock of the record, after waiting until the index updates done while holding it have
+     * been sent to Solr. Waiting while still holding the lock avoids that the buffered updates would overwrite
+     * updates of the same record done meanwhile by another holder of the lock, such as the batch index build.
+     *
+     * @param succeeded false if this is called while an exception is propagating, a flush failure is then only
+     *                  logged so that it does not hide that exception
+     */
+    private void flushAndUnlock(RecordId recordId, boolean succeeded) throws IndexFlushException,
+            InterruptedException {
+        try {
+            indexer.waitForPendingUpdates();
+        } catch (SolrClientException e) {
+            if (succeeded) {
+                throw new IndexFlushException(e);
+            }
+            log.error("Error flushing the index updates of record " + recordId + " after a failure", e);
+        } finally {
+            indexLocker.unlockLogFailure(recordId);
+        }
+    }
+
     private void collectDerefIndexFields(Set<FieldType> fieldTypes, List<IndexField> indexFields) {
         for (FieldType fieldType : fieldTypes) {
             indexFields.addAll(indexer.getConf().getDerefIndexFields(fieldType.getId()));
@@ -614,4 +834,14 @@ public class IndexUpdater implements RowLogMessageListener {
         }
         return false;
     }
+
+    /**
+     * Thrown when the index updates could not be sent to Solr, in which case the message should not be
+     * acknowledged.
+     */
+    private static class IndexFlushException extends Exception {
+        public IndexFlushException(SolrClientException cause) {
+            super(cause);
+        }
+    }
 }
@@ -43,6 +43,13 @@ public class IndexUpdaterMetrics implements Updater {
      * */
     public MetricsTimeVaryingLong errors = new MetricsTimeVaryingLong("errors", registry);
 
+    /** Number of events for which the record snapshot included in the event could be used. */
+    public MetricsTimeVaryingLong recordSnapshotsUsed = new MetricsTimeVaryingLong("record_snapshots_used", registry);
+
+    /** Number of events for which the record had to be read, because the event contained no record snapshot. */
+    public MetricsTimeVaryingLong recordSnapshotsMissing =
+            new MetricsTimeVaryingLong("record_snapshots_missing", registry);
+
     public IndexUpdaterMetrics(String indexName) {
         this.indexName = indexName;
         context = MetricsUtil.getContext("indexUpdater");
@@ -76,7 +76,15 @@ public class Indexer {
     public void index(RecordId recordId) throws RepositoryException, SolrClientException,
             ShardSelectorException, InterruptedException {
 
-        VTaggedRecord vtRecord = new VTaggedRecord(recordId, repository);
+        index(new VTaggedRecord(recordId, repository));
+    }
+
+    /**
+     * Same as {@link #index(RecordId)}, but for a record that has already been read.
+     */
+    public void index(VTaggedRecord vtRecord) throws RepositoryException, SolrClientException,
+            ShardSelectorException, InterruptedException {
+
         IdRecord record = vtRecord.getRecord();
 
         IndexCase indexCase = conf.getIndexCase(record.getRecordTypeName(), record.getId().getVariantProperties());
@@ -106,6 +114,13 @@ public class Indexer {
         // One version might have multiple vtags, so to index we iterate the version numbers
         // rather than the vtags
         Map<Long, Set<SchemaId>> vtagsToIndexByVersion = getVtagsByVersion(vtagsToIndex, vtRecord.getVTags());
+
+        // Read all versions to index in one go rather than one by one
+        vtRecord.prefetchVersions(vtagsToIndexByVersion.keySet());
+
+        // Different versions will often link to the same records, so share the cache across versions
+        DerefCache derefCache = valueEvaluator.newDerefCache(repository, metrics);
+
         for (Map.Entry<Long, Set<SchemaId>> entry : vtagsToIndexByVersion.entrySet()) {
             IdRecord version = null;
             try {
@@ -130,7 +145,7 @@ public class Indexer {
                             " entries for vtags %3$s", recordId, entry.getKey(), vtagSetToNameString(entry.getValue())));
                 }
             } else {
-                index(version, entry.getKey(), entry.getValue());
+                index(version, entry.getKey(), entry.getValue(), derefCache);
             }
         }
     }
@@ -142,9 +157,10 @@ public class Indexer {
      * @param version version of the record, for the nonversioned case this is 0 so is not necessarily the same as
      *                record.getVersion().
      * @param vtags the version tags under which to index
+     * @param derefCache cache for the records to which deref values point, valid for this indexing pass
      */
-    protected void index(IdRecord record, long version, Set<SchemaId> vtags) throws ShardSelectorException,
-            RepositoryException, InterruptedException, SolrClientException {
+    protected void index(IdRecord record, long version, Set<SchemaId> vtags, DerefCache derefCache)
+            throws ShardSelectorException, RepositoryException, InterruptedException, SolrClientException {
 
         verifyLock(record.getId());
 
@@ -155,7 +171,8 @@ public class Indexer {
         // deref-values which can change from vtag to vtag, so we could optimize this by only
         // evaluating those after the first run, but again because we want to maintain order and
         // because a deref-field could share the same name with a non-deref field, we simply
-        // re-evaluate all fields for each vtag.
+        // re-evaluate all fields for each vtag. The records to which the deref-values point are
+        // only read once though, thanks to the derefCache.
         for (SchemaId vtag : vtags) {
             SolrInputDocument solrDoc = new SolrInputDocument();
 
@@ -167,7 +184,8 @@ public class Indexer {
             // 1: evaluate the static index fields
             //
             for (IndexField indexField : conf.getIndexFields()) {
-                List<String> values = valueEvaluator.eval(indexField.getValue(), record, repository, vtag);
+                List<String> values = valueEvaluator.eval(indexField.getValue(), record, repository, vtag,
+                        derefCache);
                 if (values != null) {
                     for (String value : values) {
                         solrDoc.addField(indexField.getName(), value);
@@ -317,6 +335,14 @@ public class Indexer {
         metrics.deletesByQuery.inc();
     }
 
+    /**
+     * Waits until the index updates done by the calling thread have been sent to Solr, see
+     * {@link SolrShardManager#waitForPendingUpdates()}.
+     */
+    public void waitForPendingUpdates() throws SolrClientException, InterruptedException {
+        solrShardMgr.waitForPendingUpdates();
+    }
+
     private Map<Long, Set<SchemaId>> getVtagsByVersion(Set<SchemaId> vtagsToIndex, Map<SchemaId, Long> vtags) {
         Map<Long, Set<SchemaId>> result = new HashMap<Long, Set<SchemaId>>();
 
@@ -44,6 +44,13 @@ public class IndexerMetrics implements Updater {
 
     public MetricsTimeVaryingLong deletesByQuery = new MetricsTimeVaryingLong("deletesByQuery", registry);
 
+    /**
+     * Deref lookups of a (record, vtag) which were already resolved earlier in the same indexing pass.
+     */
+    public MetricsTimeVaryingLong derefCacheHits = new MetricsTimeVaryingLong("derefCacheHits", registry);
+
+    public MetricsTimeVaryingLong derefCacheMisses = new MetricsTimeVaryingLong("derefCacheMisses", registry);
+
     public IndexerMetrics(String indexName) {
         this.indexName = indexName;
         context = MetricsUtil.getContext("indexer");
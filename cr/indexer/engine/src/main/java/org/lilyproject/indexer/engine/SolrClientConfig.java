@@ -18,6 +18,8 @@ package org.lilyproject.indexer.engine;
 public class SolrClientConfig {
     private String requestWriter;
     private String responseParser;
+    private int updateBatchSize = 0;
+    private long updateBatchMaxDelay = 100;
 
     public SolrClientConfig() {
 
@@ -38,4 +40,27 @@ public class SolrClientConfig {
     public void setResponseParser(String responseParser) {
         this.responseParser = responseParser;
     }
+
+    public int getUpdateBatchSize() {
+        return updateBatchSize;
+    }
+
+    /**
+     * The maximum number of adds and deletes which are collected to be sent to Solr at once,
+     * 0 to disable buffering of updates. See {@link BufferedSolrClient}.
+     */
+    public void setUpdateBatchSize(int updateBatchSize) {
+        this.updateBatchSize = updateBatchSize;
+    }
+
+    public long getUpdateBatchMaxDelay() {
+        return updateBatchMaxDelay;
+    }
+
+    /**
+     * The maximum time, in milliseconds, an update is buffered before it is sent to Solr.
+     */
+    public void setUpdateBatchMaxDelay(long updateBatchMaxDelay) {
+        this.updateBatchMaxDelay = updateBatchMaxDelay;
+    }
 }
@@ -22,6 +22,7 @@ import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
 
@@ -37,6 +38,12 @@ public class SolrClientMetrics implements Updater {
     /** Counts number of times a Solr operation has been retried because of connection-related problems. */
     public MetricsTimeVaryingLong retries = new MetricsTimeVaryingLong("retries", registry);
 
+    /** Number and duration of the flushes of buffered updates to Solr. */
+    public MetricsTimeVaryingRate flushes = new MetricsTimeVaryingRate("flushes", registry);
+
+    /** Number of buffered updates (adds and deletes by id) which have been flushed to Solr. */
+    public MetricsTimeVaryingLong flushedUpdates = new MetricsTimeVaryingLong("flushed_updates", registry);
+
     public SolrClientMetrics(String indexName, String shardName) {
         this.recordName = indexName + "_" + shardName;
         context = MetricsUtil.getContext("solrClient");
@@ -44,6 +44,8 @@ public class SolrShardManager {
     private HttpClient httpClient;
     private RequestWriter requestWriter;
     private ResponseParser responseParser;
+    private int updateBatchSize;
+    private long updateBatchMaxDelay;
 
     public SolrShardManager(String indexName, Map<String, String> shards, ShardSelector selector, HttpClient httpClient,
             SolrClientConfig solrClientConfig) throws MalformedURLException {
@@ -55,6 +57,8 @@ public class SolrShardManager {
         this.shards = shards;
         this.selector = selector;
         this.httpClient = httpClient;
+        this.updateBatchSize = solrClientConfig.getUpdateBatchSize();
+        this.updateBatchMaxDelay = solrClientConfig.getUpdateBatchMaxDelay();
 
         if (solrClientConfig.getRequestWriter() != null) {
             try {
@@ -118,7 +122,13 @@ public class SolrShardManager {
             if (blockOnIOProblem) {
                 solrClient = RetryingSolrClient.wrap(solrClient, metrics);
             }
-            shardConnections.put(shard.getKey(), new SolrClientHandle(solrClient, metrics));
+            BufferedSolrClient bufferedSolrClient = null;
+            if (updateBatchSize > 0) {
+                bufferedSolrClient = new BufferedSolrClient(solrClient, "lily.key", updateBatchSize,
+                        updateBatchMaxDelay, metrics);
+                solrClient = bufferedSolrClient;
+            }
+            shardConnections.put(shard.getKey(), new SolrClientHandle(solrClient, bufferedSolrClient, metrics));
         }
     }
 
@@ -127,12 +137,29 @@ public class SolrShardManager {
         return shardConnections.get(shardName).solrClient;
     }
 
+    /**
+     * Waits until the adds and deletes done by the calling thread have been sent to Solr. This only needs
+     * to be called when updates are buffered, see {@link SolrClientConfig#setUpdateBatchSize}, in which case
+     * it should be called before releasing the index lock of the record and acknowledging the processing
+     * of a message.
+     */
+    public void waitForPendingUpdates() throws SolrClientException, InterruptedException {
+        for (SolrClientHandle client : shardConnections.values()) {
+            if (client.bufferedSolrClient != null) {
+                client.bufferedSolrClient.waitForPendingUpdates();
+            }
+        }
+    }
+
     private static final class SolrClientHandle {
         SolrClient solrClient;
+        BufferedSolrClient bufferedSolrClient;
         SolrClientMetrics solrClientMetrics;
 
-        public SolrClientHandle(SolrClient solrClient, SolrClientMetrics metrics) {
+        public SolrClientHandle(SolrClient solrClient, BufferedSolrClient bufferedSolrClient,
+                SolrClientMetrics metrics) {
             this.solrClient = solrClient;
+            this.bufferedSolrClient = bufferedSolrClient;
             this.solrClientMetrics = metrics;
         }
     }
@@ -140,6 +167,13 @@ public class SolrShardManager {
     public void shutdown() {
         if (shardConnections != null) {
             for (SolrClientHandle client : shardConnections.values()) {
+                if (client.bufferedSolrClient != null) {
+                    try {
+                        client.bufferedSolrClient.shutdown();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
                 client.solrClientMetrics.shutdown();
             }
         }
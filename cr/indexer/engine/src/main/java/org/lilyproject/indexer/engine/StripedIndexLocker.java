@@ -0,0 +1,301 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+import org.lilyproject.util.zookeeper.ZooKeeperOperation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// About the StripedIndexLocker:
+//
+// Within one process, the record locks are taken on a fixed set of in-process locks, the record id
+// determining the lock (stripe) to use. This costs no remote calls at all.
+//
+// Between processes, there is only one case where the same record can be indexed concurrently: a batch
+// index build running while incremental indexing is enabled for the same index (the incremental index
+// updaters themselves never process the same record concurrently, as the RowLog does not deliver messages
+// for the same row concurrently). Therefore, each process indexing into an index takes a lease on the index,
+// that is, it creates an ephemeral node below /lily/indexer/indexlease/{index name}, whose name mentions its
+// role (incremental or batch). As long as no process with the other role holds a lease on the index, the
+// in-process lock is sufficient. Otherwise, a ZooKeeper lock for the record is taken in addition, as done by
+// the ZkIndexLocker.
+//
+// A process which takes a lease while processes of the other role are present waits for a while (the lease
+// settle time) before returning, to give those processes time to notice the lease, since locks taken before
+// they noticed it did not include a ZooKeeper lock.
+
+/**
+ * Index locker which uses in-process striped locks, and only falls back to per-record ZooKeeper locks while
+ * processes with different roles (batch build and incremental indexing) index into the same index.
+ */
+public class StripedIndexLocker implements IndexLocker {
+    public enum Role { INCREMENTAL, BATCH }
+
+    private static final String LEASE_PATH = "/lily/indexer/indexlease";
+
+    private final ZooKeeperItf zk;
+    private final Role role;
+    private final String indexLeasePath;
+    private final ZkIndexLocker zkLocker;
+    private final ReentrantLock[] stripes;
+    private final int maxWaitTime;
+    private final IndexLockerMetrics metrics;
+
+    /** The records locked by the current thread, the value telling if a ZooKeeper lock was taken too. */
+    private final ThreadLocal<Map<RecordId, Boolean>> lockedRecords = new ThreadLocal<Map<RecordId, Boolean>>() {
+        @Override
+        protected Map<RecordId, Boolean> initialValue() {
+            return new HashMap<RecordId, Boolean>();
+        }
+    };
+
+    private final Object leaseLock = new Object();
+    private String leaseNode;
+    private volatile boolean leasesChanged = true;
+    private volatile boolean otherRolePresent = false;
+    private final LeaseWatcher leaseWatcher = new LeaseWatcher();
+
+    private Log log = LogFactory.getLog(getClass());
+
+    public StripedIndexLocker(ZooKeeperItf zk, String indexName, Role role, IndexLockerMetrics metrics)
+            throws InterruptedException, KeeperException {
+        this(zk, indexName, role, 1024, 20000, 5000, metrics);
+    }
+
+    /**
+     * @param stripes number of in-process locks, is rounded up to a power of two
+     * @param leaseSettleTime time to wait after taking the lease in case processes of the other role are present
+     */
+    public StripedIndexLocker(ZooKeeperItf zk, String indexName, Role role, int stripes, int maxWaitTime,
+            int leaseSettleTime, IndexLockerMetrics metrics) throws InterruptedException, KeeperException {
+        this.zk = zk;
+        this.role = role;
+        this.indexLeasePath = LEASE_PATH + "/" + indexName;
+        this.maxWaitTime = maxWaitTime;
+        this.metrics = metrics;
+        this.zkLocker = new ZkIndexLocker(zk, 20, maxWaitTime);
+
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+
+        ZkUtil.createPath(zk, indexLeasePath);
+        zk.addDefaultWatcher(leaseWatcher);
+        refreshLeases();
+
+        if (otherRolePresent) {
+            log.info("Processes of another role are indexing into " + indexName + ", waiting " + leaseSettleTime +
+                    " ms for them to notice the lease of this process.");
+            Thread.sleep(leaseSettleTime);
+        }
+    }
+
+    @Override
+    public void lock(RecordId recordId) throws IndexLockException {
+        Map<RecordId, Boolean> locked = lockedRecords.get();
+        if (locked.containsKey(recordId)) {
+            return;
+        }
+
+        ReentrantLock stripe = getStripe(recordId);
+        long before = System.currentTimeMillis();
+        try {
+            if (!stripe.tryLock(maxWaitTime, TimeUnit.MILLISECONDS)) {
+                throw new IndexLockTimeoutException("Failed to obtain an index lock for record " + recordId +
+                        " within " + maxWaitTime + " ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexLockException("Interrupted while taking index lock on record " + recordId, e);
+        }
+        metrics.stripedLockWait.inc(System.currentTimeMillis() - before);
+
+        boolean zkLocked = false;
+        try {
+            if (isOtherRolePresent()) {
+                before = System.currentTimeMillis();
+                zkLocker.lock(recordId);
+                zkLocked = true;
+                metrics.zkLockWait.inc(System.currentTimeMillis() - before);
+                metrics.sharedLeaseLocks.inc();
+            }
+        } catch (IndexLockException e) {
+            stripe.unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            stripe.unlock();
+            throw e;
+        }
+
+        locked.put(recordId, zkLocked);
+    }
+
+    @Override
+    public void unlock(RecordId recordId) throws IndexLockException, InterruptedException {
+        Map<RecordId, Boolean> locked = lockedRecords.get();
+        Boolean zkLocked = locked.remove(recordId);
+        if (zkLocked == null) {
+            throw new IndexLockException("You cannot remove the index lock for record " + recordId +
+                    " because the current thread does not own it.");
+        }
+
+        try {
+            if (zkLocked) {
+                zkLocker.unlock(recordId);
+            }
+        } finally {
+            getStripe(recordId).unlock();
+        }
+    }
+
+    @Override
+    public void unlockLogFailure(RecordId recordId) {
+        try {
+            unlock(recordId);
+        } catch (Throwable t) {
+            log.error("Error releasing lock on record " + recordId, t);
+        }
+    }
+
+    @Override
+    public boolean hasLock(RecordId recordId) throws IndexLockException, InterruptedException {
+        Boolean zkLocked = lockedRecords.get().get(recordId);
+        if (zkLocked == null) {
+            return false;
+        }
+        return !zkLocked || zkLocker.hasLock(recordId);
+    }
+
+    /**
+     * Releases the lease on the index.
+     */
+    @Override
+    public void close() {
+        zk.removeDefaultWatcher(leaseWatcher);
+        synchronized (leaseLock) {
+            if (leaseNode != null) {
+                try {
+                    zk.delete(leaseNode, -1);
+                } catch (KeeperException.NoNodeException e) {
+                    // already gone
+                } catch (Throwable t) {
+                    log.error("Error removing index lease " + leaseNode, t);
+                }
+                leaseNode = null;
+            }
+        }
+    }
+
+    private ReentrantLock getStripe(RecordId recordId) {
+        int hash = recordId.hashCode();
+        // spread the bits, as done by HashMap
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return stripes[hash & (stripes.length - 1)];
+    }
+
+    private boolean isOtherRolePresent() throws IndexLockException {
+        if (leasesChanged) {
+            try {
+                refreshLeases();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IndexLockException("Interrupted while reading the leases of " + indexLeasePath, e);
+            } catch (KeeperException e) {
+                throw new IndexLockException("Error reading the leases of " + indexLeasePath, e);
+            }
+        }
+        return otherRolePresent;
+    }
+
+    /**
+     * Reads the leases on the index, taking our own lease if we don't have it (anymore).
+     */
+    private void refreshLeases() throws InterruptedException, KeeperException {
+        synchronized (leaseLock) {
+            leasesChanged = false;
+
+            List<String> leases = zk.retryOperation(new ZooKeeperOperation<List<String>>() {
+                @Override
+                public List<String> execute() throws KeeperException, InterruptedException {
+                    return zk.getChildren(indexLeasePath, leaseWatcher);
+                }
+            });
+
+            String prefix = role.name().toLowerCase() + "-";
+            boolean ownLeasePresent = false;
+            boolean otherRole = false;
+            for (String lease : leases) {
+                if (leaseNode != null && leaseNode.endsWith("/" + lease)) {
+                    ownLeasePresent = true;
+                } else if (!lease.startsWith(prefix)) {
+                    otherRole = true;
+                }
+            }
+
+            if (!ownLeasePresent) {
+                // Initial lease, or recreate it after session expiration
+                final byte[] data = Bytes.toBytes(zk.getSessionId());
+                leaseNode = zk.retryOperation(new ZooKeeperOperation<String>() {
+                    @Override
+                    public String execute() throws KeeperException, InterruptedException {
+                        return zk.create(indexLeasePath + "/" + role.name().toLowerCase() + "-", data,
+                                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+                    }
+                });
+            }
+
+            if (otherRole != otherRolePresent) {
+                log.info("Processes of another role " + (otherRole ? "started" : "stopped") + " indexing into " +
+                        indexLeasePath + ", ZooKeeper record locks " + (otherRole ? "enabled" : "disabled") + ".");
+            }
+            otherRolePresent = otherRole;
+        }
+    }
+
+    private class LeaseWatcher implements Watcher {
+        @Override
+        public void process(WatchedEvent event) {
+            // Only flag the change, the leases are read again by the next thread taking a lock, this avoids
+            // doing ZooKeeper calls in the event thread.
+            if (event.getType() == Event.EventType.NodeChildrenChanged
+                    || event.getState() == Event.KeeperState.SyncConnected
+                    || event.getState() == Event.KeeperState.Expired) {
+                leasesChanged = true;
+            }
+        }
+    }
+}
@@ -34,7 +34,6 @@ import org.lilyproject.indexer.model.indexerconf.Formatter;
 import org.lilyproject.repository.api.*;
 import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.repo.SystemFields;
-import org.lilyproject.util.repo.VersionTag;
 
 import java.io.InputStream;
 import java.util.*;
@@ -51,9 +50,50 @@ public class ValueEvaluator {
 
     private Parser tikaParser = new AutoDetectParser();
 
+    /**
+     * The union of the fields needed from linked records to evaluate the deref expressions.
+     */
+    private List<SchemaId> derefFields;
+
     public ValueEvaluator(IndexerConf conf) {
         this.conf = conf;
         this.systemFields = conf.getSystemFields();
+        this.derefFields = calculateDerefFields();
+    }
+
+    private List<SchemaId> calculateDerefFields() {
+        Set<SchemaId> fields = new HashSet<SchemaId>();
+
+        for (IndexField indexField : conf.getDerefIndexFields()) {
+            DerefValue deref = (DerefValue)indexField.getValue();
+            for (Follow follow : deref.getFollows()) {
+                if (follow instanceof LinkFieldFollow) {
+                    fields.add(((LinkFieldFollow)follow).getFieldType().getId());
+                    fields.add(((LinkFieldFollow)follow).getOwnerFieldType().getId());
+                } else if (follow instanceof RecordFieldFollow) {
+                    fields.add(((RecordFieldFollow)follow).getFieldType().getId());
+                }
+            }
+
+            SchemaId targetFieldId = deref.getTargetFieldType().getId();
+            if (!systemFields.isSystemField(targetFieldId)) {
+                fields.add(targetFieldId);
+            }
+        }
+
+        // The vtag fields are needed to find the version to use of the linked records
+        fields.addAll(conf.getVtags());
+
+        return new ArrayList<SchemaId>(fields);
+    }
+
+    /**
+     * Creates a cache to be used for the evaluation of the deref values during one indexing pass.
+     *
+     * @param metrics optional, can be null
+     */
+    public DerefCache newDerefCache(Repository repository, IndexerMetrics metrics) {
+        return new DerefCache(repository, derefFields, metrics);
     }
 
     /**
@@ -63,8 +103,19 @@ public class ValueEvaluator {
      */
     public List<String> eval(Value valueDef, IdRecord record, Repository repository, SchemaId vtag)
             throws RepositoryException, InterruptedException {
+        return eval(valueDef, record, repository, vtag, newDerefCache(repository, null));
+    }
+
+    /**
+     * Evaluates a value for a given record & vtag, using the given cache for the records to which
+     * deref values point.
+     *
+     * @return null if there is no value
+     */
+    public List<String> eval(Value valueDef, IdRecord record, Repository repository, SchemaId vtag,
+            DerefCache derefCache) throws RepositoryException, InterruptedException {
 
-        List<IndexValue> indexValues = evalValue(valueDef, record, repository, vtag);
+        List<IndexValue> indexValues = evalValue(valueDef, record, repository, vtag, derefCache);
         if (indexValues == null || indexValues.size() == 0)
             return null;
 
@@ -183,12 +234,12 @@ public class ValueEvaluator {
             result.add(text);
     }
 
-    private List<IndexValue> evalValue(Value value, IdRecord record, Repository repository, SchemaId vtag)
-            throws RepositoryException, InterruptedException {
+    private List<IndexValue> evalValue(Value value, IdRecord record, Repository repository, SchemaId vtag,
+            DerefCache derefCache) throws RepositoryException, InterruptedException {
         if (value instanceof FieldValue) {
             return evalFieldValue((FieldValue)value, record, repository);
         } else if (value instanceof DerefValue) {
-            return evalDerefValue((DerefValue)value, record, repository, vtag);
+            return evalDerefValue((DerefValue)value, record, repository, vtag, derefCache);
         } else {
             throw new RuntimeException("Unexpected type of value: " + value.getClass().getName());
         }
@@ -243,8 +294,8 @@ public class ValueEvaluator {
         return result;
     }
 
-    private List<IndexValue> evalDerefValue(DerefValue deref, IdRecord record, Repository repository, SchemaId vtag)
-            throws RepositoryException, InterruptedException {
+    private List<IndexValue> evalDerefValue(DerefValue deref, IdRecord record, Repository repository, SchemaId vtag,
+            DerefCache derefCache) throws RepositoryException, InterruptedException {
         FieldType fieldType = deref.getTargetFieldType();
 
         List<FollowRecord> records = new ArrayList<FollowRecord>();
@@ -253,8 +304,20 @@ public class ValueEvaluator {
         for (Follow follow : deref.getFollows()) {
             List<FollowRecord> linkedRecords = new ArrayList<FollowRecord>();
 
+            if (follow instanceof LinkFieldFollow && records.size() > 1) {
+                // Read the records linked from all the records of the previous step in one go
+                List<RecordId> linkedIds = new ArrayList<RecordId>();
+                for (FollowRecord item : records) {
+                    List<RecordId> ids = resolveLinks((LinkFieldFollow)follow, item, repository);
+                    if (ids != null) {
+                        linkedIds.addAll(ids);
+                    }
+                }
+                derefCache.prefetch(linkedIds);
+            }
+
             for (FollowRecord item : records) {
-                List<FollowRecord> evalResult = evalFollow(deref, follow, item, repository, vtag);
+                List<FollowRecord> evalResult = evalFollow(deref, follow, item, repository, vtag, derefCache);
                 if (evalResult != null) {
                     linkedRecords.addAll(evalResult);
                 }
@@ -282,18 +345,19 @@ public class ValueEvaluator {
      * are no results (link doesn't exist, points to non-existing doc, etc.).
      */
     private List<FollowRecord> evalFollow(DerefValue deref, Follow follow, FollowRecord record, Repository repository,
-            SchemaId vtag) throws RepositoryException, InterruptedException {
+            SchemaId vtag, DerefCache derefCache) throws RepositoryException, InterruptedException {
         if (follow instanceof LinkFieldFollow) {
-            List<IdRecord> records = evalLinkFieldFollow(deref, (LinkFieldFollow)follow, record, repository, vtag);
+            List<IdRecord> records = evalLinkFieldFollow(deref, (LinkFieldFollow)follow, record, repository, vtag,
+                    derefCache);
             return addContext(records);
         } else if (follow instanceof RecordFieldFollow) {
             List<IdRecord> records = evalRecordFieldFollow(deref, (RecordFieldFollow)follow, record, repository, vtag);
             return addContext(records, record.record);
         } else if (follow instanceof VariantFollow) {
-            List<IdRecord> records = evalVariantFollow((VariantFollow)follow, record, repository, vtag);
+            List<IdRecord> records = evalVariantFollow((VariantFollow)follow, record, repository, vtag, derefCache);
             return addContext(records);
         } else if (follow instanceof MasterFollow) {
-            List<IdRecord> records = evalMasterFollow((MasterFollow)follow, record, repository, vtag);
+            List<IdRecord> records = evalMasterFollow((MasterFollow)follow, record, repository, vtag, derefCache);
             return addContext(records);
         } else {
             throw new RuntimeException("Unexpected type of follow: " + follow.getClass().getName());
@@ -327,8 +391,34 @@ public class ValueEvaluator {
     }
 
     private List<IdRecord> evalLinkFieldFollow(DerefValue deref, LinkFieldFollow follow, FollowRecord frecord,
-            Repository repository, SchemaId vtag) throws RepositoryException, InterruptedException {
+            Repository repository, SchemaId vtag, DerefCache derefCache)
+            throws RepositoryException, InterruptedException {
 
+        List<RecordId> recordIds = resolveLinks(follow, frecord, repository);
+        if (recordIds == null) {
+            return null;
+        }
+
+        if (recordIds.size() > 1) {
+            derefCache.prefetch(recordIds);
+        }
+
+        List<IdRecord> result = new ArrayList<IdRecord>(recordIds.size());
+        for (RecordId recordId : recordIds) {
+            IdRecord linkedRecord = derefCache.getIdRecord(recordId, vtag);
+            if (linkedRecord != null) {
+                result.add(linkedRecord);
+            }
+        }
+
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * Returns the ids of the records to which the link field of a follow points, or null if the field
+     * is not present.
+     */
+    private List<RecordId> resolveLinks(LinkFieldFollow follow, FollowRecord frecord, Repository repository) {
         IdRecord record = frecord.record;
         FieldType fieldType = follow.getFieldType();
 
@@ -338,20 +428,14 @@ public class ValueEvaluator {
 
         Object value = record.getField(fieldType.getId());
         if (value instanceof Link) {
-            RecordId recordId = ((Link)value).resolve(frecord.contextRecord, repository.getIdGenerator());
-            IdRecord linkedRecord = resolveRecordId(recordId, vtag, repository);
-            return linkedRecord == null ? null : Collections.singletonList(linkedRecord);
+            return Collections.singletonList(((Link)value).resolve(frecord.contextRecord, repository.getIdGenerator()));
         } else if (value instanceof List && ((List)value).size() > 0 && ((List)value).get(0) instanceof Link) {
             List list = (List)value;
-            List<IdRecord> result = new ArrayList<IdRecord>(list.size());
+            List<RecordId> result = new ArrayList<RecordId>(list.size());
             for (Object link : list) {
-                RecordId recordId = ((Link)link).resolve(frecord.contextRecord, repository.getIdGenerator());
-                IdRecord linkedRecord = resolveRecordId(recordId, vtag, repository);
-                if (linkedRecord != null) {
-                    result.add(linkedRecord);
-                }
+                result.add(((Link)link).resolve(frecord.contextRecord, repository.getIdGenerator()));
             }
-            return list.isEmpty() ? null : result;
+            return result;
         } else {
             throw new RuntimeException("A link dereference is used but type is not LINK or LIST<LINK>, value: " +
                     value);
@@ -380,23 +464,8 @@ public class ValueEvaluator {
         }
     }
 
-    private IdRecord resolveRecordId(RecordId recordId, SchemaId vtag, Repository repository)
-            throws RepositoryException, InterruptedException {
-        try {
-            // TODO we could limit this to only load the field necessary for the next follow in case this is not
-            //      the last follow
-            return VersionTag.getIdRecord(recordId, vtag, repository);
-        } catch (RecordNotFoundException e) {
-            // It's ok for a link to point to a non-existing record
-            return null;
-        } catch (VersionNotFoundException e) {
-            // It's ok for a link to point to a non-existing record
-            return null;
-        }
-    }
-
     private List<IdRecord> evalVariantFollow(VariantFollow follow, FollowRecord frecord, Repository repository,
-            SchemaId vtag) throws RepositoryException, InterruptedException {
+            SchemaId vtag, DerefCache derefCache) throws RepositoryException, InterruptedException {
 
         RecordId recordId = frecord.record.getId();
 
@@ -411,36 +480,22 @@ public class ValueEvaluator {
 
         RecordId resolvedRecordId = repository.getIdGenerator().newRecordId(recordId.getMaster(), varProps);
 
-        try {
-            IdRecord lessDimensionedRecord = VersionTag.getIdRecord(resolvedRecordId, vtag, repository);
-            return lessDimensionedRecord == null ? null : Collections.singletonList(lessDimensionedRecord);
-        } catch (RecordNotFoundException e) {
-            // It's ok that the variant does not exist
-            return null;
-        } catch (VersionNotFoundException e) {
-            // It's ok that the variant does not exist
-            return null;
-        }
+        // It's ok that the variant does not exist
+        IdRecord lessDimensionedRecord = derefCache.getIdRecord(resolvedRecordId, vtag);
+        return lessDimensionedRecord == null ? null : Collections.singletonList(lessDimensionedRecord);
     }
 
-    private List<IdRecord> evalMasterFollow(MasterFollow follow, FollowRecord frecord, Repository repository, SchemaId vtag)
-            throws RepositoryException, InterruptedException {
+    private List<IdRecord> evalMasterFollow(MasterFollow follow, FollowRecord frecord, Repository repository,
+            SchemaId vtag, DerefCache derefCache) throws RepositoryException, InterruptedException {
 
         if (frecord.record.getId().isMaster())
             return null;
 
         RecordId masterId = frecord.record.getId().getMaster();
 
-        try {
-            IdRecord master = VersionTag.getIdRecord(masterId, vtag, repository);
-            return master == null ? null : Collections.singletonList(master);
-        } catch (RecordNotFoundException e) {
-            // It's ok that the master does not exist
-            return null;
-        } catch (VersionNotFoundException e) {
-            // It's ok that the master does not exist
-            return null;
-        }
+        // It's ok that the master does not exist
+        IdRecord master = derefCache.getIdRecord(masterId, vtag);
+        return master == null ? null : Collections.singletonList(master);
     }
 
     /**
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine.test;
+
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.indexer.engine.BufferedSolrClient;
+import org.lilyproject.indexer.engine.SolrClient;
+import org.lilyproject.indexer.engine.SolrClientException;
+import org.lilyproject.indexer.engine.SolrClientMetrics;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class BufferedSolrClientTest {
+    private RecordingSolrClient recorder;
+    private SolrClientMetrics metrics;
+    private BufferedSolrClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        recorder = new RecordingSolrClient();
+        metrics = new SolrClientMetrics("bufferedtest", "shard1");
+        client = new BufferedSolrClient(recorder, "lily.key", 10, 60000, metrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.shutdown();
+        metrics.shutdown();
+    }
+
+    @Test
+    public void testFlushWhenAllContributorsWait() throws Exception {
+        client.add(doc("a"));
+        client.add(doc("b"));
+        client.deleteById("c");
+        assertEquals(0, recorder.requests.size());
+
+        // The only contributing thread waits, so the batch is flushed without waiting for the max delay
+        client.waitForPendingUpdates();
+
+        assertEquals(2, recorder.requests.size());
+        assertEquals(Arrays.asList("c"), recorder.requests.get(0));
+        assertEquals(2, ((Collection)recorder.requests.get(1)).size());
+    }
+
+    @Test
+    public void testLastUpdateForKeyWins() throws Exception {
+        client.add(doc("a"));
+        client.deleteById("a");
+        client.waitForPendingUpdates();
+
+        assertEquals(1, recorder.requests.size());
+        assertEquals(Arrays.asList("a"), recorder.requests.get(0));
+    }
+
+    @Test
+    public void testFlushWhenBatchFull() throws Exception {
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    client.add(doc("other"));
+                    added.countDown();
+                    // Never waits: keeps the batch open until it is full
+                    Thread.sleep(60000);
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        };
+        other.start();
+        added.await();
+
+        for (int i = 0; i < 9; i++) {
+            client.add(doc("doc" + i));
+        }
+        client.waitForPendingUpdates();
+
+        assertEquals(1, recorder.requests.size());
+        assertEquals(10, ((Collection)recorder.requests.get(0)).size());
+
+        other.interrupt();
+        other.join();
+    }
+
+    @Test
+    public void testFlushFailureReportedToWaiters() throws Exception {
+        recorder.fail = true;
+        client.add(doc("a"));
+        try {
+            client.waitForPendingUpdates();
+            fail("expected exception");
+        } catch (SolrClientException e) {
+            // expected
+        }
+
+        // A next wait does not report the failure again
+        recorder.fail = false;
+        client.waitForPendingUpdates();
+    }
+
+    @Test
+    public void testDeleteByQueryFlushesFirst() throws Exception {
+        client.add(doc("a"));
+        client.deleteByQuery("lily.id:foo");
+
+        assertEquals(2, recorder.requests.size());
+        assertTrue(recorder.requests.get(0) instanceof Collection);
+        assertEquals("lily.id:foo", recorder.requests.get(1));
+    }
+
+    private static SolrInputDocument doc(String key) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.setField("lily.key", key);
+        return doc;
+    }
+
+    private static class RecordingSolrClient implements SolrClient {
+        List<Object> requests = Collections.synchronizedList(new ArrayList<Object>());
+        volatile boolean fail = false;
+
+        @Override
+        public String getDescription() {
+            return "recorder";
+        }
+
+        private UpdateResponse record(Object request) throws SolrClientException {
+            if (fail) {
+                throw new SolrClientException(getDescription(), new Exception("failure"));
+            }
+            requests.add(request);
+            return null;
+        }
+
+        @Override
+        public UpdateResponse add(SolrInputDocument doc) throws SolrClientException {
+            return record(Collections.singletonList(doc));
+        }
+
+        @Override
+        public UpdateResponse add(Collection<SolrInputDocument> docs) throws SolrClientException {
+            return record(new ArrayList<SolrInputDocument>(docs));
+        }
+
+        @Override
+        public UpdateResponse deleteById(String id) throws SolrClientException {
+            return record(Collections.singletonList(id));
+        }
+
+        @Override
+        public UpdateResponse deleteById(List<String> ids) throws SolrClientException {
+            return record(new ArrayList<String>(ids));
+        }
+
+        @Override
+        public UpdateResponse deleteByQuery(String query) throws SolrClientException {
+            return record(query);
+        }
+
+        @Override
+        public UpdateResponse commit(boolean waitFlush, boolean waitSearcher) throws SolrClientException {
+            return null;
+        }
+
+        @Override
+        public UpdateResponse commit() throws SolrClientException {
+            return null;
+        }
+
+        @Override
+        public QueryResponse query(SolrParams params) throws SolrClientException {
+            return null;
+        }
+    }
+}
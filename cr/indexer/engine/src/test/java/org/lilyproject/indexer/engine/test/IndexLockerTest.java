@@ -23,6 +23,9 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.lilyproject.indexer.engine.IndexLockTimeoutException;
 import org.lilyproject.indexer.engine.IndexLocker;
+import org.lilyproject.indexer.engine.IndexLockerMetrics;
+import org.lilyproject.indexer.engine.StripedIndexLocker;
+import org.lilyproject.indexer.engine.ZkIndexLocker;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.hadooptestfw.TestHelper;
@@ -34,6 +37,7 @@ import org.lilyproject.util.zookeeper.ZooKeeperItf;
 import java.io.File;
 import java.util.*;
 
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -70,7 +74,7 @@ public class IndexLockerTest {
 
     @Test
     public void testObtainAndReleaseLock() throws Exception {
-        IndexLocker indexLocker = new IndexLocker(ZK, true);
+        IndexLocker indexLocker = new ZkIndexLocker(ZK, true);
         RecordId recordId1 = new IdGeneratorImpl().newRecordId();
         RecordId recordId2 = new IdGeneratorImpl().newRecordId();
 
@@ -87,7 +91,7 @@ public class IndexLockerTest {
     @Test
     public void testLockTimeout() throws Exception {
         int maxWaitTime = 500;
-        final IndexLocker indexLocker = new IndexLocker(ZK, 2, maxWaitTime);
+        final IndexLocker indexLocker = new ZkIndexLocker(ZK, 2, maxWaitTime);
         final RecordId recordId = new IdGeneratorImpl().newRecordId();
 
         // take a lock and do not release it, another attempt to take a lock on the same record
@@ -128,7 +132,83 @@ public class IndexLockerTest {
 
     @Test
     public void testLockConcurrencyOnSameRecord() throws Exception {
-        IndexLocker indexLocker = new IndexLocker(ZK, true);
+        IndexLocker indexLocker = new ZkIndexLocker(ZK, true);
+        testLockConcurrencyOnSameRecord(indexLocker);
+    }
+
+    @Test
+    public void testStripedLockConcurrencyOnSameRecord() throws Exception {
+        IndexLockerMetrics metrics = new IndexLockerMetrics("stripedtest1");
+        IndexLocker indexLocker = new StripedIndexLocker(ZK, "stripedtest1", StripedIndexLocker.Role.INCREMENTAL,
+                metrics);
+        try {
+            testLockConcurrencyOnSameRecord(indexLocker);
+        } finally {
+            indexLocker.close();
+            metrics.shutdown();
+        }
+    }
+
+    @Test
+    public void testStripedLockUsesZkWhenOtherRolePresent() throws Exception {
+        IndexLockerMetrics metrics = new IndexLockerMetrics("stripedtest2");
+        IndexLocker incremental = new StripedIndexLocker(ZK, "stripedtest2", StripedIndexLocker.Role.INCREMENTAL,
+                16, 20000, 0, metrics);
+        RecordId recordId = new IdGeneratorImpl().newRecordId();
+        String recordLockPath = "/lily/indexer/recordlock/" + recordId;
+
+        // Only incremental indexing: no ZooKeeper lock
+        incremental.lock(recordId);
+        assertTrue(incremental.hasLock(recordId));
+        assertNull(ZK.exists(recordLockPath, false));
+        incremental.unlock(recordId);
+
+        // A batch build starts indexing: ZooKeeper locks are taken by both
+        IndexLocker batch = new StripedIndexLocker(ZK, "stripedtest2", StripedIndexLocker.Role.BATCH,
+                16, 20000, 0, metrics);
+        waitForZkLock(incremental, recordId, recordLockPath);
+        incremental.unlock(recordId);
+        assertNull(ZK.exists(recordLockPath, false));
+
+        batch.lock(recordId);
+        assertNotNull(ZK.exists(recordLockPath, false));
+        batch.unlock(recordId);
+
+        // The batch build is done: back to in-process locks only
+        batch.close();
+        long before = System.currentTimeMillis();
+        while (true) {
+            incremental.lock(recordId);
+            boolean zkLocked = ZK.exists(recordLockPath, false) != null;
+            incremental.unlock(recordId);
+            if (!zkLocked) {
+                break;
+            }
+            assertTrue("ZooKeeper locks still used after lease release", System.currentTimeMillis() - before < 10000);
+            Thread.sleep(50);
+        }
+
+        incremental.close();
+        metrics.shutdown();
+    }
+
+    /**
+     * Takes the lock until a ZooKeeper lock is taken along, since the lease watcher fires asynchronously.
+     */
+    private void waitForZkLock(IndexLocker indexLocker, RecordId recordId, String recordLockPath) throws Exception {
+        long before = System.currentTimeMillis();
+        while (true) {
+            indexLocker.lock(recordId);
+            if (ZK.exists(recordLockPath, false) != null) {
+                return;
+            }
+            indexLocker.unlock(recordId);
+            assertTrue("ZooKeeper lock not used after lease of other role", System.currentTimeMillis() - before < 10000);
+            Thread.sleep(50);
+        }
+    }
+
+    private void testLockConcurrencyOnSameRecord(IndexLocker indexLocker) throws Exception {
         RecordId recordId = new IdGeneratorImpl().newRecordId();
 
         List<Info> infos = new ArrayList<Info>();
@@ -16,6 +16,9 @@
 package org.lilyproject.indexer.engine.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.lilyproject.util.repo.RecordEvent.Type.CREATE;
 import static org.lilyproject.util.repo.RecordEvent.Type.DELETE;
@@ -47,13 +50,16 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.lilyproject.hadooptestfw.TestHelper;
 import org.lilyproject.hbaseindex.IndexManager;
+import org.lilyproject.indexer.engine.DerefCache;
 import org.lilyproject.indexer.engine.IndexLocker;
+import org.lilyproject.indexer.engine.ZkIndexLocker;
 import org.lilyproject.indexer.engine.IndexUpdater;
 import org.lilyproject.indexer.engine.IndexUpdaterMetrics;
 import org.lilyproject.indexer.engine.Indexer;
 import org.lilyproject.indexer.engine.IndexerMetrics;
 import org.lilyproject.indexer.engine.SolrClientException;
 import org.lilyproject.indexer.engine.SolrShardManager;
+import org.lilyproject.indexer.engine.ValueEvaluator;
 import org.lilyproject.indexer.model.indexerconf.IndexerConf;
 import org.lilyproject.indexer.model.indexerconf.IndexerConfBuilder;
 import org.lilyproject.indexer.model.indexerconf.IndexerConfException;
@@ -63,6 +69,7 @@ import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.HierarchyPath;
 import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.Link;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
@@ -181,7 +188,7 @@ public class IndexerTest {
 
     public static void changeIndexUpdater(String confName) throws Exception {
         INDEXER_CONF = IndexerConfBuilder.build(IndexerTest.class.getResourceAsStream(confName), repository);
-        IndexLocker indexLocker = new IndexLocker(repoSetup.getZk(), true);
+        IndexLocker indexLocker = new ZkIndexLocker(repoSetup.getZk(), true);
         Indexer indexer = new Indexer("test", INDEXER_CONF, repository, solrShardManager, indexLocker,
                 new IndexerMetrics("test"));
 
@@ -2089,6 +2096,60 @@ public class IndexerTest {
         }
     }
 
+    /**
+     * The deref cache reads the linked records restricted to the fields needed by the deref expressions, and
+     * reuses what it read for all vtags pointing to the same version.
+     */
+    @Test
+    public void testDerefCache() throws Exception {
+        messageVerifier.disable();
+
+        ValueEvaluator valueEvaluator = new ValueEvaluator(
+                IndexerConfBuilder.build(IndexerTest.class.getResourceAsStream("indexerconf1.xml"), repository));
+        IndexerMetrics metrics = new IndexerMetrics("derefCacheTest");
+        try {
+            // Linked record with two versions, the live and preview vtags point to the first one.
+            // The v_long_field is indexed, but not used by any deref expression.
+            Record linked = repository.newRecord();
+            linked.setRecordType(vRecordType1.getName());
+            linked.setField(vfield1.getName(), "deref cache 1");
+            linked.setField(vLongField.getName(), new Long(1));
+            linked = repository.create(linked);
+            linked.setField(vfield1.getName(), "deref cache 2");
+            linked.setField(liveTag.getName(), new Long(1));
+            linked.setField(previewTag.getName(), new Long(1));
+            linked = repository.update(linked);
+            assertEquals(new Long(2), linked.getVersion());
+
+            DerefCache derefCache = valueEvaluator.newDerefCache(repository, metrics);
+
+            IdRecord last = derefCache.getIdRecord(linked.getId(), lastTag.getId());
+            assertEquals("deref cache 2", last.getField(vfield1.getName()));
+            assertFalse(last.hasField(vLongField.getName()));
+
+            IdRecord live = derefCache.getIdRecord(linked.getId(), liveTag.getId());
+            assertEquals("deref cache 1", live.getField(vfield1.getName()));
+            assertFalse(live.hasField(vLongField.getName()));
+
+            // The version read for the live vtag is reused for the preview vtag
+            assertSame(live, derefCache.getIdRecord(linked.getId(), previewTag.getId()));
+
+            // Resolving a vtag again is a cache hit
+            long hits = metrics.derefCacheHits.getCurrentIntervalValue();
+            assertSame(live, derefCache.getIdRecord(linked.getId(), liveTag.getId()));
+            assertSame(last, derefCache.getIdRecord(linked.getId(), lastTag.getId()));
+            assertEquals(hits + 2, metrics.derefCacheHits.getCurrentIntervalValue());
+
+            // Links to non-existing records are cached too
+            RecordId missing = idGenerator.newRecordId();
+            assertNull(derefCache.getIdRecord(missing, liveTag.getId()));
+            assertNull(derefCache.getIdRecord(missing, liveTag.getId()));
+            assertEquals(hits + 3, metrics.derefCacheHits.getCurrentIntervalValue());
+        } finally {
+            metrics.shutdown();
+        }
+    }
+
     /**
      * This test might better fit in the indexer-model package
      */
@@ -26,12 +26,17 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.lilyproject.indexer.batchbuild.IndexingMapper;
 import org.lilyproject.indexer.batchbuild.hbasemr_patched.TableMapReduceUtil;
+import org.lilyproject.indexer.engine.IndexLockStrategy;
 import org.lilyproject.indexer.engine.SolrClientConfig;
 import org.lilyproject.indexer.model.api.IndexDefinition;
+import org.lilyproject.indexer.model.indexerconf.IndexerConf;
+import org.lilyproject.indexer.model.indexerconf.IndexerConfBuilder;
+import org.lilyproject.repository.api.Repository;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 
 import static org.lilyproject.util.hbase.LilyHBaseSchema.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLDecoder;
@@ -45,7 +50,7 @@ public class BatchIndexBuilder {
      */
     public static Job startBatchBuildJob(IndexDefinition index, Configuration mapReduceConf,
             Configuration hbaseConf, String zkConnectString, int zkSessionTimeout, SolrClientConfig solrConfig,
-            boolean enableLocking) throws Exception {
+            boolean enableLocking, IndexLockStrategy lockStrategy, Repository repository) throws Exception {
 
         Configuration conf = new Configuration(mapReduceConf);
         Job job = new Job(conf);
@@ -65,6 +70,8 @@ public class BatchIndexBuilder {
         //
         // Pass information about the index to be built
         //
+        job.getConfiguration().set("org.lilyproject.indexer.batchbuild.indexname", index.getName());
+
         String indexerConfString = Base64.encodeBytes(index.getConfiguration(), Base64.GZIP);
         job.getConfiguration().set("org.lilyproject.indexer.batchbuild.indexerconf", indexerConfString);
 
@@ -96,6 +103,14 @@ public class BatchIndexBuilder {
         scan.setFilter(filterList);
         scan.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
 
+        if (!enableLocking) {
+            // Without locking, the mapper indexes the records from the scanned rows (see IndexingMapper),
+            // so let the scan fetch what is needed for that
+            IndexerConf indexerConf = IndexerConfBuilder.build(new ByteArrayInputStream(index.getConfiguration()),
+                    repository);
+            IndexingMapper.configureScan(scan, indexerConf, repository.getTypeManager());
+        }
+
         TableMapReduceUtil.initTableMapperJob(Table.RECORD.name, scan,
                 IndexingMapper.class, null, null, job);
 
@@ -125,6 +140,7 @@ public class BatchIndexBuilder {
         // Other props
         //
         job.getConfiguration().set("org.lilyproject.indexer.batchbuild.enableLocking", String.valueOf(enableLocking));
+        job.getConfiguration().set("org.lilyproject.indexer.batchbuild.lockStrategy", lockStrategy.name());
 
         job.submit();
 
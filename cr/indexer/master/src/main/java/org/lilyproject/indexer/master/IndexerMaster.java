@@ -22,8 +22,10 @@ import org.apache.hadoop.mapred.*;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.zookeeper.KeeperException;
 import org.lilyproject.indexer.batchbuild.IndexBatchBuildCounters;
+import org.lilyproject.indexer.engine.IndexLockStrategy;
 import org.lilyproject.indexer.engine.SolrClientConfig;
 import org.lilyproject.indexer.model.api.*;
+import org.lilyproject.repository.api.Repository;
 import org.lilyproject.rowlog.api.RowLogConfigurationManager;
 import org.lilyproject.rowlog.api.RowLogSubscription;
 import org.lilyproject.util.LilyInfo;
@@ -71,8 +73,12 @@ public class IndexerMaster {
 
     private final boolean enableLocking;
 
+    private final IndexLockStrategy lockStrategy;
+
     private final String hostName;
 
+    private final Repository repository;
+
     private LeaderElection leaderElection;
 
     private IndexerModelListener listener = new MyListener();
@@ -89,12 +95,14 @@ public class IndexerMaster {
 
     private final String nodes;
 
-    public IndexerMaster(ZooKeeperItf zk , WriteableIndexerModel indexerModel, Configuration mapReduceConf,
+    public IndexerMaster(ZooKeeperItf zk , WriteableIndexerModel indexerModel, Repository repository,
+            Configuration mapReduceConf,
             Configuration mapReduceJobConf, Configuration hbaseConf, String zkConnectString, int zkSessionTimeout,
             RowLogConfigurationManager rowLogConfMgr, LilyInfo lilyInfo, SolrClientConfig solrClientConfig,
-            boolean enableLocking, String hostName, String nodes) {
+            boolean enableLocking, IndexLockStrategy lockStrategy, String hostName, String nodes) {
         this.zk = zk;
         this.indexerModel = indexerModel;
+        this.repository = repository;
         this.mapReduceConf = mapReduceConf;
         this.mapReduceJobConf = mapReduceJobConf;
         this.hbaseConf = hbaseConf;
@@ -104,6 +112,7 @@ public class IndexerMaster {
         this.lilyInfo = lilyInfo;
         this.solrClientConfig = solrClientConfig;
         this.enableLocking = enableLocking;
+        this.lockStrategy = lockStrategy;
         this.hostName = hostName;
         this.nodes = nodes;
     }
@@ -253,7 +262,8 @@ public class IndexerMaster {
                     boolean jobStarted;
                     try {
                         job = BatchIndexBuilder.startBatchBuildJob(index, mapReduceJobConf, hbaseConf,
-                                zkConnectString, zkSessionTimeout, solrClientConfig, enableLocking);
+                                zkConnectString, zkSessionTimeout, solrClientConfig, enableLocking, lockStrategy,
+                                repository);
                         jobStarted = true;
                     } catch (Throwable t) {
                         jobStarted = false;
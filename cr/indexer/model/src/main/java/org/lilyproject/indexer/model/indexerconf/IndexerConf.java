@@ -98,6 +98,14 @@ public class IndexerConf {
         return dynamicFields;
     }
 
+    /**
+     * Returns the fields of the record that are used by the (non-dynamic) indexField's, see also
+     * {@link Value#getFieldDependency()}.
+     */
+    public Set<SchemaId> getFieldDependencies() {
+        return Collections.unmodifiableSet(repoFieldDependencies);
+    }
+
     /**
      * Checks if the supplied field type is used by one of the indexField's.
      */
@@ -172,7 +172,14 @@ public class IndexerWorker {
 
             SolrShardManager solrShardMgr = new SolrShardManager(index.getName(), index.getSolrShards(), shardSelector,
                     httpClient, solrClientConfig, true);
-            IndexLocker indexLocker = new IndexLocker(zk, settings.getEnableLocking());
+            IndexLockerMetrics lockerMetrics = new IndexLockerMetrics(index.getName());
+            IndexLocker indexLocker;
+            if (settings.getEnableLocking() && settings.getLockStrategy() == IndexLockStrategy.STRIPED) {
+                indexLocker = new StripedIndexLocker(zk, index.getName(), StripedIndexLocker.Role.INCREMENTAL,
+                        lockerMetrics);
+            } else {
+                indexLocker = new ZkIndexLocker(zk, settings.getEnableLocking());
+            }
             IndexerMetrics indexerMetrics = new IndexerMetrics(index.getName());
             Indexer indexer = new Indexer(index.getName(), indexerConf, repository, solrShardMgr, indexLocker,
                     indexerMetrics);
@@ -185,11 +192,12 @@ public class IndexerWorker {
 
             for (int i = 0; i < settings.getListenersPerIndex(); i++) {
                 RemoteListenerHandler handler = new RemoteListenerHandler(rowLog, index.getQueueSubscriptionId(),
-                        indexUpdater, rowLogConfMgr, hostName);
+                        indexUpdater, rowLogConfMgr, hostName, settings.getListenerProcessingThreads());
                 listenerHandlers.add(handler);
             }
 
-            handle = new IndexUpdaterHandle(index, listenerHandlers, solrShardMgr, indexerMetrics, updaterMetrics);
+            handle = new IndexUpdaterHandle(index, listenerHandlers, solrShardMgr, indexLocker, indexerMetrics,
+                    updaterMetrics, lockerMetrics);
             handle.start();
 
             indexUpdaters.put(index.getName(), handle);
@@ -287,16 +295,21 @@ public class IndexerWorker {
         private IndexDefinition indexDef;
         private List<RemoteListenerHandler> listenerHandlers;
         private SolrShardManager solrShardMgr;
+        private IndexLocker indexLocker;
         private IndexerMetrics indexerMetrics;
         private IndexUpdaterMetrics updaterMetrics;
+        private IndexLockerMetrics lockerMetrics;
 
         public IndexUpdaterHandle(IndexDefinition indexDef, List<RemoteListenerHandler> listenerHandlers,
-                SolrShardManager solrShardMgr, IndexerMetrics indexerMetrics, IndexUpdaterMetrics updaterMetrics) {
+                SolrShardManager solrShardMgr, IndexLocker indexLocker, IndexerMetrics indexerMetrics,
+                IndexUpdaterMetrics updaterMetrics, IndexLockerMetrics lockerMetrics) {
             this.indexDef = indexDef;
             this.listenerHandlers = listenerHandlers;
             this.solrShardMgr = solrShardMgr;
+            this.indexLocker = indexLocker;
             this.indexerMetrics = indexerMetrics;
             this.updaterMetrics = updaterMetrics;
+            this.lockerMetrics = lockerMetrics;
         }
 
         public void start() throws RowLogException, InterruptedException, KeeperException {
@@ -310,8 +323,10 @@ public class IndexerWorker {
                 handler.stop();
             }
             Closer.close(solrShardMgr);
+            Closer.close(indexLocker);
             Closer.close(indexerMetrics);
             Closer.close(updaterMetrics);
+            Closer.close(lockerMetrics);
         }
     }
 
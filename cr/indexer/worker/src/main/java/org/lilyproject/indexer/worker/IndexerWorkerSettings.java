@@ -15,9 +15,14 @@
  */
 package org.lilyproject.indexer.worker;
 
+import org.lilyproject.indexer.engine.IndexLockStrategy;
+import org.lilyproject.rowlog.impl.RemoteListenerHandler;
+
 public class IndexerWorkerSettings {
     private int listenersPerIndex = 10;
+    private int listenerProcessingThreads = RemoteListenerHandler.DEFAULT_PROCESSING_THREADS;
     private boolean enableLocking = false;
+    private IndexLockStrategy lockStrategy = IndexLockStrategy.STRIPED;
     private int solrMaxTotalConnections = 200;
     private int solrMaxConnectionsPerHost = 50;
 
@@ -29,6 +34,14 @@ public class IndexerWorkerSettings {
         this.listenersPerIndex = listenersPerIndex;
     }
 
+    public int getListenerProcessingThreads() {
+        return listenerProcessingThreads;
+    }
+
+    public void setListenerProcessingThreads(int listenerProcessingThreads) {
+        this.listenerProcessingThreads = listenerProcessingThreads;
+    }
+
     public boolean getEnableLocking() {
         return enableLocking;
     }
@@ -37,6 +50,14 @@ public class IndexerWorkerSettings {
         this.enableLocking = enableLocking;
     }
 
+    public IndexLockStrategy getLockStrategy() {
+        return lockStrategy;
+    }
+
+    public void setLockStrategy(IndexLockStrategy lockStrategy) {
+        this.lockStrategy = lockStrategy;
+    }
+
     public int getSolrMaxTotalConnections() {
         return solrMaxTotalConnections;
     }
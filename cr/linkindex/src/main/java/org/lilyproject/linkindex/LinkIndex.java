@@ -21,6 +21,12 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.hbaseindex.Index;
@@ -36,6 +42,7 @@ import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.util.Pair;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.io.Closer;
 
 /**
@@ -56,15 +63,36 @@ public class LinkIndex {
     private LinkIndexMetrics metrics;
     private Index forwardIndex;
     private Index backwardIndex;
+    private ThreadPoolExecutor referrersExecutor;
+
+    /**
+     * Default maximum number of backward index queries performed concurrently by
+     * {@link #getReferrers(Set, SchemaId, SchemaId)}.
+     */
+    public static final int DEFAULT_REFERRERS_THREADS = 10;
 
     private static final byte[] SOURCE_FIELD_KEY = Bytes.toBytes("sf");
     private static final byte[] VTAG_KEY = Bytes.toBytes("vt");
 
     public LinkIndex(final IndexManager indexManager, Repository repository) throws IndexNotFoundException, IOException,
             InterruptedException {
+        this(indexManager, repository, DEFAULT_REFERRERS_THREADS);
+    }
+
+    /**
+     * @param referrersThreads maximum number of backward index queries performed concurrently by
+     *                         {@link #getReferrers(Set, SchemaId, SchemaId)}
+     */
+    public LinkIndex(final IndexManager indexManager, Repository repository, int referrersThreads)
+            throws IndexNotFoundException, IOException, InterruptedException {
         metrics = new LinkIndexMetrics("linkIndex");
         this.idGenerator = repository.getIdGenerator();
 
+        // The threads are daemon threads which stop when idle, so the LinkIndex does not need to be closed
+        referrersExecutor = new ThreadPoolExecutor(referrersThreads, referrersThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new CustomThreadFactory("linkindex-referrers", null, true));
+        referrersExecutor.allowCoreThreadTimeOut(true);
+
         // About the structure of these indexes:
         //  - the vtag comes after the recordid because this way we can delete all
         //    entries for a record without having to know the vtags under which they occur
@@ -310,6 +338,50 @@ public class LinkIndex {
         }
     }
 
+    /**
+     * Returns the union of the referrers of each of the given records. The backward index is queried for
+     * the different records concurrently, using a bounded number of threads.
+     */
+    public Set<RecordId> getReferrers(Set<RecordId> records, final SchemaId vtag, final SchemaId sourceField)
+            throws LinkIndexException, InterruptedException {
+        Set<RecordId> result = new HashSet<RecordId>();
+
+        if (records.size() == 1) {
+            // No need to involve other threads
+            result.addAll(getReferrers(records.iterator().next(), vtag, sourceField));
+            return result;
+        }
+
+        List<Future<Set<RecordId>>> futures = new ArrayList<Future<Set<RecordId>>>(records.size());
+        try {
+            for (final RecordId record : records) {
+                futures.add(referrersExecutor.submit(new Callable<Set<RecordId>>() {
+                    @Override
+                    public Set<RecordId> call() throws LinkIndexException {
+                        return getReferrers(record, vtag, sourceField);
+                    }
+                }));
+            }
+
+            for (Future<Set<RecordId>> future : futures) {
+                result.addAll(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LinkIndexException) {
+                throw (LinkIndexException)e.getCause();
+            }
+            throw new LinkIndexException("Error getting referrers for " + records.size() + " records, vtag '" +
+                    vtag + "', field '" + sourceField + "'", e.getCause());
+        } finally {
+            // In case of errors or interruption, don't leave queries running for nothing
+            for (Future<Set<RecordId>> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return result;
+    }
+
     public Set<FieldedLink> getFieldedReferrers(RecordId record, SchemaId vtag) throws LinkIndexException {
         long before = System.currentTimeMillis();
         try {
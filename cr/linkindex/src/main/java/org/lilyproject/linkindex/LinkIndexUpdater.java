@@ -19,11 +19,13 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.lilyproject.linkindex.LinkIndexUpdaterMetrics.Action;
 import org.lilyproject.repository.api.*;
+import org.lilyproject.repository.impl.RecordSnapshots;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RowLogContext;
 import org.lilyproject.util.repo.VTaggedRecord;
+import org.lilyproject.rowlog.api.RowLog;
 import org.lilyproject.rowlog.api.RowLogMessage;
-import org.lilyproject.rowlog.api.RowLogMessageListener;
+import org.lilyproject.rowlog.api.RowLogBatchMessageListener;
 
 import java.util.*;
 
@@ -38,18 +40,30 @@ import static org.lilyproject.util.repo.RecordEvent.Type.*;
 /**
  * Keeps the {@link LinkIndex} up to date when changes happen to records.
  */
-public class LinkIndexUpdater implements RowLogMessageListener {
+public class LinkIndexUpdater implements RowLogBatchMessageListener {
     private Repository repository;
     private TypeManager typeManager;
     private LinkIndex linkIndex;
+    private RowLog rowLog;
 
     private Log log = LogFactory.getLog(getClass());
     private LinkIndexUpdaterMetrics metrics;
 
     public LinkIndexUpdater(Repository repository, LinkIndex linkIndex) throws RepositoryException, InterruptedException {
+        this(repository, linkIndex, null);
+    }
+
+    /**
+     * @param rowLog the row log this updater listens to, this should be the write ahead log. It is used to check
+     *               if the messages are handled in order, in which case the record snapshots included in the
+     *               events can be used. If null, the record is always read when handled asynchronously.
+     */
+    public LinkIndexUpdater(Repository repository, LinkIndex linkIndex, RowLog rowLog)
+            throws RepositoryException, InterruptedException {
         this.repository = repository;
         this.typeManager = repository.getTypeManager();
         this.linkIndex = linkIndex;
+        this.rowLog = rowLog;
         metrics = new LinkIndexUpdaterMetrics("linkIndexUpdater");
     }
 
@@ -57,22 +71,84 @@ public class LinkIndexUpdater implements RowLogMessageListener {
     public boolean processMessage(RowLogMessage msg) {
         try {
             RecordId recordId = repository.getIdGenerator().fromBytes(msg.getRowKey());
-            Object context = msg.getContext();
-            RecordEvent recordEvent = null;
-            if (context != null) {
-                RowLogContext rowLogContext = (RowLogContext) msg.getContext();
-                recordEvent = rowLogContext.getRecordEvent();
-            }
-            if (recordEvent == null)
-                recordEvent = new RecordEvent(msg.getPayload(), repository.getIdGenerator());
-            update(recordId, recordEvent);
+            // When called synchronously by the repository, the message carries a context and the record
+            // is still locked, so the event describes the current state of the record.
+            update(recordId, getRecordEvent(msg), msg.getContext() != null || isRespectOrder());
         } catch (Exception e) {
             log.error("Error processing event in LinkIndexUpdater", e);
         }
         return true;
     }
 
+    /**
+     * Processes the outstanding messages of one record in one go: only the last delete event and
+     * the (merged) create and update events following it need to be applied.
+     */
+    @Override
+    public boolean processMessages(List<RowLogMessage> msgs) {
+        try {
+            RecordId recordId = repository.getIdGenerator().fromBytes(msgs.get(0).getRowKey());
+
+            List<RecordEvent> events = new ArrayList<RecordEvent>(msgs.size());
+            int lastDelete = -1;
+            for (RowLogMessage msg : msgs) {
+                RecordEvent recordEvent = getRecordEvent(msg);
+                if (recordEvent.getType().equals(DELETE)) {
+                    lastDelete = events.size();
+                }
+                events.add(recordEvent);
+            }
+
+            boolean inOrder = isRespectOrder();
+            if (lastDelete != -1) {
+                update(recordId, events.get(lastDelete), inOrder);
+            }
+
+            List<RecordEvent> updateEvents = events.subList(lastDelete + 1, events.size());
+            RecordEvent merged = updateEvents.size() > 1 ? RecordEvent.merge(updateEvents) : null;
+            if (merged != null) {
+                update(recordId, merged, inOrder);
+            } else {
+                for (RecordEvent recordEvent : updateEvents) {
+                    update(recordId, recordEvent, inOrder);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error processing events in LinkIndexUpdater", e);
+        }
+        return true;
+    }
+
+    private RecordEvent getRecordEvent(RowLogMessage msg) throws Exception {
+        Object context = msg.getContext();
+        RecordEvent recordEvent = null;
+        if (context != null) {
+            RowLogContext rowLogContext = (RowLogContext) msg.getContext();
+            recordEvent = rowLogContext.getRecordEvent();
+        }
+        if (recordEvent == null)
+            recordEvent = new RecordEvent(msg.getPayload(), repository.getIdGenerator());
+        return recordEvent;
+    }
+
+    private boolean isRespectOrder() {
+        return rowLog != null && rowLog.getConfig().isRespectOrder();
+    }
+
+    /**
+     * Updates the link index for the given event. The record is read from the repository, as the event
+     * might be handled out of order, see {@link #update(RecordId, RecordEvent, boolean)}.
+     */
     public void update(RecordId recordId, RecordEvent recordEvent) {
+        update(recordId, recordEvent, false);
+    }
+
+    /**
+     * @param inOrder true if the event is known to be handled in order, i.e. no later changes to the record have
+     *                been handled yet. Only then the record snapshot included in the event can be used: when an
+     *                older event is retried after a newer one, its snapshot would bring back the old links.
+     */
+    public void update(RecordId recordId, RecordEvent recordEvent, boolean inOrder) {
         // This is the algorithm for updating the LinkIndex when a record changes.
         //
         // The LinkIndex contains, for each vtag defined on the record, the links extracted from the record
@@ -98,7 +174,12 @@ public class LinkIndexUpdater implements RowLogMessageListener {
 
                 VTaggedRecord vtRecord;
                 try {
-                    vtRecord = new VTaggedRecord(recordId, recordEvent, LINK_FIELD_FILTER, repository);
+                    IdRecord snapshot = null;
+                    if (inOrder) {
+                        snapshot = RecordSnapshots.read(recordEvent, repository);
+                        metrics.reportRecordSnapshot(snapshot != null);
+                    }
+                    vtRecord = new VTaggedRecord(recordId, snapshot, recordEvent, LINK_FIELD_FILTER, repository);
                 } catch (RecordNotFoundException e) {
                     // record not found: delete all links for all vtags
                     linkIndex.deleteLinks(recordId);
@@ -121,6 +202,15 @@ public class LinkIndexUpdater implements RowLogMessageListener {
 
                 Map<SchemaId, Long> vtags = vtRecord.getVTags();
 
+                // Read the versions pointed to by these vtags in one go rather than one by one
+                Set<Long> versionsToProcess = new HashSet<Long>();
+                for (SchemaId vtag : vtagsToProcess) {
+                    if (vtags.containsKey(vtag)) {
+                        versionsToProcess.add(vtags.get(vtag));
+                    }
+                }
+                vtRecord.prefetchVersions(versionsToProcess);
+
                 //
                 // For each of the vtags, perform the link extraction
                 //
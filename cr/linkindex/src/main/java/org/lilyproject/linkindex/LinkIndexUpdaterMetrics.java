@@ -25,6 +25,7 @@ import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
@@ -38,6 +39,10 @@ public class LinkIndexUpdaterMetrics implements Updater {
     private final EnumMap<Action, MetricsTimeVaryingRate> rates = new EnumMap<Action, MetricsTimeVaryingRate>(Action.class);
     private final LinkIndexUpdaterMetricsMXBean mbean;
     private final String recordName;
+    private final MetricsTimeVaryingLong recordSnapshotsUsed =
+            new MetricsTimeVaryingLong("record_snapshots_used", registry);
+    private final MetricsTimeVaryingLong recordSnapshotsMissing =
+            new MetricsTimeVaryingLong("record_snapshots_missing", registry);
 
     public LinkIndexUpdaterMetrics(String recordName) {
         this.recordName = recordName;
@@ -70,6 +75,18 @@ public class LinkIndexUpdaterMetrics implements Updater {
         rates.get(action).inc(duration);
     }
 
+    /**
+     * Reports whether the record snapshot included in a record event could be used, or if the record had
+     * to be read.
+     */
+    void reportRecordSnapshot(boolean used) {
+        if (used) {
+            recordSnapshotsUsed.inc();
+        } else {
+            recordSnapshotsMissing.inc();
+        }
+    }
+
     public class LinkIndexUpdaterMetricsMXBean extends MetricsDynamicMBeanBase {
         private final ObjectName mbeanName;
 
@@ -24,11 +24,16 @@ import org.lilyproject.linkindex.FieldedLink;
 import org.lilyproject.linkindex.LinkIndex;
 import org.lilyproject.linkindex.LinkIndexUpdater;
 import org.lilyproject.repository.api.*;
+import org.lilyproject.repository.impl.HBaseRepository;
 import org.lilyproject.repository.impl.SchemaIdImpl;
 import org.lilyproject.repotestfw.RepositorySetup;
+import org.lilyproject.rowlog.api.RowLogException;
+import org.lilyproject.rowlog.api.RowLogMessage;
+import org.lilyproject.rowlog.api.RowLogMessageListener;
 import org.lilyproject.rowlog.api.RowLogMessageListenerMapping;
 import org.lilyproject.rowlog.api.RowLogSubscription;
 import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.VersionTag;
 
 import java.util.Arrays;
@@ -37,6 +42,7 @@ import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class LinkIndexTest {
@@ -65,7 +71,8 @@ public class LinkIndexTest {
         linkIndex = new LinkIndex(indexManager, repository);
 
         repoSetup.getRowLogConfManager().addSubscription("WAL", "LinkIndexUpdater", RowLogSubscription.Type.VM, 1);
-        RowLogMessageListenerMapping.INSTANCE.put("LinkIndexUpdater", new LinkIndexUpdater(repository, linkIndex));
+        RowLogMessageListenerMapping.INSTANCE.put("LinkIndexUpdater", new LinkIndexUpdater(repository, linkIndex,
+                repoSetup.getWal()));
 
         repoSetup.waitForSubscription(repoSetup.getWal(), "LinkIndexUpdater");
     }
@@ -121,6 +128,16 @@ public class LinkIndexTest {
         referrers = linkIndex.getReferrers(ids.newRecordId("id2a"), liveTag);
         assertTrue(referrers.contains(ids.newRecordId("idA")));
         assertEquals(1, referrers.size());
+
+        // Test backward link retrieval for multiple records at once
+        Set<RecordId> targets = new HashSet<RecordId>();
+        targets.add(ids.newRecordId("id2a"));
+        targets.add(ids.newRecordId("id3"));
+        targets.add(ids.newRecordId("id5"));
+        referrers = linkIndex.getReferrers(targets, liveTag, field1);
+        assertTrue(referrers.contains(ids.newRecordId("idA")));
+        assertTrue(referrers.contains(ids.newRecordId("idC")));
+        assertEquals(2, referrers.size());
     }
 
     @Test
@@ -316,4 +333,71 @@ public class LinkIndexTest {
             assertTrue(forwardLinks.contains(ids.newRecordId("cl2")));
         }
     }
+
+    /**
+     * Handling an older event after a newer update, as happens when the processor retries a message,
+     * should not bring back the links of the older record state included in the event's record snapshot.
+     */
+    @Test
+    public void testReplayOldEvent() throws Exception {
+        FieldType linkFt = typeManager.newFieldType(typeManager.getValueType("LINK"),
+                new QName("ns", "replayLink"), Scope.NON_VERSIONED);
+        linkFt = typeManager.createFieldType(linkFt);
+
+        RecordType recordType = typeManager.newRecordType(new QName("ns", "ReplayRecordType"));
+        recordType.addFieldTypeEntry(typeManager.newFieldTypeEntry(linkFt.getId(), false));
+        recordType = typeManager.createRecordType(recordType);
+
+        SchemaId lastVTag = typeManager.getFieldTypeByName(VersionTag.LAST).getId();
+
+        HBaseRepository hbaseRepository = (HBaseRepository)repository;
+        PayloadCollector collector = new PayloadCollector();
+        RowLogMessageListenerMapping.INSTANCE.put("PayloadSubscription", collector);
+        repoSetup.getRowLogConfManager().addSubscription("WAL", "PayloadSubscription", RowLogSubscription.Type.VM, 2);
+        repoSetup.waitForSubscription(repoSetup.getWal(), "PayloadSubscription");
+        hbaseRepository.setMaxRecordSnapshotSize(1024 * 1024);
+        try {
+            Record record = repository.newRecord();
+            record.setRecordType(recordType.getName());
+            record.setField(linkFt.getName(), new Link(ids.newRecordId("replay1")));
+            record = repository.create(record);
+
+            assertNotNull("No record event received", collector.lastPayload);
+            RecordEvent oldEvent = new RecordEvent(collector.lastPayload, ids);
+            assertNotNull("No record snapshot in the record event", oldEvent.getRecordSnapshot());
+
+            record.setField(linkFt.getName(), new Link(ids.newRecordId("replay2")));
+            record = repository.update(record);
+
+            assertEquals(0, linkIndex.getReferrers(ids.newRecordId("replay1"), lastVTag).size());
+            assertEquals(1, linkIndex.getReferrers(ids.newRecordId("replay2"), lastVTag).size());
+
+            // Replay the create event, as the processor would when it handles the message asynchronously
+            LinkIndexUpdater updater = new LinkIndexUpdater(repository, linkIndex);
+            updater.update(record.getId(), oldEvent);
+
+            assertEquals(0, linkIndex.getReferrers(ids.newRecordId("replay1"), lastVTag).size());
+            Set<RecordId> referrers = linkIndex.getReferrers(ids.newRecordId("replay2"), lastVTag);
+            assertEquals(1, referrers.size());
+            assertTrue(referrers.contains(record.getId()));
+        } finally {
+            hbaseRepository.setMaxRecordSnapshotSize(0);
+            repoSetup.getRowLogConfManager().removeSubscription("WAL", "PayloadSubscription");
+            RowLogMessageListenerMapping.INSTANCE.remove("PayloadSubscription");
+        }
+    }
+
+    private static class PayloadCollector implements RowLogMessageListener {
+        private volatile byte[] lastPayload;
+
+        @Override
+        public boolean processMessage(RowLogMessage message) {
+            try {
+                lastPayload = message.getPayload();
+            } catch (RowLogException e) {
+                throw new RuntimeException(e);
+            }
+            return true;
+        }
+    }
 }
@@ -211,8 +211,10 @@ public class LilyClient implements Closeable {
 
         BlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(fs, blobRootPath);
         BlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(configuration, true);
+        BlobStoreAccess chunkedHBaseBlobStoreAccess = new ChunkedHBaseBlobStoreAccess(configuration, true);
         BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
-        List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess, inlineBlobStoreAccess);
+        List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess,
+                chunkedHBaseBlobStoreAccess, inlineBlobStoreAccess);
         
         SizeBasedBlobStoreAccessFactory blobStoreAccessFactory = new SizeBasedBlobStoreAccessFactory(blobStoreAccesses, getBlobStoreAccessConfig(zk));
         
@@ -54,10 +54,15 @@ public class BlobIncubatorMonitorSetup {
 
     @PostConstruct
     public void start() throws LeaderElectionSetupException, IOException, InterruptedException, KeeperException {
-        long minimalAge = 1000 * blobManagerConf.getChild("blobIncubatorMonitor").getAttributeAsLong("minimalAge");
-        long monitorDelay = blobManagerConf.getChild("blobIncubatorMonitor").getAttributeAsLong("monitorDelay");
-        long runDelay = 1000 * blobManagerConf.getChild("blobIncubatorMonitor").getAttributeAsLong("runDelay");
-        blobIncubatorMonitor = new BlobIncubatorMonitor(zookeeper, hbaseTableFactory, blobManager, typeManager, minimalAge, monitorDelay, runDelay);
+        Conf monitorConf = blobManagerConf.getChild("blobIncubatorMonitor");
+        long minimalAge = 1000 * monitorConf.getAttributeAsLong("minimalAge");
+        long runDelay = 1000 * monitorConf.getAttributeAsLong("runDelay");
+        int threads = monitorConf.getAttributeAsInteger("threads", 1);
+        // monitorDelay is the older way of limiting the load, it is translated to a rate
+        long monitorDelay = monitorConf.getAttributeAsLong("monitorDelay", 0L);
+        long maxRate = monitorConf.getAttributeAsLong("maxRate", monitorDelay > 0 ? Math.max(1, 1000 / monitorDelay) : 0L);
+        blobIncubatorMonitor = new BlobIncubatorMonitor(zookeeper, hbaseTableFactory, blobManager, typeManager,
+                minimalAge, runDelay, threads, maxRate);
 
         List<String> blobIncubatorNodes = Collections.EMPTY_LIST;
         Conf nodesConf = blobManagerConf.getChild("blobIncubatorMonitor").getChild("nodes");
@@ -56,9 +56,10 @@ public class BlobManagerSetup {
 
         BlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(fs, blobRootPath);
         BlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(tableFactory);
+        BlobStoreAccess chunkedHBaseBlobStoreAccess = new ChunkedHBaseBlobStoreAccess(tableFactory);
         BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
         List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess,
-                inlineBlobStoreAccess);
+                chunkedHBaseBlobStoreAccess, inlineBlobStoreAccess);
 
         String defaultStoreName = blobManagerConf.getChild("blobStore").getAttribute("default");
         BlobStoreAccessConfig blobStoreAccessConfig = new BlobStoreAccessConfig(defaultStoreName);
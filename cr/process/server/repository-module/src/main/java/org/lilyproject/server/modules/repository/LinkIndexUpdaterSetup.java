@@ -37,11 +37,14 @@ public class LinkIndexUpdaterSetup {
     private final Repository repository;
     private final Configuration hbaseConf;
     private final HBaseTableFactory tableFactory;
+    private final RowLog wal;
 
-    public LinkIndexUpdaterSetup(Repository repository, Configuration hbaseConf, HBaseTableFactory tableFactory) {
+    public LinkIndexUpdaterSetup(Repository repository, Configuration hbaseConf, HBaseTableFactory tableFactory,
+            RowLog wal) {
         this.repository = repository;
         this.hbaseConf = hbaseConf;
         this.tableFactory = tableFactory;
+        this.wal = wal;
     }
 
     @PostConstruct
@@ -56,7 +59,7 @@ public class LinkIndexUpdaterSetup {
 
         LinkIndex linkIndex = new LinkIndex(indexManager, repository);
 
-        LinkIndexUpdater linkIndexUpdater = new LinkIndexUpdater(repository, linkIndex);
+        LinkIndexUpdater linkIndexUpdater = new LinkIndexUpdater(repository, linkIndex, wal);
 
         RowLogMessageListenerMapping.INSTANCE.put("LinkIndexUpdater", linkIndexUpdater);
     }
@@ -16,6 +16,7 @@
 package org.lilyproject.rest;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -28,8 +29,9 @@ public class BlobByFieldResource extends RepositoryEnabled {
 
     @GET
     @Produces("*/*")
-    public Response get(@PathParam("id") String id, @PathParam("fieldName") String fieldName, @Context UriInfo uriInfo) {
-        return BlobByVersionAndFieldResource.getBlob(id, null, fieldName, uriInfo, repository);
+    public Response get(@PathParam("id") String id, @PathParam("fieldName") String fieldName,
+            @HeaderParam("Range") String range, @Context UriInfo uriInfo) {
+        return BlobByVersionAndFieldResource.getBlob(id, null, fieldName, range, uriInfo, repository);
     }
 
 }
@@ -18,23 +18,38 @@ package org.lilyproject.rest;
 import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
 
 import org.lilyproject.repository.api.*;
+import org.lilyproject.util.io.Closer;
 
 @Path("record/{id}/version/{version:\\d+}/field/{fieldName}/data")
 public class BlobByVersionAndFieldResource extends RepositoryEnabled {
 
+    private static final Pattern BYTE_RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
     @GET
     @Produces("*/*")
     public Response get(@PathParam("id") String id, @PathParam("version") String version,
-            @PathParam("fieldName") String fieldName, @Context UriInfo uriInfo) {
-        return getBlob(id, version, fieldName, uriInfo, repository);
+            @PathParam("fieldName") String fieldName, @HeaderParam("Range") String range,
+            @Context UriInfo uriInfo) {
+        return getBlob(id, version, fieldName, range, uriInfo, repository);
     }
 
 
-    protected static Response getBlob(String id, String version, String fieldName, UriInfo uriInfo,
+    /**
+     * @param range the value of the HTTP Range header, can be null
+     */
+    protected static Response getBlob(String id, String version, String fieldName, String range, UriInfo uriInfo,
             final Repository repository) {
         final RecordId recordId = repository.getIdGenerator().fromString(id);
 
@@ -49,7 +64,35 @@ public class BlobByVersionAndFieldResource extends RepositoryEnabled {
 
         try {
             final BlobAccess blobAccess = repository.getBlob(recordId, versionNr, fieldQName, indexes);
-            return Response.ok(blobAccess, MediaType.valueOf(blobAccess.getBlob().getMediaType())).build();
+            MediaType mediaType = MediaType.valueOf(blobAccess.getBlob().getMediaType());
+            Long blobSize = blobAccess.getBlob().getSize();
+            if (blobSize == null || blobSize < 0) {
+                // Without a known size, ranges can't be served: always send the complete blob
+                return Response.ok(blobAccess, mediaType).build();
+            }
+            long size = blobSize;
+
+            long[] byteRange = parseRange(range, size);
+            if (byteRange == null) {
+                return Response.ok(blobAccess, mediaType).header("Accept-Ranges", "bytes").build();
+            } else if (byteRange[0] >= size) {
+                return Response.status(REQUESTED_RANGE_NOT_SATISFIABLE).header("Content-Range", "bytes */" + size)
+                        .build();
+            }
+
+            final long offset = byteRange[0];
+            final long length = byteRange[1] - byteRange[0] + 1;
+            StreamingOutput entity = new StreamingOutput() {
+                @Override
+                public void write(OutputStream output) throws IOException, WebApplicationException {
+                    writeRange(blobAccess, offset, length, output);
+                }
+            };
+
+            return Response.status(206).entity(entity).type(mediaType)
+                    .header("Accept-Ranges", "bytes")
+                    .header("Content-Range", "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + size)
+                    .header("Content-Length", String.valueOf(length)).build();
         } catch (RecordNotFoundException e) {
             throw new ResourceException(e, NOT_FOUND.getStatusCode());
         } catch (FieldNotFoundException e) {
@@ -61,4 +104,68 @@ public class BlobByVersionAndFieldResource extends RepositoryEnabled {
         }
     }
 
+    /**
+     * Parses a Range header consisting of one byte range. Returns the first and last (inclusive) position,
+     * the last position being limited to the end of the blob. Returns null if there is no range header or if
+     * it is not understood (e.g. multiple ranges) or syntactically invalid (last position before the first),
+     * in which case the complete blob is sent, as required by HTTP.
+     *
+     * <p>The returned first position can be beyond the end of the blob, in which case the range is not
+     * satisfiable.
+     */
+    protected static long[] parseRange(String range, long size) {
+        if (range == null)
+            return null;
+
+        Matcher matcher = BYTE_RANGE.matcher(range.trim());
+        if (!matcher.matches())
+            return null;
+
+        String first = matcher.group(1);
+        String last = matcher.group(2);
+        try {
+            if (first.length() == 0 && last.length() == 0) {
+                return null;
+            } else if (first.length() == 0) {
+                // Suffix range: the last N bytes
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength == 0)
+                    return new long[] {size, size};
+                return new long[] {Math.max(0, size - suffixLength), size - 1};
+            } else if (last.length() == 0) {
+                return new long[] {Long.parseLong(first), size - 1};
+            } else {
+                long firstPos = Long.parseLong(first);
+                long lastPos = Long.parseLong(last);
+                if (lastPos < firstPos)
+                    return null;
+                return new long[] {firstPos, Math.min(lastPos, size - 1)};
+            }
+        } catch (NumberFormatException e) {
+            // Too large to be a long
+            return null;
+        }
+    }
+
+    private static void writeRange(BlobAccess blobAccess, long offset, long length, OutputStream output)
+            throws IOException {
+        InputStream is = null;
+        try {
+            is = blobAccess.getInputStream(offset);
+            byte[] buffer = new byte[8192];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = is.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                if (read == -1)
+                    break;
+                output.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } catch (BlobException e) {
+            throw new IOException("Error reading blob.", e);
+        } finally {
+            Closer.close(is);
+        }
+    }
+
 }
@@ -38,11 +38,19 @@ public class RecordScanCollectionResource extends RepositoryEnabled {
     private Cache<String, RecordScanner> recordScannerMap;
     
     private static Random rand = new Random();
+
+    /**
+     * Upper limit on the number of threads a single scan can use on the server.
+     */
+    private static final int MAX_PARALLELISM = 16;
     
     @POST
     @Consumes("application/json")
     public Response post(RecordScan scan) {
         String scanId = String.valueOf(rand.nextLong());        
+        if (scan.getParallelism() > MAX_PARALLELISM) {
+            scan.setParallelism(MAX_PARALLELISM);
+        }
         try {
             recordScannerMap.put(scanId, repository.getScanner(scan));            
         } catch (RepositoryException e) {
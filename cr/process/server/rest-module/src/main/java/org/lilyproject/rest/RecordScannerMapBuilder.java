@@ -21,6 +21,8 @@ import org.lilyproject.repository.api.RecordScanner;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 
 // Convenience class for creating recordscanner caches. For use in the spring application context
 public class RecordScannerMapBuilder {
@@ -32,6 +34,15 @@ public class RecordScannerMapBuilder {
     public static Cache<String,RecordScanner> createRecordScannerMap (int delay, TimeUnit unit) {
         Cache<String,RecordScanner> cache = CacheBuilder.newBuilder()
                 .expireAfterAccess(delay,  unit)
+                .removalListener(new RemovalListener<String, RecordScanner>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, RecordScanner> notification) {
+                        // Release the resources of expired scanners, e.g. the threads of parallel scanners
+                        if (notification.getValue() != null) {
+                            notification.getValue().close();
+                        }
+                    }
+                })
                 .build();
         
         return cache;
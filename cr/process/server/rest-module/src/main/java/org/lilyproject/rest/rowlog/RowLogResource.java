@@ -32,7 +32,9 @@ import org.codehaus.jackson.node.ArrayNode;
 import org.codehaus.jackson.node.ObjectNode;
 import org.lilyproject.rowlog.api.RowLogConfig;
 import org.lilyproject.rowlog.api.RowLogConfigurationManager;
+import org.lilyproject.rowlog.api.RowLogProcessor;
 import org.lilyproject.rowlog.api.RowLogSubscription;
+import org.lilyproject.rowlog.api.ShardBacklog;
 import org.springframework.beans.factory.annotation.Autowired;
 
 @Path("")
@@ -40,6 +42,10 @@ public class RowLogResource {
 	
 	@Autowired
     protected RowLogConfigurationManager rowLogConfMgr;
+
+    /** The processors running in this node, used to report the shard backlogs. */
+    @Autowired(required = false)
+    protected List<RowLogProcessor> rowLogProcessors;
 	
     @GET
     @Produces("application/json")
@@ -51,6 +57,7 @@ public class RowLogResource {
     	while (it.hasNext()) {
     		String rowLogId = it.next();
     		addSubscriptions((ObjectNode)result.get(rowLogId), rowLogId, m);
+    		addShardBacklogs((ObjectNode)result.get(rowLogId), rowLogId, m);
     	}
 		return result;
     }
@@ -64,6 +71,7 @@ public class RowLogResource {
 		ObjectNode result = m.convertValue(rowLogConfig, ObjectNode.class);
 		
 		addSubscriptions(result, rowLogId, m);
+		addShardBacklogs(result, rowLogId, m);
     	
 		return result;
     }
@@ -83,4 +91,22 @@ public class RowLogResource {
 		}
 	}
 
+    /**
+     * Adds the backlog of each shard as estimated by the processor of the rowlog in this node. This is
+     * empty when the processor is not running in this node.
+     */
+    private void addShardBacklogs(ObjectNode rowLogConfigNode, String rowLogId, ObjectMapper m) {
+        ArrayNode backlogsJson = rowLogConfigNode.putArray("shardBacklogs");
+        if (rowLogProcessors == null)
+            return;
+
+        for (RowLogProcessor processor : rowLogProcessors) {
+            if (processor.getRowLog().getId().equals(rowLogId)) {
+                for (ShardBacklog backlog : processor.getShardBacklogs()) {
+                    backlogsJson.add(m.convertValue(backlog, ObjectNode.class));
+                }
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class BlobRangeTest {
+    @Test
+    public void testNoOrUnsupportedRange() {
+        assertNull(BlobByVersionAndFieldResource.parseRange(null, 100));
+        assertNull(BlobByVersionAndFieldResource.parseRange("", 100));
+        assertNull(BlobByVersionAndFieldResource.parseRange("bytes=-", 100));
+        assertNull(BlobByVersionAndFieldResource.parseRange("items=0-10", 100));
+        // Multiple ranges are not supported, the complete blob is sent
+        assertNull(BlobByVersionAndFieldResource.parseRange("bytes=0-10,20-30", 100));
+        // Too large for a long
+        assertNull(BlobByVersionAndFieldResource.parseRange("bytes=0-99999999999999999999", 100));
+    }
+
+    @Test
+    public void testInvalidRangeIsIgnored() {
+        // Last position before the first position is syntactically invalid, and should be ignored
+        assertNull(BlobByVersionAndFieldResource.parseRange("bytes=5-3", 100));
+    }
+
+    @Test
+    public void testFirstLastRange() {
+        assertArrayEquals(new long[] {0, 9}, BlobByVersionAndFieldResource.parseRange("bytes=0-9", 100));
+        assertArrayEquals(new long[] {5, 5}, BlobByVersionAndFieldResource.parseRange("bytes=5-5", 100));
+        assertArrayEquals(new long[] {0, 99}, BlobByVersionAndFieldResource.parseRange(" bytes=0-99 ", 100));
+        // Last position is limited to the end of the blob
+        assertArrayEquals(new long[] {50, 99}, BlobByVersionAndFieldResource.parseRange("bytes=50-500", 100));
+    }
+
+    @Test
+    public void testOpenEndedRange() {
+        assertArrayEquals(new long[] {10, 99}, BlobByVersionAndFieldResource.parseRange("bytes=10-", 100));
+        // Beyond the end: not satisfiable, signaled by a first position >= size
+        assertArrayEquals(new long[] {100, 99}, BlobByVersionAndFieldResource.parseRange("bytes=100-", 100));
+    }
+
+    @Test
+    public void testSuffixRange() {
+        assertArrayEquals(new long[] {90, 99}, BlobByVersionAndFieldResource.parseRange("bytes=-10", 100));
+        // Suffix longer than the blob: the complete blob
+        assertArrayEquals(new long[] {0, 99}, BlobByVersionAndFieldResource.parseRange("bytes=-500", 100));
+        // Empty suffix is not satisfiable
+        assertArrayEquals(new long[] {100, 100}, BlobByVersionAndFieldResource.parseRange("bytes=-0", 100));
+    }
+
+    @Test
+    public void testEmptyBlob() {
+        long[] range = BlobByVersionAndFieldResource.parseRange("bytes=0-10", 0);
+        assertArrayEquals(new long[] {0, -1}, range);
+        range = BlobByVersionAndFieldResource.parseRange("bytes=-10", 0);
+        assertArrayEquals(new long[] {0, -1}, range);
+    }
+}
@@ -47,8 +47,12 @@ public class RowLogSetup {
     private final ZooKeeperItf zk;
     private RowLogImpl messageQueue;
     private WalRowLog writeAheadLog;
+    private RowLogProcessorImpl messageQueueProcessor;
+    private RowLogProcessorImpl writeAheadLogProcessor;
     private RowLogProcessorElection messageQueueProcessorLeader;
     private RowLogProcessorElection writeAheadLogProcessorLeader;
+    private RowLogShardLeases messageQueueProcessorLeases;
+    private RowLogShardLeases writeAheadLogProcessorLeases;
     private Thread walProcessorStartupThread;
     private final HBaseTableFactory hbaseTableFactory;
     private final Conf rowLogConf;
@@ -78,9 +82,10 @@ public class RowLogSetup {
         long wakeupTimeout = initialConf.getChild("wakeupTimeout").getValueAsLong();
         long orphanedMessageDelay = initialConf.getChild("orphanedMessageDelay").getValueAsLong();
         int deleteBufferSize = initialConf.getChild("deleteBufferSize").getValueAsInteger();
+        boolean timeBasedSeqNr = initialConf.getChild("timeBasedSeqNr").getValueAsBoolean(false);
         
         return new RowLogConfig(respectOrder, enableNotify, notifyDelay, minimalProcessDelay, wakeupTimeout,
-                orphanedMessageDelay, deleteBufferSize);
+                orphanedMessageDelay, deleteBufferSize, timeBasedSeqNr);
     }
 
     @PostConstruct
@@ -143,6 +148,8 @@ public class RowLogSetup {
 
         // Start the message queue processor
         Conf mqProcessorConf = rowLogConf.getChild("mqProcessor");
+        messageQueueProcessor = new RowLogProcessorImpl(messageQueue, confMgr, hbaseConf,
+                createProcessorSettings(mqProcessorConf));
         boolean mqProcEnabled = mqProcessorConf.getAttributeAsBoolean("enabled", true);
         if (mqProcEnabled) {
             List<String> mqProcessorNodes = Collections.EMPTY_LIST;
@@ -153,11 +160,16 @@ public class RowLogSetup {
                     mqProcessorNodes = Arrays.asList(nodes.split(","));
                 }
             }
-            RowLogProcessorSettings settings = createProcessorSettings(mqProcessorConf);
-            RowLogProcessor processor = new RowLogProcessorImpl(messageQueue, confMgr, hbaseConf, settings);
-            messageQueueProcessorLeader = new RowLogProcessorElection(zk, processor, lilyInfo);
-            if (mqProcessorNodes.isEmpty() || mqProcessorNodes.contains(hostName)) {
-                messageQueueProcessorLeader.start();
+            if (mqProcessorConf.getChild("distributed").getValueAsBoolean(false)) {
+                messageQueueProcessorLeases = new RowLogShardLeases(zk, messageQueueProcessor, hostName);
+                if (mqProcessorNodes.isEmpty() || mqProcessorNodes.contains(hostName)) {
+                    messageQueueProcessorLeases.start();
+                }
+            } else {
+                messageQueueProcessorLeader = new RowLogProcessorElection(zk, messageQueueProcessor, lilyInfo);
+                if (mqProcessorNodes.isEmpty() || mqProcessorNodes.contains(hostName)) {
+                    messageQueueProcessorLeader.start();
+                }
             }
         } else {
             log.info("Not participating in MQ processor election.");
@@ -173,6 +185,8 @@ public class RowLogSetup {
 
         // Start the wal processor
         Conf walProcessorConf = rowLogConf.getChild("walProcessor");
+        writeAheadLogProcessor = new WalProcessor(writeAheadLog, confMgr, hbaseConf,
+                createProcessorSettings(walProcessorConf));
         boolean walProcEnabled = walProcessorConf.getAttributeAsBoolean("enabled", true);
         if (walProcEnabled) {
             List<String> walProcessorNodes = Collections.EMPTY_LIST;
@@ -183,9 +197,11 @@ public class RowLogSetup {
                     walProcessorNodes = Arrays.asList(nodes.split(","));
                 }
             }
-            RowLogProcessorSettings settings = createProcessorSettings(walProcessorConf);
-            RowLogProcessor processor = new WalProcessor(writeAheadLog, confMgr, hbaseConf, settings);
-            writeAheadLogProcessorLeader = new RowLogProcessorElection(zk, processor, lilyInfo);
+            if (walProcessorConf.getChild("distributed").getValueAsBoolean(false)) {
+                writeAheadLogProcessorLeases = new RowLogShardLeases(zk, writeAheadLogProcessor, hostName);
+            } else {
+                writeAheadLogProcessorLeader = new RowLogProcessorElection(zk, writeAheadLogProcessor, lilyInfo);
+            }
             // The WAL processor should only be started once the LinkIndexUpdater listener is available
             walProcessorStartupThread = new Thread(new DelayedWALProcessorStartup());
             if (walProcessorNodes.isEmpty() || walProcessorNodes.contains(hostName)) {
@@ -215,17 +231,37 @@ public class RowLogSetup {
                 conf.getChild("messagesWorkQueueSize")
                         .getValueAsInteger(settings.getMessagesWorkQueueSize()));
 
+        String workQueueType = conf.getChild("messagesWorkQueueType").getValue(null);
+        if (workQueueType != null) {
+            settings.setMessagesWorkQueueType(
+                    RowLogProcessorSettings.MessagesWorkQueueType.valueOf(workQueueType.trim().toUpperCase()));
+        }
+
+        settings.setRemoteListenerMaxInFlight(
+                conf.getChild("remoteListenerMaxInFlight")
+                        .getValueAsInteger(settings.getRemoteListenerMaxInFlight()));
+
+        settings.setRemoteListenerMaxBatchSize(
+                conf.getChild("remoteListenerMaxBatchSize")
+                        .getValueAsInteger(settings.getRemoteListenerMaxBatchSize()));
+
+        settings.setCoalesceRowMessages(
+                conf.getChild("coalesceRowMessages")
+                        .getValueAsBoolean(settings.getCoalesceRowMessages()));
+
         return settings;
     }
 
     @PreDestroy
     public void stop() throws RowLogException, InterruptedException, KeeperException {
         Closer.close(messageQueueProcessorLeader);
+        Closer.close(messageQueueProcessorLeases);
         if (walProcessorStartupThread != null && walProcessorStartupThread.isAlive()) {
             walProcessorStartupThread.interrupt();
             walProcessorStartupThread.join();
         }
         Closer.close(writeAheadLogProcessorLeader);
+        Closer.close(writeAheadLogProcessorLeases);
         Closer.close(messageQueue);
         Closer.close(writeAheadLog);
         confMgr.removeListener("wal", "LinkIndexUpdater", "LinkIndexUpdaterListener");
@@ -241,6 +277,21 @@ public class RowLogSetup {
         return writeAheadLog;
     }
 
+    /**
+     * The processor of the message queue. It is also available when this node does not take part in
+     * the processing, in which case it is simply never started.
+     */
+    public RowLogProcessor getMessageQueueProcessor() {
+        return messageQueueProcessor;
+    }
+
+    /**
+     * The processor of the write-ahead log, see {@link #getMessageQueueProcessor}.
+     */
+    public RowLogProcessor getWriteAheadLogProcessor() {
+        return writeAheadLogProcessor;
+    }
+
     private class DelayedWALProcessorStartup implements Runnable {
         @Override
         public void run() {
@@ -260,7 +311,11 @@ public class RowLogSetup {
             }
 
             try {
-                writeAheadLogProcessorLeader.start();
+                if (writeAheadLogProcessorLeases != null) {
+                    writeAheadLogProcessorLeases.start();
+                } else {
+                    writeAheadLogProcessorLeader.start();
+                }
             } catch (Throwable t) {
                 log.error("Error starting up WAL processor", t);
             }
@@ -54,6 +54,26 @@ public class ManualProcessRowLog implements RowLog {
         return msg;
     }
 
+    @Override
+    public List<RowLogMessage> putMessages(List<Put> puts, List<byte[]> payloads) throws RowLogException,
+            InterruptedException {
+
+        List<RowLogMessage> msgs = delegate.putMessages(puts, payloads);
+        unprocessedMessages.addAll(msgs);
+
+        return msgs;
+    }
+
+    @Override
+    public List<RowLogMessage> putMessagesForRows(List<byte[]> rowKeys, List<byte[]> payloads)
+            throws RowLogException, InterruptedException {
+
+        List<RowLogMessage> msgs = delegate.putMessagesForRows(rowKeys, payloads);
+        unprocessedMessages.addAll(msgs);
+
+        return msgs;
+    }
+
     public void processMessages() throws RowLogException, InterruptedException {
         while (!unprocessedMessages.isEmpty()) {
             RowLogMessage msg = unprocessedMessages.remove(0);
@@ -71,6 +91,12 @@ public class ManualProcessRowLog implements RowLog {
         return delegate.messageDone(message, subscriptionId);
     }
 
+    @Override
+    public boolean messagesDone(List<RowLogMessage> messages, String subscriptionId) throws RowLogException,
+            InterruptedException {
+        return delegate.messagesDone(messages, subscriptionId);
+    }
+
     @Override
     public boolean isMessageDone(RowLogMessage message, String subscriptionId) throws RowLogException {
         return delegate.isMessageDone(message, subscriptionId);
@@ -139,6 +139,7 @@ public class RepositorySetup {
     private BlobStoreAccessFactory createBlobAccess() throws Exception {
         DFSBlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(hbaseProxy.getBlobFS(), new Path("/lily/blobs"));
         BlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(hadoopConf);
+        BlobStoreAccess chunkedHBaseBlobStoreAccess = new ChunkedHBaseBlobStoreAccess(hadoopConf);
         BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
 
         BlobStoreAccessConfig blobStoreAccessConfig = new BlobStoreAccessConfig(dfsBlobStoreAccess.getId());
@@ -151,7 +152,8 @@ public class RepositorySetup {
             blobStoreAccessConfig.setLimit(inlineBlobStoreAccess.getId(), inlineBlobLimit);
         }
 
-        List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess, inlineBlobStoreAccess);
+        List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess,
+                chunkedHBaseBlobStoreAccess, inlineBlobStoreAccess);
         SizeBasedBlobStoreAccessFactory blobStoreAccessFactory = new SizeBasedBlobStoreAccessFactory(blobStoreAccesses, blobStoreAccessConfig);
         return blobStoreAccessFactory;
     }
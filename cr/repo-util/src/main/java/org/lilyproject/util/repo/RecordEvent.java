@@ -27,8 +27,10 @@ import org.lilyproject.util.json.JsonFormat;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -46,6 +48,8 @@ public class RecordEvent {
     private String indexName;
     /** For index-type events: affected vtags */
     private Set<SchemaId> vtagsToIndex;
+    /** The state of the record after the create or update, serialized as IdRecord. Optional. */
+    private byte[] recordSnapshot;
 
     public enum Type {
         CREATE("repo:record-created"),
@@ -121,6 +125,8 @@ public class RecordEvent {
                 while (jp.nextToken() != JsonToken.END_ARRAY) {
                     addVTagToIndex(idGenerator.getSchemaId(jp.getBinaryValue()));
                 }
+            } else if (fieldName.equals("recordSnapshot")) {
+                recordSnapshot = jp.getBinaryValue();
             }
         }
     }
@@ -196,6 +202,67 @@ public class RecordEvent {
         vtagsToIndex.add(vtag);
     }
 
+    /**
+     * The last version of the record (or the non-versioned record if the record has no versions) as it was
+     * right after this create or update, serialized with the RecordAsBytesConverter as IdRecord. This allows
+     * subscribers to avoid reading the record again.
+     *
+     * <p>This is null if the repository did not include the snapshot, e.g. because the record was too large.
+     * It is never included for updates of versioned-mutable data of an existing version.
+     */
+    public byte[] getRecordSnapshot() {
+        return recordSnapshot;
+    }
+
+    public void setRecordSnapshot(byte[] recordSnapshot) {
+        this.recordSnapshot = recordSnapshot;
+    }
+
+    /**
+     * Merges the create and update events of one record, in the order they occurred, into one event which
+     * describes their combined effect: it is a create event if one of them was a create event, the updated
+     * fields are the union of the updated fields, and the created version is the last created version.
+     * The record snapshot is the one of the last event, so it is absent if the last event has none.
+     *
+     * <p>Returns null if the events cannot be described by one event, which is the case for delete and index
+     * events, and when the events modified versioned-mutable data of an existing version together with
+     * creating versions or modifying another version.
+     */
+    public static RecordEvent merge(List<RecordEvent> events) {
+        RecordEvent merged = new RecordEvent();
+        merged.type = Type.UPDATE;
+
+        for (RecordEvent event : events) {
+            if (event.type == Type.CREATE) {
+                merged.type = Type.CREATE;
+            } else if (event.type != Type.UPDATE) {
+                return null;
+            }
+
+            if (event.versionUpdated != -1) {
+                if (merged.versionUpdated != -1 && merged.versionUpdated != event.versionUpdated) {
+                    return null;
+                }
+                merged.versionUpdated = event.versionUpdated;
+            }
+
+            merged.versionCreated = Math.max(merged.versionCreated, event.versionCreated);
+            merged.recordTypeChanged = merged.recordTypeChanged || event.recordTypeChanged;
+
+            for (SchemaId field : event.getUpdatedFields()) {
+                merged.addUpdatedField(field);
+            }
+
+            merged.recordSnapshot = event.recordSnapshot;
+        }
+
+        if (merged.versionUpdated != -1 && merged.versionCreated != -1) {
+            return null;
+        }
+
+        return merged;
+    }
+
     public void toJson(JsonGenerator gen) throws IOException {
         gen.writeStartObject();
 
@@ -235,6 +302,11 @@ public class RecordEvent {
             gen.writeEndArray();
         }
 
+        if (recordSnapshot != null) {
+            gen.writeFieldName("recordSnapshot");
+            gen.writeBinary(recordSnapshot);
+        }
+
         gen.writeEndObject();
         gen.flush();
     }
@@ -294,6 +366,9 @@ public class RecordEvent {
         if (!ObjectUtils.safeEquals(other.vtagsToIndex, this.vtagsToIndex))
             return false;
 
+        if (!Arrays.equals(other.recordSnapshot, this.recordSnapshot))
+            return false;
+
         return true;
     }
 
@@ -306,6 +381,7 @@ public class RecordEvent {
         result = 31 * result + (recordTypeChanged ? 1 : 0);
         result = 31 * result + (indexName != null ? indexName.hashCode() : 0);
         result = 31 * result + (vtagsToIndex != null ? vtagsToIndex.hashCode() : 0);
+        result = 31 * result + Arrays.hashCode(recordSnapshot);
         return result;
     }
 }
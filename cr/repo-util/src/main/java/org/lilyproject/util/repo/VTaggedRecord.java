@@ -52,6 +52,13 @@ public class VTaggedRecord {
 
     private FieldFilter fieldFilter;
 
+    private VersionLoader versionLoader;
+
+    /**
+     * Versions of the record read in advance by {@link #prefetchVersions}.
+     */
+    private Map<Long, IdRecord> prefetchedVersions = Collections.emptyMap();
+
     public VTaggedRecord(RecordId recordId, Repository repository) throws RepositoryException, InterruptedException {
         this(recordId, null, repository);
     }
@@ -63,19 +70,50 @@ public class VTaggedRecord {
 
     public VTaggedRecord(RecordId recordId, RecordEvent recordEvent, FieldFilter fieldFilter, Repository repository)
             throws RepositoryException, InterruptedException {
+        this(recordId, null, recordEvent, fieldFilter, repository);
+    }
+
+    /**
+     * Constructor for when the state of the record after the event is known, typically from the snapshot
+     * included in the event (see {@link RecordEvent#getRecordSnapshot()}).
+     *
+     * @param snapshot the last version of the record (or the non-versioned record if the record has no versions),
+     *                 if null the record will be read from the repository
+     */
+    public VTaggedRecord(RecordId recordId, IdRecord snapshot, RecordEvent recordEvent, FieldFilter fieldFilter,
+            Repository repository) throws RepositoryException, InterruptedException {
 
         this.repository = repository;
         typeManager = repository.getTypeManager();
 
-        // Load the last version of the record to get vtag and non-versioned fields information
-        // We will also reuse this record object in case the last version or the non-versioned data is needed,
-        // to avoid extra gets on HBase.
-        record = repository.readWithIds(recordId, null, null);
+        if (snapshot != null && recordId.equals(snapshot.getId())) {
+            record = snapshot;
+        } else {
+            // Load the last version of the record to get vtag and non-versioned fields information
+            // We will also reuse this record object in case the last version or the non-versioned data is needed,
+            // to avoid extra gets on HBase.
+            record = repository.readWithIds(recordId, null, null);
+        }
 
         this.recordEvent = recordEvent;
         this.fieldFilter = fieldFilter != null ? fieldFilter : PASS_ALL_FIELD_FILTER;
     }
 
+    /**
+     * Constructor for when the record was already read, e.g. as part of a scan.
+     *
+     * @param record the last version of the record (or the non-versioned record if the record has no versions)
+     * @param versionLoader used to get other versions of the record, if null these will be read from
+     *                      the repository
+     */
+    public VTaggedRecord(IdRecord record, VersionLoader versionLoader, Repository repository) {
+        this.repository = repository;
+        this.typeManager = repository.getTypeManager();
+        this.record = record;
+        this.versionLoader = versionLoader;
+        this.fieldFilter = PASS_ALL_FIELD_FILTER;
+    }
+
     public RecordId getId() {
         return record.getId();
     }
@@ -247,11 +285,57 @@ public class VTaggedRecord {
             return getNonVersionedRecord();
         } else if (record.getVersion() != null && version == record.getVersion()) {
             return record;
+        } else if (versionLoader != null) {
+            return versionLoader.loadVersion(version);
+        } else if (prefetchedVersions.containsKey(version)) {
+            return prefetchedVersions.get(version);
         } else {
             return repository.readWithIds(record.getId(), version, fields);
         }
     }
 
+    /**
+     * Reads the given versions of the record from the repository in one call, so that subsequent calls
+     * to {@link #getIdRecord} for these versions don't need to go to the repository one by one. This is
+     * useful when the record will be processed for multiple vtags pointing to different versions.
+     *
+     * <p>Versions which are already available (the last version, the non-versioned record) are skipped.
+     * Versions which do not exist are not an error here, they will be reported by {@link #getIdRecord}.
+     * Does nothing in case a {@link VersionLoader} is used.
+     */
+    public void prefetchVersions(Collection<Long> versions) throws RepositoryException, InterruptedException {
+        if (versionLoader != null) {
+            return;
+        }
+
+        Set<Long> versionsToRead = new HashSet<Long>();
+        for (Long version : versions) {
+            if (version != null && version != 0L && !version.equals(record.getVersion())
+                    && !prefetchedVersions.containsKey(version)) {
+                versionsToRead.add(version);
+            }
+        }
+
+        // Only worth it when it saves a read
+        if (versionsToRead.size() < 2) {
+            return;
+        }
+
+        List<IdRecord> records;
+        try {
+            records = repository.readVersionsWithIds(record.getId(), versionsToRead, null);
+        } catch (RecordNotFoundException e) {
+            // Record was deleted in the meantime, getIdRecord will report this
+            return;
+        }
+
+        Map<Long, IdRecord> prefetched = new HashMap<Long, IdRecord>(prefetchedVersions);
+        for (IdRecord versionRecord : records) {
+            prefetched.put(versionRecord.getVersion(), versionRecord);
+        }
+        prefetchedVersions = prefetched;
+    }
+
     /**
      * Removes any versioned information from the supplied record object.
      *
@@ -310,6 +394,17 @@ public class VTaggedRecord {
         boolean accept(FieldType fieldtype);
     }
 
+    /**
+     * Provides versions of the record from another source than reading them from the repository.
+     */
+    public static interface VersionLoader {
+        /**
+         * Should throw a {@link VersionNotFoundException} if the version does not exist, the same
+         * as {@link Repository#readWithIds} does.
+         */
+        IdRecord loadVersion(long version) throws RepositoryException, InterruptedException;
+    }
+
     private static final FieldFilter PASS_ALL_FIELD_FILTER = new FieldFilter() {
         @Override
         public boolean accept(FieldType fieldtype) {
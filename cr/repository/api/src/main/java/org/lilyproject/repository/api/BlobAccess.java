@@ -27,4 +27,10 @@ public interface BlobAccess {
      * The InputStream is only opened when this method is called.
      */
     InputStream getInputStream() throws BlobException;
+
+    /**
+     * Opens an InputStream which starts at the given position in the blob, see
+     * {@link BlobStoreAccess#getInputStream(byte[], long)}.
+     */
+    InputStream getInputStream(long offset) throws BlobException;
 }
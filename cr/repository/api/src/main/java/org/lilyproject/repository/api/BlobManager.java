@@ -17,6 +17,7 @@ package org.lilyproject.repository.api;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.Set;
 
 public interface BlobManager {
@@ -92,4 +93,11 @@ public interface BlobManager {
     void register(BlobStoreAccess blobStoreAccess);
 
     void delete(byte[] blobKey) throws BlobException;
+
+    /**
+     * Deletes the given blobs, grouping them per blobstore so that each blobstore can delete them in bulk.
+     *
+     * @return the keys of the blobs which could not be deleted
+     */
+    List<byte[]> delete(List<byte[]> blobKeys);
 }
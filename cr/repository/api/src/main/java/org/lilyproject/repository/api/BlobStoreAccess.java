@@ -17,6 +17,7 @@ package org.lilyproject.repository.api;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 
 /**
  * The BlobStoreAccess provides access to a specific underlying blob store. This blob store must be able to store
@@ -58,6 +59,14 @@ public interface BlobStoreAccess {
      */
     InputStream getInputStream(byte[] key) throws BlobException;
 
+    /**
+     * Same as {@link #getInputStream(byte[])}, but the InputStream starts at the given position in the
+     * blob. This allows to efficiently read a range of a blob.
+     *
+     * @param offset the position of the first byte to read, should not be larger than the size of the blob
+     */
+    InputStream getInputStream(byte[] key, long offset) throws BlobException;
+
     /**
      * Delete the bytes identified by the key from the blobstore
      *
@@ -66,6 +75,15 @@ public interface BlobStoreAccess {
      * @throws BlobException when an unexpected exception occurred (e.g. an IOException of the underlying blobstore)
      */
     void delete(byte[] key) throws BlobException;
+
+    /**
+     * Bulk variant of {@link #delete(byte[])}. Blobstores should delete the blobs with as few calls to the
+     * underlying store as possible.
+     *
+     * @throws BlobException when an unexpected exception occurred, in which case it is not known which of the
+     *                       blobs were deleted
+     */
+    void delete(List<byte[]> keys) throws BlobException;
     
     boolean incubate();
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+/**
+ * The outcome for one record of a batch operation such as {@link Repository#createBatch(java.util.List)}.
+ *
+ * <p>Either the record is available (the operation succeeded for this record, see its
+ * {@link Record#getResponseStatus() response status}), or the exception that made the operation fail
+ * for this record.
+ */
+public class RecordBatchResult {
+    private final Record record;
+    private final RepositoryException exception;
+
+    public RecordBatchResult(Record record) {
+        this.record = record;
+        this.exception = null;
+    }
+
+    public RecordBatchResult(RepositoryException exception) {
+        this.record = null;
+        this.exception = exception;
+    }
+
+    /**
+     * The resulting record, null if the operation failed for this record.
+     */
+    public Record getRecord() {
+        return record;
+    }
+
+    /**
+     * The exception that occurred for this record, null if the operation succeeded.
+     */
+    public RepositoryException getException() {
+        return exception;
+    }
+
+    public boolean isSuccess() {
+        return exception == null;
+    }
+}
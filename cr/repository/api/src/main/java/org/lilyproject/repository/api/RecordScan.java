@@ -31,6 +31,8 @@ public class RecordScan {
     private ReturnFields returnFields;
     private int caching = -1;
     private boolean cacheBlocks = true;
+    private int parallelism = 1;
+    private boolean ordered = true;
 
     /**
      * @see #setStartRecordId(RecordId)
@@ -212,4 +214,45 @@ public class RecordScan {
     public void setCacheBlocks(boolean cacheBlocks) {
         this.cacheBlocks = cacheBlocks;
     }
+
+    /**
+     * @see #setParallelism(int)
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of regions of the record table that will be scanned concurrently.
+     *
+     * <p>By default this is 1, which means the regions are scanned one after the other. When
+     * set to a larger value, the key range of the scan is split at the region boundaries, and
+     * the regions are scanned by a pool of this many threads, which also take care of decoding
+     * the records. Each region scan reads ahead up to {@link #setCaching(int) caching} records.</p>
+     *
+     * <p>This is useful for scanning large parts of the repository, e.g. to export or reprocess
+     * all records. For short scans, the overhead of setting up the threads will dominate.</p>
+     *
+     * @see #setOrdered(boolean)
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @see #setOrdered(boolean)
+     */
+    public boolean getOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Sets whether the records should be returned in record ID order when doing a parallel
+     * scan (see {@link #setParallelism(int)}). By default this is true. When false, records are
+     * returned as soon as any of the region scans produces them, which avoids waiting on slow
+     * regions.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
 }
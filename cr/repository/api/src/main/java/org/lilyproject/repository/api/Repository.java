@@ -203,6 +203,30 @@ public interface Repository extends Closeable {
      */
     Record createOrUpdate(Record record, boolean useLatestRecordType) throws RepositoryException, InterruptedException;
 
+    /**
+     * Creates a batch of records in the repository.
+     *
+     * <p>This behaves as calling {@link #create(Record)} for each of the records, but the work which involves
+     * the storage (reading the current row state, allocating sequence numbers and putting the messages on
+     * the write-ahead-log) is grouped over all the records in the batch, which makes this considerably
+     * faster for bulk loading.
+     *
+     * <p>The batch is not atomic: the creation of each record succeeds or fails on its own. The returned list
+     * contains a result for each record, in the same order as the supplied records. Failures which concern
+     * a single record (e.g. a {@link RecordExistsException}) are reported through its {@link RecordBatchResult},
+     * rather than thrown. Each record id should occur only once in a batch.
+     */
+    List<RecordBatchResult> createBatch(List<Record> records) throws RepositoryException, InterruptedException;
+
+    /**
+     * Updates a batch of records in the repository.
+     *
+     * <p>This behaves as calling {@link #update(Record)} for each of the records, with the same grouping
+     * of storage work as described for {@link #createBatch(List)}. The returned list contains a result for
+     * each record, in the same order as the supplied records. Each record id should occur only once in a batch.
+     */
+    List<RecordBatchResult> updateBatch(List<Record> records) throws RepositoryException, InterruptedException;
+
     /**
      * @deprecated in favor of using varargs for the fieldNames. Please use {@link #read(List, QName...)} instead.
      * 
@@ -358,6 +382,32 @@ public interface Repository extends Closeable {
     IdRecord readWithIds(RecordId recordId, Long version, List<SchemaId> fieldIds)
             throws RepositoryException, InterruptedException;
 
+    /**
+     * Reads the latest version of a list of Records in one go and also returns the mapping from QNames to IDs.
+     *
+     * <p>This is the {@link IdRecord} counterpart of {@link #read(List, List)}: no RecordNotFoundException is
+     * thrown when a record does not exist or has been deleted, the returned list will simply not contain an
+     * entry for that id.
+     *
+     * @param recordIds ids of the records to read, null is not allowed
+     * @param fieldIds load only the fields with these ids. optional, can be null.
+     */
+    List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException;
+
+    /**
+     * Reads a set of versions of a Record in one go and also returns the mapping from QNames to IDs.
+     *
+     * <p>This is the {@link IdRecord} counterpart of {@link #readVersions(RecordId, List, List)}: requested
+     * versions higher than the latest version of the record are not returned.
+     *
+     * @param versions the versions to read, null is not allowed
+     * @param fieldIds load only the fields with these ids. optional, can be null.
+     * @return the records, ordered by version
+     */
+    List<IdRecord> readVersionsWithIds(RecordId recordId, Set<Long> versions, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException;
+
     /**
      * Delete a {@link Record} from the repository.
      *
@@ -76,6 +76,12 @@ public interface ValueType {
 
     <T> T read(byte[] data) throws RepositoryException, InterruptedException;
 
+    /**
+     * Same as {@link #read(byte[])}, but decodes the value from a range of the given byte[]. This avoids
+     * having to copy the value out of a larger array, such as an HBase cell value with its prefix.
+     */
+    <T> T read(byte[] data, int offset, int length) throws RepositoryException, InterruptedException;
+
     /**
      * Encodes an object of the type represented by this value type to a
      * {@link DataOutput}.
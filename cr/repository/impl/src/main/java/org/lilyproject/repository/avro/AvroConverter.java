@@ -23,7 +23,7 @@ import java.util.Map.Entry;
 import org.apache.avro.AvroRemoteException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.ByteBufferDataInput;
 import org.lilyproject.repository.api.*;
 import org.lilyproject.repository.impl.RecordAsBytesConverter;
 import org.lilyproject.repository.impl.SchemaIdImpl;
@@ -44,18 +44,12 @@ public class AvroConverter {
         this.typeManager = repository.getTypeManager();
     }
 
-    private byte[] asArray(ByteBuffer buffer) {
-        byte[] bytes = new byte[buffer.remaining()];
-        buffer.get(bytes, 0, bytes.length);
-        return bytes;
-    }
-
     public Record convertRecord(ByteBuffer recordData) throws RepositoryException, InterruptedException {
-        return RecordAsBytesConverter.read(new DataInputImpl(asArray(recordData)), repository);
+        return RecordAsBytesConverter.read(new ByteBufferDataInput(recordData), repository);
     }
 
     public IdRecord convertIdRecord(ByteBuffer avroIdRecord) throws RepositoryException, InterruptedException {
-        return RecordAsBytesConverter.readIdRecord(new DataInputImpl(asArray(avroIdRecord)), repository);
+        return RecordAsBytesConverter.readIdRecord(new ByteBufferDataInput(avroIdRecord), repository);
     }
     
     public List<MutationCondition> convertFromAvro(List<AvroMutationCondition> avroConditions)
@@ -537,6 +531,34 @@ public class AvroConverter {
         return avroRecords;
     }
     
+    public List<AvroRecordBatchResult> convertBatchResults(List<RecordBatchResult> results)
+            throws AvroRepositoryException, AvroInterruptedException, RepositoryException, InterruptedException {
+        List<AvroRecordBatchResult> avroResults = new ArrayList<AvroRecordBatchResult>(results.size());
+        for (RecordBatchResult result : results) {
+            AvroRecordBatchResult avroResult = new AvroRecordBatchResult();
+            if (result.isSuccess()) {
+                avroResult.setRecord(convert(result.getRecord()));
+            } else {
+                avroResult.setException(convert(result.getException()));
+            }
+            avroResults.add(avroResult);
+        }
+        return avroResults;
+    }
+
+    public List<RecordBatchResult> convertAvroBatchResults(List<AvroRecordBatchResult> avroResults)
+            throws RepositoryException, InterruptedException {
+        List<RecordBatchResult> results = new ArrayList<RecordBatchResult>(avroResults.size());
+        for (AvroRecordBatchResult avroResult : avroResults) {
+            if (avroResult.getException() != null) {
+                results.add(new RecordBatchResult(convert(avroResult.getException())));
+            } else {
+                results.add(new RecordBatchResult(convertRecord(avroResult.getRecord())));
+            }
+        }
+        return results;
+    }
+
     public Set<RecordId> convertAvroRecordIds(List<String> avroRecordIds) {
         Set<RecordId> recordIds = new HashSet<RecordId>();
         IdGenerator idGenerator = repository.getIdGenerator();
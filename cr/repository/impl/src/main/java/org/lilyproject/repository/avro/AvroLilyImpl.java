@@ -57,6 +57,30 @@ public class AvroLilyImpl implements AvroLily {
         }
     }
 
+    @Override
+    public List<AvroRecordBatchResult> createBatch(List<ByteBuffer> avroRecords)
+            throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            return converter.convertBatchResults(repository.createBatch(converter.convertAvroRecords(avroRecords)));
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        }
+    }
+
+    @Override
+    public List<AvroRecordBatchResult> updateBatch(List<ByteBuffer> avroRecords)
+            throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            return converter.convertBatchResults(repository.updateBatch(converter.convertAvroRecords(avroRecords)));
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        }
+    }
+
     @Override
     public ByteBuffer delete(ByteBuffer recordId, List<AvroMutationCondition> conditions)
             throws AvroRepositoryException, AvroInterruptedException {
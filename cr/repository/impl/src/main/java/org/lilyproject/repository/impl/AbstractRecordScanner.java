@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.Iterator;
+
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RepositoryException;
+
+/**
+ * Base class for RecordScanner implementations, provides the iterator on top of {@link #next()}.
+ */
+public abstract class AbstractRecordScanner implements RecordScanner {
+    @Override
+    public Iterator<Record> iterator() {
+        return new Iterator<Record>() {
+            private Record next;
+            
+            @Override
+            public boolean hasNext() {
+                if (next != null) {
+                    return true;
+                } else {
+                    try {
+                        next = AbstractRecordScanner.this.next();
+                    } catch (RepositoryException e) {
+                        throw new RuntimeException(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                    return next != null;
+                }
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    return null;
+                }
+                
+                Record result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
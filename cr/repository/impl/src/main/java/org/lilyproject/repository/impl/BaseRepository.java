@@ -213,6 +213,15 @@ public abstract class BaseRepository implements Repository {
             hbaseScan.addFamily(RecordCf.DATA.bytes);
         }
 
+        if (scan.getParallelism() > 1) {
+            try {
+                return new ParallelHBaseRecordScanner(recordTable, hbaseScan, recdec, scan.getParallelism(),
+                        scan.getOrdered());
+            } catch (IOException e) {
+                throw new RecordException("Error creating parallel scanner", e);
+            }
+        }
+
         ResultScanner hbaseScanner;
         try {
             hbaseScanner = recordTable.getScanner(hbaseScan);
@@ -42,4 +42,9 @@ public class BlobAccessImpl implements BlobAccess {
     public InputStream getInputStream() throws BlobException {
         return blobStoreAccess.getInputStream(blobKey);
     }
+
+    @Override
+    public InputStream getInputStream(long offset) throws BlobException {
+        return blobStoreAccess.getInputStream(blobKey, offset);
+    }
 }
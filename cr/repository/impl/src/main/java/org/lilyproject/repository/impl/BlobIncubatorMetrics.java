@@ -37,6 +37,17 @@ public class BlobIncubatorMetrics implements Updater {
 
     public MetricsTimeVaryingInt blobDeleteCount = new MetricsTimeVaryingInt("blob_delete_cnt", registry);
     public MetricsTimeVaryingInt refDeleteCount = new MetricsTimeVaryingInt("ref_delete_cnt", registry);
+
+    public MetricsTimeVaryingLong checkCount = new MetricsTimeVaryingLong("check_cnt", registry);
+
+    /**
+     * Progress of the current run: the number of regions of the blob incubator table, how many of them
+     * have been checked, the number of checked entries and the entries checked per second.
+     */
+    public MetricsIntValue runRegions = new MetricsIntValue("run_regions", registry);
+    public MetricsIntValue runRegionsDone = new MetricsIntValue("run_regions_done", registry);
+    public MetricsLongValue runCheckCount = new MetricsLongValue("run_check_cnt", registry);
+    public MetricsLongValue runThroughput = new MetricsLongValue("run_checks_per_sec", registry);
     
     public BlobIncubatorMetrics() {
         context = MetricsUtil.getContext("blobIncubator");
@@ -16,19 +16,29 @@
 package org.lilyproject.repository.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.*;
-import org.apache.hadoop.hbase.filter.*;
-import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
 import org.apache.zookeeper.KeeperException;
 import org.lilyproject.hbaseext.ContainsValueComparator;
 import org.lilyproject.repository.api.*;
 import org.lilyproject.util.Logs;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
@@ -38,28 +48,54 @@ import org.lilyproject.util.zookeeper.*;
 import static org.lilyproject.util.hbase.LilyHBaseSchema.BlobIncubatorCf;
 import static org.lilyproject.util.hbase.LilyHBaseSchema.BlobIncubatorColumn;
 
+/**
+ * Monitors the blob incubator table and cleans up the blobs which were uploaded but never used in a record,
+ * as well as the references of blobs which are used but of which the reference was not removed.
+ *
+ * <p>Each run splits the blob incubator table at its region boundaries, the regions are checked by a pool of
+ * threads. The entries are handled in batches: the usage of the blobs is checked with one multi-get on the
+ * record table and the unused blobs are deleted from their blobstore in bulk. The number of entries checked
+ * per second, over all threads, can be limited.
+ */
 public class BlobIncubatorMonitor {
     private Log log = LogFactory.getLog(getClass());
     private BlobIncubatorMetrics metrics = new BlobIncubatorMetrics();
     private final ZooKeeperItf zk;
     private LeaderElection leaderElection;
     private final long minimalAge;
-    private final long monitorDelay;
     private final BlobManager blobManager;
     private final TypeManager typeManager;
     private MonitorThread monitorThread;
     private HTableInterface recordTable;
     private HTableInterface blobIncubatorTable;
     private final long runDelay;
+    private final int threads;
+    private final long maxRate;
+
+    private static final int BATCH_SIZE = 100;
 
+    /**
+     * Creates a monitor which checks the blob incubator table on one thread, pausing monitorDelay ms per entry.
+     */
     public BlobIncubatorMonitor(ZooKeeperItf zk, HBaseTableFactory tableFactory, BlobManager blobManager,
             TypeManager typeManager, long minimalAge, long monitorDelay, long runDelay) throws IOException {
+        this(zk, tableFactory, blobManager, typeManager, minimalAge, runDelay, 1,
+                monitorDelay > 0 ? Math.max(1, 1000 / monitorDelay) : 0);
+    }
+
+    /**
+     * @param threads the number of regions of the blob incubator table which are checked concurrently
+     * @param maxRate the maximum number of entries checked per second, 0 for no limit
+     */
+    public BlobIncubatorMonitor(ZooKeeperItf zk, HBaseTableFactory tableFactory, BlobManager blobManager,
+            TypeManager typeManager, long minimalAge, long runDelay, int threads, long maxRate) throws IOException {
         this.zk = zk;
         this.blobManager = blobManager;
         this.typeManager = typeManager;
         this.minimalAge = minimalAge;
-        this.monitorDelay = monitorDelay;
         this.runDelay = runDelay;
+        this.threads = Math.max(1, threads);
+        this.maxRate = maxRate;
 
         this.blobIncubatorTable = LilyHBaseSchema.getBlobIncubatorTable(tableFactory, false);
         this.recordTable = LilyHBaseSchema.getRecordTable(tableFactory);
@@ -121,7 +157,11 @@ public class BlobIncubatorMonitor {
     }
  
     private class MonitorThread extends Thread {
-        private boolean stopRequested = false;
+        private volatile boolean stopRequested = false;
+        private RateLimiter rateLimiter;
+        private final AtomicLong runCheckCount = new AtomicLong();
+        private final AtomicInteger runRegionsDone = new AtomicInteger();
+        private long monitorBegin;
 
         public MonitorThread() {
         }
@@ -161,113 +201,276 @@ public class BlobIncubatorMonitor {
 
         public void monitor() throws IOException, RepositoryException, InterruptedException {
             log.debug("Start run blob incubator monitor");
-            long monitorBegin = System.currentTimeMillis();
-            Scan scan = new Scan();
-            scan.addFamily(BlobIncubatorCf.REF.bytes);
-            long maxStamp = System.currentTimeMillis() - minimalAge;
-            scan.setTimeRange(0, maxStamp);
-            ResultScanner scanner = blobIncubatorTable.getScanner(scan);
-            while (!stopRequested) {
-                Result[] results = scanner.next(100);
-                if (results == null || (results.length == 0)) {
-                   break;
-                }
-                for (Result result : results) {
-                    long before = System.currentTimeMillis();
-                    checkResult(result);
-                    // usually these times will be very short, a bit too short to measure with ms precision, but
-                    // this is mainly to observe when it would take long so that is fine
-                    metrics.checkDuration.inc(System.currentTimeMillis() - before);
-
-                    if (stopRequested) {
-                        break;
-                    }
+            monitorBegin = System.currentTimeMillis();
+            long maxStamp = monitorBegin - minimalAge;
+            rateLimiter = maxRate > 0 ? new RateLimiter(maxRate) : null;
+            runCheckCount.set(0);
+            runRegionsDone.set(0);
+
+            List<Pair<byte[], byte[]>> ranges = ParallelHBaseRecordScanner.getRegionRanges(blobIncubatorTable,
+                    new byte[0], new byte[0]);
+            metrics.runRegions.set(ranges.size());
+            metrics.runRegionsDone.set(0);
+            metrics.runCheckCount.set(0);
+            metrics.runThroughput.set(0);
 
-                    if (monitorDelay > 0) {
-                        Thread.sleep(monitorDelay);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, ranges.size())),
+                    new CustomThreadFactory("blob-incubator-monitor", null, true));
+            try {
+                List<Future<Void>> futures = new ArrayList<Future<Void>>(ranges.size());
+                for (Pair<byte[], byte[]> range : ranges) {
+                    Scan scan = new Scan(range.getFirst(), range.getSecond());
+                    scan.addFamily(BlobIncubatorCf.REF.bytes);
+                    scan.setTimeRange(0, maxStamp);
+                    scan.setCaching(BATCH_SIZE);
+                    futures.add(executor.submit(new RegionCheck(scan)));
+                }
+                for (Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException)cause;
+                        } else if (cause instanceof RepositoryException) {
+                            throw (RepositoryException)cause;
+                        } else if (cause instanceof InterruptedException) {
+                            throw (InterruptedException)cause;
+                        }
+                        throw new RepositoryException("Error checking the blob incubator table", cause);
                     }
                 }
+            } finally {
+                executor.shutdownNow();
             }
-            Closer.close(scanner);
             metrics.runDuration.inc(System.currentTimeMillis() - monitorBegin);
             log.debug("Stop run blob incubator monitor");
         }
 
-        private void checkResult(Result result) throws IOException, RepositoryException, InterruptedException {
-            byte[] recordIdBytes = result.getValue(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.RECORD.bytes);
-            SchemaId recordId = new SchemaIdImpl(recordIdBytes);
-            byte[] blobKey = result.getRow();
-            if (Arrays.equals(recordIdBytes,BlobManagerImpl.INCUBATE)) {
-                    deleteBlob(blobKey, recordId, null);
-            } else {
-                SchemaId fieldId = new SchemaIdImpl(result.getValue(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.FIELD.bytes));
-                Result blobUsage;
+        private class RegionCheck implements Callable<Void> {
+            private final Scan scan;
+
+            public RegionCheck(Scan scan) {
+                this.scan = scan;
+            }
+
+            @Override
+            public Void call() throws IOException, RepositoryException, InterruptedException {
+                ResultScanner scanner = blobIncubatorTable.getScanner(scan);
                 try {
-                    blobUsage = getBlobUsage(blobKey, recordId, fieldId);
-                    if (blobUsage == null || blobUsage.isEmpty()) {
-                        deleteBlob(blobKey, recordId, fieldId); // Delete blob and reference
-                    } else {
-                        deleteReference(blobKey, recordId); // The blob is used: only delete the reference
+                    while (!stopRequested) {
+                        Result[] results = scanner.next(BATCH_SIZE);
+                        if (results == null || (results.length == 0)) {
+                            break;
+                        }
+                        if (rateLimiter != null) {
+                            rateLimiter.acquire(results.length);
+                        }
+                        long before = System.currentTimeMillis();
+                        checkResults(results);
+                        // this is mainly to observe when it would take long, so the ms precision is fine
+                        metrics.checkDuration.inc(System.currentTimeMillis() - before);
+                        reportProgress(results.length);
                     }
+                } finally {
+                    Closer.close(scanner);
+                }
+                metrics.runRegionsDone.set(runRegionsDone.incrementAndGet());
+                return null;
+            }
+        }
+
+        private void reportProgress(int checked) {
+            metrics.checkCount.inc(checked);
+            long count = runCheckCount.addAndGet(checked);
+            metrics.runCheckCount.set(count);
+            long duration = System.currentTimeMillis() - monitorBegin;
+            if (duration > 0) {
+                metrics.runThroughput.set(count * 1000 / duration);
+            }
+        }
+
+        private void checkResults(Result[] results) throws IOException, InterruptedException {
+            List<IncubatorEntry> unusedEntries = new ArrayList<IncubatorEntry>();
+            List<IncubatorEntry> reservedEntries = new ArrayList<IncubatorEntry>();
+            List<Get> gets = new ArrayList<Get>();
+
+            for (Result result : results) {
+                byte[] recordIdBytes = result.getValue(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.RECORD.bytes);
+                byte[] blobKey = result.getRow();
+                if (Arrays.equals(recordIdBytes, BlobManagerImpl.INCUBATE)) {
+                    unusedEntries.add(new IncubatorEntry(blobKey, recordIdBytes, null));
+                    continue;
+                }
+                byte[] fieldIdBytes = result.getValue(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.FIELD.bytes);
+                SchemaId fieldId = new SchemaIdImpl(fieldIdBytes);
+                try {
+                    IncubatorEntry entry = new IncubatorEntry(blobKey, recordIdBytes, fieldIdBytes);
+                    gets.add(getBlobUsageGet(entry, fieldId));
+                    reservedEntries.add(entry);
                 } catch (FieldTypeNotFoundException e) {
                     log.warn("Failed to check blob usage " + Hex.encodeHexString(blobKey) +
-                            ", recordId " + recordId +
+                            ", recordId " + Hex.encodeHexString(recordIdBytes) +
                             ", fieldId " + fieldId, e);
                 } catch (TypeException e) {
                     log.warn("Failed to check blob usage " + Hex.encodeHexString(blobKey) +
-                            ", recordId " + recordId +
+                            ", recordId " + Hex.encodeHexString(recordIdBytes) +
+                            ", fieldId " + fieldId, e);
+                } catch (RepositoryException e) {
+                    log.warn("Failed to check blob usage " + Hex.encodeHexString(blobKey) +
+                            ", recordId " + Hex.encodeHexString(recordIdBytes) +
                             ", fieldId " + fieldId, e);
                 }
             }
-        }
 
-        private void deleteBlob(byte[] blobKey, SchemaId recordId, SchemaId fieldId) throws IOException {
-            if (deleteReference(blobKey, recordId)) {
-                try {
-                    blobManager.delete(blobKey);
-                    metrics.blobDeleteCount.inc();
-                } catch (BlobException e) {
-                    log.warn("Failed to delete blob " + Hex.encodeHexString(blobKey), e);
-                    // Deleting the blob failed. We put back the reference to try it again later.
-                    // There's a small chance that this fails as well. In that there will be an unreferenced blob in the blobstore.
-                    Put put = new Put(blobKey);
-                    put.add(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.RECORD.bytes, recordId.getBytes());
-                    if (fieldId != null) {
-                        put.add(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.FIELD.bytes, fieldId.getBytes());
+            if (!gets.isEmpty()) {
+                Result[] usages = recordTable.get(gets);
+                for (int i = 0; i < usages.length; i++) {
+                    IncubatorEntry entry = reservedEntries.get(i);
+                    if (isBlobUsed(entry, usages[i])) {
+                        deleteReference(entry); // The blob is used: only delete the reference
+                    } else {
+                        unusedEntries.add(entry);
                     }
-                    blobIncubatorTable.put(put);
-                    return;
                 }
             }
+
+            deleteBlobs(unusedEntries);
         }
 
-        private boolean deleteReference(byte[] blobKey, SchemaId recordId) throws IOException {
-            Delete delete = new Delete(blobKey);
-            boolean result = blobIncubatorTable.checkAndDelete(blobKey, BlobIncubatorCf.REF.bytes,
-                    BlobIncubatorColumn.RECORD.bytes, recordId.getBytes(), delete);
+        /**
+         * Deletes the references and the blobs of the given entries, the blobs are deleted in bulk.
+         */
+        private void deleteBlobs(List<IncubatorEntry> entries) throws IOException {
+            List<IncubatorEntry> deletedEntries = new ArrayList<IncubatorEntry>(entries.size());
+            List<byte[]> blobKeys = new ArrayList<byte[]>(entries.size());
+            for (IncubatorEntry entry : entries) {
+                if (deleteReference(entry)) {
+                    deletedEntries.add(entry);
+                    blobKeys.add(entry.blobKey);
+                }
+            }
+            if (blobKeys.isEmpty()) {
+                return;
+            }
+
+            List<byte[]> failedKeys = blobManager.delete(blobKeys);
+            metrics.blobDeleteCount.inc(blobKeys.size() - failedKeys.size());
+            if (failedKeys.isEmpty()) {
+                return;
+            }
+
+            // Deleting the blobs failed. We put back the references to try it again later.
+            // There's a small chance that this fails as well. In that there will be unreferenced blobs in the blobstore.
+            List<Put> puts = new ArrayList<Put>(failedKeys.size());
+            for (IncubatorEntry entry : deletedEntries) {
+                if (!containsKey(failedKeys, entry.blobKey)) {
+                    continue;
+                }
+                log.warn("Failed to delete blob " + Hex.encodeHexString(entry.blobKey));
+                Put put = new Put(entry.blobKey);
+                put.add(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.RECORD.bytes, entry.recordId);
+                if (entry.fieldId != null) {
+                    put.add(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.FIELD.bytes, entry.fieldId);
+                }
+                puts.add(put);
+            }
+            blobIncubatorTable.put(puts);
+        }
+
+        private boolean containsKey(List<byte[]> keys, byte[] key) {
+            for (byte[] candidate : keys) {
+                if (Arrays.equals(candidate, key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * The reference is only deleted if it did not change in the meantime, this needs a checkAndDelete
+         * per entry.
+         */
+        private boolean deleteReference(IncubatorEntry entry) throws IOException {
+            Delete delete = new Delete(entry.blobKey);
+            boolean result = blobIncubatorTable.checkAndDelete(entry.blobKey, BlobIncubatorCf.REF.bytes,
+                    BlobIncubatorColumn.RECORD.bytes, entry.recordId, delete);
             if (result) {
                 metrics.refDeleteCount.inc();
             }
             return result;
         }
 
-        private Result getBlobUsage(byte[] blobKey, SchemaId recordId, SchemaId fieldId) throws FieldTypeNotFoundException,
-                TypeException, InterruptedException, IOException, RepositoryException {
+        private Get getBlobUsageGet(IncubatorEntry entry, SchemaId fieldId) throws FieldTypeNotFoundException,
+                TypeException, InterruptedException, RepositoryException {
             FieldTypeImpl fieldType = (FieldTypeImpl)typeManager.getFieldTypeById(fieldId);
             ValueType valueType = fieldType.getValueType();
-            Get get = new Get(recordId.getBytes());
-            get.addColumn(RecordCf.DATA.bytes, fieldType.getQualifier());
-            byte[] valueToCompare = Bytes.toBytes(valueType.getNestingLevel());
-            valueToCompare = Bytes.add(valueToCompare, blobKey);
-            WritableByteArrayComparable valueComparator = new ContainsValueComparator(valueToCompare);
-            Filter filter = new SingleColumnValueFilter(RecordCf.DATA.bytes, fieldType.getQualifier(), CompareOp.EQUAL, valueComparator);
-            get.setFilter(filter);
-            return recordTable.get(get);
+            entry.qualifier = fieldType.getQualifier();
+            entry.valueToCompare = Bytes.add(Bytes.toBytes(valueType.getNestingLevel()), entry.blobKey);
+
+            Get get = new Get(entry.recordId);
+            get.addColumn(RecordCf.DATA.bytes, entry.qualifier);
+            get.setMaxVersions();
+            return get;
+        }
+
+        private boolean isBlobUsed(IncubatorEntry entry, Result usage) {
+            if (usage == null || usage.isEmpty()) {
+                return false;
+            }
+            ContainsValueComparator valueComparator = new ContainsValueComparator(entry.valueToCompare);
+            for (KeyValue keyValue : usage.getColumn(RecordCf.DATA.bytes, entry.qualifier)) {
+                if (valueComparator.compareTo(keyValue.getValue()) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class IncubatorEntry {
+        private final byte[] blobKey;
+        private final byte[] recordId;
+        private final byte[] fieldId;
+        private byte[] qualifier;
+        private byte[] valueToCompare;
+
+        public IncubatorEntry(byte[] blobKey, byte[] recordId, byte[] fieldId) {
+            this.blobKey = blobKey;
+            this.recordId = recordId;
+            this.fieldId = fieldId;
+        }
+    }
+
+    /**
+     * Limits the number of permits handed out per second, shared by all threads of a run.
+     */
+    private static class RateLimiter {
+        private final double millisPerPermit;
+        private double nextFreeTime;
+
+        public RateLimiter(long permitsPerSecond) {
+            this.millisPerPermit = 1000d / permitsPerSecond;
+        }
+
+        public void acquire(int permits) throws InterruptedException {
+            long wait;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (nextFreeTime < now) {
+                    nextFreeTime = now;
+                }
+                wait = (long)nextFreeTime - now;
+                nextFreeTime += permits * millisPerPermit;
+            }
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
         }
     }
 
     /**
-     * Runs the monitor once on the current thread. Should not be called if the cleanup might already be running
+     * Runs the monitor once, returning when the run has finished. Should not be called if the cleanup might already be running
      * on another thread (i.e. {@link #start} should not have been called).
      */
     public void runMonitorOnce() throws IOException, RepositoryException, InterruptedException {
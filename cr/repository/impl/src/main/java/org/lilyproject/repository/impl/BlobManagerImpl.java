@@ -110,8 +110,12 @@ public class BlobManagerImpl implements BlobManager {
         // Remove references from the blobIncubator for the blobs that are still referenced.
         if (referencedBlobs != null) {
             try {
+                List<Delete> deletes = new ArrayList<Delete>(referencedBlobs.size());
                 for (BlobReference blobReference : referencedBlobs) {
-                    blobIncubatorTable.delete(new Delete(blobReference.getBlob().getValue()));
+                    deletes.add(new Delete(blobReference.getBlob().getValue()));
+                }
+                if (!deletes.isEmpty()) {
+                    blobIncubatorTable.delete(deletes);
                 }
             } catch (IOException e) {
                 // We do a best effort to remove the blobs from the blobIncubator
@@ -182,4 +186,9 @@ public class BlobManagerImpl implements BlobManager {
     public void delete(byte[] blobKey) throws BlobException {
         registry.delete(blobKey);
     }
+
+    @Override
+    public List<byte[]> delete(List<byte[]> blobKeys) {
+        return registry.delete(blobKeys);
+    }
 }
@@ -18,14 +18,19 @@ package org.lilyproject.repository.impl;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.repository.api.*;
 import org.lilyproject.util.Pair;
 
 public class BlobStoreAccessRegistry {
+    private Log log = LogFactory.getLog(getClass());
 
     Map<String, BlobStoreAccess> registry = new HashMap<String, BlobStoreAccess>();
     private BlobStoreAccessFactory blobStoreAccessFactory;
@@ -83,6 +88,43 @@ public class BlobStoreAccessRegistry {
         blobStoreAccess.delete(decodedKey.getV2());
     }
     
+    /**
+     * Deletes the blobs grouped per blobstore.
+     *
+     * @return the keys of the blobs which could not be deleted
+     */
+    public List<byte[]> delete(List<byte[]> blobKeys) {
+        // Group the decoded keys per blobstore, remembering the original keys
+        Map<String, List<byte[]>> storeKeys = new HashMap<String, List<byte[]>>();
+        Map<String, List<byte[]>> encodedKeys = new HashMap<String, List<byte[]>>();
+        for (byte[] blobKey : blobKeys) {
+            Pair<String,byte[]> decodedKey = decode(blobKey);
+            List<byte[]> keys = storeKeys.get(decodedKey.getV1());
+            if (keys == null) {
+                keys = new ArrayList<byte[]>();
+                storeKeys.put(decodedKey.getV1(), keys);
+                encodedKeys.put(decodedKey.getV1(), new ArrayList<byte[]>());
+            }
+            keys.add(decodedKey.getV2());
+            encodedKeys.get(decodedKey.getV1()).add(blobKey);
+        }
+
+        List<byte[]> failedKeys = new ArrayList<byte[]>();
+        for (Map.Entry<String, List<byte[]>> entry : storeKeys.entrySet()) {
+            BlobStoreAccess blobStoreAccess = registry.get(entry.getKey());
+            try {
+                if (blobStoreAccess == null) {
+                    throw new BlobException("No blobstore registered with id '" + entry.getKey() + "'");
+                }
+                blobStoreAccess.delete(entry.getValue());
+            } catch (BlobException e) {
+                log.warn("Failed to delete " + entry.getValue().size() + " blobs from blobstore " + entry.getKey(), e);
+                failedKeys.addAll(encodedKeys.get(entry.getKey()));
+            }
+        }
+        return failedKeys;
+    }
+
     static private byte[] encode(String id, byte[] blobKey) {
         byte[] bytes = new byte[0];
         bytes = Bytes.add(bytes, blobKey);
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobException;
+import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.util.hbase.HBaseTableFactory;
+import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * A blob store which stores blobs in HBase, split over multiple rows (chunks) of a fixed size.
+ *
+ * <p>Contrary to the {@link HBaseBlobStoreAccess}, which stores a blob in one cell, this blob store never
+ * needs to hold a complete blob in memory: chunks are written as soon as they are full, and reading
+ * fetches a few chunks at a time with one multi-get. No scanner is kept open while the stream is being
+ * read, so slow readers cannot run into scanner lease expiries. This also allows to read a range of a
+ * blob without reading the chunks before it.
+ *
+ * <p>The row key of a chunk is the key of the blob followed by the chunk number. A blob always has at least
+ * one chunk, which can be empty.
+ */
+public class ChunkedHBaseBlobStoreAccess implements BlobStoreAccess {
+
+    private static final byte[] BLOB_TABLE = Bytes.toBytes("blobchunks");
+    private static final String ID = "HBASE_CHUNKED";
+    private static final String BLOBS_COLUMN_FAMILY = "data";
+    private static final byte[] BLOBS_COLUMN_FAMILY_BYTES = Bytes.toBytes(BLOBS_COLUMN_FAMILY);
+    private static final byte[] CHUNK_COLUMN = Bytes.toBytes("c");
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Number of chunks read ahead when reading a blob.
+     */
+    private static final int PREFETCH_CHUNKS = 4;
+
+    private HTableInterface table;
+    private final int chunkSize;
+
+    private Log log = LogFactory.getLog(getClass());
+
+    public ChunkedHBaseBlobStoreAccess(Configuration hbaseConf) throws IOException {
+        this(hbaseConf, false);
+    }
+
+    public ChunkedHBaseBlobStoreAccess(Configuration hbaseConf, boolean clientMode) throws IOException {
+        this(new HBaseTableFactoryImpl(hbaseConf), clientMode, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedHBaseBlobStoreAccess(HBaseTableFactory tableFactory) throws IOException {
+        this(tableFactory, false, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize the size of the chunks in which new blobs are split. Since the chunk size is not stored
+     *                  with the blob, this should not be changed once there are blobs in the store.
+     */
+    public ChunkedHBaseBlobStoreAccess(HBaseTableFactory tableFactory, boolean clientMode, int chunkSize)
+            throws IOException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size should be at least 1, got " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+
+        HTableDescriptor tableDescriptor = new HTableDescriptor(BLOB_TABLE);
+        tableDescriptor.addFamily(new HColumnDescriptor(BLOBS_COLUMN_FAMILY));
+
+        table = tableFactory.getTable(tableDescriptor, !clientMode);
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public OutputStream getOutputStream(Blob blob) throws BlobException {
+        UUID uuid = UUID.randomUUID();
+        byte[] blobKey = Bytes.toBytes(uuid.getMostSignificantBits());
+        blobKey = Bytes.add(blobKey, Bytes.toBytes(uuid.getLeastSignificantBits()));
+        return new ChunkedBlobOutputStream(blobKey, blob);
+    }
+
+    @Override
+    public InputStream getInputStream(byte[] blobKey) throws BlobException {
+        return getInputStream(blobKey, 0);
+    }
+
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset) throws BlobException {
+        long chunk = offset / chunkSize;
+
+        try {
+            ChunkedBlobInputStream inputStream = new ChunkedBlobInputStream(blobKey, chunk);
+            if (!inputStream.fetchChunks()) {
+                if (chunk > 0 && table.exists(new Get(chunkRowKey(blobKey, 0)))) {
+                    // The offset is at (or past) the end of the blob
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+                throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey)
+                        + "' since no blob was found on the " + ID + " blobstore");
+            }
+            inputStream.skipInChunk((int)(offset % chunkSize));
+            return inputStream;
+        } catch (IOException e) {
+            throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey)
+                    + "' on the " + ID + " blobstore", e);
+        }
+    }
+
+    @Override
+    public void delete(byte[] blobKey) throws BlobException {
+        List<Delete> deletes = new ArrayList<Delete>();
+        try {
+            collectChunkDeletes(blobKey, deletes);
+            if (!deletes.isEmpty()) {
+                table.delete(deletes);
+            }
+        } catch (IOException e) {
+            throw new BlobException("Failed to delete blob with key '" + Hex.encodeHexString(blobKey) + "' from the "
+                    + ID + " blobstore", e);
+        }
+    }
+
+    /**
+     * The chunks of all blobs are collected first, and then deleted with one batch delete.
+     */
+    @Override
+    public void delete(List<byte[]> blobKeys) throws BlobException {
+        List<Delete> deletes = new ArrayList<Delete>();
+        try {
+            for (byte[] blobKey : blobKeys) {
+                collectChunkDeletes(blobKey, deletes);
+            }
+            if (!deletes.isEmpty()) {
+                table.delete(deletes);
+            }
+        } catch (IOException e) {
+            throw new BlobException("Failed to delete " + blobKeys.size() + " blobs from the " + ID + " blobstore", e);
+        }
+    }
+
+    private void collectChunkDeletes(byte[] blobKey, List<Delete> deletes) throws IOException {
+        Scan scan = new Scan(chunkRowKey(blobKey, 0), chunkRowKey(blobKey, Integer.MAX_VALUE));
+        scan.setFilter(new FirstKeyOnlyFilter());
+        scan.setCaching(100);
+
+        ResultScanner scanner = null;
+        try {
+            scanner = table.getScanner(scan);
+            for (Result result : scanner) {
+                deletes.add(new Delete(result.getRow()));
+            }
+        } finally {
+            Closer.close(scanner);
+        }
+    }
+
+    @Override
+    public boolean incubate() {
+        return true;
+    }
+
+    private static byte[] chunkRowKey(byte[] blobKey, long chunk) {
+        return Bytes.add(blobKey, Bytes.toBytes((int)chunk));
+    }
+
+    private class ChunkedBlobOutputStream extends OutputStream {
+        private final byte[] blobKey;
+        private final Blob blob;
+        private final byte[] buffer = new byte[chunkSize];
+        private int count = 0;
+        private int chunk = 0;
+        private boolean closed = false;
+
+        public ChunkedBlobOutputStream(byte[] blobKey, Blob blob) {
+            this.blobKey = blobKey;
+            this.blob = blob;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            buffer[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            Put put = new Put(chunkRowKey(blobKey, chunk));
+            put.add(BLOBS_COLUMN_FAMILY_BYTES, CHUNK_COLUMN, Bytes.head(buffer, count));
+            table.put(put);
+            chunk++;
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+
+            // Write the last, possibly partial, chunk. If nothing was written at all, this writes an
+            // empty chunk, so that the blob can be found.
+            if (count > 0 || chunk == 0) {
+                try {
+                    writeChunk();
+                } catch (IOException e) {
+                    // The blob will never be referred to, don't leave its chunks behind
+                    deleteChunks();
+                    throw e;
+                }
+            }
+            blob.setValue(blobKey);
+        }
+
+        /**
+         * Deletes the chunks written so far, including the one which failed to be written. Errors are only
+         * logged, so that they don't hide the original error.
+         */
+        private void deleteChunks() {
+            List<Delete> deletes = new ArrayList<Delete>(chunk + 1);
+            for (int i = 0; i <= chunk; i++) {
+                deletes.add(new Delete(chunkRowKey(blobKey, i)));
+            }
+            try {
+                table.delete(deletes);
+            } catch (Throwable t) {
+                log.error("Failed to delete the chunks of unfinished blob with key '" + Hex.encodeHexString(blobKey)
+                        + "' from the " + ID + " blobstore", t);
+            }
+        }
+    }
+
+    /**
+     * Reads the chunks of a blob, fetching {@link #PREFETCH_CHUNKS} chunks at a time with a multi-get.
+     */
+    private class ChunkedBlobInputStream extends InputStream {
+        private final byte[] blobKey;
+        private long nextChunk;
+        private final List<byte[]> fetchedChunks = new ArrayList<byte[]>(PREFETCH_CHUNKS);
+        private boolean lastFetched = false;
+        private byte[] chunk = new byte[0];
+        private int pos;
+
+        public ChunkedBlobInputStream(byte[] blobKey, long firstChunk) {
+            this.blobKey = blobKey;
+            this.nextChunk = firstChunk;
+        }
+
+        /**
+         * Fetches the next chunks of the blob, returns false if there were none.
+         */
+        private boolean fetchChunks() throws IOException {
+            if (lastFetched) {
+                return false;
+            }
+
+            List<Get> gets = new ArrayList<Get>(PREFETCH_CHUNKS);
+            for (int i = 0; i < PREFETCH_CHUNKS; i++) {
+                Get get = new Get(chunkRowKey(blobKey, nextChunk + i));
+                get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, CHUNK_COLUMN);
+                // Chunks are only read once, no need to pollute the block cache with them
+                get.setCacheBlocks(false);
+                gets.add(get);
+            }
+
+            for (Result result : table.get(gets)) {
+                if (result == null || result.isEmpty()) {
+                    lastFetched = true;
+                    break;
+                }
+                fetchedChunks.add(result.getValue(BLOBS_COLUMN_FAMILY_BYTES, CHUNK_COLUMN));
+            }
+            nextChunk += fetchedChunks.size();
+            return !fetchedChunks.isEmpty();
+        }
+
+        private void skipInChunk(int n) throws IOException {
+            if (fill()) {
+                pos = Math.min(n, chunk.length);
+            }
+        }
+
+        /**
+         * Makes sure there are bytes available in the current chunk, returns false at the end of the blob.
+         */
+        private boolean fill() throws IOException {
+            while (chunk != null && pos >= chunk.length) {
+                if (fetchedChunks.isEmpty() && !fetchChunks()) {
+                    chunk = null;
+                } else {
+                    chunk = fetchedChunks.remove(0);
+                }
+                pos = 0;
+            }
+            return chunk != null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill())
+                return -1;
+            return chunk[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!fill())
+                return -1;
+            int n = Math.min(len, chunk.length - pos);
+            System.arraycopy(chunk, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && fill()) {
+                int step = (int)Math.min(n - skipped, chunk.length - pos);
+                pos += step;
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return chunk == null ? 0 : chunk.length - pos;
+        }
+
+        @Override
+        public void close() {
+            chunk = null;
+            fetchedChunks.clear();
+        }
+    }
+}
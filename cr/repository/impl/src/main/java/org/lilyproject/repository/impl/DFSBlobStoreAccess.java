@@ -19,9 +19,11 @@ import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.UUID;
 
 import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -29,6 +31,7 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.util.io.Closer;
 
 public class DFSBlobStoreAccess implements BlobStoreAccess {
 
@@ -76,6 +79,22 @@ public class DFSBlobStoreAccess implements BlobStoreAccess {
         }
     }
 
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset) throws BlobException {
+        UUID uuid = decode(blobKey);
+        FSDataInputStream is = null;
+        try {
+            is = fileSystem.open(createPath(uuid));
+            if (offset > 0) {
+                is.seek(offset);
+            }
+            return is;
+        } catch (IOException e) {
+            Closer.close(is);
+            throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' on the DFS blobstore", e);
+        }
+    }
+
     private Path createPath(UUID uuid) {
         String fileName = uuid.toString();
         String dirLevel1 = fileName.substring(0, 2);
@@ -96,6 +115,14 @@ public class DFSBlobStoreAccess implements BlobStoreAccess {
         }
     }
 
+    @Override
+    public void delete(List<byte[]> blobKeys) throws BlobException {
+        // HDFS has no bulk delete, the files are deleted one by one
+        for (byte[] blobKey : blobKeys) {
+            delete(blobKey);
+        }
+    }
+
     @Override
     public boolean incubate() {
         return true;
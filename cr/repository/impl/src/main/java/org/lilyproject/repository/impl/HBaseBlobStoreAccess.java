@@ -20,6 +20,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import org.apache.commons.codec.binary.Hex;
@@ -79,6 +81,11 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
 
     @Override
     public InputStream getInputStream(byte[] blobKey) throws BlobException {
+        return getInputStream(blobKey, 0);
+    }
+
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset) throws BlobException {
         Get get = new Get(blobKey);
         get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
         Result result;
@@ -91,7 +98,9 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         if (value == null) {
             throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' since no blob was found on the HBASE blobstore");
         }
-        return new ByteArrayInputStream(value);
+        // The blob is stored in one cell, so it is read completely anyhow
+        int start = (int)Math.min(offset, value.length);
+        return new ByteArrayInputStream(value, start, value.length - start);
     }
     
     @Override
@@ -103,6 +112,19 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
             throw new BlobException("Failed to delete blob with key '" + Hex.encodeHexString(blobKey) + "' from the DFS blobstore", e);
         }
     }
+
+    @Override
+    public void delete(List<byte[]> blobKeys) throws BlobException {
+        List<Delete> deletes = new ArrayList<Delete>(blobKeys.size());
+        for (byte[] blobKey : blobKeys) {
+            deletes.add(new Delete(blobKey));
+        }
+        try {
+            table.delete(deletes);
+        } catch (IOException e) {
+            throw new BlobException("Failed to delete " + blobKeys.size() + " blobs from the HBase blobstore", e);
+        }
+    }
     
     @Override
     public boolean incubate() {
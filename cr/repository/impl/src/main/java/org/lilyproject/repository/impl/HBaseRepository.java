@@ -27,9 +27,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.*;
 import org.apache.hadoop.hbase.filter.*;
-import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
 import org.apache.hadoop.hbase.util.Bytes;
-import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
 import org.lilyproject.hbaseext.ContainsValueComparator;
 import org.lilyproject.repository.api.*;
@@ -66,6 +64,7 @@ public class HBaseRepository extends BaseRepository {
 
     private Log log = LogFactory.getLog(getClass());
     private RepositoryMetrics metrics;
+    private int maxRecordSnapshotSize = 0;
 
     public HBaseRepository(TypeManager typeManager, IdGenerator idGenerator, RowLog wal,
             HBaseTableFactory hbaseTableFactory, BlobManager blobManager, RowLocker rowLocker) throws IOException {
@@ -89,6 +88,15 @@ public class HBaseRepository extends BaseRepository {
                 Collections.<RecordUpdateHook>emptyList() : recordUpdateHooks;
     }
 
+    /**
+     * Sets the maximum size in bytes of the record snapshot included in the record events, see
+     * {@link RecordEvent#getRecordSnapshot()}. Snapshots of records which are larger are not included.
+     * By default this is 0, which disables the snapshots.
+     */
+    public void setMaxRecordSnapshotSize(int maxRecordSnapshotSize) {
+        this.maxRecordSnapshotSize = maxRecordSnapshotSize;
+    }
+
     @Override
     public IdGenerator getIdGenerator() {
         return idGenerator;
@@ -214,13 +222,15 @@ public class HBaseRepository extends BaseRepository {
                 if (newVersion != null)
                     recordEvent.setVersionCreated(newVersion);
 
+                addRecordSnapshot(recordEvent, newRecord, dummyOriginalRecord, fieldTypes);
+
                 // Reserve blobs so no other records can use them
                 reserveBlobs(null, referencedBlobs);
 
                 putRowWithWalProcessing(recordId, rowLock, put, recordEvent);
 
                 // Remove the used blobs from the blobIncubator
-                blobManager.handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs);
+                handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs, null);
                 
             } catch (IOException e) {
                 throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
@@ -346,11 +356,13 @@ public class HBaseRepository extends BaseRepository {
                     return conditionsResponse;
                 }
 
+                addRecordSnapshot(recordEvent, newRecord, originalRecord, fieldTypes);
+
                 // Reserve blobs so no other records can use them
                 reserveBlobs(record.getId(), referencedBlobs);
                 putRowWithWalProcessing(recordId, rowLock, put, recordEvent);
                 // Remove the used blobs from the blobIncubator and delete unreferenced blobs from the blobstore
-                blobManager.handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs);
+                handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs, null);
                 newRecord.setResponseStatus(ResponseStatus.UPDATED);
             } else {
                 newRecord.setResponseStatus(ResponseStatus.UP_TO_DATE);
@@ -388,6 +400,10 @@ public class HBaseRepository extends BaseRepository {
             throw new RecordException("Invalid or expired lock trying to put record '" + recordId + "' on HBase table");
         }
 
+        processWalMessage(walMessage, recordEvent, rowLock);
+    }
+
+    private void processWalMessage(RowLogMessage walMessage, RecordEvent recordEvent, RowLock rowLock) {
         if (walMessage != null) {
             try {
                 RowLogContext rowLogContext = new RowLogContext();
@@ -403,6 +419,301 @@ public class HBaseRepository extends BaseRepository {
         }
     }
 
+    @Override
+    public List<RecordBatchResult> createBatch(List<Record> records) throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+        long before = System.currentTimeMillis();
+        RecordBatchResult[] results = new RecordBatchResult[records.size()];
+        List<BatchEntry> entries = new ArrayList<BatchEntry>(records.size());
+        try {
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+
+            // Check the records and lock their rows
+            for (int i = 0; i < records.size(); i++) {
+                try {
+                    checkCreatePreconditions(records.get(i));
+                    Record newRecord = records.get(i).cloneRecord();
+                    if (newRecord.getId() == null) {
+                        newRecord.setId(idGenerator.newRecordId());
+                    }
+                    BatchEntry entry = new BatchEntry(i, newRecord);
+                    entries.add(entry);
+                    entry.rowLock = lockRow(newRecord.getId());
+                } catch (RepositoryException e) {
+                    results[i] = new RecordBatchResult(e);
+                } catch (IOException e) {
+                    results[i] = new RecordBatchResult(new RecordException("Exception occurred while locking record '"
+                            + records.get(i).getId() + "'", e));
+                }
+            }
+            entries = removeCompleted(entries, results);
+
+            // Read the deleted flag and version of all rows at once
+            // If a record existed it should have been deleted, the version numbering continues from where it was.
+            List<Get> gets = new ArrayList<Get>(entries.size());
+            for (BatchEntry entry : entries) {
+                Get get = new Get(entry.newRecord.getId().toBytes());
+                get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+                get.addColumn(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
+                gets.add(get);
+            }
+            Result[] currentRows = getRowsForBatch(gets, entries, results, "creating");
+
+            for (int i = 0; i < entries.size(); i++) {
+                BatchEntry entry = entries.get(i);
+                RecordId recordId = entry.newRecord.getId();
+                try {
+                    long version = 1L;
+                    Result result = currentRows[i];
+                    if (result != null && !result.isEmpty()) {
+                        byte[] recordDeleted = result.getValue(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+                        if (recordDeleted != null && !Bytes.toBoolean(recordDeleted)) {
+                            throw new RecordExistsException(recordId);
+                        }
+                        byte[] oldVersion = result.getValue(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
+                        if (oldVersion != null) {
+                            version = Bytes.toLong(oldVersion) + 1;
+                            // See create: clear any data left behind by an incomplete delete
+                            clearData(recordId, null);
+                        }
+                    }
+
+                    entry.put = new Put(recordId.toBytes());
+                    entry.put.add(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes, 1L, Bytes.toBytes(false));
+                    entry.recordEvent.setType(Type.CREATE);
+
+                    Record dummyOriginalRecord = newRecord();
+                    calculateRecordChanges(entry.newRecord, dummyOriginalRecord, version, entry.put,
+                            entry.recordEvent, entry.referencedBlobs, entry.unReferencedBlobs, false, fieldTypes);
+
+                    // Make sure the record type changed flag stays false for a newly created record
+                    entry.recordEvent.setRecordTypeChanged(false);
+                    Long newVersion = entry.newRecord.getVersion();
+                    if (newVersion != null)
+                        entry.recordEvent.setVersionCreated(newVersion);
+
+                    addRecordSnapshot(entry.recordEvent, entry.newRecord, dummyOriginalRecord, fieldTypes);
+
+                    reserveBlobs(null, entry.referencedBlobs);
+                    entry.responseStatus = ResponseStatus.CREATED;
+                } catch (RepositoryException e) {
+                    results[entry.index] = new RecordBatchResult(e);
+                } catch (IOException e) {
+                    results[entry.index] = new RecordBatchResult(new RecordException("Exception occurred while "
+                            + "creating record '" + recordId + "' in HBase table", e));
+                }
+            }
+            entries = removeCompleted(entries, results);
+
+            putRowsWithWalProcessing(entries, results, "creating");
+        } finally {
+            unlockRows(entries);
+            metrics.report(Action.CREATE_BATCH, System.currentTimeMillis() - before);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public List<RecordBatchResult> updateBatch(List<Record> records) throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+        long before = System.currentTimeMillis();
+        RecordBatchResult[] results = new RecordBatchResult[records.size()];
+        List<BatchEntry> entries = new ArrayList<BatchEntry>(records.size());
+        try {
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+
+            // Lock the rows and make sure there are no outstanding WAL messages
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                try {
+                    if (record.getId() == null) {
+                        throw new InvalidRecordException("The recordId cannot be null for a record to be updated.",
+                                record.getId());
+                    }
+                    BatchEntry entry = new BatchEntry(i, record);
+                    entries.add(entry);
+                    entry.rowLock = lockRow(record.getId());
+                    checkAndProcessOpenMessages(record.getId(), entry.rowLock);
+                } catch (RepositoryException e) {
+                    results[i] = new RecordBatchResult(e);
+                } catch (IOException e) {
+                    results[i] = new RecordBatchResult(new RecordException("Exception occurred while locking record '"
+                            + record.getId() + "'", e));
+                }
+            }
+            entries = removeCompleted(entries, results);
+
+            // Read the current state of all records at once
+            List<Get> gets = new ArrayList<Get>(entries.size());
+            for (BatchEntry entry : entries) {
+                Get get = new Get(entry.newRecord.getId().toBytes());
+                addFieldsToGet(get, null);
+                get.setMaxVersions(1);
+                gets.add(get);
+            }
+            Result[] currentRows = getRowsForBatch(gets, entries, results, "updating");
+
+            for (int i = 0; i < entries.size(); i++) {
+                BatchEntry entry = entries.get(i);
+                Record record = entry.newRecord;
+                RecordId recordId = record.getId();
+                try {
+                    Result result = currentRows[i];
+                    if (result == null || result.isEmpty()) {
+                        throw new RecordNotFoundException(recordId);
+                    }
+                    byte[] deleted = recdec.getLatest(result, RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+                    if ((deleted == null) || (Bytes.toBoolean(deleted))) {
+                        throw new RecordNotFoundException(recordId);
+                    }
+                    Record originalRecord = new UnmodifiableRecord(recdec.decodeRecord(recordId,
+                            recdec.getLatestVersion(result), null, result, fieldTypes));
+
+                    for (RecordUpdateHook hook : updateHooks) {
+                        hook.beforeUpdate(record, originalRecord, this, fieldTypes);
+                    }
+
+                    entry.newRecord = record.cloneRecord();
+                    entry.put = new Put(recordId.toBytes());
+                    entry.recordEvent.setType(Type.UPDATE);
+                    long newVersion = originalRecord.getVersion() == null ? 1 : originalRecord.getVersion() + 1;
+
+                    if (calculateRecordChanges(entry.newRecord, originalRecord, newVersion, entry.put,
+                            entry.recordEvent, entry.referencedBlobs, entry.unReferencedBlobs, true, fieldTypes)) {
+                        addRecordSnapshot(entry.recordEvent, entry.newRecord, originalRecord, fieldTypes);
+                        reserveBlobs(recordId, entry.referencedBlobs);
+                        entry.responseStatus = ResponseStatus.UPDATED;
+                    } else {
+                        entry.newRecord.setResponseStatus(ResponseStatus.UP_TO_DATE);
+                        entry.newRecord.getFieldsToDelete().clear();
+                        results[entry.index] = new RecordBatchResult(entry.newRecord);
+                    }
+                } catch (RepositoryException e) {
+                    results[entry.index] = new RecordBatchResult(e);
+                } catch (IOException e) {
+                    results[entry.index] = new RecordBatchResult(new RecordException("Exception occurred while "
+                            + "updating record '" + recordId + "' on HBase table", e));
+                }
+            }
+            entries = removeCompleted(entries, results);
+
+            putRowsWithWalProcessing(entries, results, "updating");
+        } finally {
+            unlockRows(entries);
+            metrics.report(Action.UPDATE_BATCH, System.currentTimeMillis() - before);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Holds the state of one record during a batch create or update.
+     */
+    private static class BatchEntry {
+        final int index;
+        Record newRecord;
+        RowLock rowLock;
+        Put put;
+        RecordEvent recordEvent = new RecordEvent();
+        Set<BlobReference> referencedBlobs = new HashSet<BlobReference>();
+        Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
+        ResponseStatus responseStatus;
+
+        BatchEntry(int index, Record newRecord) {
+            this.index = index;
+            this.newRecord = newRecord;
+        }
+    }
+
+    /**
+     * Returns the entries for which no result has been registered yet. The row locks of the entries which
+     * already got a result (because they failed, or needed no update) are released.
+     */
+    private List<BatchEntry> removeCompleted(List<BatchEntry> entries, RecordBatchResult[] results) {
+        List<BatchEntry> remaining = new ArrayList<BatchEntry>(entries.size());
+        for (BatchEntry entry : entries) {
+            if (results[entry.index] == null) {
+                remaining.add(entry);
+            } else {
+                unlockRow(entry.rowLock);
+                entry.rowLock = null;
+            }
+        }
+        return remaining;
+    }
+
+    private void unlockRows(List<BatchEntry> entries) {
+        for (BatchEntry entry : entries) {
+            unlockRow(entry.rowLock);
+        }
+    }
+
+    // Performs the gets for a batch with one multi-get, if this fails, all records of the batch fail.
+    private Result[] getRowsForBatch(List<Get> gets, List<BatchEntry> entries, RecordBatchResult[] results,
+            String action) {
+        try {
+            return recordTable.get(gets);
+        } catch (IOException e) {
+            for (BatchEntry entry : entries) {
+                results[entry.index] = new RecordBatchResult(new RecordException("Exception occurred while " + action
+                        + " record '" + entry.newRecord.getId() + "' in HBase table", e));
+            }
+            return new Result[entries.size()];
+        }
+    }
+
+    // Batch equivalent of putRowWithWalProcessing: the WAL messages for all rows are created in one go
+    // (one sequence number read, one put per rowlog shard), the row puts themselves are done under the
+    // row lock of each record.
+    private void putRowsWithWalProcessing(List<BatchEntry> entries, RecordBatchResult[] results, String action)
+            throws InterruptedException {
+        if (entries.isEmpty())
+            return;
+
+        List<Put> puts = new ArrayList<Put>(entries.size());
+        List<byte[]> payloads = new ArrayList<byte[]>(entries.size());
+        for (BatchEntry entry : entries) {
+            puts.add(entry.put);
+            payloads.add(entry.recordEvent.toJsonBytes());
+        }
+
+        List<RowLogMessage> walMessages;
+        try {
+            walMessages = wal.putMessages(puts, payloads);
+        } catch (RowLogException e) {
+            for (BatchEntry entry : entries) {
+                results[entry.index] = new RecordBatchResult(new RecordException("Exception occurred while " + action
+                        + " record '" + entry.newRecord.getId() + "' in HBase table", e));
+            }
+            return;
+        }
+
+        for (int i = 0; i < entries.size(); i++) {
+            BatchEntry entry = entries.get(i);
+            RecordId recordId = entry.newRecord.getId();
+            try {
+                if (!rowLocker.put(entry.put, entry.rowLock)) {
+                    throw new RecordException("Invalid or expired lock trying to put record '" + recordId
+                            + "' on HBase table");
+                }
+                processWalMessage(walMessages.get(i), entry.recordEvent, entry.rowLock);
+
+                // Remove the used blobs from the blobIncubator and delete unreferenced blobs from the blobstore
+                handleBlobReferences(recordId, entry.referencedBlobs, entry.unReferencedBlobs, null);
+
+                entry.newRecord.setResponseStatus(entry.responseStatus);
+                entry.newRecord.getFieldsToDelete().clear();
+                results[entry.index] = new RecordBatchResult(entry.newRecord);
+            } catch (RepositoryException e) {
+                results[entry.index] = new RecordBatchResult(e);
+            } catch (IOException e) {
+                results[entry.index] = new RecordBatchResult(new RecordException("Exception occurred while " + action
+                        + " record '" + recordId + "' in HBase table", e));
+            }
+        }
+    }
+
     // Calculates the changes that are to be made on the record-row and puts
     // this information on the Put object and the RecordEvent
     private boolean calculateRecordChanges(Record record, Record originalRecord, Long version, Put put,
@@ -467,6 +778,69 @@ public class HBaseRepository extends BaseRepository {
         return fieldsHaveChanged;
     }
 
+    /**
+     * Includes the state of the record after a create or update in the record event, so that the subscribers
+     * of the WAL and the MQ do not need to read the record again, see {@link RecordEvent#getRecordSnapshot()}.
+     *
+     * @param newRecord the created or updated record, after calculateRecordChanges
+     * @param originalRecord the last version of the record before the update
+     */
+    private void addRecordSnapshot(RecordEvent recordEvent, Record newRecord, Record originalRecord,
+            FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        if (maxRecordSnapshotSize <= 0)
+            return;
+
+        Record snapshot = newRecord(newRecord.getId());
+        snapshot.setVersion(newRecord.getVersion());
+
+        // The fields of the record are those which were there before, overwritten by those which were updated
+        for (Entry<QName, Object> field : originalRecord.getFields().entrySet()) {
+            snapshot.setField(field.getKey(), field.getValue());
+        }
+        for (Entry<QName, Object> field : newRecord.getFields().entrySet()) {
+            snapshot.setField(field.getKey(), field.getValue());
+        }
+        for (QName fieldName : newRecord.getFieldsToDelete()) {
+            snapshot.delete(fieldName, false);
+        }
+
+        Map<SchemaId, QName> idToQNameMapping = new HashMap<SchemaId, QName>();
+        Set<Scope> scopes = EnumSet.noneOf(Scope.class);
+        for (QName fieldName : snapshot.getFields().keySet()) {
+            FieldType fieldType = fieldTypes.getFieldType(fieldName);
+            idToQNameMapping.put(fieldType.getId(), fieldName);
+            scopes.add(fieldType.getScope());
+        }
+
+        // The record types are included the same way as when reading the record (see RecordDecoder): only if
+        // the record has fields, and then for the non-versioned scope and for the scopes which have fields.
+        if (!scopes.isEmpty()) {
+            if (snapshot.getVersion() == null) {
+                scopes.clear();
+            }
+            scopes.add(Scope.NON_VERSIONED);
+        }
+        Map<Scope, SchemaId> recordTypeIds = new EnumMap<Scope, SchemaId>(Scope.class);
+        for (Scope scope : scopes) {
+            QName recordTypeName = newRecord.getRecordTypeName(scope);
+            Long recordTypeVersion = newRecord.getRecordTypeVersion(scope);
+            if (recordTypeName != null) {
+                snapshot.setRecordType(scope, recordTypeName, recordTypeVersion);
+                recordTypeIds.put(scope, typeManager.getRecordTypeByName(recordTypeName, recordTypeVersion).getId());
+            }
+        }
+
+        byte[] snapshotBytes = RecordAsBytesConverter.writeIdRecord(
+                new IdRecordImpl(snapshot, idToQNameMapping, recordTypeIds), this);
+        if (snapshotBytes.length > maxRecordSnapshotSize) {
+            metrics.reportRecordSnapshotTooLarge();
+            return;
+        }
+
+        metrics.reportRecordSnapshot(snapshotBytes.length);
+        recordEvent.setRecordSnapshot(snapshotBytes);
+    }
+
     private void setRecordTypesAfterUpdate(Record record, Record originalRecord, Set<Scope> changedScopes) {
         // The returned record object after an update should always contain complete record type information for
         // all the scopes
@@ -629,10 +1003,14 @@ public class HBaseRepository extends BaseRepository {
             return DELETE_MARKER;
         ValueType valueType = fieldType.getValueType();
 
-        DataOutput dataOutput = new DataOutputImpl();
-        dataOutput.writeByte(EXISTS_FLAG);
-        valueType.write(fieldValue, dataOutput, new IdentityRecordStack(parentRecord));
-        return dataOutput.toByteArray();
+        DataOutputImpl dataOutput = DataOutputImpl.acquire();
+        try {
+            dataOutput.writeByte(EXISTS_FLAG);
+            valueType.write(fieldValue, dataOutput, new IdentityRecordStack(parentRecord));
+            return dataOutput.toByteArray();
+        } finally {
+            dataOutput.release();
+        }
     }
 
     private boolean isDeleteMarker(Object fieldValue) {
@@ -749,11 +1127,8 @@ public class HBaseRepository extends BaseRepository {
                 putRowWithWalProcessing(recordId, rowLock, put, recordEvent);
                 
                 // The unReferencedBlobs could still be in use in another version of the mutable field,
-                // therefore we filter them first
-                unReferencedBlobs = filterReferencedBlobs(recordId, unReferencedBlobs, version);
-                
-                // Remove the used blobs from the blobIncubator
-                blobManager.handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs);
+                // therefore they are filtered first. Remove the used blobs from the blobIncubator.
+                handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs, version);
 
                 newRecord.setResponseStatus(ResponseStatus.UPDATED);
             } else {
@@ -951,19 +1326,80 @@ public class HBaseRepository extends BaseRepository {
 
         Record record = read(recordId, version, fields, readContext, fieldTypes);
 
-        Map<SchemaId, QName> idToQNameMapping = new HashMap<SchemaId, QName>();
-        for (FieldType fieldType : readContext.getFieldTypes().values()) {
-            idToQNameMapping.put(fieldType.getId(), fieldType.getName());
-        }
+        return recdec.newIdRecord(record, readContext);
+    }
 
-        Map<Scope, SchemaId> recordTypeIds = new EnumMap<Scope, SchemaId>(Scope.class);
-        for (Map.Entry<Scope, RecordType> entry : readContext.getRecordTypes().entrySet()) {
-            recordTypeIds.put(entry.getKey(), entry.getValue().getId());
-        }
+    @Override
+    public List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        long before = System.currentTimeMillis();
+        try {
+            ArgumentValidator.notNull(recordIds, "recordIds");
+            List<IdRecord> records = new ArrayList<IdRecord>(recordIds.size());
+            if (recordIds.isEmpty())
+                return records;
+
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+            List<FieldType> fields = getFieldTypesFromIds(fieldIds, fieldTypes);
 
-        return new IdRecordImpl(record, idToQNameMapping, recordTypeIds);
+            Map<RecordId, Result> results = getRows(recordIds, fields);
+
+            for (Entry<RecordId, Result> entry : results.entrySet()) {
+                ReadContext readContext = new ReadContext();
+                Long version = recdec.getLatestVersion(entry.getValue());
+                Record record = recdec.decodeRecord(entry.getKey(), version, readContext, entry.getValue(),
+                        fieldTypes);
+                records.add(recdec.newIdRecord(record, readContext));
+            }
+            return records;
+        } finally {
+            metrics.report(Action.READ, System.currentTimeMillis() - before);
+        }
     }
     
+    @Override
+    public List<IdRecord> readVersionsWithIds(RecordId recordId, Set<Long> versions, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        long before = System.currentTimeMillis();
+        try {
+            ArgumentValidator.notNull(recordId, "recordId");
+            ArgumentValidator.notNull(versions, "versions");
+
+            List<Long> sortedVersions = new ArrayList<Long>(versions.size());
+            for (Long version : versions) {
+                if (version != null && version >= 1L)
+                    sortedVersions.add(version);
+            }
+            if (sortedVersions.isEmpty())
+                return new ArrayList<IdRecord>();
+
+            Collections.sort(sortedVersions);
+
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+            List<FieldType> fields = getFieldTypesFromIds(fieldIds, fieldTypes);
+
+            // All versions are retrieved with one Get, covering the range from the lowest to the highest version
+            Long lowestRequestedVersion = sortedVersions.get(0);
+            Long highestRequestedVersion = sortedVersions.get(sortedVersions.size() - 1);
+            int numberOfVersionsToRetrieve = (int)(highestRequestedVersion - lowestRequestedVersion + 1);
+            Result result = getRow(recordId, highestRequestedVersion, numberOfVersionsToRetrieve, fields);
+            Long latestVersion = recdec.getLatestVersion(result);
+            if (latestVersion == null)
+                return new ArrayList<IdRecord>();
+
+            // Drop the versions that are higher than the latestVersion
+            List<Long> validVersions = new ArrayList<Long>(sortedVersions.size());
+            for (Long version : sortedVersions) {
+                if (version > latestVersion)
+                    break;
+                validVersions.add(version);
+            }
+            return recdec.decodeRecordsWithIds(recordId, validVersions, result, fieldTypes);
+        } finally {
+            metrics.report(Action.READ, System.currentTimeMillis() - before);
+        }
+    }
+
     private Record read(RecordId recordId, Long requestedVersion, List<FieldType> fields, ReadContext readContext,
             FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
         long before = System.currentTimeMillis();
@@ -1207,7 +1643,7 @@ public class HBaseRepository extends BaseRepository {
                                     } else {
                                         byte[] value = cell.getValue();
                                         if (!isDeleteMarker(value)) {
-                                            blobValue = valueType.read(EncodingUtil.stripPrefix(value));
+                                            blobValue = valueType.read(value, 1, value.length - 1);
                                         }
                                     }
                                     try {
@@ -1241,7 +1677,7 @@ public class HBaseRepository extends BaseRepository {
                 }
             }
             // Delete the blobs
-            blobManager.handleBlobReferences(recordId, null, blobsToDelete);
+            handleBlobReferences(recordId, null, blobsToDelete, null);
             
             // Delete data
             if (dataToDelete) { // Avoid a delete action when no data was found to delete
@@ -1293,57 +1729,82 @@ public class HBaseRepository extends BaseRepository {
     private void reserveBlobs(RecordId recordId, Set<BlobReference> referencedBlobs) throws IOException,
             InvalidRecordException {
         if (!referencedBlobs.isEmpty()) {
-            // Check if the blob is newly uploaded
-            Set<BlobReference> failedReservations = blobManager.reserveBlobs(referencedBlobs);
-            // If not, filter those that are already used by the record
-            failedReservations = filterReferencedBlobs(recordId, failedReservations, null);
-            if (!failedReservations.isEmpty())
-            {
-                throw new InvalidRecordException("Record references blobs which are not available for use", recordId);
+            long before = System.currentTimeMillis();
+            try {
+                // Check if the blob is newly uploaded
+                Set<BlobReference> failedReservations = blobManager.reserveBlobs(referencedBlobs);
+                // If not, filter those that are already used by the record
+                failedReservations = filterReferencedBlobs(recordId, failedReservations, null);
+                if (!failedReservations.isEmpty())
+                {
+                    throw new InvalidRecordException("Record references blobs which are not available for use", recordId);
+                }
+            } finally {
+                metrics.report(Action.BLOB_BOOKKEEPING, System.currentTimeMillis() - before);
             }
         }
     }
-    
-    // Checks the set of blobs and returns a subset of those blobs which are not referenced anymore
+
+    /**
+     * Removes the used blobs from the blobIncubator and deletes the unreferenced blobs from the blobstore.
+     *
+     * @param ignoreVersion if not null, the unreferenced blobs are first checked against the other versions
+     *                      of the record, see {@link #filterReferencedBlobs}
+     */
+    private void handleBlobReferences(RecordId recordId, Set<BlobReference> referencedBlobs,
+            Set<BlobReference> unReferencedBlobs, Long ignoreVersion) throws IOException {
+        long before = System.currentTimeMillis();
+        try {
+            if (ignoreVersion != null && unReferencedBlobs != null) {
+                unReferencedBlobs = filterReferencedBlobs(recordId, unReferencedBlobs, ignoreVersion);
+            }
+            blobManager.handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs);
+        } finally {
+            metrics.report(Action.BLOB_BOOKKEEPING, System.currentTimeMillis() - before);
+        }
+    }
+
+    // Checks the set of blobs and returns a subset of those blobs which are not referenced anymore.
+    // All blob fields are read with one Get (all versions), the blob values are checked client-side.
     private Set<BlobReference> filterReferencedBlobs(RecordId recordId, Set<BlobReference> blobs, Long ignoreVersion)
             throws IOException {
-        if (recordId == null)
+        if (recordId == null || blobs.isEmpty())
             return blobs;
+
+        Get get = new Get(recordId.toBytes());
+        get.setMaxVersions();
+        for (BlobReference blobReference : blobs) {
+            get.addColumn(RecordCf.DATA.bytes, ((FieldTypeImpl)blobReference.getFieldType()).getQualifier());
+        }
+        Result result = recordTable.get(get);
+
         Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
         for (BlobReference blobReference : blobs) {
             FieldTypeImpl fieldType = (FieldTypeImpl)blobReference.getFieldType();
-            byte[] recordIdBytes = recordId.toBytes();
             ValueType valueType = fieldType.getValueType();
 
-            Get get = new Get(recordIdBytes);
-            get.addColumn(RecordCf.DATA.bytes, fieldType.getQualifier());
             byte[] valueToCompare = Bytes.toBytes(valueType.getNestingLevel());
-            
             // Note, if a encoding of the BlobValueType is added, this might have to change.
             valueToCompare = Bytes.add(valueToCompare, blobReference.getBlob().getValue());
-            WritableByteArrayComparable valueComparator = new ContainsValueComparator(valueToCompare);
-            Filter filter = new SingleColumnValueFilter(RecordCf.DATA.bytes, fieldType.getQualifier(), CompareOp.EQUAL,
-                    valueComparator);
-            get.setFilter(filter);
-            Result result = recordTable.get(get);
-            
-            if (result.isEmpty()) {
-                unReferencedBlobs.add(blobReference);
-            } else {
-                if (ignoreVersion != null) {
-                    boolean stillReferenced = false;
-                    List<KeyValue> column = result.getColumn(RecordCf.DATA.bytes, fieldType.getQualifier());
-                    for (KeyValue keyValue : column) {
-                        if (keyValue.getTimestamp() != ignoreVersion) {
-                            stillReferenced = true;
-                            break;
-                        }
+            ContainsValueComparator valueComparator = new ContainsValueComparator(valueToCompare);
+
+            boolean stillReferenced = false;
+            List<KeyValue> column = result.isEmpty() ? null :
+                    result.getColumn(RecordCf.DATA.bytes, fieldType.getQualifier());
+            if (column != null) {
+                for (KeyValue keyValue : column) {
+                    if (ignoreVersion != null && keyValue.getTimestamp() == ignoreVersion) {
+                        continue;
                     }
-                    if (!stillReferenced) {
-                        unReferencedBlobs.add(blobReference);
+                    if (valueComparator.compareTo(keyValue.getValue()) == 0) {
+                        stillReferenced = true;
+                        break;
                     }
                 }
             }
+            if (!stillReferenced) {
+                unReferencedBlobs.add(blobReference);
+            }
         }
         return unReferencedBlobs;
     }
@@ -20,6 +20,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
@@ -47,11 +48,22 @@ public class InlineBlobStoreAccess implements BlobStoreAccess {
     public InputStream getInputStream(byte[] blobKey) throws BlobException {
         return new ByteArrayInputStream(blobKey);
     }
+
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset) throws BlobException {
+        int start = (int)Math.min(offset, blobKey.length);
+        return new ByteArrayInputStream(blobKey, start, blobKey.length - start);
+    }
     
     @Override
     public void delete(byte[] blobKey) {
         // no-op
     }
+
+    @Override
+    public void delete(List<byte[]> blobKeys) {
+        // no-op
+    }
     
     @Override
     public boolean incubate() {
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * A RecordScanner which scans the regions of the record table concurrently.
+ *
+ * <p>The key range of the scan is split at the region boundaries. Each region is scanned by
+ * a thread from a pool with a fixed number of threads, which puts the decoded records on a
+ * bounded queue, from which {@link #next()} takes them.
+ *
+ * <p>When the records should be returned in order, each region has its own queue and the queues
+ * are consumed one after the other. Since the regions are submitted to the pool in order, the
+ * region being consumed is always being scanned (or is done). Otherwise, all regions share one
+ * queue and records are returned in the order in which they arrive.
+ *
+ * <p>The scans of the later regions can be blocked on their full queue for as long as it takes to
+ * consume the earlier regions, which can be longer than the scanner lease period of the region servers.
+ * Therefore a region scan which is blocked for half of the lease period closes its HBase scanner, and
+ * opens a new one starting after the last row once there is room in the queue again.
+ *
+ * <p>It is important to close this scanner, since this stops the scanning threads.
+ */
+public class ParallelHBaseRecordScanner extends AbstractRecordScanner {
+    private final RecordDecoder recdec;
+    private final boolean ordered;
+    private final List<BlockingQueue<Object>> queues;
+    private final int regionCount;
+    /** Number of regions which have been fully consumed. */
+    private int finishedRegions;
+    private final ExecutorService executor;
+    /** Time a region scan can be blocked on its queue before it closes its scanner, in ms. */
+    private final long maxBlockTime;
+    private volatile boolean closed;
+
+    private static final Object END_OF_REGION = new Object();
+
+    /**
+     * Number of records to read ahead per region, in case no caching is set on the scan.
+     */
+    private static final int DEFAULT_PREFETCH = 100;
+
+    private static final String LEASE_PERIOD_KEY = "hbase.regionserver.lease.period";
+    private static final long DEFAULT_LEASE_PERIOD = 60000;
+
+    public ParallelHBaseRecordScanner(HTableInterface table, Scan scan, RecordDecoder recdec, int parallelism,
+            boolean ordered) throws IOException {
+        this.recdec = recdec;
+        this.ordered = ordered;
+        this.maxBlockTime = table.getConfiguration().getLong(LEASE_PERIOD_KEY, DEFAULT_LEASE_PERIOD) / 2;
+
+        List<Pair<byte[], byte[]>> ranges = getRegionRanges(table, scan.getStartRow(), scan.getStopRow());
+        this.regionCount = ranges.size();
+
+        int prefetch = scan.getCaching() > 0 ? scan.getCaching() : DEFAULT_PREFETCH;
+        if (ordered) {
+            queues = new ArrayList<BlockingQueue<Object>>(regionCount);
+            for (int i = 0; i < regionCount; i++) {
+                queues.add(new LinkedBlockingQueue<Object>(prefetch));
+            }
+        } else {
+            queues = new ArrayList<BlockingQueue<Object>>(1);
+            queues.add(new LinkedBlockingQueue<Object>(prefetch * parallelism));
+        }
+
+        int threads = Math.max(1, Math.min(parallelism, regionCount));
+        executor = Executors.newFixedThreadPool(threads, new CustomThreadFactory("record-scan", null, true));
+
+        for (int i = 0; i < regionCount; i++) {
+            Scan regionScan = new Scan(scan);
+            regionScan.setStartRow(ranges.get(i).getFirst());
+            regionScan.setStopRow(ranges.get(i).getSecond());
+            executor.submit(new RegionScan(table, regionScan, ordered ? queues.get(i) : queues.get(0)));
+        }
+    }
+
+    /**
+     * Splits the range from startRow to stopRow at the region boundaries of the table.
+     */
+    static List<Pair<byte[], byte[]>> getRegionRanges(HTableInterface table, byte[] startRow,
+            byte[] stopRow) throws IOException {
+        Pair<byte[][], byte[][]> keys;
+        HTable htable = new HTable(table.getConfiguration(), table.getTableName());
+        try {
+            keys = htable.getStartEndKeys();
+        } finally {
+            Closer.close(htable);
+        }
+
+        List<Pair<byte[], byte[]>> ranges = new ArrayList<Pair<byte[], byte[]>>(keys.getFirst().length);
+        for (int i = 0; i < keys.getFirst().length; i++) {
+            byte[] regionStart = keys.getFirst()[i];
+            byte[] regionEnd = keys.getSecond()[i];
+
+            // determine if the given start and stop row fall into the region
+            if ((startRow.length == 0 || regionEnd.length == 0 || Bytes.compareTo(startRow, regionEnd) < 0) &&
+                    (stopRow.length == 0 || Bytes.compareTo(stopRow, regionStart) > 0)) {
+                byte[] rangeStart = startRow.length == 0 || Bytes.compareTo(regionStart, startRow) >= 0 ?
+                        regionStart : startRow;
+                byte[] rangeStop = (stopRow.length == 0 || Bytes.compareTo(regionEnd, stopRow) <= 0) &&
+                        regionEnd.length > 0 ? regionEnd : stopRow;
+                ranges.add(new Pair<byte[], byte[]>(rangeStart, rangeStop));
+            }
+        }
+        return ranges;
+    }
+
+    @Override
+    public Record next() throws RepositoryException, InterruptedException {
+        while (!closed && finishedRegions < regionCount) {
+            BlockingQueue<Object> queue = ordered ? queues.get(finishedRegions) : queues.get(0);
+            Object item = queue.take();
+            if (item == END_OF_REGION) {
+                finishedRegions++;
+            } else if (item instanceof Throwable) {
+                close();
+                if (item instanceof RepositoryException) {
+                    throw (RepositoryException)item;
+                }
+                throw new RepositoryException("Error scanning records", (Throwable)item);
+            } else {
+                return (Record)item;
+            }
+        }
+
+        // no more results
+        return null;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        // interrupts the region scans waiting for space in their queue
+        executor.shutdownNow();
+    }
+
+    private class RegionScan implements Runnable {
+        private final HTableInterface table;
+        private final Scan scan;
+        private final BlockingQueue<Object> queue;
+
+        public RegionScan(HTableInterface table, Scan scan, BlockingQueue<Object> queue) {
+            this.table = table;
+            this.scan = scan;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            ResultScanner scanner = null;
+            try {
+                scanner = table.getScanner(scan);
+                Result result;
+                while (!closed && (result = scanner.next()) != null) {
+                    Record record = recdec.decodeRecord(result);
+                    if (!queue.offer(record, maxBlockTime, TimeUnit.MILLISECONDS)) {
+                        // Don't let the scanner expire while we wait for the consumer, continue with a new
+                        // scanner after the current row once the record is queued.
+                        Closer.close(scanner);
+                        scanner = null;
+                        queue.put(record);
+                        if (closed) {
+                            break;
+                        }
+                        Scan remainder = new Scan(scan);
+                        remainder.setStartRow(Bytes.add(result.getRow(), new byte[] {0}));
+                        scanner = table.getScanner(remainder);
+                    }
+                }
+                queue.put(END_OF_REGION);
+            } catch (InterruptedException e) {
+                // scanner was closed
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                try {
+                    queue.put(t);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } finally {
+                Closer.close(scanner);
+            }
+        }
+    }
+}
@@ -37,9 +37,13 @@ public class RecordAsBytesConverter {
 
     public static final byte[] write(Record record, Repository repository)
             throws RepositoryException, InterruptedException {
-        DataOutput output = new DataOutputImpl();
-        write(record, output, repository);
-        return output.toByteArray();
+        DataOutputImpl output = DataOutputImpl.acquire();
+        try {
+            write(record, output, repository);
+            return output.toByteArray();
+        } finally {
+            output.release();
+        }
     }
     
     public static final void write(Record record, DataOutput output, Repository repository)
@@ -146,9 +150,13 @@ public class RecordAsBytesConverter {
 
     public static final byte[] writeIdRecord(IdRecord record, Repository repository)
             throws RepositoryException, InterruptedException {
-        DataOutput output = new DataOutputImpl();
-        writeIdRecord(record, output, repository);
-        return output.toByteArray();
+        DataOutputImpl output = DataOutputImpl.acquire();
+        try {
+            writeIdRecord(record, output, repository);
+            return output.toByteArray();
+        } finally {
+            output.release();
+        }
     }
     
     public static final void writeIdRecord(IdRecord record, DataOutput output, Repository repository)
@@ -143,12 +143,84 @@ public class RecordDecoder {
         return record;
     }
 
+    /**
+     * Gets the requested version of the record from the Result object, as an IdRecord.
+     *
+     * <p>This does the same as {@link org.lilyproject.repository.api.Repository#readWithIds}, for the
+     * case the row was already read, e.g. as part of a scan. If the Result does not contain all versions
+     * of the row, only the latest version can be decoded.</p>
+     *
+     * @param requestedVersion the version to decode, null for the latest version
+     */
+    public IdRecord decodeRecordWithIds(RecordId recordId, Long requestedVersion, Result result,
+            FieldTypes fieldTypes) throws InterruptedException, RepositoryException {
+        Long latestVersion = getLatestVersion(result);
+        if (requestedVersion == null) {
+            // Latest version can still be null if there are only non-versioned fields in the record
+            requestedVersion = latestVersion;
+        } else if (latestVersion == null || latestVersion < requestedVersion) {
+            // The requested version is higher than the highest existing version
+            throw new VersionNotFoundException(recordId, requestedVersion);
+        }
+
+        ReadContext readContext = new ReadContext();
+        Record record = decodeRecord(recordId, requestedVersion, readContext, result, fieldTypes);
+        return newIdRecord(record, readContext);
+    }
+
+    /**
+     * Creates an IdRecord for a record read using the given ReadContext.
+     */
+    public IdRecord newIdRecord(Record record, ReadContext readContext) {
+        Map<SchemaId, QName> idToQNameMapping = new HashMap<SchemaId, QName>();
+        for (FieldType fieldType : readContext.getFieldTypes().values()) {
+            idToQNameMapping.put(fieldType.getId(), fieldType.getName());
+        }
+
+        Map<Scope, SchemaId> recordTypeIds = new EnumMap<Scope, SchemaId>(Scope.class);
+        for (Map.Entry<Scope, RecordType> entry : readContext.getRecordTypes().entrySet()) {
+            recordTypeIds.put(entry.getKey(), entry.getValue().getId());
+        }
+
+        return new IdRecordImpl(record, idToQNameMapping, recordTypeIds);
+    }
+
     /**
      *  Gets the requested version of the record (fields and recordTypes) from the Result object.
      *  This method is optimized for reading multiple versions.
      */
     public List<Record> decodeRecords(RecordId recordId, List<Long> requestedVersions, Result result,
             FieldTypes fieldTypes) throws InterruptedException, RepositoryException{
+        return new ArrayList<Record>(decodeRecords(recordId, requestedVersions, result, fieldTypes, null).values());
+    }
+
+    /**
+     * Gets the requested versions of the record from the Result object, as IdRecords, in the order of the
+     * requested versions. The Result object should contain all requested versions, as is the case for
+     * {@link org.lilyproject.repository.api.Repository#readVersions}.
+     */
+    public List<IdRecord> decodeRecordsWithIds(RecordId recordId, List<Long> requestedVersions, Result result,
+            FieldTypes fieldTypes) throws InterruptedException, RepositoryException {
+        Map<Long, ReadContext> readContexts = new HashMap<Long, ReadContext>(requestedVersions.size());
+        for (Long requestedVersion : requestedVersions) {
+            readContexts.put(requestedVersion, new ReadContext());
+        }
+
+        Map<Long, Record> records = decodeRecords(recordId, requestedVersions, result, fieldTypes, readContexts);
+
+        List<IdRecord> idRecords = new ArrayList<IdRecord>(requestedVersions.size());
+        for (Long requestedVersion : requestedVersions) {
+            idRecords.add(newIdRecord(records.get(requestedVersion), readContexts.get(requestedVersion)));
+        }
+        return idRecords;
+    }
+
+    /**
+     * @param readContexts optional, the read context for each requested version
+     */
+    private Map<Long, Record> decodeRecords(RecordId recordId, List<Long> requestedVersions, Result result,
+            FieldTypes fieldTypes, Map<Long, ReadContext> readContexts)
+            throws InterruptedException, RepositoryException {
         Map<Long, Record> records = new HashMap<Long, Record>(requestedVersions.size());
         Map<Long, Set<Scope>> scopes = new HashMap<Long, Set<Scope>>(requestedVersions.size());
         for (Long requestedVersion : requestedVersions) {
@@ -190,6 +262,9 @@ public class RecordDecoder {
                             if (lastDecodedField != null) {
                                 record.setField(lastDecodedField.getV1().getName(), lastDecodedField.getV2());
                                 scopes.get(versionToRead).add(lastDecodedField.getV1().getScope());
+                                if (readContexts != null) {
+                                    readContexts.get(versionToRead).addFieldType(lastDecodedField.getV1());
+                                }
                             }
                         }
                     }
@@ -212,12 +287,15 @@ public class RecordDecoder {
                     if (recordTypePair != null) {
                         RecordType recordType = typeManager.getRecordTypeById(recordTypePair.getV1(), recordTypePair.getV2());
                         recordEntry.getValue().setRecordType(scope, recordType.getName(), recordType.getVersion());
+                        if (readContexts != null) {
+                            readContexts.get(recordEntry.getKey()).setRecordTypeId(scope, recordType);
+                        }
                     }
                 }
             }
         }
 
-        return new ArrayList<Record>(records.values());
+        return records;
     }
 
     public Record newRecord() {
@@ -238,7 +316,7 @@ public class RecordDecoder {
         if (context != null)
             context.addFieldType(fieldType);
         ValueType valueType = fieldType.getValueType();
-        Object value = valueType.read(EncodingUtil.stripPrefix(prefixedValue));
+        Object value = valueType.read(prefixedValue, 1, prefixedValue.length - 1);
         return new Pair<FieldType, Object>(fieldType, value);
     }
 
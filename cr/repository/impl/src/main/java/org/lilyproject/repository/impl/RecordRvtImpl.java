@@ -15,9 +15,11 @@
  */
 package org.lilyproject.repository.impl;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.repository.api.*;
 import org.lilyproject.repository.impl.valuetype.RecordValueType;
@@ -25,11 +27,21 @@ import org.lilyproject.repository.impl.valuetype.RecordValueType;
 public class RecordRvtImpl implements IdRecord, Cloneable {
 
     private IdRecord delegate;
+    // The encoded record is the range [offset, offset + length[ of bytes, which avoids copying it
+    // out of the (larger) array it was read from
     private byte[] bytes;
+    private int offset;
+    private int length;
     private RecordValueType recordValueType;
     
     public RecordRvtImpl(byte[] bytes, RecordValueType recordValueType) {
+        this(bytes, 0, bytes.length, recordValueType);
+    }
+
+    public RecordRvtImpl(byte[] bytes, int offset, int length, RecordValueType recordValueType) {
         this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
         this.recordValueType = recordValueType;
     }
 
@@ -42,7 +54,7 @@ public class RecordRvtImpl implements IdRecord, Cloneable {
     private synchronized void decode(boolean clearBytes) {
         if (delegate == null) {
             try {
-                delegate = (IdRecord)recordValueType.read(new DataInputImpl(bytes));
+                delegate = (IdRecord)recordValueType.read(new DataInputImpl(bytes, offset, length));
             } catch (RepositoryException e) {
                 throw new RuntimeException("Failed to decode record ");
             } catch (InterruptedException e) {
@@ -53,8 +65,27 @@ public class RecordRvtImpl implements IdRecord, Cloneable {
             bytes = null;
     }
     
-    public byte[] getBytes() {
-        return bytes;
+    /**
+     * Returns the encoded record, or null if the record has been modified since it was read.
+     */
+    public synchronized byte[] getBytes() {
+        if (bytes == null || (offset == 0 && length == bytes.length)) {
+            return bytes;
+        }
+        return Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+
+    /**
+     * Writes the encoded record to the given output, if the record has not been modified since it was read.
+     *
+     * @return false if nothing was written because the record needs to be encoded again
+     */
+    public synchronized boolean writeBytes(DataOutput dataOutput) {
+        if (bytes == null) {
+            return false;
+        }
+        dataOutput.writeBytes(bytes, offset, length);
+        return true;
     }
     
     @Override
@@ -233,7 +264,7 @@ public class RecordRvtImpl implements IdRecord, Cloneable {
 
     @Override
     public IdRecord clone() {
-        return new RecordRvtImpl(bytes, recordValueType);
+        return new RecordRvtImpl(bytes, offset, length, recordValueType);
     }
 
     @Override
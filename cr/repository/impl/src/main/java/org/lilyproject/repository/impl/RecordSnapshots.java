@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.util.repo.RecordEvent;
+
+/**
+ * Reads the record snapshots which the repository includes in the {@link RecordEvent}s,
+ * see {@link RecordEvent#getRecordSnapshot()}.
+ */
+public class RecordSnapshots {
+    private static final Log log = LogFactory.getLog(RecordSnapshots.class);
+
+    private RecordSnapshots() {
+    }
+
+    /**
+     * Returns the record snapshot included in the event, or null if it has none or it could not be read,
+     * in which case the caller should read the record from the repository.
+     */
+    public static IdRecord read(RecordEvent event, Repository repository) throws InterruptedException {
+        byte[] snapshot = event.getRecordSnapshot();
+        if (snapshot == null) {
+            return null;
+        }
+
+        try {
+            return RecordAsBytesConverter.readIdRecord(new DataInputImpl(snapshot), repository);
+        } catch (RepositoryException e) {
+            log.warn("Error reading the record snapshot from the record event, will read the record instead.", e);
+            return null;
+        } catch (RuntimeException e) {
+            log.warn("Error reading the record snapshot from the record event, will read the record instead.", e);
+            return null;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.lang.reflect.UndeclaredThrowableException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -299,6 +300,38 @@ public class RemoteRepository extends BaseRepository {
         }
     }
 
+    @Override
+    public List<RecordBatchResult> createBatch(List<Record> records) throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+        try {
+            return converter.convertAvroBatchResults(lilyProxy.createBatch(converter.convertRecords(records)));
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
+    @Override
+    public List<RecordBatchResult> updateBatch(List<Record> records) throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+        try {
+            return converter.convertAvroBatchResults(lilyProxy.updateBatch(converter.convertRecords(records)));
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
     @Override
     public Set<RecordId> getVariants(RecordId recordId) throws RepositoryException, InterruptedException {
         try {
@@ -337,6 +370,45 @@ public class RemoteRepository extends BaseRepository {
         }
     }
 
+    @Override
+    public List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(recordIds, "recordIds");
+        // There is no batch variant of readWithIds in the avro protocol, so this does one call per record
+        List<IdRecord> records = new ArrayList<IdRecord>(recordIds.size());
+        for (RecordId recordId : recordIds) {
+            try {
+                records.add(readWithIds(recordId, null, fieldIds));
+            } catch (RecordNotFoundException e) {
+                // Skip this recordId, the same as read(List) does
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public List<IdRecord> readVersionsWithIds(RecordId recordId, Set<Long> versions, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(recordId, "recordId");
+        ArgumentValidator.notNull(versions, "versions");
+        // There is no multi-version variant of readWithIds in the avro protocol, so this does one call per version
+        List<Long> sortedVersions = new ArrayList<Long>(versions.size());
+        for (Long version : versions) {
+            if (version != null && version >= 1L)
+                sortedVersions.add(version);
+        }
+        Collections.sort(sortedVersions);
+        List<IdRecord> records = new ArrayList<IdRecord>(sortedVersions.size());
+        for (Long version : sortedVersions) {
+            try {
+                records.add(readWithIds(recordId, version, fieldIds));
+            } catch (VersionNotFoundException e) {
+                // Skip this version, the same as readVersions does
+            }
+        }
+        return records;
+    }
+
     private RuntimeException handleUndeclaredRecordThrowable(UndeclaredThrowableException e) throws RecordException {
         if (e.getCause() instanceof IOException) {
             throw new IORecordException(e.getCause());
@@ -25,12 +25,14 @@ import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+import org.lilyproject.util.hbase.metrics.MetricsNonTimeRate;
 
 public class RepositoryMetrics implements Updater {
-    public enum Action{CREATE, READ, UPDATE, DELETE};
+    public enum Action{CREATE, READ, UPDATE, DELETE, CREATE_BATCH, UPDATE_BATCH, BLOB_BOOKKEEPING};
     public enum HBaseAction{PUT, GET, LOCK, UNLOCK};
     private final MetricsRegistry registry = new MetricsRegistry();
     private final MetricsRecord metricsRecord;
@@ -39,6 +41,11 @@ public class RepositoryMetrics implements Updater {
     private final EnumMap<HBaseAction, MetricsTimeVaryingRate> hbaseRates = new EnumMap<HBaseAction, MetricsTimeVaryingRate>(HBaseAction.class);
     private final RepositoryMetricsMXBean mbean;
     private final String recordName;
+    /** Size of the record snapshots included in the record events. */
+    private final MetricsNonTimeRate recordSnapshotSize = new MetricsNonTimeRate("record_snapshot_size", registry);
+    /** Number of record snapshots which were not included because they were too large. */
+    private final MetricsTimeVaryingLong recordSnapshotsTooLarge =
+            new MetricsTimeVaryingLong("record_snapshots_too_large", registry);
 
     public RepositoryMetrics(String recordName) {
         this.recordName = recordName;
@@ -79,6 +86,14 @@ public class RepositoryMetrics implements Updater {
         hbaseRates.get(action).inc(duration);
     }
 
+    void reportRecordSnapshot(int size) {
+        recordSnapshotSize.inc(size);
+    }
+
+    void reportRecordSnapshotTooLarge() {
+        recordSnapshotsTooLarge.inc();
+    }
+
     public class RepositoryMetricsMXBean extends MetricsDynamicMBeanBase {
         private final ObjectName mbeanName;
 
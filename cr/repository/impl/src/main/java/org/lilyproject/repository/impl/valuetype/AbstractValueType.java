@@ -29,6 +29,11 @@ public abstract class AbstractValueType implements ValueType {
     public <T> T read(byte[] data) throws RepositoryException, InterruptedException {
         return read(new DataInputImpl(data));
     }
+
+    @Override
+    public <T> T read(byte[] data, int offset, int length) throws RepositoryException, InterruptedException {
+        return read(new DataInputImpl(data, offset, length));
+    }
     
     @Override
     public abstract void write(Object value, DataOutput dataOutput, IdentityRecordStack parentRecords)
@@ -48,9 +53,13 @@ public abstract class AbstractValueType implements ValueType {
     @Override
     public byte[] toBytes(Object value, IdentityRecordStack parentRecords) throws RepositoryException,
             InterruptedException {
-        DataOutput dataOutput = new DataOutputImpl();
-        write(value, dataOutput, parentRecords);
-        return dataOutput.toByteArray();
+        DataOutputImpl dataOutput = DataOutputImpl.acquire();
+        try {
+            write(value, dataOutput, parentRecords);
+            return dataOutput.toByteArray();
+        } finally {
+            dataOutput.release();
+        }
     }
     
     @Override
@@ -67,6 +67,12 @@ public class RecordValueType extends AbstractValueType implements ValueType {
     public Record read(byte[] data) throws RepositoryException, InterruptedException {
         return new RecordRvtImpl(data, this);
     }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Record read(byte[] data, int offset, int length) throws RepositoryException, InterruptedException {
+        return new RecordRvtImpl(data, offset, length, this);
+    }
     
     @Override
     @SuppressWarnings("unchecked")
@@ -105,18 +111,20 @@ public class RecordValueType extends AbstractValueType implements ValueType {
                 return bytes;
             }
         }
-        DataOutput dataOutput = new DataOutputImpl();
-        encodeData(value, dataOutput, parentRecords);
-        return dataOutput.toByteArray();
+        DataOutputImpl dataOutput = DataOutputImpl.acquire();
+        try {
+            encodeData(value, dataOutput, parentRecords);
+            return dataOutput.toByteArray();
+        } finally {
+            dataOutput.release();
+        }
     }
 
     @Override
     public void write(Object value, DataOutput dataOutput, IdentityRecordStack parentRecords)
             throws RepositoryException, InterruptedException {
         if (value instanceof RecordRvtImpl) {
-            byte[] bytes = ((RecordRvtImpl)value).getBytes();
-            if (bytes != null) { 
-                dataOutput.writeBytes(bytes);
+            if (((RecordRvtImpl)value).writeBytes(dataOutput)) {
                 return;
             }
         }
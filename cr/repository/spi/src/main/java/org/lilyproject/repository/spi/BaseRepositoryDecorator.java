@@ -83,6 +83,16 @@ public class BaseRepositoryDecorator implements RepositoryDecorator {
         return delegate.createOrUpdate(record, useLatestRecordType);
     }
 
+    @Override
+    public List<RecordBatchResult> createBatch(List<Record> records) throws RepositoryException, InterruptedException {
+        return delegate.createBatch(records);
+    }
+
+    @Override
+    public List<RecordBatchResult> updateBatch(List<Record> records) throws RepositoryException, InterruptedException {
+        return delegate.updateBatch(records);
+    }
+
     @Override
     public Record read(RecordId recordId, List<QName> fieldNames) throws RepositoryException, InterruptedException {
         return delegate.read(recordId, fieldNames);
@@ -147,6 +157,18 @@ public class BaseRepositoryDecorator implements RepositoryDecorator {
         return delegate.readWithIds(recordId, version, fieldIds);
     }
 
+    @Override
+    public List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        return delegate.readWithIds(recordIds, fieldIds);
+    }
+
+    @Override
+    public List<IdRecord> readVersionsWithIds(RecordId recordId, Set<Long> versions, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        return delegate.readVersionsWithIds(recordId, versions, fieldIds);
+    }
+
     @Override
     public void delete(RecordId recordId) throws RepositoryException, InterruptedException {
         delegate.delete(recordId);
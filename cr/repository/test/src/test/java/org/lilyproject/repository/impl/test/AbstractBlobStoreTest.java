@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.hbase.client.*;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -843,6 +844,81 @@ public abstract class AbstractBlobStoreTest {
         assertTrue(result == null || result.isEmpty());
     }
         
+    @Test
+    public void testBlobIncubatorMonitorDuringReservation() throws Exception {
+        QName fieldName = new QName(namespace, "testBlobIncubatorMonitorDuringReservation");
+        FieldType fieldType = typeManager.newFieldType(typeManager.getValueType("BLOB"), fieldName,
+                Scope.NON_VERSIONED);
+        fieldType = typeManager.createFieldType(fieldType);
+        RecordType recordType = typeManager.newRecordType(new QName(namespace,
+                "testBlobIncubatorMonitorDuringReservationRT"));
+        FieldTypeEntry fieldTypeEntry = typeManager.newFieldTypeEntry(fieldType.getId(), true);
+        recordType.addFieldTypeEntry(fieldTypeEntry);
+        recordType = typeManager.createRecordType(recordType);
+
+        // Upload blobs and let them expire, so that the monitor will delete them unless they get reserved first
+        List<Blob> blobs = new ArrayList<Blob>();
+        List<byte[]> blobBytes = new ArrayList<byte[]>();
+        for (int i = 0; i < 20; i++) {
+            byte[] bytes = new byte[3000];
+            random.nextBytes(bytes);
+            blobs.add(writeBlob(bytes, "aMediaType", "testReservation"));
+            blobBytes.add(bytes);
+        }
+        Thread.sleep(600);
+
+        // Reserve the blobs by creating records while the monitor is running
+        final BlobIncubatorMonitor monitor = new BlobIncubatorMonitor(repoSetup.getZk(),
+                repoSetup.getHbaseTableFactory(), blobManager, typeManager, 500, 0, 0);
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final List<Throwable> monitorErrors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread monitorThread = new Thread() {
+            @Override
+            public void run() {
+                while (!stop.get()) {
+                    try {
+                        monitor.runMonitorOnce();
+                    } catch (Throwable t) {
+                        monitorErrors.add(t);
+                        return;
+                    }
+                }
+            }
+        };
+        monitorThread.start();
+
+        Map<RecordId, Integer> createdRecords = new HashMap<RecordId, Integer>();
+        List<Blob> unreservedBlobs = new ArrayList<Blob>();
+        try {
+            for (int i = 0; i < blobs.size(); i++) {
+                Record record = repository.newRecord();
+                record.setRecordType(recordType.getName());
+                record.setField(fieldName, blobs.get(i));
+                try {
+                    record = repository.create(record);
+                    createdRecords.put(record.getId(), i);
+                } catch (InvalidRecordException e) {
+                    // The monitor removed the blob before it could be reserved, so the reservation failed
+                    unreservedBlobs.add(blobs.get(i));
+                }
+            }
+        } finally {
+            stop.set(true);
+            monitorThread.join();
+        }
+        assertTrue(monitorErrors.toString(), monitorErrors.isEmpty());
+        for (Blob blob : unreservedBlobs) {
+            assertBlobDelete(true, blob);
+        }
+
+        // A blob which got reserved is never deleted by the monitor, not even afterwards
+        monitor.runMonitorOnce();
+        for (Map.Entry<RecordId, Integer> entry : createdRecords.entrySet()) {
+            byte[] bytes = blobBytes.get(entry.getValue());
+            assertTrue(Arrays.equals(bytes, readBlob(entry.getKey(), fieldName, bytes.length)));
+        }
+    }
+
     private void assertBlobDelete(boolean expectDelete, Blob blob) throws BlobNotFoundException, BlobException {
         if (expectDelete) {
             try {
@@ -45,14 +45,14 @@ public abstract class AbstractRepositoryTest {
     protected static Repository repository;
     protected static FieldType fieldType1;
 
-    private static FieldType fieldType1B;
-    private static FieldType fieldType2;
+    protected static FieldType fieldType1B;
+    protected static FieldType fieldType2;
     private static FieldType fieldType3;
     private static FieldType fieldType4;
     private static FieldType fieldType5;
     private static FieldType fieldType6;
     protected static RecordType recordType1;
-    private static RecordType recordType1B;
+    protected static RecordType recordType1B;
     private static RecordType recordType2;
     private static RecordType recordType3;
     private static String namespace = "/test/repository";
@@ -309,6 +309,69 @@ public abstract class AbstractRepositoryTest {
         assertEquals(updatedRecord, repository.read(record.getId()));
     }
     
+    @Test
+    public void testCreateBatch() throws Exception {
+        Record existingRecord = createDefaultRecord();
+
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 3; i++) {
+            Record record = repository.newRecord();
+            record.setRecordType(recordType1.getName(), recordType1.getVersion());
+            record.setField(fieldType1.getName(), "batch" + i);
+            record.setField(fieldType2.getName(), i);
+            records.add(record);
+        }
+        // A record which already exists should fail on its own, without affecting the others
+        Record duplicateRecord = repository.newRecord(existingRecord.getId());
+        duplicateRecord.setRecordType(recordType1.getName(), recordType1.getVersion());
+        duplicateRecord.setField(fieldType1.getName(), "value1");
+        records.add(duplicateRecord);
+
+        List<RecordBatchResult> results = repository.createBatch(records);
+        assertEquals(4, results.size());
+
+        for (int i = 0; i < 3; i++) {
+            RecordBatchResult result = results.get(i);
+            assertTrue(result.isSuccess());
+            assertEquals(ResponseStatus.CREATED, result.getRecord().getResponseStatus());
+            assertEquals(Long.valueOf(1), result.getRecord().getVersion());
+
+            Record readRecord = repository.read(result.getRecord().getId());
+            assertEquals("batch" + i, readRecord.getField(fieldType1.getName()));
+            assertEquals(i, readRecord.getField(fieldType2.getName()));
+        }
+
+        assertFalse(results.get(3).isSuccess());
+        assertTrue(results.get(3).getException() instanceof RecordExistsException);
+    }
+
+    @Test
+    public void testUpdateBatch() throws Exception {
+        Record record1 = createDefaultRecord();
+        Record record2 = createDefaultRecord();
+
+        Record updateRecord1 = repository.newRecord(record1.getId());
+        updateRecord1.setField(fieldType1.getName(), "value2");
+        // Same value as stored: nothing to update
+        Record updateRecord2 = repository.newRecord(record2.getId());
+        updateRecord2.setField(fieldType1.getName(), "value1");
+        Record updateRecord3 = repository.newRecord(idGenerator.newRecordId());
+        updateRecord3.setField(fieldType1.getName(), "value2");
+
+        List<RecordBatchResult> results = repository.updateBatch(Arrays.asList(updateRecord1, updateRecord2,
+                updateRecord3));
+        assertEquals(3, results.size());
+
+        assertEquals(ResponseStatus.UPDATED, results.get(0).getRecord().getResponseStatus());
+        assertEquals(Long.valueOf(2), results.get(0).getRecord().getVersion());
+        assertEquals("value2", repository.read(record1.getId()).getField(fieldType1.getName()));
+
+        assertEquals(ResponseStatus.UP_TO_DATE, results.get(1).getRecord().getResponseStatus());
+        assertEquals(Long.valueOf(1), results.get(1).getRecord().getVersion());
+
+        assertTrue(results.get(2).getException() instanceof RecordNotFoundException);
+    }
+
     @Test
     public void testUpdateWithoutRecordType() throws Exception {
         Record record = createDefaultRecord();
@@ -551,6 +614,88 @@ public abstract class AbstractRepositoryTest {
         assertEquals(1, records.size());
         assertTrue(records.contains(record1));
     }
+
+    @Test
+    public void testReadVersionsWithIds() throws Exception {
+        Record record = createDefaultRecord();
+        Record updateRecord = record.cloneRecord();
+        updateRecord.setField(fieldType2.getName(), 789);
+        repository.update(updateRecord); // version 2
+
+        updateRecord.setField(fieldType3.getName(), false);
+        repository.update(updateRecord); // version 3
+
+        // A version with another record type version and an additional field
+        updateRecord = repository.newRecord(record.getId());
+        updateRecord.setRecordType(recordType1B.getName(), recordType1B.getVersion());
+        updateRecord.setField(fieldType1B.getName(), "value1B");
+        updateRecord.setField(fieldType2.getName(), 790);
+        repository.update(updateRecord); // version 4
+
+        updateRecord.setField(fieldType2.getName(), 791);
+        repository.update(updateRecord); // version 5
+
+        // Non-contiguous versions, returned in version order
+        List<IdRecord> records = repository.readVersionsWithIds(record.getId(),
+                new HashSet<Long>(Arrays.asList(4L, 1L, 3L)), null);
+        assertEquals(3, records.size());
+        assertEquals(Long.valueOf(1), records.get(0).getVersion());
+        assertEquals(Long.valueOf(3), records.get(1).getVersion());
+        assertEquals(Long.valueOf(4), records.get(2).getVersion());
+        for (IdRecord idRecord : records) {
+            assertIdRecordEquals(repository.readWithIds(record.getId(), idRecord.getVersion(), null), idRecord);
+        }
+        assertEquals(791, repository.readWithIds(record.getId(), null, null).getField(fieldType2.getId()));
+        assertEquals(790, records.get(2).getField(fieldType2.getId()));
+        assertEquals(recordType1B.getId(), records.get(2).getRecordTypeId(Scope.VERSIONED));
+        assertEquals(recordType1.getId(), records.get(0).getRecordTypeId(Scope.VERSIONED));
+
+        // Versions above the latest version are not returned
+        records = repository.readVersionsWithIds(record.getId(), new HashSet<Long>(Arrays.asList(2L, 5L, 6L, 100L)),
+                null);
+        assertEquals(2, records.size());
+        assertEquals(Long.valueOf(2), records.get(0).getVersion());
+        assertEquals(Long.valueOf(5), records.get(1).getVersion());
+        assertIdRecordEquals(repository.readWithIds(record.getId(), 2L, null), records.get(0));
+        assertIdRecordEquals(repository.readWithIds(record.getId(), 5L, null), records.get(1));
+
+        // Version 0 and null are not versions, they are ignored
+        records = repository.readVersionsWithIds(record.getId(), new HashSet<Long>(Arrays.asList(0L, null, 2L)), null);
+        assertEquals(1, records.size());
+        assertEquals(Long.valueOf(2), records.get(0).getVersion());
+
+        records = repository.readVersionsWithIds(record.getId(), new HashSet<Long>(Arrays.asList(0L)), null);
+        assertEquals(0, records.size());
+
+        records = repository.readVersionsWithIds(record.getId(), new HashSet<Long>(), null);
+        assertEquals(0, records.size());
+
+        // Specific fields
+        List<SchemaId> fieldIds = Arrays.asList(fieldType1.getId(), fieldType2.getId());
+        records = repository.readVersionsWithIds(record.getId(), new HashSet<Long>(Arrays.asList(1L, 4L)), fieldIds);
+        assertEquals(2, records.size());
+        assertIdRecordEquals(repository.readWithIds(record.getId(), 1L, fieldIds), records.get(0));
+        assertIdRecordEquals(repository.readWithIds(record.getId(), 4L, fieldIds), records.get(1));
+        assertFalse(records.get(1).hasField(fieldType1B.getId()));
+        assertFalse(records.get(1).hasField(fieldType3.getId()));
+
+        try {
+            if (avro)
+                System.out.println("Expecting RecordNotFoundException");
+            repository.readVersionsWithIds(idGenerator.newRecordId(), new HashSet<Long>(Arrays.asList(1L)), null);
+            fail();
+        } catch (RecordNotFoundException expected) {
+        }
+    }
+
+    protected void assertIdRecordEquals(IdRecord expected, IdRecord actual) {
+        assertEquals(expected.getRecord(), actual.getRecord());
+        assertEquals(expected.getFieldsById(), actual.getFieldsById());
+        assertEquals(expected.getFieldIdToNameMapping(), actual.getFieldIdToNameMapping());
+        for (Scope scope : Scope.values()) {
+            assertEquals(expected.getRecordTypeId(scope), actual.getRecordTypeId(scope));
+        }
+    }
     
     @Test
     public void testReadNonExistingRecord() throws Exception {
@@ -1536,6 +1681,26 @@ public abstract class AbstractRepositoryTest {
         assertTrue(readRecords.isEmpty());
     }
 
+    @Test
+    public void testReadMultipleIdRecords() throws Exception {
+        Record record1 = createDefaultRecord();
+        Record record2 = createDefaultRecord();
+
+        List<IdRecord> readRecords = repository.readWithIds(Arrays.asList(record1.getId(), record2.getId()),
+                Collections.singletonList(fieldType1.getId()));
+        assertEquals(2, readRecords.size());
+        for (IdRecord idRecord : readRecords) {
+            assertEquals("value1", idRecord.getField(fieldType1.getId()));
+            assertFalse(idRecord.hasField(fieldType2.getId()));
+        }
+
+        repository.delete(record2.getId());
+        readRecords = repository.readWithIds(Arrays.asList(record2.getId(), record1.getId()), null);
+        assertEquals(1, readRecords.size());
+        assertEquals(record1.getId(), readRecords.get(0).getId());
+        assertTrue(readRecords.get(0).hasField(fieldType2.getId()));
+    }
+
     @Test
     public void testConditionalUpdate() throws Exception {
         Record record = createDefaultRecord();
@@ -2128,6 +2293,52 @@ public abstract class AbstractRepositoryTest {
         
         assertTrue("Found at least 26 records", i >= 26);
     }
+
+    @Test
+    public void testParallelScanner() throws Exception {
+        List<String> fieldValues = new ArrayList<String>();
+        for (int i = 'A'; i <= 'Z'; i++) {
+            RecordId id = idGenerator.newRecordId("Y" + (char)i);
+            Record record = repository.newRecord(id);
+            record.setRecordType(recordType1.getName());
+            String value = "field 1 - " + (char)i;
+            fieldValues.add(value);
+            record.setField(fieldType1.getName(), value);
+            repository.create(record);
+        }
+
+        RecordScan scan = new RecordScan();
+        scan.setStartRecordId(idGenerator.newRecordId("YA"));
+        scan.setStopRecordId(idGenerator.newRecordId("YZ")); // stop row is exclusive
+        scan.setCaching(5);
+        scan.setParallelism(4);
+
+        // Ordered
+        RecordScanner scanner = repository.getScanner(scan);
+        int i = 0;
+        Record record;
+        while ((record = scanner.next()) != null) {
+            assertEquals(fieldValues.get(i), record.getField(fieldType1.getName()));
+            i++;
+        }
+        scanner.close();
+        assertEquals("Found 25 records", 25, i);
+
+        // Unordered
+        scan.setOrdered(false);
+        scanner = repository.getScanner(scan);
+        Set<String> values = new HashSet<String>();
+        for (Record result : scanner) {
+            values.add((String)result.getField(fieldType1.getName()));
+        }
+        scanner.close();
+        assertEquals(new HashSet<String>(fieldValues.subList(0, 25)), values);
+
+        // Closing before the end
+        scanner = repository.getScanner(scan);
+        assertNotNull(scanner.next());
+        scanner.close();
+    }
     
     @Test
     public void testRecordTypeFilter() throws Exception {
@@ -15,12 +15,23 @@
  */
 package org.lilyproject.repository.impl.test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.impl.BlobStoreAccessRegistry;
+import org.lilyproject.repository.impl.ChunkedHBaseBlobStoreAccess;
 import org.lilyproject.hadooptestfw.TestHelper;
 
 public class BlobStoreTest extends AbstractBlobStoreTest {
@@ -53,5 +64,60 @@ public class BlobStoreTest extends AbstractBlobStoreTest {
     public void tearDown() throws Exception {
     }
 
+    @Test
+    public void testChunkedHBaseBlobStore() throws Exception {
+        ChunkedHBaseBlobStoreAccess blobStore = new ChunkedHBaseBlobStoreAccess(repoSetup.getHbaseTableFactory(),
+                false, 100);
+
+        // Exactly two chunks, two chunks and a bit, more chunks than are fetched at once, and an empty blob
+        for (int size : new int[] {200, 250, 1050, 0}) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+
+            Blob blob = new Blob("application/octet-stream", (long)size, "chunked");
+            OutputStream os = blobStore.getOutputStream(blob);
+            // Write in pieces which don't align with the chunks
+            for (int i = 0; i < size; i += 30) {
+                os.write(bytes, i, Math.min(30, size - i));
+            }
+            os.close();
+            byte[] key = blob.getValue();
+
+            InputStream is = blobStore.getInputStream(key);
+            assertArrayEquals(bytes, readAll(is));
+            is.close();
+
+            // Range reads, starting in the middle of a chunk, at a chunk boundary, in a later batch of chunks
+            // and at the end
+            for (int offset : new int[] {size / 3, 100, 850, size}) {
+                if (offset > size)
+                    continue;
+                is = blobStore.getInputStream(key, offset);
+                byte[] expected = new byte[size - offset];
+                System.arraycopy(bytes, offset, expected, 0, expected.length);
+                assertArrayEquals(expected, readAll(is));
+                is.close();
+            }
+
+            blobStore.delete(key);
+            try {
+                blobStore.getInputStream(key);
+                fail("Expected exception for deleted blob");
+            } catch (BlobException e) {
+                // expected
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            bos.write(buffer, 0, read);
+        }
+        return bos.toByteArray();
+    }
+
     
 }
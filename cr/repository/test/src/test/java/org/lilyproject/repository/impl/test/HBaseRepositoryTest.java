@@ -17,24 +17,62 @@ package org.lilyproject.repository.impl.test;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.HBaseRepository;
 import org.lilyproject.repository.impl.HBaseTypeManager;
+import org.lilyproject.repository.impl.ParallelHBaseRecordScanner;
+import org.lilyproject.repository.impl.RecordDecoder;
+import org.lilyproject.repository.impl.RecordSnapshots;
+import org.lilyproject.rowlog.api.RowLogException;
+import org.lilyproject.rowlog.api.RowLogMessage;
+import org.lilyproject.rowlog.api.RowLogMessageListener;
 import org.lilyproject.rowlog.api.RowLogMessageListenerMapping;
 import org.lilyproject.rowlog.api.RowLogSubscription.Type;
 import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.util.hbase.LilyHBaseSchema;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.RecordEvent;
 
 public class HBaseRepositoryTest extends AbstractRepositoryTest {
+    private static final String LEASE_PERIOD_KEY = "hbase.regionserver.lease.period";
+
+    /**
+     * Scanner lease period of the embedded region server, short enough for testOrderedParallelScanOverRegions
+     * to let a scanner lease expire without waiting a minute.
+     */
+    private static final long LEASE_PERIOD = 5000;
 
     @BeforeClass
     public static void setUpBeforeClass() throws Exception {
         TestHelper.setupLogging();
-        repoSetup.setupCore();
+        // Picked up by the HBaseProxy, see HBaseProxy.addUserProps
+        System.setProperty("lily.test." + LEASE_PERIOD_KEY, String.valueOf(LEASE_PERIOD));
+        try {
+            repoSetup.setupCore();
+        } finally {
+            System.clearProperty("lily.test." + LEASE_PERIOD_KEY);
+        }
         repoSetup.setupRepository(true);
 
         repoSetup.setupMessageQueue(true);
@@ -79,6 +117,147 @@ public class HBaseRepositoryTest extends AbstractRepositoryTest {
         repoSetup.getRowLogConfManager().removeSubscription("WAL", "TestSubscription");
         RowLogMessageListenerMapping.INSTANCE.remove("TestSubscription");
     }
-    
-    
+
+    @Test
+    public void testRecordSnapshots() throws Exception {
+        HBaseRepository hbaseRepository = (HBaseRepository)repository;
+        SnapshotCollector collector = new SnapshotCollector();
+        RowLogMessageListenerMapping.INSTANCE.put("SnapshotSubscription", collector);
+        repoSetup.getRowLogConfManager().addSubscription("WAL", "SnapshotSubscription", Type.VM, 3);
+        repoSetup.waitForSubscription(repoSetup.getWal(), "SnapshotSubscription");
+        hbaseRepository.setMaxRecordSnapshotSize(1024 * 1024);
+        try {
+            // Create
+            Record record = repository.newRecord();
+            record.setRecordType(recordType1.getName(), recordType1.getVersion());
+            record.setField(fieldType1.getName(), "value1");
+            record.setField(fieldType2.getName(), 123);
+            record = repository.create(record);
+            collector.recordId = record.getId();
+            assertSnapshotMatchesRead(collector);
+
+            // Update creating a new version
+            record.setField(fieldType2.getName(), 456);
+            record = repository.update(record);
+            assertEquals(Long.valueOf(2), record.getVersion());
+            assertSnapshotMatchesRead(collector);
+
+            // Update of only non-versioned data, no version is created
+            record.setField(fieldType1.getName(), "value2");
+            record = repository.update(record);
+            assertEquals(Long.valueOf(2), record.getVersion());
+            assertSnapshotMatchesRead(collector);
+
+            // Field delete
+            record.delete(fieldType1.getName(), true);
+            record = repository.update(record);
+            assertSnapshotMatchesRead(collector);
+
+            // Record type change
+            record.setRecordType(recordType1B.getName(), recordType1B.getVersion());
+            record.setField(fieldType1B.getName(), "value1B");
+            record = repository.update(record);
+            assertEquals(recordType1B.getVersion(), record.getRecordTypeVersion());
+            assertSnapshotMatchesRead(collector);
+        } finally {
+            hbaseRepository.setMaxRecordSnapshotSize(0);
+            repoSetup.getRowLogConfManager().removeSubscription("WAL", "SnapshotSubscription");
+            RowLogMessageListenerMapping.INSTANCE.remove("SnapshotSubscription");
+        }
+    }
+
+    /**
+     * An ordered parallel scan over several regions, with a consumer which is slow enough for the scans of the
+     * later regions to be blocked for longer than the scanner lease period.
+     */
+    @Test
+    public void testOrderedParallelScanOverRegions() throws Exception {
+        List<String> fieldValues = new ArrayList<String>();
+        for (int i = 0; i < 30; i++) {
+            Record record = repository.newRecord(idGenerator.newRecordId(String.format("PRS%02d", i)));
+            record.setRecordType(recordType1.getName());
+            String value = "parallel " + i;
+            fieldValues.add(value);
+            record.setField(fieldType1.getName(), value);
+            repository.create(record);
+        }
+        byte[] startRow = idGenerator.newRecordId("PRS00").toBytes();
+        byte[] stopRow = idGenerator.newRecordId("PRS30").toBytes();
+
+        // Copy the records to a table with three regions. Its configuration carries the lease period of the
+        // region servers, from which the parallel scanner derives how long a region scan may block.
+        HTableDescriptor tableDescriptor = new HTableDescriptor("ParallelScanTest");
+        tableDescriptor.addFamily(new HColumnDescriptor(RecordCf.DATA.bytes));
+        byte[][] splitKeys = new byte[][] {idGenerator.newRecordId("PRS10").toBytes(),
+                idGenerator.newRecordId("PRS20").toBytes()};
+        HTableInterface table = repoSetup.getHbaseTableFactory().getTable(tableDescriptor, splitKeys);
+
+        HTableInterface recordTable = LilyHBaseSchema.getRecordTable(repoSetup.getHbaseTableFactory());
+        Scan copyScan = new Scan(startRow, stopRow);
+        copyScan.addFamily(RecordCf.DATA.bytes);
+        copyScan.setMaxVersions();
+        ResultScanner copyScanner = recordTable.getScanner(copyScan);
+        for (Result result : copyScanner) {
+            Put put = new Put(result.getRow());
+            for (KeyValue kv : result.raw()) {
+                put.add(kv);
+            }
+            table.put(put);
+        }
+        copyScanner.close();
+
+        Scan scan = new Scan(startRow, stopRow);
+        scan.addFamily(RecordCf.DATA.bytes);
+        scan.setMaxVersions(1);
+        scan.setCaching(2);
+        ParallelHBaseRecordScanner scanner = new ParallelHBaseRecordScanner(table, scan,
+                new RecordDecoder(typeManager, idGenerator), 3, true);
+        // When connecting to an external cluster, the lease period of its region servers is not known here
+        long leasePeriod = repoSetup.getHadoopConf().getLong(LEASE_PERIOD_KEY, 60000);
+        try {
+            List<String> values = new ArrayList<String>();
+            Record record;
+            while ((record = scanner.next()) != null) {
+                if (values.isEmpty()) {
+                    // Longer than the lease period of the region servers, the scans of the next regions are
+                    // blocked meanwhile. Without reopening their scanners, these would have expired.
+                    Thread.sleep(leasePeriod + 2000);
+                }
+                values.add((String)record.getField(fieldType1.getName()));
+            }
+            assertEquals(fieldValues, values);
+        } finally {
+            scanner.close();
+            Closer.close(table);
+        }
+    }
+
+    private void assertSnapshotMatchesRead(SnapshotCollector collector) throws Exception {
+        assertNotNull("No record event received", collector.lastPayload);
+        RecordEvent event = new RecordEvent(collector.lastPayload, idGenerator);
+        collector.lastPayload = null;
+
+        IdRecord snapshot = RecordSnapshots.read(event, repository);
+        assertNotNull("No record snapshot in the record event", snapshot);
+        IdRecord read = repository.readWithIds(collector.recordId, null, null);
+        assertIdRecordEquals(read, snapshot);
+    }
+
+    private static class SnapshotCollector implements RowLogMessageListener {
+        private volatile RecordId recordId;
+        private volatile byte[] lastPayload;
+
+        @Override
+        public boolean processMessage(RowLogMessage message) {
+            if (recordId != null && !Arrays.equals(recordId.toBytes(), message.getRowKey())) {
+                return true;
+            }
+            try {
+                lastPayload = message.getPayload();
+            } catch (RowLogException e) {
+                throw new RuntimeException(e);
+            }
+            return true;
+        }
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.util.repo.RecordEvent;
+import org.lilyproject.util.repo.RecordEvent.Type;
+
+public class RecordEventTest {
+    private IdGenerator idGenerator = new IdGeneratorImpl();
+
+    @Test
+    public void testJsonRoundTrip() throws Exception {
+        RecordEvent event = new RecordEvent();
+        event.setType(Type.UPDATE);
+        event.setVersionCreated(3);
+        event.setRecordTypeChanged(true);
+        event.addUpdatedField(newSchemaId());
+        event.addUpdatedField(newSchemaId());
+
+        RecordEvent parsed = new RecordEvent(event.toJsonBytes(), idGenerator);
+        assertEquals(event, parsed);
+        assertNull(parsed.getRecordSnapshot());
+
+        event.setRecordSnapshot(new byte[] {1, 2, 3, 0, -1});
+        parsed = new RecordEvent(event.toJsonBytes(), idGenerator);
+        assertEquals(event, parsed);
+        assertEquals(event.hashCode(), parsed.hashCode());
+        assertArrayEquals(new byte[] {1, 2, 3, 0, -1}, parsed.getRecordSnapshot());
+    }
+
+    @Test
+    public void testEqualsIncludesSnapshot() throws Exception {
+        RecordEvent event1 = new RecordEvent();
+        event1.setType(Type.CREATE);
+        event1.setRecordSnapshot(new byte[] {1, 2});
+
+        RecordEvent event2 = new RecordEvent();
+        event2.setType(Type.CREATE);
+        event2.setRecordSnapshot(new byte[] {1, 2});
+        assertEquals(event1, event2);
+        assertEquals(event1.hashCode(), event2.hashCode());
+
+        event2.setRecordSnapshot(new byte[] {1, 3});
+        assertFalse(event1.equals(event2));
+
+        event2.setRecordSnapshot(null);
+        assertFalse(event1.equals(event2));
+    }
+
+    @Test
+    public void testMergeKeepsSnapshotOfLastEvent() throws Exception {
+        RecordEvent create = new RecordEvent();
+        create.setType(Type.CREATE);
+        create.setVersionCreated(1);
+        create.setRecordSnapshot(new byte[] {1});
+
+        RecordEvent update = new RecordEvent();
+        update.setType(Type.UPDATE);
+        update.setVersionCreated(2);
+        update.setRecordSnapshot(new byte[] {2});
+
+        RecordEvent merged = RecordEvent.merge(Arrays.asList(create, update));
+        assertArrayEquals(new byte[] {2}, merged.getRecordSnapshot());
+
+        // The merged event survives a JSON round trip, snapshot included
+        assertEquals(merged, new RecordEvent(merged.toJsonBytes(), idGenerator));
+
+        // If the last event has no snapshot, an earlier one does not describe the final state of the record
+        update.setRecordSnapshot(null);
+        merged = RecordEvent.merge(Arrays.asList(create, update));
+        assertNull(merged.getRecordSnapshot());
+    }
+
+    @Test
+    public void testMergeCreateAndUpdate() throws Exception {
+        SchemaId field1 = newSchemaId();
+        SchemaId field2 = newSchemaId();
+
+        RecordEvent create = new RecordEvent();
+        create.setType(Type.CREATE);
+        create.setVersionCreated(1);
+        create.addUpdatedField(field1);
+
+        RecordEvent update = new RecordEvent();
+        update.setType(Type.UPDATE);
+        update.setVersionCreated(2);
+        update.setRecordTypeChanged(true);
+        update.addUpdatedField(field1);
+        update.addUpdatedField(field2);
+
+        RecordEvent merged = RecordEvent.merge(Arrays.asList(create, update));
+        assertEquals(Type.CREATE, merged.getType());
+        assertEquals(2, merged.getVersionCreated());
+        assertEquals(-1, merged.getVersionUpdated());
+        assertTrue(merged.getRecordTypeChanged());
+        assertEquals(new HashSet<SchemaId>(Arrays.asList(field1, field2)), merged.getUpdatedFields());
+
+        // Two updates give an update
+        merged = RecordEvent.merge(Arrays.asList(update, update));
+        assertEquals(Type.UPDATE, merged.getType());
+        assertEquals(2, merged.getVersionCreated());
+    }
+
+    @Test
+    public void testMergeVersionedMutableUpdate() throws Exception {
+        RecordEvent update = new RecordEvent();
+        update.setType(Type.UPDATE);
+        update.setVersionCreated(2);
+
+        RecordEvent mutableUpdate1 = new RecordEvent();
+        mutableUpdate1.setType(Type.UPDATE);
+        mutableUpdate1.setVersionUpdated(1);
+
+        RecordEvent mutableUpdate2 = new RecordEvent();
+        mutableUpdate2.setType(Type.UPDATE);
+        mutableUpdate2.setVersionUpdated(2);
+
+        // An update of an existing version together with the creation of a version can't be described by one event
+        assertNull(RecordEvent.merge(Arrays.asList(update, mutableUpdate1)));
+        assertNull(RecordEvent.merge(Arrays.asList(mutableUpdate1, update)));
+
+        // Neither can the update of two different versions
+        assertNull(RecordEvent.merge(Arrays.asList(mutableUpdate1, mutableUpdate2)));
+
+        // Updates of the same version can
+        RecordEvent merged = RecordEvent.merge(Arrays.asList(mutableUpdate1, mutableUpdate1));
+        assertEquals(Type.UPDATE, merged.getType());
+        assertEquals(1, merged.getVersionUpdated());
+        assertEquals(-1, merged.getVersionCreated());
+    }
+
+    @Test
+    public void testMergeDelete() throws Exception {
+        RecordEvent create = new RecordEvent();
+        create.setType(Type.CREATE);
+        create.setVersionCreated(1);
+
+        RecordEvent delete = new RecordEvent();
+        delete.setType(Type.DELETE);
+
+        RecordEvent index = new RecordEvent();
+        index.setType(Type.INDEX);
+
+        assertNull(RecordEvent.merge(Arrays.asList(create, delete)));
+        assertNull(RecordEvent.merge(Arrays.asList(delete, create)));
+        assertNull(RecordEvent.merge(Arrays.asList(create, index)));
+    }
+
+    private SchemaId newSchemaId() {
+        return idGenerator.getSchemaId(UUID.randomUUID());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmarks;
+
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.RecordImpl;
+import org.lilyproject.repository.spi.BaseRepositoryDecorator;
+
+/**
+ * Repository which only supports what the record codecs need: the type manager, the id generator and
+ * creating new record objects (e.g. for {@link org.lilyproject.repository.impl.RecordAsBytesConverter}).
+ *
+ * <p>It has no delegate, so any other call fails.</p>
+ */
+public class BenchmarkRepository extends BaseRepositoryDecorator {
+    private final TypeManager typeManager;
+    private final IdGenerator idGenerator;
+
+    public BenchmarkRepository(TypeManager typeManager, IdGenerator idGenerator) {
+        this.typeManager = typeManager;
+        this.idGenerator = idGenerator;
+    }
+
+    @Override
+    public Record newRecord() {
+        return new RecordImpl();
+    }
+
+    @Override
+    public Record newRecord(RecordId recordId) {
+        return new RecordImpl(recordId);
+    }
+
+    @Override
+    public IdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    @Override
+    public TypeManager getTypeManager() {
+        return typeManager;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the UTF and variable-length integer encodings of lily-bytes, which underlie all value types.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BytesBenchmark {
+    private String shortAsciiText;
+    private String longText;
+    private byte[] shortAsciiTextBytes;
+    private byte[] longTextBytes;
+    private int[] vints;
+    private byte[] vintBytes;
+
+    @Setup
+    public void setup() {
+        shortAsciiText = "{org.lilyproject.benchmarks}string12";
+        longText = RecordFixtures.newText(30);
+        shortAsciiTextBytes = writeUTF(shortAsciiText);
+        longTextBytes = writeUTF(longText);
+
+        // A mix of the 1 to 5 byte encodings, biased towards the small ones as with lengths and counts
+        vints = new int[100];
+        for (int i = 0; i < vints.length; i++) {
+            switch (i % 10) {
+                case 9: vints[i] = Integer.MAX_VALUE - i; break;
+                case 8: vints[i] = 1 << 22; break;
+                case 7: case 6: vints[i] = 1000 + i; break;
+                default: vints[i] = i;
+            }
+        }
+        DataOutput output = new DataOutputImpl();
+        for (int vint : vints) {
+            output.writeVInt(vint);
+        }
+        vintBytes = output.toByteArray();
+    }
+
+    private static byte[] writeUTF(String text) {
+        DataOutput output = new DataOutputImpl();
+        output.writeUTF(text);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writeShortAsciiUTF() {
+        return writeUTF(shortAsciiText);
+    }
+
+    @Benchmark
+    public byte[] writeLongUTF() {
+        return writeUTF(longText);
+    }
+
+    @Benchmark
+    public String readShortAsciiUTF() {
+        return new DataInputImpl(shortAsciiTextBytes).readUTF();
+    }
+
+    @Benchmark
+    public String readLongUTF() {
+        return new DataInputImpl(longTextBytes).readUTF();
+    }
+
+    @Benchmark
+    public byte[] writeVInts() {
+        DataOutput output = new DataOutputImpl();
+        for (int vint : vints) {
+            output.writeVInt(vint);
+        }
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public int readVInts() {
+        DataInput input = new DataInputImpl(vintBytes);
+        int sum = 0;
+        for (int i = 0; i < vints.length; i++) {
+            sum += input.readVInt();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.repository.api.*;
+import org.lilyproject.repository.impl.AbstractSchemaCache;
+import org.lilyproject.repository.impl.AbstractTypeManager;
+import org.lilyproject.repository.impl.SchemaIdImpl;
+import org.lilyproject.util.Pair;
+
+/**
+ * A TypeManager which keeps its types in memory only, so that the encoding and decoding code can be
+ * benchmarked without HBase or ZooKeeper.
+ *
+ * <p>The schema cache is never started: it is filled directly by the create and update calls.</p>
+ */
+public class InMemoryTypeManager extends AbstractTypeManager {
+    private final Map<SchemaId, FieldType> fieldTypes = new LinkedHashMap<SchemaId, FieldType>();
+    private final Map<SchemaId, List<RecordType>> recordTypes = new LinkedHashMap<SchemaId, List<RecordType>>();
+
+    public InMemoryTypeManager(IdGenerator idGenerator) {
+        super(null);
+        log = LogFactory.getLog(getClass());
+        this.idGenerator = idGenerator;
+        this.schemaCache = new AbstractSchemaCache(null) {
+            @Override
+            protected TypeManager getTypeManager() {
+                return InMemoryTypeManager.this;
+            }
+        };
+        registerDefaultValueTypes();
+    }
+
+    @Override
+    public synchronized FieldType createFieldType(FieldType fieldType) throws RepositoryException, InterruptedException {
+        if (schemaCache.fieldTypeExists(fieldType.getName())) {
+            throw new FieldTypeExistsException(fieldType);
+        }
+        FieldType newFieldType = fieldType.clone();
+        newFieldType.setId(new SchemaIdImpl(UUID.randomUUID()));
+        fieldTypes.put(newFieldType.getId(), newFieldType);
+        updateFieldTypeCache(newFieldType);
+        return newFieldType.clone();
+    }
+
+    @Override
+    public FieldType createFieldType(ValueType valueType, QName name, Scope scope) throws RepositoryException,
+            InterruptedException {
+        return createFieldType(newFieldType(valueType, name, scope));
+    }
+
+    @Override
+    public FieldType createFieldType(String valueType, QName name, Scope scope) throws RepositoryException,
+            InterruptedException {
+        return createFieldType(newFieldType(getValueType(valueType), name, scope));
+    }
+
+    @Override
+    public synchronized FieldType updateFieldType(FieldType fieldType) throws RepositoryException, InterruptedException {
+        if (fieldType.getId() == null || !fieldTypes.containsKey(fieldType.getId())) {
+            throw new FieldTypeNotFoundException(fieldType.getName());
+        }
+        FieldType newFieldType = fieldType.clone();
+        fieldTypes.put(newFieldType.getId(), newFieldType);
+        updateFieldTypeCache(newFieldType);
+        return newFieldType.clone();
+    }
+
+    @Override
+    public synchronized FieldType createOrUpdateFieldType(FieldType fieldType) throws RepositoryException,
+            InterruptedException {
+        FieldType existing = schemaCache.getFieldTypeByNameReturnNull(fieldType.getName());
+        if (existing == null) {
+            return createFieldType(fieldType);
+        }
+        FieldType newFieldType = fieldType.clone();
+        newFieldType.setId(existing.getId());
+        return updateFieldType(newFieldType);
+    }
+
+    @Override
+    public synchronized RecordType createRecordType(RecordType recordType) throws RepositoryException,
+            InterruptedException {
+        if (getRecordTypeFromCache(recordType.getName()) != null) {
+            throw new RecordTypeExistsException(recordType);
+        }
+        RecordType newRecordType = recordType.clone();
+        newRecordType.setId(new SchemaIdImpl(UUID.randomUUID()));
+        newRecordType.setVersion(1L);
+        List<RecordType> versions = new ArrayList<RecordType>();
+        versions.add(newRecordType);
+        recordTypes.put(newRecordType.getId(), versions);
+        updateRecordTypeCache(newRecordType);
+        return newRecordType.clone();
+    }
+
+    @Override
+    public synchronized RecordType updateRecordType(RecordType recordType) throws RepositoryException,
+            InterruptedException {
+        List<RecordType> versions = recordType.getId() != null ? recordTypes.get(recordType.getId()) : null;
+        if (versions == null) {
+            throw new RecordTypeNotFoundException(recordType.getName(), null);
+        }
+        RecordType newRecordType = recordType.clone();
+        newRecordType.setVersion((long)versions.size() + 1);
+        versions.add(newRecordType);
+        updateRecordTypeCache(newRecordType);
+        return newRecordType.clone();
+    }
+
+    @Override
+    public synchronized RecordType createOrUpdateRecordType(RecordType recordType) throws RepositoryException,
+            InterruptedException {
+        RecordType existing = getRecordTypeFromCache(recordType.getName());
+        if (existing == null) {
+            return createRecordType(recordType);
+        }
+        RecordType newRecordType = recordType.clone();
+        newRecordType.setId(existing.getId());
+        return updateRecordType(newRecordType);
+    }
+
+    @Override
+    protected synchronized RecordType getRecordTypeByIdWithoutCache(SchemaId id, Long version)
+            throws RepositoryException, InterruptedException {
+        List<RecordType> versions = recordTypes.get(id);
+        if (versions == null) {
+            return null;
+        }
+        if (version == null) {
+            return versions.get(versions.size() - 1);
+        }
+        return version > 0 && version <= versions.size() ? versions.get((int)(version - 1)) : null;
+    }
+
+    @Override
+    public synchronized List<FieldType> getFieldTypesWithoutCache() throws RepositoryException, InterruptedException {
+        return new ArrayList<FieldType>(fieldTypes.values());
+    }
+
+    @Override
+    public synchronized List<RecordType> getRecordTypesWithoutCache() throws RepositoryException,
+            InterruptedException {
+        List<RecordType> result = new ArrayList<RecordType>(recordTypes.size());
+        for (List<RecordType> versions : recordTypes.values()) {
+            result.add(versions.get(versions.size() - 1));
+        }
+        return result;
+    }
+
+    @Override
+    public Pair<List<FieldType>, List<RecordType>> getTypesWithoutCache() throws RepositoryException,
+            InterruptedException {
+        return new Pair<List<FieldType>, List<RecordType>>(getFieldTypesWithoutCache(), getRecordTypesWithoutCache());
+    }
+
+    @Override
+    public TypeBucket getTypeBucketWithoutCache(String bucketId) throws RepositoryException, InterruptedException {
+        TypeBucket typeBucket = new TypeBucket(bucketId);
+        for (FieldType fieldType : getFieldTypesWithoutCache()) {
+            if (AbstractSchemaCache.encodeHex(fieldType.getId().getBytes()).equals(bucketId)) {
+                typeBucket.add(fieldType);
+            }
+        }
+        for (RecordType recordType : getRecordTypesWithoutCache()) {
+            if (AbstractSchemaCache.encodeHex(recordType.getId().getBytes()).equals(bucketId)) {
+                typeBucket.add(recordType);
+            }
+        }
+        return typeBucket;
+    }
+
+    @Override
+    public void enableSchemaCacheRefresh() {
+        // There is nothing to refresh from
+    }
+
+    @Override
+    public void disableSchemaCacheRefresh() {
+    }
+
+    @Override
+    public void triggerSchemaCacheRefresh() {
+    }
+
+    @Override
+    public boolean isSchemaCacheRefreshEnabled() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+}
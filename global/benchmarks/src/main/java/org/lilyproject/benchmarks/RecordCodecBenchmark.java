@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.impl.RecordAsBytesConverter;
+import org.lilyproject.repository.impl.RecordDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks decoding a record from its HBase row and the record serialization used for the rowlog
+ * and the indexer ({@link RecordAsBytesConverter}), for the record shape of {@link RecordFixtures}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordCodecBenchmark {
+    private Repository repository;
+    private RecordDecoder recordDecoder;
+    private Record record;
+    private KeyValue[] row;
+    private byte[] recordBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        RecordFixtures fixtures = new RecordFixtures();
+        repository = fixtures.getRepository();
+        recordDecoder = new RecordDecoder(fixtures.getTypeManager(), fixtures.getIdGenerator());
+        record = fixtures.newRecord();
+        row = fixtures.toResult(record).raw();
+        recordBytes = RecordAsBytesConverter.write(record, repository);
+    }
+
+    @Benchmark
+    public Record decodeRecord() throws Exception {
+        // A new Result each time, since the Result caches the map built from its KeyValues
+        return recordDecoder.decodeRecord(new Result(row));
+    }
+
+    @Benchmark
+    public byte[] writeRecordAsBytes() throws Exception {
+        return RecordAsBytesConverter.write(record, repository);
+    }
+
+    @Benchmark
+    public Record readRecordAsBytes() throws Exception {
+        return RecordAsBytesConverter.read(new DataInputImpl(recordBytes), repository);
+    }
+}
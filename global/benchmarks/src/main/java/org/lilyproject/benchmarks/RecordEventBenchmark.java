@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.impl.SchemaIdImpl;
+import org.lilyproject.util.repo.RecordEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the JSON encoding of the {@link RecordEvent}, which is the payload of every message on the
+ * rowlog, for an update of all fields of the {@link RecordFixtures} record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecordEventBenchmark {
+    private IdGenerator idGenerator;
+    private RecordEvent recordEvent;
+    private byte[] recordEventBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        RecordFixtures fixtures = new RecordFixtures();
+        idGenerator = fixtures.getIdGenerator();
+
+        recordEvent = new RecordEvent();
+        recordEvent.setType(RecordEvent.Type.UPDATE);
+        recordEvent.setVersionCreated(2L);
+        recordEvent.setRecordTypeChanged(false);
+        for (FieldType fieldType : fixtures.getFieldTypes()) {
+            recordEvent.addUpdatedField(fieldType.getId());
+        }
+        for (int i = 0; i < 3; i++) {
+            recordEvent.addVTagToIndex(new SchemaIdImpl(UUID.randomUUID()));
+        }
+        recordEventBytes = recordEvent.toJsonBytes();
+    }
+
+    @Benchmark
+    public byte[] toJsonBytes() {
+        return recordEvent.toJsonBytes();
+    }
+
+    @Benchmark
+    public RecordEvent parse() throws Exception {
+        return new RecordEvent(recordEventBytes, idGenerator);
+    }
+}
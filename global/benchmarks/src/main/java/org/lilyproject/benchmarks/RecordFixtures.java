@@ -0,0 +1,230 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.joda.time.DateTime;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.*;
+import org.lilyproject.repository.impl.FieldTypeImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.util.hbase.LilyHBaseSchema;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+
+/**
+ * Builds the schema and the records used by the benchmarks.
+ *
+ * <p>The record shape is meant to be realistic rather than minimal: a few dozen string fields (partly
+ * containing non-ASCII text), numeric, date and boolean fields, a LIST&lt;STRING&gt;, a LIST&lt;LINK&gt;
+ * and a nested RECORD, spread over the non-versioned and versioned scopes.</p>
+ */
+public class RecordFixtures {
+    public static final String NS = "org.lilyproject.benchmarks";
+    public static final int STRING_FIELD_COUNT = 30;
+    public static final int LINK_COUNT = 20;
+    public static final int TAG_COUNT = 10;
+
+    private static final String TEXT = "Lily stores records in HBase and indexes them in Solr. "
+            + "Ünïcödé tëxt, 日本語 and supplementary characters: 𝄞. ";
+
+    private final IdGenerator idGenerator = new IdGeneratorImpl();
+    private final InMemoryTypeManager typeManager = new InMemoryTypeManager(idGenerator);
+    private final Repository repository = new BenchmarkRepository(typeManager, idGenerator);
+
+    private final List<FieldType> stringFields = new ArrayList<FieldType>();
+    private final FieldType bodyField;
+    private final FieldType countField;
+    private final FieldType priceField;
+    private final FieldType publishedField;
+    private final FieldType flagField;
+    private final FieldType tagsField;
+    private final FieldType linksField;
+    private final FieldType addressField;
+    private final FieldType streetField;
+    private final FieldType cityField;
+    private final FieldType zipField;
+
+    private final RecordType addressRecordType;
+    private final RecordType recordType;
+
+    public RecordFixtures() throws RepositoryException, InterruptedException {
+        streetField = typeManager.createFieldType("STRING", new QName(NS, "street"), Scope.NON_VERSIONED);
+        cityField = typeManager.createFieldType("STRING", new QName(NS, "city"), Scope.NON_VERSIONED);
+        zipField = typeManager.createFieldType("STRING", new QName(NS, "zip"), Scope.NON_VERSIONED);
+
+        RecordType address = typeManager.newRecordType(new QName(NS, "Address"));
+        address.addFieldTypeEntry(streetField.getId(), false);
+        address.addFieldTypeEntry(cityField.getId(), false);
+        address.addFieldTypeEntry(zipField.getId(), false);
+        addressRecordType = typeManager.createRecordType(address);
+
+        for (int i = 0; i < STRING_FIELD_COUNT; i++) {
+            Scope scope = i % 2 == 0 ? Scope.NON_VERSIONED : Scope.VERSIONED;
+            stringFields.add(typeManager.createFieldType("STRING", new QName(NS, "string" + i), scope));
+        }
+        bodyField = typeManager.createFieldType("STRING", new QName(NS, "body"), Scope.VERSIONED);
+        countField = typeManager.createFieldType("LONG", new QName(NS, "count"), Scope.NON_VERSIONED);
+        priceField = typeManager.createFieldType("DECIMAL", new QName(NS, "price"), Scope.VERSIONED);
+        publishedField = typeManager.createFieldType("DATETIME", new QName(NS, "published"), Scope.VERSIONED);
+        flagField = typeManager.createFieldType("BOOLEAN", new QName(NS, "flag"), Scope.NON_VERSIONED);
+        tagsField = typeManager.createFieldType("LIST<STRING>", new QName(NS, "tags"), Scope.VERSIONED);
+        linksField = typeManager.createFieldType("LIST<LINK>", new QName(NS, "links"), Scope.VERSIONED);
+        addressField = typeManager.createFieldType("RECORD<{" + NS + "}Address>", new QName(NS, "address"),
+                Scope.VERSIONED);
+
+        RecordType document = typeManager.newRecordType(new QName(NS, "Document"));
+        for (FieldType fieldType : getFieldTypes()) {
+            document.addFieldTypeEntry(fieldType.getId(), false);
+        }
+        recordType = typeManager.createRecordType(document);
+    }
+
+    public IdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    public TypeManager getTypeManager() {
+        return typeManager;
+    }
+
+    public Repository getRepository() {
+        return repository;
+    }
+
+    public RecordType getRecordType() {
+        return recordType;
+    }
+
+    public FieldType getLinksField() {
+        return linksField;
+    }
+
+    public FieldType getAddressField() {
+        return addressField;
+    }
+
+    public FieldType getBodyField() {
+        return bodyField;
+    }
+
+    /**
+     * All field types of the Document record type.
+     */
+    public List<FieldType> getFieldTypes() {
+        List<FieldType> fieldTypes = new ArrayList<FieldType>(stringFields);
+        fieldTypes.addAll(Arrays.asList(bodyField, countField, priceField, publishedField, flagField, tagsField,
+                linksField, addressField));
+        return fieldTypes;
+    }
+
+    /**
+     * A long text containing multi-byte characters, as found in the body of documents.
+     */
+    public static String newText(int repeat) {
+        StringBuilder builder = new StringBuilder(TEXT.length() * repeat);
+        for (int i = 0; i < repeat; i++) {
+            builder.append(TEXT);
+        }
+        return builder.toString();
+    }
+
+    public Record newAddress() {
+        Record address = repository.newRecord();
+        address.setRecordType(addressRecordType.getName());
+        address.setField(streetField.getName(), "Dok-Noord 3");
+        address.setField(cityField.getName(), "Gent");
+        address.setField(zipField.getName(), "9000");
+        return address;
+    }
+
+    public List<Link> newLinks() {
+        List<Link> links = new ArrayList<Link>(LINK_COUNT);
+        for (int i = 0; i < LINK_COUNT; i++) {
+            links.add(new Link(idGenerator.newRecordId("linked-document-" + i)));
+        }
+        return links;
+    }
+
+    /**
+     * Creates a Document record with all its fields filled in, as stored at version 1.
+     */
+    public Record newRecord() {
+        Record record = repository.newRecord(idGenerator.newRecordId());
+        record.setRecordType(recordType.getName(), recordType.getVersion());
+        record.setVersion(1L);
+        for (int i = 0; i < stringFields.size(); i++) {
+            record.setField(stringFields.get(i).getName(), "value of string field " + i + " " + TEXT);
+        }
+        record.setField(bodyField.getName(), newText(30));
+        record.setField(countField.getName(), 123456789L);
+        record.setField(priceField.getName(), new BigDecimal("1234.5678"));
+        record.setField(publishedField.getName(), new DateTime(2012, 6, 1, 12, 30, 0, 0));
+        record.setField(flagField.getName(), Boolean.TRUE);
+        List<String> tags = new ArrayList<String>(TAG_COUNT);
+        for (int i = 0; i < TAG_COUNT; i++) {
+            tags.add("tag" + i);
+        }
+        record.setField(tagsField.getName(), tags);
+        record.setField(linksField.getName(), newLinks());
+        record.setField(addressField.getName(), newAddress());
+        return record;
+    }
+
+    /**
+     * Encodes the record the way HBaseRepository stores it, and returns it as the HBase Result reading
+     * the row would give.
+     */
+    public Result toResult(Record record) throws RepositoryException, InterruptedException {
+        byte[] row = record.getId().toBytes();
+        long version = record.getVersion();
+        FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+
+        List<KeyValue> kvs = new ArrayList<KeyValue>();
+        for (Map.Entry<QName, Object> field : record.getFields().entrySet()) {
+            FieldTypeImpl fieldType = (FieldTypeImpl)fieldTypes.getFieldType(field.getKey());
+            DataOutput dataOutput = new DataOutputImpl();
+            dataOutput.writeByte(LilyHBaseSchema.EXISTS_FLAG);
+            fieldType.getValueType().write(field.getValue(), dataOutput, new IdentityRecordStack(record));
+            long timestamp = fieldType.getScope() == Scope.NON_VERSIONED ? 1L : version;
+            kvs.add(new KeyValue(row, RecordCf.DATA.bytes, fieldType.getQualifier(), timestamp,
+                    dataOutput.toByteArray()));
+        }
+
+        byte[] recordTypeId = recordType.getId().getBytes();
+        byte[] recordTypeVersion = Bytes.toBytes(recordType.getVersion());
+        kvs.add(new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.VERSION.bytes, version, Bytes.toBytes(version)));
+        kvs.add(new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.NON_VERSIONED_RT_ID.bytes, 1L, recordTypeId));
+        kvs.add(new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.NON_VERSIONED_RT_VERSION.bytes, 1L,
+                recordTypeVersion));
+        kvs.add(new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.VERSIONED_RT_ID.bytes, version, recordTypeId));
+        kvs.add(new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.VERSIONED_RT_VERSION.bytes, version,
+                recordTypeVersion));
+
+        KeyValue[] sorted = kvs.toArray(new KeyValue[kvs.size()]);
+        Arrays.sort(sorted, KeyValue.COMPARATOR);
+        return new Result(sorted);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.gotometrics.orderly.StructRowKey;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.hbaseindex.IndexDefinition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the serialization of hbaseindex entry row keys, with the row key built once and, as
+ * {@link org.lilyproject.hbaseindex.Index} does it, per entry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StructRowKeyBenchmark {
+    private IndexDefinition indexDefinition;
+    private StructRowKey rowKey;
+    private Object[] values;
+
+    @Setup
+    public void setup() {
+        indexDefinition = new IndexDefinition("benchmark");
+        indexDefinition.addStringField("field1");
+        indexDefinition.addLongField("field2");
+        indexDefinition.addStringField("field3");
+        rowKey = indexDefinition.asStructRowKey();
+
+        byte[] identifier = Bytes.toBytes("USER.document-0123456789");
+        values = new Object[] {"{org.lilyproject.benchmarks}Document", 123456789L, "Ünïcödé text", identifier};
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return rowKey.serialize(values);
+    }
+
+    @Benchmark
+    public byte[] serializeWithNewRowKey() throws Exception {
+        return indexDefinition.asStructRowKey().serialize(values);
+    }
+}
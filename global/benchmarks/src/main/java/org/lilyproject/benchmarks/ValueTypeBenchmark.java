@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.Link;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.ValueType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the encoders of the value types with the most involved encodings.
+ *
+ * <p>Values are decoded through {@link ValueType#read(org.lilyproject.bytes.api.DataInput)}, since reading
+ * a RECORD from a byte[] decodes lazily.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValueTypeBenchmark {
+    private ValueType stringType;
+    private ValueType linkListType;
+    private ValueType recordType;
+
+    private String text;
+    private List<Link> links;
+    private Record address;
+
+    private byte[] textBytes;
+    private byte[] linksBytes;
+    private byte[] addressBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        RecordFixtures fixtures = new RecordFixtures();
+        stringType = fixtures.getBodyField().getValueType();
+        linkListType = fixtures.getLinksField().getValueType();
+        recordType = fixtures.getAddressField().getValueType();
+
+        text = RecordFixtures.newText(30);
+        links = fixtures.newLinks();
+        address = fixtures.newAddress();
+
+        textBytes = stringType.toBytes(text, new IdentityRecordStack());
+        linksBytes = linkListType.toBytes(links, new IdentityRecordStack());
+        addressBytes = recordType.toBytes(address, new IdentityRecordStack());
+    }
+
+    @Benchmark
+    public byte[] writeString() throws Exception {
+        return stringType.toBytes(text, new IdentityRecordStack());
+    }
+
+    @Benchmark
+    public Object readString() throws Exception {
+        return stringType.read(new DataInputImpl(textBytes));
+    }
+
+    @Benchmark
+    public byte[] writeLinkList() throws Exception {
+        return linkListType.toBytes(links, new IdentityRecordStack());
+    }
+
+    @Benchmark
+    public Object readLinkList() throws Exception {
+        return linkListType.read(new DataInputImpl(linksBytes));
+    }
+
+    @Benchmark
+    public byte[] writeRecord() throws Exception {
+        return recordType.toBytes(address, new IdentityRecordStack());
+    }
+
+    @Benchmark
+    public Object readRecord() throws Exception {
+        return recordType.read(new DataInputImpl(addressBytes));
+    }
+}
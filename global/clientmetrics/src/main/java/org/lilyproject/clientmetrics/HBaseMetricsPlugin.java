@@ -21,12 +21,13 @@ import org.apache.hadoop.hbase.client.HBaseAdmin;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class HBaseMetricsPlugin implements MetricsPlugin {
     private HBaseMetrics hbaseMetrics;
     private HBaseAdmin hbaseAdmin;
     private boolean useJmx;
-    private long lastRequestCountReport;
+    private final AtomicLong lastRequestCountReport = new AtomicLong();
 
     public HBaseMetricsPlugin(HBaseMetrics hbaseMetrics, HBaseAdmin hbaseAdmin, boolean useJmx) throws MasterNotRunningException {
         this.hbaseAdmin = hbaseAdmin;
@@ -50,9 +51,10 @@ public class HBaseMetricsPlugin implements MetricsPlugin {
     public void afterIncrement(Metrics metrics) {
         try {
             long now = System.currentTimeMillis();
+            long last = lastRequestCountReport.get();
             // the 3000 is the default value of hbase.regionserver.msginterval
-            if (now - lastRequestCountReport > 3000) {
-                lastRequestCountReport = now;
+            // (the compareAndSet makes sure only one of the concurrently incrementing threads reports)
+            if (now - last > 3000 && lastRequestCountReport.compareAndSet(last, now)) {
                 hbaseMetrics.reportRequestCountMetric(metrics);
             }
         } catch (Throwable t) {
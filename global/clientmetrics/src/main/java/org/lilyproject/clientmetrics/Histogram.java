@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import java.util.Arrays;
+
+/**
+ * Histogram with logarithmically sized buckets, from which percentiles can be estimated with a bounded relative
+ * error (about 2%), using a fixed amount of memory independent of the number of values.
+ *
+ * <p>This class is not thread safe: in {@link Metrics}, each thread records in its own histograms, which are
+ * merged when reporting.
+ */
+public class Histogram {
+    /** Values below this are counted in the first bucket. */
+    private static final double MIN_VALUE = 0.001d;
+    private static final double BUCKET_RATIO = 1.04d;
+    private static final double LOG_BUCKET_RATIO = Math.log(BUCKET_RATIO);
+    /** Covers values up to about 10^12 (with MIN_VALUE being 10^-3). */
+    private static final int BUCKET_COUNT = 1 + (int)Math.ceil(Math.log(1e15d) / LOG_BUCKET_RATIO);
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    /** Number of recorded values, this is what the percentiles are about. */
+    private long samples;
+    /** Number of operations, a value can represent the average over multiple operations. */
+    private long count;
+    private double sum;
+    private double min = Double.MAX_VALUE;
+    private double max;
+
+    /**
+     * @param operations the number of operations the value is about, the value is recorded as value/operations.
+     */
+    public void add(int operations, double value) {
+        if (operations == 0)
+            return;
+
+        count += operations;
+        sum += value;
+
+        double valuePerOp = value / (double)operations;
+        if (valuePerOp < min)
+            min = valuePerOp;
+        if (valuePerOp > max)
+            max = valuePerOp;
+
+        buckets[bucketIndex(valuePerOp)]++;
+        samples++;
+    }
+
+    public void add(Histogram other) {
+        if (other.samples == 0)
+            return;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        samples += other.samples;
+        count += other.count;
+        sum += other.sum;
+        if (other.min < min)
+            min = other.min;
+        if (other.max > max)
+            max = other.max;
+    }
+
+    public void clear() {
+        Arrays.fill(buckets, 0);
+        samples = 0;
+        count = 0;
+        sum = 0;
+        min = Double.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getAverage() {
+        return count == 0 ? 0 : sum / (double)count;
+    }
+
+    public double getMin() {
+        return samples == 0 ? 0 : min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Returns an estimate of the given percentile.
+     *
+     * @param percentile a value between 0 and 1, e.g. 0.99
+     */
+    public double getPercentile(double percentile) {
+        if (samples == 0)
+            return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(percentile * samples));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                // the estimate can't be outside of the values actually recorded
+                return Math.min(max, Math.max(min, bucketValue(i)));
+            }
+        }
+        return max;
+    }
+
+    private static int bucketIndex(double value) {
+        if (value <= MIN_VALUE)
+            return 0;
+        int index = 1 + (int)(Math.log(value / MIN_VALUE) / LOG_BUCKET_RATIO);
+        return index < BUCKET_COUNT ? index : BUCKET_COUNT - 1;
+    }
+
+    /**
+     * The geometric middle of the bucket.
+     */
+    private static double bucketValue(int index) {
+        if (index == 0)
+            return MIN_VALUE;
+        return MIN_VALUE * Math.pow(BUCKET_RATIO, index - 0.5d);
+    }
+}
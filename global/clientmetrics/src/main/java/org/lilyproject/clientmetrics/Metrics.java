@@ -19,6 +19,10 @@ import org.joda.time.DateTime;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
@@ -37,15 +41,25 @@ import java.util.regex.Pattern;
  *
  * <p>The metrics files produced by this class are human readable but also machine readable, they can
  * be parsed using {@link org.lilyproject.clientmetrics.postproc.MetricsParser}.
+ *
+ * <p>Recording a value does not take a lock: each thread records in its own {@link Histogram}s, which are
+ * collected when the interval report is printed. Besides the median, the report contains the 95th, 99th
+ * and 99.9th percentiles, these are estimates with a relative error of about 2%.
  */
 public class Metrics {
-    private Map<String, Metric> metrics = new TreeMap<String, Metric>();
+    private final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+    private final ThreadLocal<Map<Metric, Recorder>> recorders = new ThreadLocal<Map<Metric, Recorder>>() {
+        @Override
+        protected Map<Metric, Recorder> initialValue() {
+            return new HashMap<Metric, Recorder>();
+        }
+    };
     private int intervalDuration = 1000 * 30;
-    private DateTime intervalStartedAt;
+    private volatile DateTime intervalStartedAt;
     private DateTime startedAt;
     private PrintStream reportStream;
     private MetricsPlugin plugin;
-    private boolean inReport;
+    private volatile boolean inReport;
     private int threadCount = 1;
     private Table table;
     private boolean inHeader;
@@ -70,6 +84,9 @@ public class Metrics {
         table.addColumn(-1, "Op count", "d");
         table.addColumn(-1, "Average", "f");
         table.addColumn(-1, "Median", "f");
+        table.addColumn(9, "p95", "f");
+        table.addColumn(9, "p99", "f");
+        table.addColumn(9, "p999", "f");
         table.addColumn(-1, "Minimum", "f");
         table.addColumn(-1, "Maximum", "f");
         table.addColumn(-1, "Alltime ops", "d");
@@ -85,7 +102,7 @@ public class Metrics {
         this.intervalDuration = duration;
     }
 
-    public void finish() {
+    public synchronized void finish() {
         // print one last report
         printReport();
         printGlobalOpsPerSec();
@@ -143,11 +160,11 @@ public class Metrics {
         return intervalDuration;
     }
 
-    public synchronized void increment(String name, double value) {
+    public void increment(String name, double value) {
         increment(name, null, 1, value);
     }
 
-    public synchronized void increment(String name, String type, double value) {
+    public void increment(String name, String type, double value) {
         increment(name, type, 1, value);
     }
 
@@ -165,7 +182,7 @@ public class Metrics {
      * @param value the value for the metric, such as a duration (typically in ms), an operation count, or whatever
      *              quantity you want to keep track of such as free memory, cpu load, ...
      */
-    public synchronized void increment(String name, String type, int operations, double value) {
+    public void increment(String name, String type, int operations, double value) {
         if (type != null && !NAME_PATTERN.matcher(type).matches()) {
             // Being strict here, can be helpful for further reporting
             throw new IllegalArgumentException("Invalid type name, should be alphanumeric only: " + type);
@@ -176,33 +193,61 @@ public class Metrics {
             throw new IllegalArgumentException("Usage of the colon character is reserved in the metric name: " + name);
         }
 
-        if (intervalStartedAt == null) {
+        DateTime intervalStart = intervalStartedAt;
+        if (intervalStart == null) {
             // it's our very first value
-            intervalStartedAt = new DateTime();
-            startedAt = new DateTime();
+            intervalStart = start();
         }
 
-        if (!inReport && System.currentTimeMillis() - intervalStartedAt.getMillis() >= intervalDuration) {
-            printReport();
-            for (Metric metric : metrics.values()) {
-                metric.rollInterval();
-            }
-            intervalStartedAt = new DateTime();
+        if (!inReport && System.currentTimeMillis() - intervalStart.getMillis() >= intervalDuration) {
+            rollInterval();
         }
 
         Metric metric = metrics.get(name);
         if (metric == null) {
-            metric = new Metric();
-            metric.type = type;
-            metrics.put(name, metric);
+            Metric newMetric = new Metric(type);
+            metric = metrics.putIfAbsent(name, newMetric);
+            if (metric == null) {
+                metric = newMetric;
+            }
         }
 
-        metric.add(operations, value);
+        Map<Metric, Recorder> threadRecorders = recorders.get();
+        Recorder recorder = threadRecorders.get(metric);
+        if (recorder == null) {
+            recorder = new Recorder();
+            metric.recorders.add(recorder);
+            threadRecorders.put(metric, recorder);
+        }
+
+        recorder.add(operations, value);
 
         plugin.afterIncrement(this);
     }
 
-    public void printReport() {
+    private synchronized DateTime start() {
+        if (intervalStartedAt == null) {
+            startedAt = new DateTime();
+            intervalStartedAt = startedAt;
+        }
+        return intervalStartedAt;
+    }
+
+    private synchronized void rollInterval() {
+        // another thread might have rolled the interval in the meantime
+        if (inReport || intervalStartedAt == null
+                || System.currentTimeMillis() - intervalStartedAt.getMillis() < intervalDuration) {
+            return;
+        }
+
+        printReport();
+        for (Metric metric : metrics.values()) {
+            metric.rollInterval();
+        }
+        intervalStartedAt = new DateTime();
+    }
+
+    public synchronized void printReport() {
         if (intervalStartedAt == null) {
             return;
         }
@@ -211,6 +256,10 @@ public class Metrics {
 
         plugin.beforeReport(this);
 
+        for (Metric metric : metrics.values()) {
+            metric.collect();
+        }
+
         long now = System.currentTimeMillis();
         long actualIntervalDuration = now - intervalStartedAt.getMillis();
 
@@ -242,13 +291,14 @@ public class Metrics {
                     statByType.put(metric.type, stat);
                 }
 
-                stat.count += metric.getIntervalCount();
-                stat.value += metric.getIntervalValue();
+                stat.count += metric.interval.getCount();
+                stat.value += metric.interval.getSum();
             }
 
-            table.columns(name, metric.getIntervalCount(), metric.getIntervalAverage(), metric.getIntervalMedian(),
-                    metric.getIntervalMin(), metric.getIntervalMax(), metric.getAllTimeCount(),
-                    metric.getAllTimeAverage());
+            Histogram interval = metric.interval;
+            table.columns(name, interval.getCount(), interval.getAverage(), interval.getPercentile(0.5d),
+                    interval.getPercentile(0.95d), interval.getPercentile(0.99d), interval.getPercentile(0.999d),
+                    interval.getMin(), interval.getMax(), metric.getAllTimeCount(), metric.getAllTimeAverage());
         }
         table.columnSepLine();
 
@@ -335,71 +385,44 @@ public class Metrics {
         return String.format("%1$02d:%2$02d:%3$02d", hours, minutesOverflow, secondsOverflow);
     }
 
+    /**
+     * A metric consists of the recorders of the threads that recorded values for it, and the histogram
+     * of the current interval in which these are collected. The latter is only accessed while holding
+     * the lock on the Metrics object.
+     */
     private static class Metric {
-        private List<Double> values = new ArrayList<Double>(1000);
-
-        String type;
-        
-        int intervalCount;
-        double intervalValue;
-        double intervalMin;
-        double intervalMax;
+        final String type;
+        final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+        final Histogram interval = new Histogram();
 
-        int allTimeCount;
+        long allTimeCount;
         double allTimeValue;
 
-        public Metric() {
-            rollInterval();
+        public Metric(String type) {
+            this.type = type;
         }
 
         /**
-         *
-         * @param value will most often be a duration in ms, but could be other kinds of values as well.
+         * Collects the values recorded by the threads since the previous collect into the interval histogram.
          */
-        public void add(int operations, double value) {
-            if (operations == 0)
-                return;
-
-            intervalCount += operations;
-            intervalValue += value;
-            allTimeCount += operations;
-            allTimeValue += value;
-
-            double valuePerOp = value / (double)operations;
-
-            if (valuePerOp < intervalMin)
-                intervalMin = valuePerOp;
-
-            if (valuePerOp > intervalMax)
-                intervalMax = valuePerOp;
-
-            values.add(valuePerOp);
+        public void collect() {
+            long countBefore = interval.getCount();
+            double sumBefore = interval.getSum();
+            for (Recorder recorder : recorders) {
+                recorder.drainTo(interval);
+            }
+            allTimeCount += interval.getCount() - countBefore;
+            allTimeValue += interval.getSum() - sumBefore;
         }
 
         public void rollInterval() {
-            intervalCount = 0;
-            intervalValue = 0;
-            intervalMin = Integer.MAX_VALUE;
-            intervalMax = 0;
-            values.clear();
-        }
-
-        public int getIntervalCount() {
-            return intervalCount;
+            interval.clear();
         }
 
-        public double getIntervalValue() {
-            return intervalValue;
-        }
-
-        public int getAllTimeCount() {
+        public long getAllTimeCount() {
             return allTimeCount;
         }
 
-        public double getIntervalAverage() {
-            return intervalCount == 0 ? 0 : intervalValue / (double)intervalCount;
-        }
-
         public double getAllTimeAverage() {
             return allTimeCount == 0 ? 0 : allTimeValue / (double)allTimeCount;
         }
@@ -407,32 +430,55 @@ public class Metrics {
         public double getAllTimeValue() {
             return allTimeValue;
         }
+    }
 
-        public double getIntervalMin() {
-            return intervalCount == 0 ? 0 : intervalMin;
-        }
+    /**
+     * Records the values of one metric for one thread, without locking.
+     *
+     * <p>The recorder has two histograms, the writing thread records in the active one. To collect the values,
+     * the histograms are swapped, after which the collecting thread waits until the writer has left the
+     * previously active histogram (which is a very short wait, if any). The writer tracks its entering and
+     * leaving through epoch counters, the sign of the start epoch tells which histogram is active.
+     */
+    static class Recorder {
+        private final AtomicLong startEpoch = new AtomicLong(0);
+        private final AtomicLong evenEndEpoch = new AtomicLong(0);
+        private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+        private final Histogram even = new Histogram();
+        private final Histogram odd = new Histogram();
 
-        public double getIntervalMax() {
-            return intervalMax;
+        public void add(int operations, double value) {
+            long epoch = startEpoch.getAndIncrement();
+            try {
+                (epoch < 0 ? odd : even).add(operations, value);
+            } finally {
+                (epoch < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+            }
         }
 
-        public double getIntervalMedian() {
-            if (values.size() == 0)
-                return 0;
-
-            Collections.sort(values);
-            int middle = values.size() / 2;
-
-            if (values.size() % 2 == 1) {
-                return values.get(middle);
-            } else {
-                return (values.get(middle - 1) + values.get(middle)) / 2d;
+        /**
+         * Adds the values recorded since the previous drain to the given histogram. Should only be called
+         * by one thread at a time.
+         */
+        public void drainTo(Histogram target) {
+            boolean nextPhaseIsEven = startEpoch.get() < 0;
+            long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+            (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+            long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+
+            AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+            while (previousEndEpoch.get() != startValueAtFlip) {
+                Thread.yield();
             }
+
+            Histogram inactive = nextPhaseIsEven ? odd : even;
+            target.add(inactive);
+            inactive.clear();
         }
     }
 
     private static class CountAndValue {
-        int count;
+        long count;
         double value;
     }
 }
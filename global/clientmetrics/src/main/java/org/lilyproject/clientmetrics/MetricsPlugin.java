@@ -25,6 +25,7 @@ public interface MetricsPlugin {
 
     /**
      * Called once after each metric increment, hence usually very often, thus should be very lightweight.
+     * This can be called concurrently by multiple threads.
      */
     void afterIncrement(Metrics metrics);
 
@@ -19,6 +19,8 @@ import org.joda.time.DateTime;
 import org.lilyproject.util.io.Closer;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -94,6 +96,9 @@ public class MetricsParser {
                 //| B ops/sec: 3063.80 real (=3063.80x1), 40.99 interval                                                                 |
                 //| C ops/sec: 102.93 real (=102.93x1), 80.41 interval                                                                   |
                 //+----------------------------------------------------------------------------------------------------------------------+
+                //
+                // Newer files have p95, p99 and p999 columns after the median, therefore the columns are
+                // located based on their titles.
 
                 if (test == null) {
                     test = new Test("default");
@@ -110,27 +115,36 @@ public class MetricsParser {
                 while ((line = reader.readLine()) != null && line.startsWith("| "));
 
                 // read the title lines (we are already positioned at the first one)
+                List<String> titles = Arrays.asList(splitColumns(reader.readLine()));
                 reader.readLine();
-                reader.readLine();
+
+                int countCol = titles.indexOf("Op count");
+                int averageCol = titles.indexOf("Average");
+                int medianCol = titles.indexOf("Median");
+                int p95Col = titles.indexOf("p95");
+                int p99Col = titles.indexOf("p99");
+                int p999Col = titles.indexOf("p999");
+                int minCol = titles.indexOf("Minimum");
+                int maxCol = titles.indexOf("Maximum");
 
                 // read the metrics
                 while ((line = reader.readLine()) != null && line.startsWith("|")) {
-                    int countColStart = line.indexOf("|", 1);
-                    int averageColStart = line.indexOf("|", countColStart + 1);
-                    int medianColStart = line.indexOf("|", averageColStart + 1);
-                    int minColStart = line.indexOf("|", medianColStart + 1);
-                    int maxColStart = line.indexOf("|", minColStart + 1);
-                    int allTimeOpsColStart = line.indexOf("|", maxColStart + 1);
+                    String[] columns = splitColumns(line);
 
                     MetricData data = new MetricData();
 
-                    String metricName = line.substring(1, countColStart).trim();
+                    String metricName = columns[0];
 
-                    data.count = Integer.parseInt(line.substring(countColStart + 1, averageColStart).trim());
-                    data.average = Double.parseDouble(line.substring(averageColStart + 1, medianColStart).trim());
-                    data.median = Double.parseDouble(line.substring(medianColStart + 1, minColStart).trim());
-                    data.min = Double.parseDouble(line.substring(minColStart + 1, maxColStart).trim());
-                    data.max = Double.parseDouble(line.substring(maxColStart + 1, allTimeOpsColStart).trim());
+                    data.count = Long.parseLong(columns[countCol]);
+                    data.average = Double.parseDouble(columns[averageCol]);
+                    data.median = Double.parseDouble(columns[medianCol]);
+                    data.min = Double.parseDouble(columns[minCol]);
+                    data.max = Double.parseDouble(columns[maxCol]);
+                    if (p95Col != -1) {
+                        data.p95 = Double.parseDouble(columns[p95Col]);
+                        data.p99 = Double.parseDouble(columns[p99Col]);
+                        data.p999 = Double.parseDouble(columns[p999Col]);
+                    }
 
                     interval.set(metricName, data);
                 }
@@ -162,6 +176,18 @@ public class MetricsParser {
         return tests;
     }
 
+    /**
+     * Splits a table line in its (trimmed) column values. This assumes the metric names don't contain
+     * the '|' character.
+     */
+    private String[] splitColumns(String line) {
+        String[] columns = line.substring(1, line.lastIndexOf('|')).split("\\|");
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = columns[i].trim();
+        }
+        return columns;
+    }
+
     public int getCurrentLine() {
         return reader != null ? reader.currentLine : -1;
     }
@@ -47,7 +47,7 @@ public class MetricsReportTool extends BaseCliTool {
 
     private static final String STRING_QUOTE = "\"";
 
-    private static final int COLS_PER_METRIC = 5;
+    private static final int COLS_PER_METRIC = 8;
 
     private static final int HEADER_COLUMNS = 2;
 
@@ -56,6 +56,11 @@ public class MetricsReportTool extends BaseCliTool {
     private static final int COL_MED = 3;
     private static final int COL_MIN = 4;
     private static final int COL_MAX = 5;
+    private static final int COL_P95 = 6;
+    private static final int COL_P99 = 7;
+    private static final int COL_P999 = 8;
+
+    private static final String PERCENTILES_SUFFIX = "_percentiles";
 
     // http://www.uni-hamburg.de/Wiss/FB/15/Sustainability/schneider/gnuplot/colors.htm
     private static final String[] COLORS = new String[] {
@@ -218,17 +223,27 @@ public class MetricsReportTool extends BaseCliTool {
         }
         System.out.println();
 
+        // Groups for which the metrics file contains percentiles (older files don't)
+        Set<GroupName> percentileGroups = new HashSet<GroupName>();
+
         for (Map.Entry<GroupName, List<String>> entry : groups.entrySet()) {
             writePlotScript(entry.getKey(), entry.getValue(), test, outputDir);
+            if (hasPercentiles(entry.getKey(), entry.getValue(), test)) {
+                writePercentilePlotScript(entry.getKey(), entry.getValue(), outputDir);
+                percentileGroups.add(entry.getKey());
+            }
         }
         System.out.println();
 
         for (Map.Entry<GroupName, List<String>> entry : groups.entrySet()) {
-            executePlot(entry.getKey(), outputDir);
+            executePlot(entry.getKey().fileName, outputDir);
+            if (percentileGroups.contains(entry.getKey())) {
+                executePlot(entry.getKey().fileName + PERCENTILES_SUFFIX, outputDir);
+            }
         }
         System.out.println();
 
-        writeHtmlReport(groups.keySet(), test, outputDir);
+        writeHtmlReport(groups.keySet(), percentileGroups, test, outputDir);
 
         System.out.println();
 
@@ -256,6 +271,12 @@ public class MetricsReportTool extends BaseCliTool {
             titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" min").append(STRING_QUOTE);
             titleLine.append(SEP);
             titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" max").append(STRING_QUOTE);
+            titleLine.append(SEP);
+            titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" p95").append(STRING_QUOTE);
+            titleLine.append(SEP);
+            titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" p99").append(STRING_QUOTE);
+            titleLine.append(SEP);
+            titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" p999").append(STRING_QUOTE);
         }
 
         ps.println(titleLine.toString());
@@ -279,6 +300,12 @@ public class MetricsReportTool extends BaseCliTool {
                 ps.print(formatDouble(data.min));
                 ps.print(SEP);
                 ps.print(formatDouble(data.max));
+                ps.print(SEP);
+                ps.print(formatDouble(data.p95));
+                ps.print(SEP);
+                ps.print(formatDouble(data.p99));
+                ps.print(SEP);
+                ps.print(formatDouble(data.p999));
             }
 
             ps.println();
@@ -395,9 +422,70 @@ public class MetricsReportTool extends BaseCliTool {
         ps.close();
     }
 
-    private void executePlot(GroupName groupName, File outputDir) throws IOException, InterruptedException {
-        System.out.println("Calling gnuplot for " + groupName);
-        ProcessBuilder pb = new ProcessBuilder("gnuplot", groupName.fileName + ".plot.txt");
+    private boolean hasPercentiles(GroupName groupName, List<String> metricNames, Test test) {
+        // if the name starts with a dash, it means there's only an average
+        if (groupName.name.startsWith("-")) {
+            return false;
+        }
+
+        for (Interval interval : test.intervals) {
+            for (String metricName : metricNames) {
+                if (safeGet(interval, test.getIndex(metricName)).p95 >= 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Plots the median, p95, p99 and p999 of each metric over time, on a logarithmic scale since the
+     * higher percentiles are often orders of magnitude above the median.
+     */
+    private void writePercentilePlotScript(GroupName groupName, List<String> metricNames, File outputDir)
+            throws IOException {
+        String fileName = groupName.fileName + PERCENTILES_SUFFIX;
+        File file = new File(outputDir, fileName + ".plot.txt");
+        System.out.println("Writing plot script " + file);
+        PrintStream ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+        ps.println("set terminal pngcairo enhanced rounded linewidth 2 size 1300, 500");
+        ps.println("set output \"" + fileName + ".png\"");
+        ps.println("set autoscale");
+        ps.println("set title '" + groupName.title + " percentiles'");
+        ps.println("set key autotitle columnheader");
+        ps.println("set datafile missing 'NaN'");
+        ps.println("set logscale y");
+        ps.println("set ylabel \"unit depends on metric, times usually in ms\"");
+        ps.println("set xlabel \"time\"");
+        ps.println("set grid");
+        ps.println("set xdata time");
+        ps.println("set timefmt \"%Y%m%d%H%M%S\"");
+
+        int[] plotValues = new int[] {COL_MED, COL_P95, COL_P99, COL_P999};
+
+        StringBuilder plot = new StringBuilder();
+        plot.append("plot ");
+        for (int i = 0; i < metricNames.size(); i++) {
+            for (int c = 0; c < plotValues.length; c++) {
+                if (i > 0 || c > 0)
+                    plot.append(", ");
+
+                int dataCol = (COLS_PER_METRIC * i) + HEADER_COLUMNS + plotValues[c];
+                int color = i * plotValues.length + c;
+                plot.append("'").append(groupName.fileName).append(".txt' using 1:").append(dataCol).
+                        append(" with steps linecolor rgb '").append(COLORS[color % COLORS.length]).append("'");
+            }
+        }
+
+        ps.println(plot.toString());
+
+        ps.close();
+    }
+
+    private void executePlot(String fileName, File outputDir) throws IOException, InterruptedException {
+        System.out.println("Calling gnuplot for " + fileName);
+        ProcessBuilder pb = new ProcessBuilder("gnuplot", fileName + ".plot.txt");
         pb.directory(outputDir);
         Process p = pb.start();
         int exitValue = p.waitFor();
@@ -406,7 +494,8 @@ public class MetricsReportTool extends BaseCliTool {
         }
     }
 
-    private void writeHtmlReport(Set<GroupName> groupNames, Test test, File outputDir) throws IOException {
+    private void writeHtmlReport(Set<GroupName> groupNames, Set<GroupName> percentileGroups, Test test,
+            File outputDir) throws IOException {
         File file = new File(outputDir, "report.html");
         System.out.println("Writing HTML report " + file);
 
@@ -423,6 +512,9 @@ public class MetricsReportTool extends BaseCliTool {
 
         for (GroupName group : orderedGroupNames) {
             ps.println("<img src='" + group.fileName  + ".png'/><br/>");
+            if (percentileGroups.contains(group)) {
+                ps.println("<img src='" + group.fileName + PERCENTILES_SUFFIX + ".png'/><br/>");
+            }
         }
 
         ps.println("</body></html>");
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HistogramTest {
+    /** The relative error of the percentile estimates, with some margin. */
+    private static final double MAX_RELATIVE_ERROR = 0.025d;
+
+    @Test
+    public void testEmpty() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0d, histogram.getAverage(), 0d);
+        assertEquals(0d, histogram.getMin(), 0d);
+        assertEquals(0d, histogram.getMax(), 0d);
+        assertEquals(0d, histogram.getPercentile(0.5d), 0d);
+    }
+
+    @Test
+    public void testConstant() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 1000; i++) {
+            histogram.add(1, 42d);
+        }
+        // The estimates are limited to the recorded minimum and maximum, so are exact here
+        assertEquals(42d, histogram.getPercentile(0.5d), 0d);
+        assertEquals(42d, histogram.getPercentile(0.999d), 0d);
+        assertEquals(42d, histogram.getAverage(), 0.000001d);
+    }
+
+    @Test
+    public void testUniform() {
+        Histogram histogram = new Histogram();
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i + 1;
+            histogram.add(1, values[i]);
+        }
+        assertPercentiles(histogram, values);
+        assertEquals(1d, histogram.getMin(), 0d);
+        assertEquals(10000d, histogram.getMax(), 0d);
+        assertEquals(5000.5d, histogram.getAverage(), 0.000001d);
+    }
+
+    @Test
+    public void testExponential() {
+        Random random = new Random(12345);
+        Histogram histogram = new Histogram();
+        double[] values = new double[100000];
+        for (int i = 0; i < values.length; i++) {
+            // mean of 5 ms, as for a typical latency
+            values[i] = -5d * Math.log(1d - random.nextDouble());
+            histogram.add(1, values[i]);
+        }
+        assertPercentiles(histogram, values);
+    }
+
+    @Test
+    public void testWideRange() {
+        Random random = new Random(54321);
+        Histogram histogram = new Histogram();
+        double[] values = new double[50000];
+        for (int i = 0; i < values.length; i++) {
+            // log-uniform between 0.01 and 10^9
+            values[i] = Math.pow(10, -2 + 11 * random.nextDouble());
+            histogram.add(1, values[i]);
+        }
+        assertPercentiles(histogram, values);
+    }
+
+    @Test
+    public void testOperations() {
+        Histogram histogram = new Histogram();
+        // 10 operations taking 100 ms together: 10 ms per operation
+        histogram.add(10, 100d);
+        histogram.add(1, 10d);
+        histogram.add(0, 1000d); // ignored
+        assertEquals(11, histogram.getCount());
+        assertEquals(110d, histogram.getSum(), 0d);
+        assertEquals(10d, histogram.getPercentile(0.5d), 0d);
+        assertEquals(10d, histogram.getMax(), 0d);
+    }
+
+    @Test
+    public void testMerge() {
+        Histogram low = new Histogram();
+        Histogram high = new Histogram();
+        double[] values = new double[2000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i + 1;
+            (i < 1000 ? low : high).add(1, values[i]);
+        }
+
+        Histogram merged = new Histogram();
+        merged.add(low);
+        merged.add(high);
+        merged.add(new Histogram());
+        assertEquals(2000, merged.getCount());
+        assertEquals(1d, merged.getMin(), 0d);
+        assertEquals(2000d, merged.getMax(), 0d);
+        assertPercentiles(merged, values);
+
+        merged.clear();
+        assertEquals(0, merged.getCount());
+        assertEquals(0d, merged.getPercentile(0.5d), 0d);
+    }
+
+    private void assertPercentiles(Histogram histogram, double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double percentile : new double[] {0.01d, 0.25d, 0.5d, 0.9d, 0.95d, 0.99d, 0.999d}) {
+            int rank = Math.max(1, (int)Math.ceil(percentile * sorted.length));
+            double expected = sorted[rank - 1];
+            double estimate = histogram.getPercentile(percentile);
+            assertEquals("percentile " + percentile, expected, estimate, expected * MAX_RELATIVE_ERROR);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRecorderTest {
+    @Test
+    public void testDrain() {
+        Metrics.Recorder recorder = new Metrics.Recorder();
+        Histogram target = new Histogram();
+
+        recorder.add(1, 5d);
+        recorder.add(2, 10d);
+        recorder.drainTo(target);
+        assertEquals(3, target.getCount());
+        assertEquals(15d, target.getSum(), 0d);
+
+        // Nothing new recorded: nothing added
+        recorder.drainTo(target);
+        assertEquals(3, target.getCount());
+
+        // Values are recorded in both phases
+        recorder.add(1, 1d);
+        recorder.drainTo(target);
+        recorder.add(1, 1d);
+        recorder.drainTo(target);
+        assertEquals(5, target.getCount());
+        assertEquals(17d, target.getSum(), 0d);
+    }
+
+    /**
+     * Values recorded while the recorders are being drained should end up in exactly one drain.
+     */
+    @Test
+    public void testConcurrentDrain() throws Exception {
+        final int threadCount = 4;
+        final int valuesPerThread = 500000;
+
+        final List<Metrics.Recorder> recorders = new ArrayList<Metrics.Recorder>();
+        for (int i = 0; i < threadCount; i++) {
+            recorders.add(new Metrics.Recorder());
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean failed = new AtomicBoolean();
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            final Metrics.Recorder recorder = recorders.get(i);
+            Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < valuesPerThread; j++) {
+                            recorder.add(1, 1d);
+                        }
+                    } catch (Throwable t) {
+                        failed.set(true);
+                    }
+                }
+            };
+            writer.start();
+            writers.add(writer);
+        }
+
+        Histogram target = new Histogram();
+        int drains = 0;
+        start.countDown();
+        boolean writing = true;
+        while (writing) {
+            for (Metrics.Recorder recorder : recorders) {
+                recorder.drainTo(target);
+            }
+            drains++;
+            writing = false;
+            for (Thread writer : writers) {
+                writing |= writer.isAlive();
+            }
+        }
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        for (Metrics.Recorder recorder : recorders) {
+            recorder.drainTo(target);
+        }
+
+        assertTrue(!failed.get());
+        assertTrue("expected the writers to be drained several times", drains > 1);
+        assertEquals((long)threadCount * valuesPerThread, target.getCount());
+        assertEquals((double)threadCount * valuesPerThread, target.getSum(), 0d);
+    }
+}
@@ -23,6 +23,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.hadoop.conf.Configuration;
 import org.lilyproject.cli.OptionUtil;
+import org.lilyproject.hbaseindex.Conjunction;
 import org.lilyproject.hbaseindex.Index;
 import org.lilyproject.hbaseindex.IndexDefinition;
 import org.lilyproject.hbaseindex.IndexEntry;
@@ -38,6 +39,10 @@ import org.lilyproject.util.Version;
 
 public class HbaseIndexPerfTest extends BaseTestTool {
     private Index index;
+    /** Index on a field with many distinct values, used as the selective side of AND-queries. */
+    private Index selectiveIndex;
+    /** Index on a field with few distinct values, used as the non-selective side of AND-queries. */
+    private Index nonSelectiveIndex;
 
     private IdGenerator idGenerator = new IdGeneratorImpl();
 
@@ -51,6 +56,9 @@ public class HbaseIndexPerfTest extends BaseTestTool {
 
     private int maxResults = 100;
 
+    private static final int SELECTIVE_VALUES = 10000;
+    private static final int NON_SELECTIVE_VALUES = 3;
+
     public static void main(String[] args) throws Exception {
         new HbaseIndexPerfTest().start(args);
     }
@@ -114,6 +122,14 @@ public class HbaseIndexPerfTest extends BaseTestTool {
 
         index = indexMgr.getIndex(indexDef);
 
+        IndexDefinition selectiveIndexDef = new IndexDefinition("perftest-selective");
+        selectiveIndexDef.addIntegerField("value");
+        selectiveIndex = indexMgr.getIndex(selectiveIndexDef);
+
+        IndexDefinition nonSelectiveIndexDef = new IndexDefinition("perftest-nonselective");
+        nonSelectiveIndexDef.addIntegerField("value");
+        nonSelectiveIndex = indexMgr.getIndex(nonSelectiveIndexDef);
+
         initialInserts = OptionUtil.getIntOption(cmd, initialInsertOption, 5000000);
         initialInsertsBatchSize = OptionUtil.getIntOption(cmd, initialInsertBatchOption, 300);
         loops = OptionUtil.getIntOption(cmd, loopsOption, 100000);
@@ -156,6 +172,7 @@ public class HbaseIndexPerfTest extends BaseTestTool {
             executor.submit(new BulkInserter(1));
             executor.submit(new StringRangeQuery());
             executor.submit(new BulkInserter(5));
+            executor.submit(new SelectiveAndQuery());
         }
 
         stopExecutor();
@@ -172,19 +189,36 @@ public class HbaseIndexPerfTest extends BaseTestTool {
         public void run() {
             try {
                 List<IndexEntry> entries = new ArrayList<IndexEntry>(amount);
+                List<IndexEntry> selectiveEntries = new ArrayList<IndexEntry>(amount);
+                List<IndexEntry> nonSelectiveEntries = new ArrayList<IndexEntry>(amount);
 
                 for (int i = 0; i < amount; i++) {
+                    byte[] identifier = idGenerator.newRecordId().toBytes();
+
                     IndexEntry entry = new IndexEntry(index.getDefinition());
                     entry.addField("word", Words.get());
                     entry.addField("number", (long) Math.floor(Math.random() * Long.MAX_VALUE));
-                    entry.setIdentifier(idGenerator.newRecordId().toBytes());
+                    entry.setIdentifier(identifier);
                     entries.add(entry);
+
+                    entry = new IndexEntry(selectiveIndex.getDefinition());
+                    entry.addField("value", (int) Math.floor(Math.random() * SELECTIVE_VALUES));
+                    entry.setIdentifier(identifier);
+                    selectiveEntries.add(entry);
+
+                    entry = new IndexEntry(nonSelectiveIndex.getDefinition());
+                    entry.addField("value", (int) Math.floor(Math.random() * NON_SELECTIVE_VALUES));
+                    entry.setIdentifier(identifier);
+                    nonSelectiveEntries.add(entry);
                 }
 
                 long before = System.nanoTime();
                 index.addEntries(entries);
                 double duration = System.nanoTime() - before;
                 metrics.increment("Index insert in batch of " + amount, "I", amount, duration / 1e6d);
+
+                selectiveIndex.addEntries(selectiveEntries);
+                nonSelectiveIndex.addEntries(nonSelectiveEntries);
             } catch (Throwable t) {
                 t.printStackTrace();
             }
@@ -244,4 +278,37 @@ public class HbaseIndexPerfTest extends BaseTestTool {
             }
         }
     }
+
+    /**
+     * Merge-joins a query on an index with many distinct values with one on an index with few distinct
+     * values. Most of the rows of the latter need to be skipped, which is what QueryResult.seek is for.
+     */
+    private class SelectiveAndQuery implements Runnable {
+        @Override
+        public void run() {
+            try {
+                Query selectiveQuery = new Query();
+                selectiveQuery.addEqualsCondition("value", (int) Math.floor(Math.random() * SELECTIVE_VALUES));
+
+                Query nonSelectiveQuery = new Query();
+                nonSelectiveQuery.addEqualsCondition("value",
+                        (int) Math.floor(Math.random() * NON_SELECTIVE_VALUES));
+
+                int resultCount = 0;
+
+                long before = System.nanoTime();
+                QueryResult result = new Conjunction(selectiveIndex.performQuery(selectiveQuery),
+                        nonSelectiveIndex.performQuery(nonSelectiveQuery));
+                while (result.next() != null && resultCount < maxResults) {
+                    resultCount++;
+                }
+                double duration = System.nanoTime() - before;
+                metrics.increment("AND query duration", "A", duration / 1e6d);
+                metrics.increment("AND query # of results", resultCount);
+                result.close();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
 }
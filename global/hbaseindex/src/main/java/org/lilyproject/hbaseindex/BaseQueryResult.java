@@ -15,6 +15,8 @@
  */
 package org.lilyproject.hbaseindex;
 
+import java.io.IOException;
+
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
 
@@ -22,6 +24,18 @@ abstract class BaseQueryResult implements QueryResult {
     protected Result currentResult;
     protected QueryResult currentQResult;
 
+    /**
+     * Default seek implementation which simply iterates using next() calls.
+     */
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        byte[] key = next();
+        while (key != null && Bytes.compareTo(key, identifier) < 0) {
+            key = next();
+        }
+        return key;
+    }
+
     @Override
     public byte[] getData(byte[] qualifier) {
         if (currentResult != null) {
@@ -32,14 +32,9 @@ import java.io.IOException;
  * <p>A Conjunction itself also returns its results in increasing identifier
  * order, and can hence serve as input to other Conjunctions.
  *
- * <p>TODO the implementation is currently not optimal if lots of rows need
- * to be skipped to move to the next common result, since this is done by
- * iterating one result at a time using next() calls. It would be better to
- * directly skip to the next appropriate result. HBase scanners don't support
- * this natively, so to skip we would rather need to open a new scanner. But
- * we can't exactly know on beforehand if this will be beneficial or not. Maybe
- * we could have some heuristic for this, e.g. after 10 next() calls open a new
- * scanner to jump directly to the next relevant result.
+ * <p>To move to the next common result, the QueryResults are advanced using
+ * {@link QueryResult#seek}, so that QueryResults which can skip over many rows
+ * at once (see ScannerQueryResult) don't need to iterate over them one by one.
  */
 public class Conjunction extends BaseQueryResult {
     private QueryResult result1;
@@ -53,33 +48,34 @@ public class Conjunction extends BaseQueryResult {
     @Override
     public byte[] next() throws IOException {
         byte[] key1 = result1.next();
-        byte[] key2 = result2.next();
+        if (key1 == null)
+            return null;
+
+        return align(key1, result2.seek(key1));
+    }
 
-        if (key1 == null || key2 == null)
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        byte[] key1 = result1.seek(identifier);
+        if (key1 == null)
             return null;
 
-        int cmp = Bytes.compareTo(key1, key2);
+        return align(key1, result2.seek(key1));
+    }
 
-        while (cmp != 0) {
-            if (cmp < 0) {
-                while (cmp < 0) {
-                    key1 = result1.next();
-                    if (key1 == null)
-                        return null;
-                    cmp = Bytes.compareTo(key1, key2);
-                }
-            } else if (cmp > 0) {
-                while (cmp > 0) {
-                    key2 = result2.next();
-                    if (key2 == null)
-                        return null;
-                    cmp = Bytes.compareTo(key1, key2);
-                }
+    private byte[] align(byte[] key1, byte[] key2) throws IOException {
+        while (key1 != null && key2 != null) {
+            int cmp = Bytes.compareTo(key1, key2);
+            if (cmp == 0) {
+                currentQResult = result1;
+                return key1;
+            } else if (cmp < 0) {
+                key1 = result1.seek(key2);
+            } else {
+                key2 = result2.seek(key1);
             }
         }
-
-        currentQResult = result1;
-        return key1;
+        return null;
     }
 
     @Override
@@ -80,6 +80,23 @@ public class Disjunction extends BaseQueryResult {
         }
     }
 
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        if (!init) {
+            key1 = result1.seek(identifier);
+            key2 = result2.seek(identifier);
+            init = true;
+        } else {
+            if (key1 != null && Bytes.compareTo(key1, identifier) < 0)
+                key1 = result1.seek(identifier);
+            if (key2 != null && Bytes.compareTo(key2, identifier) < 0)
+                key2 = result2.seek(identifier);
+        }
+
+        // the looked-ahead keys are now both at or past the identifier
+        return next();
+    }
+
     @Override
     public void close() {
         result1.close();
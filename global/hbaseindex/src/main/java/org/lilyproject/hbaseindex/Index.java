@@ -28,13 +28,8 @@ import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Scan;
-import org.apache.hadoop.hbase.filter.BinaryPrefixComparator;
-import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
-import org.apache.hadoop.hbase.filter.Filter;
-import org.apache.hadoop.hbase.filter.FilterList;
-import org.apache.hadoop.hbase.filter.RowFilter;
-import org.apache.hadoop.hbase.filter.WhileMatchFilter;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.hbaseext.RowKeyRangeFilter;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.ByteArrayKey;
 
@@ -262,28 +257,21 @@ public class Index {
         Scan scan = new Scan(fromKey);
 
         // Query.MAX_VALUE is a value which should be larger than anything, so cannot be an inclusive upper bound
-        // The importance of this is because for Query.MAX_VALUE, we do a prefix scan so the operator should be
-        // CompareOp.LESS_OR_EQUAL
+        // The importance of this is because for Query.MAX_VALUE, we do a prefix scan so the upper bound should be
+        // inclusive
         boolean upperBoundInclusive =
-                rangeCond != null && (rangeCond.isUpperBoundInclusive() || rangeCond.getToValue() == Query.MAX_VALUE);
-        CompareOp op = rangeCondSet && !upperBoundInclusive ? CompareOp.LESS : CompareOp.LESS_OR_EQUAL;
-        Filter toFilter = new RowFilter(op, new BinaryPrefixComparator(toKey));
-
-        if (rangeCondSet && !rangeCond.isLowerBoundInclusive()) {
-            // TODO: optimize the performance hit caused by the extra filter
-            //  Once the greater filter on the fromKey returns true, it will remain true because
-            //  row keys are sorted. The RowFilter will however keep doing the check again and again
-            //  on each new row key. We need a new filter in HBase, something like the opposite of the
-            //  WhileMatchFilter.
-            FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
-            filters.addFilter(new RowFilter(CompareOp.GREATER, new BinaryPrefixComparator(fromKey)));
-            filters.addFilter(new WhileMatchFilter(toFilter));
-            scan.setFilter(filters);
-        } else {
-            scan.setFilter(new WhileMatchFilter(toFilter));
-        }
+                !rangeCondSet || rangeCond.isUpperBoundInclusive() || rangeCond.getToValue() == Query.MAX_VALUE;
+
+        // An inclusive lower bound is handled by the start row of the scan
+        byte[] lowerBound = rangeCondSet && !rangeCond.isLowerBoundInclusive() ? fromKey : null;
 
-        scan.setCaching(30);
+        scan.setFilter(new RowKeyRangeFilter(lowerBound, false, toKey, upperBoundInclusive));
+        scan.setCaching(query.getCaching());
+
+        if (!rangeCondSet && fromKeyComponents.size() == definition.getFields().size()) {
+            // All fields are fixed, so results are sorted on identifier and we can seek to any identifier
+            return new ScannerQueryResult(htable, scan, fromKeyComponents, definition);
+        }
 
         return new ScannerQueryResult(htable.getScanner(scan), definition);
     }
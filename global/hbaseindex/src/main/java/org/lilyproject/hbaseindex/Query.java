@@ -36,6 +36,12 @@ import java.util.List;
 public class Query {
     private List<EqualsCondition> eqConditions = new ArrayList<EqualsCondition>();
     private RangeCondition rangeCondition;
+    private int caching = DEFAULT_CACHING;
+
+    /**
+     * The default number of rows fetched at once from HBase, see {@link #setCaching}.
+     */
+    public static final int DEFAULT_CACHING = 30;
 
     public static final Object MIN_VALUE = new Object() {
         @Override
@@ -91,6 +97,21 @@ public class Query {
         rangeCondition = new RangeCondition(fieldName, fromValue, toValue, lowerBoundInclusive, upperBoundInclusive);
     }
 
+    /**
+     * Sets the number of rows that will be fetched at once from HBase when iterating over the
+     * query results. Use a larger value when lots of results will be read, and a smaller one
+     * when only the first few results are of interest.
+     */
+    public void setCaching(int caching) {
+        if (caching < 1)
+            throw new IllegalArgumentException("caching should be at least 1, got: " + caching);
+        this.caching = caching;
+    }
+
+    public int getCaching() {
+        return caching;
+    }
+
     public List<EqualsCondition> getEqConditions() {
         return eqConditions;
     }
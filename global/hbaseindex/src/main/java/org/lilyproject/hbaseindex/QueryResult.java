@@ -30,6 +30,18 @@ public interface QueryResult extends Closeable {
      */
     byte[] next() throws IOException;
 
+    /**
+     * Move forward to the first following result whose identifier is equal to or larger than
+     * the given identifier, and return it. This always moves at least one result forward, the
+     * current result is not considered.
+     *
+     * <p>Implementations can use this to skip over a large number of results at once, which is
+     * what makes merge-joins such as {@link Conjunction} efficient.
+     *
+     * @return the identifier of the found result, or null if the end is reached.
+     */
+    byte[] seek(byte[] identifier) throws IOException;
+
     /**
      * Retrieves data that was stored as part of the {@link IndexEntry} from the current index
      * entry (corresponding to the last {@link #next} call).
@@ -16,23 +16,58 @@
 package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.gotometrics.orderly.StructIterator;
 import com.gotometrics.orderly.StructRowKey;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * A QueryResult on top of a HBase scanner.
+ *
+ * <p>If the query specified an equals condition for each of the fields of the index, the row key
+ * of any result can be constructed from its identifier. In that case, {@link #seek} will open a new
+ * scanner starting at the requested identifier after a number of unsuccessful next() calls, rather
+ * than iterating over all intermediate rows. The number of next() calls before reopening is adapted
+ * to how often reopening turns out to be needed. Seeking never moves backwards: a seek to an identifier
+ * at or before the current one simply moves to the next result.
  */
 class ScannerQueryResult extends BaseQueryResult {
     private ResultScanner scanner;
     private IndexDefinition definition;
+    private HTableInterface htable;
+    private Scan scan;
+    /** The field values which prefix the identifier in the row key, null if seeking is not possible. */
+    private List<Object> rowKeyPrefix;
+    private int maxSeekMisses;
+    private int seekMisses;
+    /** The identifier of the current result, null before the first result. */
+    private byte[] currentIdentifier;
+
+    private static final int MIN_SEEK_MISSES = 2;
 
     public ScannerQueryResult(ResultScanner scanner, IndexDefinition definition) {
         this.scanner = scanner;
         this.definition = definition;
     }
 
+    /**
+     * @param rowKeyPrefix the values for all fields of the index, in index definition order
+     */
+    public ScannerQueryResult(HTableInterface htable, Scan scan, List<Object> rowKeyPrefix,
+            IndexDefinition definition) throws IOException {
+        this(htable.getScanner(scan), definition);
+        this.htable = htable;
+        this.scan = scan;
+        this.rowKeyPrefix = rowKeyPrefix;
+        this.maxSeekMisses = Math.max(scan.getCaching(), MIN_SEEK_MISSES);
+        this.seekMisses = maxSeekMisses;
+    }
+
     @Override
     public byte[] next() throws IOException {
         currentResult = scanner.next();
@@ -42,7 +77,57 @@ class ScannerQueryResult extends BaseQueryResult {
 
         byte[] rowKey = currentResult.getRow();
 
-        return decodeIdentifierFrom(rowKey);
+        currentIdentifier = decodeIdentifierFrom(rowKey);
+        return currentIdentifier;
+    }
+
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        if (rowKeyPrefix == null) {
+            return super.seek(identifier);
+        }
+
+        if (currentIdentifier != null && Bytes.compareTo(identifier, currentIdentifier) <= 0) {
+            // Not a forward seek: reopening at the identifier would return results we already passed
+            return next();
+        }
+
+        // First try a few next() calls: these are usually served from the rows already fetched
+        // by the scanner, while reopening the scanner always costs a round trip.
+        for (int i = 0; i < seekMisses; i++) {
+            byte[] key = next();
+            if (key == null || Bytes.compareTo(key, identifier) >= 0) {
+                if (i < seekMisses / 2) {
+                    // target was close by: be more patient next time
+                    seekMisses = Math.min(seekMisses + 1, maxSeekMisses);
+                }
+                return key;
+            }
+        }
+
+        // The target is further away: jump directly to it, and give up sooner the next time
+        seekMisses = Math.max(seekMisses / 2, MIN_SEEK_MISSES);
+        reopen(identifier);
+        return next();
+    }
+
+    /**
+     * Reopens the scanner at the given identifier, which should be after the current identifier.
+     */
+    private void reopen(byte[] identifier) throws IOException {
+        if (currentIdentifier != null && Bytes.compareTo(identifier, currentIdentifier) <= 0) {
+            throw new IllegalStateException("Reopening the scanner would move it backwards.");
+        }
+
+        List<Object> values = new ArrayList<Object>(rowKeyPrefix.size() + 1);
+        values.addAll(rowKeyPrefix);
+        values.add(identifier);
+
+        Scan seekScan = new Scan(scan);
+        seekScan.setStartRow(definition.asStructRowKey().serialize(values.toArray()));
+
+        scanner.close();
+        scanner = htable.getScanner(seekScan);
     }
 
     private byte[] decodeIdentifierFrom(byte[] rowKey) throws IOException {
@@ -18,6 +18,8 @@ package org.lilyproject.hbaseindex;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import com.gotometrics.orderly.Order;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -30,6 +32,7 @@ import org.lilyproject.hadooptestfw.TestHelper;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 // Important: while not done in these testcases, it is recommended to call QueryResult.close()
@@ -971,6 +974,82 @@ public class IndexTest {
         assertEquals("foo", result.getDataAsString("originalValue"));
     }
 
+    @Test
+    public void testSeek() throws Exception {
+        final String INDEX_NAME = "seekIndex";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        // Enough entries so that seeking has to reopen the scanner
+        for (int i = 0; i < 200; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", i % 2 == 0 ? "even" : "odd");
+            entry.setIdentifier(Bytes.toBytes(String.format("key%03d", i)));
+            index.addEntry(entry);
+        }
+
+        Query query = new Query();
+        query.addEqualsCondition("field1", "even");
+        QueryResult result = index.performQuery(query);
+
+        assertEquals("key000", Bytes.toString(result.next()));
+        assertEquals("key002", Bytes.toString(result.seek(Bytes.toBytes("key001"))));
+        assertEquals("key150", Bytes.toString(result.seek(Bytes.toBytes("key150"))));
+        assertEquals("key152", Bytes.toString(result.next()));
+        assertEquals("key198", Bytes.toString(result.seek(Bytes.toBytes("key197"))));
+        assertNull(result.seek(Bytes.toBytes("key199")));
+        result.close();
+
+        // A conjunction with a selective result
+        Query query2 = new Query();
+        query2.addEqualsCondition("field1", "odd");
+        QueryResult selective = new StaticQueryResult(Arrays.asList(Bytes.toBytes("key010"),
+                Bytes.toBytes("key101"), Bytes.toBytes("key199")));
+        assertResultIds(new Conjunction(selective, index.performQuery(query2)), "key101", "key199");
+    }
+
+    @Test
+    public void testSeekDoesNotMoveBackwards() throws Exception {
+        final String INDEX_NAME = "seekBackwardsIndex";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        for (int i = 0; i < 200; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", "value");
+            entry.setIdentifier(Bytes.toBytes(String.format("key%03d", i)));
+            index.addEntry(entry);
+        }
+
+        Query query = new Query();
+        query.addEqualsCondition("field1", "value");
+        QueryResult result = index.performQuery(query);
+
+        assertEquals("key100", Bytes.toString(result.seek(Bytes.toBytes("key100"))));
+        // Seeking to the current identifier or before it moves on to the next result, it does not
+        // return results which were already passed
+        assertEquals("key101", Bytes.toString(result.seek(Bytes.toBytes("key100"))));
+        assertEquals("key102", Bytes.toString(result.seek(Bytes.toBytes("key050"))));
+        assertEquals("key103", Bytes.toString(result.seek(Bytes.toBytes("key000"))));
+        // A forward seek still works after that
+        assertEquals("key180", Bytes.toString(result.seek(Bytes.toBytes("key180"))));
+
+        // No duplicates up to the end
+        Set<String> seen = new HashSet<String>();
+        byte[] identifier;
+        while ((identifier = result.seek(Bytes.toBytes("key000"))) != null) {
+            assertTrue(seen.add(Bytes.toString(identifier)));
+        }
+        assertEquals(19, seen.size());
+        result.close();
+    }
+
     private void assertResultIds(QueryResult result, String... expectedIdentifiers) throws IOException {
         int resultIdx = 0;
         byte[] identifier;
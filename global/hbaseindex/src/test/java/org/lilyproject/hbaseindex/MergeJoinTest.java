@@ -55,6 +55,25 @@ public class MergeJoinTest {
         assertNull(result.next());
     }
 
+    @Test
+    public void testSeek() throws Exception {
+        String[] values1 = {"a", "b", "c", "f", "g", "h"};
+        String[] values2 = {"b", "c", "d", "e", "f", "h"};
+
+        QueryResult result = new Conjunction(buildQueryResult(values1), buildQueryResult(values2));
+        assertEquals("b", Bytes.toString(result.next()));
+        assertEquals("f", Bytes.toString(result.seek(Bytes.toBytes("d"))));
+        assertEquals("h", Bytes.toString(result.seek(Bytes.toBytes("h"))));
+        assertNull(result.seek(Bytes.toBytes("i")));
+
+        result = new Disjunction(buildQueryResult(values1), buildQueryResult(values2));
+        assertEquals("c", Bytes.toString(result.seek(Bytes.toBytes("bb"))));
+        assertEquals("d", Bytes.toString(result.next()));
+        assertEquals("f", Bytes.toString(result.seek(Bytes.toBytes("f"))));
+        assertEquals("g", Bytes.toString(result.next()));
+        assertNull(result.seek(Bytes.toBytes("z")));
+    }
+
     private QueryResult buildQueryResult(String[] values) {
         List<byte[]> byteValues = new ArrayList<byte[]>(values.length);
 
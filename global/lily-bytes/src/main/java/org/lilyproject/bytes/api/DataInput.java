@@ -15,6 +15,8 @@
  */
 package org.lilyproject.bytes.api;
 
+import java.nio.ByteBuffer;
+
 /**
  * <code>DataInput</code> reads primitive types from a byte[] which has been encoded using the {@link DataOutput}
  * 
@@ -26,6 +28,14 @@ public interface DataInput {
      * Reads <code>length</code> number of bytes from the <code>DataInput</code>
      */
     byte[] readBytes(int length);
+
+    /**
+     * Reads <code>length</code> number of bytes from the <code>DataInput</code>, returning them as a view
+     * on the underlying data rather than as a copy.
+     *
+     * <p>The returned buffer shares its content with the <code>DataInput</code>, it should not be modified.
+     */
+    ByteBuffer readByteBuffer(int length);
     
     /**
      * Reads one byte from the <code>DataInput</code>
@@ -15,6 +15,8 @@
  */
 package org.lilyproject.bytes.api;
 
+import java.nio.ByteBuffer;
+
 /**
  * The <code>DataOutput</code> converts primitive types to bytes
  * and writes them to an underlying byte array.
@@ -36,6 +38,13 @@ public interface DataOutput {
      * Returns the underlying byte[]
      */
     byte[] toByteArray();
+
+    /**
+     * Returns the bytes written so far as a view on the underlying buffer, without copying them.
+     *
+     * <p>The view is only valid until the next write call.
+     */
+    ByteBuffer toByteBuffer();
     
     /**
      * Writes a byte to the <code>DataOutput</code> 
@@ -47,6 +56,11 @@ public interface DataOutput {
      */
     void writeBytes(byte[] value);
 
+    /**
+     * Writes <code>length</code> bytes of the byte[], starting at <code>offset</code>, to the <code>DataOutput</code>
+     */
+    void writeBytes(byte[] value, int offset, int length);
+
     /**
      * Writes a string to the <code>DataOutput</code>.
      * 
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.bytes.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.lilyproject.bytes.api.DataInput;
+
+/**
+ * Implementation of {@link DataInput} which reads from a {@link ByteBuffer}, heap or direct, without
+ * copying its content. The data should have been encoded by {@link DataOutputImpl} or {@link ByteBufferDataOutput}.
+ *
+ * <p>The input covers the remaining bytes of the given buffer. The buffer's own position and limit are
+ * not modified, positions within this <code>DataInput</code> are relative to the buffer's position
+ * at construction time.
+ *
+ * <p>When the data is available as a byte[], {@link DataInputImpl} is the faster choice.
+ */
+public class ByteBufferDataInput implements DataInput {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer source;
+    private int pos;
+    private int size;
+
+    public ByteBufferDataInput(ByteBuffer source) {
+        // slice() gives us an independent position, limit and (big endian) byte order
+        this.source = source.slice();
+        this.pos = 0;
+        this.size = this.source.limit();
+    }
+
+    @Override
+    public byte readByte() {
+        return source.get(pos++);
+    }
+
+    @Override
+    public byte[] readBytes(int length) {
+        byte[] result = new byte[length];
+        ByteBuffer view = source.duplicate();
+        view.position(pos);
+        view.get(result);
+        pos += length;
+        return result;
+    }
+
+    @Override
+    public ByteBuffer readByteBuffer(int length) {
+        ByteBuffer view = source.duplicate();
+        view.position(pos);
+        view.limit(pos + length);
+        pos += length;
+        return view.slice();
+    }
+
+    @Override
+    public String readUTF() {
+        return readUTF(readInt());
+    }
+
+    @Override
+    public String readVUTF() {
+        return readUTF(readVInt());
+    }
+
+    /**
+     * Reads a string of <code>utflen</code> bytes.
+     *
+     * <p>{@link DataOutputImpl} writes standard UTF-8 (unpaired surrogates are replaced by U+FFFD), so
+     * the JDK's decoder gives the same result as {@link DataInputImpl#readUTF(int)}.
+     */
+    @Override
+    public String readUTF(int utflen) {
+        if (utflen == -1)
+            return null;
+        if (utflen == 0)
+            return new String();
+        String result;
+        if (source.hasArray()) {
+            result = new String(source.array(), source.arrayOffset() + pos, utflen, UTF8);
+        } else {
+            ByteBuffer view = source.duplicate();
+            view.position(pos);
+            view.limit(pos + utflen);
+            result = UTF8.decode(view).toString();
+        }
+        pos += utflen;
+        return result;
+    }
+
+    @Override
+    public boolean readBoolean() {
+        return source.get(pos++) != 0;
+    }
+
+    @Override
+    public double readDouble() {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    @Override
+    public int readInt() {
+        int result = source.getInt(pos);
+        pos += 4;
+        return result;
+    }
+
+    @Override
+    public long readLong() {
+        long result = source.getLong(pos);
+        pos += 8;
+        return result;
+    }
+
+    @Override
+    public int readShort() {
+        int result = source.getShort(pos);
+        pos += 2;
+        return result;
+    }
+
+    @Override
+    public float readFloat() {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public int readVInt() {
+        byte b = readByte();
+        int i = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = readByte();
+            i |= (b & 0x7F) << shift;
+        }
+        return i;
+    }
+
+    @Override
+    public long readVLong() {
+        byte b = readByte();
+        long i = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = readByte();
+            i |= (b & 0x7FL) << shift;
+        }
+        return i;
+    }
+
+    @Override
+    public int getPosition() {
+        return pos;
+    }
+
+    @Override
+    public void setPosition(int position) {
+        this.pos = position;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public void setSize(int size) {
+        if (size < 0 || size > source.limit()) {
+            throw new IllegalArgumentException("Invalid size: " + size + " (maximum: " + source.limit() + ")");
+        }
+        this.size = size;
+    }
+
+    @Override
+    public int indexOf(byte value) {
+        for (int i = pos; i < size; i++) {
+            if (source.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
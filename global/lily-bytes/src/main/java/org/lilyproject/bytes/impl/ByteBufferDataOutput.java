@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.bytes.impl;
+
+import java.nio.ByteBuffer;
+
+import org.lilyproject.bytes.api.DataOutput;
+
+/**
+ * Implementation of {@link DataOutput} which writes directly into a caller-supplied {@link ByteBuffer},
+ * starting at its current position and advancing it. The encoding is the same as that of
+ * {@link DataOutputImpl}.
+ *
+ * <p>Contrary to the byte[]-based implementation, the buffer is not resized: a write for which there is
+ * not enough space remaining throws a {@link java.nio.BufferOverflowException}.
+ */
+public class ByteBufferDataOutput implements DataOutput {
+    private final ByteBuffer destination;
+    private final int startPosition;
+
+    public ByteBufferDataOutput(ByteBuffer destination) {
+        this.destination = destination;
+        this.startPosition = destination.position();
+    }
+
+    /**
+     * Returns a copy of the bytes written through this <code>DataOutput</code>.
+     */
+    @Override
+    public byte[] toByteArray() {
+        ByteBuffer written = toByteBuffer();
+        byte[] result = new byte[written.remaining()];
+        written.get(result);
+        return result;
+    }
+
+    @Override
+    public ByteBuffer toByteBuffer() {
+        ByteBuffer view = destination.duplicate();
+        view.limit(destination.position());
+        view.position(startPosition);
+        return view.slice();
+    }
+
+    @Override
+    public void writeByte(byte b) {
+        destination.put(b);
+    }
+
+    @Override
+    public void writeBytes(byte[] value) {
+        destination.put(value);
+    }
+
+    @Override
+    public void writeBytes(byte[] value, int offset, int length) {
+        destination.put(value, offset, length);
+    }
+
+    @Override
+    public void writeUTF(String value) {
+        writeUTF(value, true);
+    }
+
+    @Override
+    public void writeVUTF(String string) {
+        // The string is encoded in a reused buffer first, rather than duplicating the encoder
+        DataOutputImpl output = DataOutputImpl.acquire();
+        try {
+            output.writeVUTF(string);
+            output.writeTo(destination);
+        } finally {
+            output.release();
+        }
+    }
+
+    @Override
+    public void writeUTF(String value, boolean includeLength) {
+        DataOutputImpl output = DataOutputImpl.acquire();
+        try {
+            output.writeUTF(value, includeLength);
+            output.writeTo(destination);
+        } finally {
+            output.release();
+        }
+    }
+
+    @Override
+    public void writeInt(int integer) {
+        destination.putInt(integer);
+    }
+
+    @Override
+    public void writeLong(long value) {
+        destination.putLong(value);
+    }
+
+    @Override
+    public void writeBoolean(boolean b) {
+        destination.put(b ? (byte)1 : (byte)0);
+    }
+
+    @Override
+    public void writeDouble(double value) {
+        writeLong(Double.doubleToLongBits(value));
+    }
+
+    @Override
+    public void writeShort(int value) {
+        destination.putShort((short)value);
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeVInt(int i) {
+        while ((i & ~0x7F) != 0) {
+            destination.put((byte) ((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        destination.put((byte) i);
+    }
+
+    @Override
+    public void writeVLong(long i) {
+        while ((i & ~0x7F) != 0) {
+            destination.put((byte) ((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        destination.put((byte) i);
+    }
+
+    /**
+     * Returns the number of bytes written through this <code>DataOutput</code>.
+     */
+    @Override
+    public int getSize() {
+        return destination.position() - startPosition;
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.lilyproject.bytes.impl;
 
+import java.nio.ByteBuffer;
+
 import org.lilyproject.bytes.api.DataInput;
 
 /**
@@ -59,10 +61,24 @@ public class DataInputImpl implements DataInput {
      * It should have been created using {@link DataOutputImpl}.
      */
     public DataInputImpl(byte[] source) {
+        this(source, 0, source.length);
+    }
+
+    /**
+     * Constructor for a {@link DataInput} which reads from a range of the given byte[], without copying it.
+     *
+     * <p>As for the other constructors, positions and size are absolute indexes within the source: the
+     * initial position is <code>offset</code>, the size is <code>offset + length</code>.
+     */
+    public DataInputImpl(byte[] source, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > source.length) {
+            throw new IllegalArgumentException("Invalid range: offset " + offset + ", length " + length
+                    + " (source length: " + source.length + ")");
+        }
         this.source = source;
-        this.startPosition = 0;
-        this.pos = 0;
-        this.size = source.length;
+        this.startPosition = 0; // positions are absolute, also for the sub-inputs created from this one
+        this.pos = offset;
+        this.size = offset + length;
     }
 
     /**
@@ -94,6 +110,13 @@ public class DataInputImpl implements DataInput {
         pos += length;
         return result;
     }
+
+    @Override
+    public ByteBuffer readByteBuffer(int length) {
+        ByteBuffer result = ByteBuffer.wrap(source, pos, length).slice();
+        pos += length;
+        return result;
+    }
     
     /**
      * Reads an (unmodified)UTF-8 from the underlying byte[].
@@ -15,6 +15,7 @@
  */
 package org.lilyproject.bytes.impl;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import org.lilyproject.bytes.api.DataOutput;
@@ -27,6 +28,9 @@ import org.lilyproject.bytes.api.DataOutput;
  *    call will append the next encoded value in the byte[].
  *    
  * <p>The underlying byte[] is resized when it is not large enough to contain the next value to be written.
+ *
+ * <p>To avoid allocating (and growing) a new byte[] for each value that is encoded, a per-thread instance
+ *    can be borrowed using {@link #acquire()}.
  * 
  * <p>This implementation (especially #writeUTF()) is based on (and some pieces are copied from) the work
  *    done by Lucene in the methods <code>UTF16toUTF8</code> and <code>UTF8toUTF16</code> 
@@ -48,17 +52,38 @@ public class DataOutputImpl implements DataOutput {
     private static final int SURROGATE_OFFSET = 
         Character.MIN_SUPPLEMENTARY_CODE_POINT - (UNI_SUR_HIGH_START << HALF_SHIFT) - UNI_SUR_LOW_START;
 
+    /**
+     * Buffers larger than this are not kept for reuse by {@link #release()}, to avoid that each thread
+     * holds on to the largest value it ever encoded.
+     */
+    private static final int MAX_REUSED_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_SIZE = 256;
+
+    private static final ThreadLocal<DataOutputImpl> THREAD_OUTPUT = new ThreadLocal<DataOutputImpl>() {
+        @Override
+        protected DataOutputImpl initialValue() {
+            DataOutputImpl output = new DataOutputImpl();
+            output.reusable = true;
+            return output;
+        }
+    };
+
     private byte[] buffer;
     /** The position at which the next item will be added. */
     private int pos = 0;
 
+    /** True for the per-thread instances handed out by {@link #acquire()}. */
+    private boolean reusable;
+    private boolean inUse;
+
     /**
      * Default constructor.
      * When it is possible to give a good estimate of the number of bytes 
      * that will be written, it is better to use {@link DataOutputImpl(int)}.
      */
     public DataOutputImpl() {
-        this(256);
+        this(DEFAULT_SIZE);
     }
     
     /**
@@ -70,10 +95,55 @@ public class DataOutputImpl implements DataOutput {
         buffer = new byte[sizeEstimate];
     }
     
+    /**
+     * Returns an empty <code>DataOutputImpl</code> whose buffer is reused by the next calls from the same
+     * thread. It should be handed back using {@link #release()} once its content has been taken, typically
+     * in a finally block.
+     *
+     * <p>If the thread's instance is still in use, e.g. because values are encoded within the encoding of
+     * another value, a new instance is returned.
+     */
+    public static DataOutputImpl acquire() {
+        DataOutputImpl output = THREAD_OUTPUT.get();
+        if (output.inUse) {
+            return new DataOutputImpl();
+        }
+        output.inUse = true;
+        return output;
+    }
+
+    /**
+     * Hands back an instance obtained through {@link #acquire()}. Its content should not be used anymore
+     * afterwards (this includes the views returned by {@link #toByteBuffer()}).
+     */
+    public void release() {
+        if (reusable) {
+            pos = 0;
+            if (buffer.length > MAX_REUSED_SIZE) {
+                buffer = new byte[DEFAULT_SIZE];
+            }
+            inUse = false;
+        }
+    }
+
     @Override
     public byte[] toByteArray() {
         return Arrays.copyOfRange(buffer, 0, pos);
     }
+
+    @Override
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, pos).slice();
+    }
+
+    /**
+     * Copies the bytes written so far to the given buffer, starting at its current position.
+     *
+     * @throws java.nio.BufferOverflowException if there is insufficient space remaining in the buffer
+     */
+    public void writeTo(ByteBuffer destination) {
+        destination.put(buffer, 0, pos);
+    }
     
     /**
      * Checks if the buffer has enough space to put <code>len</code> bytes.
@@ -102,9 +172,13 @@ public class DataOutputImpl implements DataOutput {
     
     @Override
     public void writeBytes(byte[] bytes) {
-        int length = bytes.length;
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes, int offset, int length) {
         assureSize(length);
-        System.arraycopy(bytes, 0, buffer, pos, length);
+        System.arraycopy(bytes, offset, buffer, pos, length);
         pos += length;
     }
     
@@ -298,7 +372,7 @@ public class DataOutputImpl implements DataOutput {
     */
     @Override
     public void writeVLong(long i) {
-        assureSize(5);
+        assureSize(10);
         writeVLongUnsafe(i);
     }
     
@@ -15,11 +15,14 @@
  */
 package org.lilyproject.bytes.impl.test;
 
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 import org.junit.Assert;
 import org.lilyproject.bytes.api.DataInput;
 import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.ByteBufferDataInput;
+import org.lilyproject.bytes.impl.ByteBufferDataOutput;
 import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.bytes.impl.DataOutputImpl;
 
@@ -191,4 +194,92 @@ public class TestDataInputOutput extends TestCase {
         Assert.assertEquals(Math.abs(i), dataInput.readVInt());
         Assert.assertEquals(Math.abs(l), dataInput.readVLong());
     }
+
+    public void testByteBuffers() {
+        String string = randomUnicodeString();
+        int vint = Math.abs(random.nextInt());
+        long vlong = Math.abs(random.nextLong());
+        byte[] bytes = new byte[10];
+        random.nextBytes(bytes);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(200);
+        buffer.position(7);
+        DataOutput dataOutput = new ByteBufferDataOutput(buffer);
+        dataOutput.writeUTF(string);
+        dataOutput.writeVUTF(string);
+        dataOutput.writeVInt(vint);
+        dataOutput.writeVLong(vlong);
+        dataOutput.writeShort(-3);
+        dataOutput.writeBytes(bytes, 2, 5);
+        dataOutput.writeDouble(1.5d);
+
+        // Same encoding as the byte[] based implementation
+        DataOutput expectedOutput = new DataOutputImpl();
+        expectedOutput.writeUTF(string);
+        expectedOutput.writeVUTF(string);
+        expectedOutput.writeVInt(vint);
+        expectedOutput.writeVLong(vlong);
+        expectedOutput.writeShort(-3);
+        expectedOutput.writeBytes(bytes, 2, 5);
+        expectedOutput.writeDouble(1.5d);
+        Assert.assertArrayEquals(expectedOutput.toByteArray(), dataOutput.toByteArray());
+        Assert.assertEquals(expectedOutput.getSize(), dataOutput.getSize());
+
+        buffer.flip();
+        buffer.position(7);
+        DataInput dataInput = new ByteBufferDataInput(buffer);
+        Assert.assertEquals(string, dataInput.readUTF());
+        Assert.assertEquals(string, dataInput.readVUTF());
+        Assert.assertEquals(vint, dataInput.readVInt());
+        Assert.assertEquals(vlong, dataInput.readVLong());
+        Assert.assertEquals(-3, dataInput.readShort());
+        ByteBuffer slice = dataInput.readByteBuffer(5);
+        Assert.assertEquals(5, slice.remaining());
+        Assert.assertEquals(bytes[2], slice.get(0));
+        Assert.assertEquals(1.5d, dataInput.readDouble(), 0.0001);
+        Assert.assertEquals(dataInput.getSize(), dataInput.getPosition());
+        // The buffer itself is left untouched
+        Assert.assertEquals(7, buffer.position());
+    }
+
+    public void testRange() {
+        DataOutput dataOutput = new DataOutputImpl();
+        dataOutput.writeByte((byte)1);
+        dataOutput.writeUTF("range");
+        dataOutput.writeByte((byte)2);
+        byte[] data = dataOutput.toByteArray();
+
+        DataInput dataInput = new DataInputImpl(data, 1, data.length - 2);
+        Assert.assertEquals(1, dataInput.getPosition());
+        Assert.assertEquals(data.length - 1, dataInput.getSize());
+        Assert.assertEquals("range", dataInput.readUTF());
+        Assert.assertEquals(dataInput.getSize(), dataInput.getPosition());
+
+        try {
+            new DataInputImpl(data, 1, data.length);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testAcquire() {
+        DataOutputImpl output = DataOutputImpl.acquire();
+        output.writeUTF("outer");
+        // Nested use gets its own instance
+        DataOutputImpl nested = DataOutputImpl.acquire();
+        Assert.assertNotSame(output, nested);
+        nested.writeUTF("nested");
+        nested.release();
+        byte[] data = output.toByteArray();
+        output.release();
+
+        Assert.assertEquals("outer", new DataInputImpl(data).readUTF());
+
+        // After release, the thread's instance is handed out again, empty
+        DataOutputImpl again = DataOutputImpl.acquire();
+        Assert.assertSame(output, again);
+        Assert.assertEquals(0, again.getSize());
+        again.release();
+    }
 }
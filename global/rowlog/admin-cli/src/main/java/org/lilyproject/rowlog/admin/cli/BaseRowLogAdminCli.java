@@ -36,6 +36,7 @@ public abstract class BaseRowLogAdminCli extends BaseZkCliTool {
     protected Option notifyDelayOption;
     protected Option minimalProcessDelayOption;
     protected Option wakeupTimeoutOption;
+    protected Option timeBasedSeqNrOption;
     protected Option subscriptionIdOption;
     protected Option subscriptionTypeOption;
     protected Option subscriptionOrderNrOption;
@@ -47,6 +48,7 @@ public abstract class BaseRowLogAdminCli extends BaseZkCliTool {
     protected Long notifyDelay = null;
     protected Long minimalProcessDelay = null;
     protected Long wakeupTimeout = null;
+    protected Boolean timeBasedSeqNr = null;
     protected RowLogSubscription.Type type = null;
     protected Integer orderNr = null;
     
@@ -105,6 +107,14 @@ public abstract class BaseRowLogAdminCli extends BaseZkCliTool {
                 .withDescription("Wakeup timeout (a number >= 0)")
                 .withLongOpt("wakeup-timeout")
                 .create("w");
+
+        timeBasedSeqNrOption = OptionBuilder
+                .withArgName("time-based-seqnr")
+                .hasArg()
+                .withDescription("Time based sequence numbers ('true' or 'false'). Only enable this once all " +
+                        "Lily nodes support it, and don't disable it afterwards.")
+                .withLongOpt("time-based-seqnr")
+                .create("b");
         
         subscriptionTypeOption = OptionBuilder
                 .withArgName("type")
@@ -210,6 +220,18 @@ public abstract class BaseRowLogAdminCli extends BaseZkCliTool {
             }
         }
 
+        if (cmd.hasOption(timeBasedSeqNrOption.getOpt())) {
+            String optionValue = cmd.getOptionValue(timeBasedSeqNrOption.getOpt());
+            if ("true".equals(optionValue.toLowerCase()))
+                timeBasedSeqNr = Boolean.TRUE;
+            else if ("false".equals(optionValue.toLowerCase()))
+                timeBasedSeqNr = Boolean.FALSE;
+            else {
+                System.out.println("Specified value for 'time based seqnr' should be either 'true' or 'false'");
+                return 1;
+            }
+        }
+
         if (cmd.hasOption(subscriptionOrderNrOption.getOpt())) {
             try {
                 orderNr= Integer.valueOf(cmd.getOptionValue(subscriptionOrderNrOption.getOpt()));
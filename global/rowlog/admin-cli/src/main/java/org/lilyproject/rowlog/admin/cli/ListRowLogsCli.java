@@ -62,6 +62,7 @@ public class ListRowLogsCli extends BaseRowLogAdminCli {
             System.out.println("  + Notify delay: " + rowLogConfig.getNotifyDelay());
             System.out.println("  + Minimal process delay: " + rowLogConfig.getMinimalProcessDelay());
             System.out.println("  + Wakeup timeout: " + rowLogConfig.getWakeupTimeout());
+            System.out.println("  + Time based seqnr: " + rowLogConfig.isTimeBasedSeqNr());
             System.out.println();
             List<RowLogSubscription> subscriptions = rowLogConfigurationManager.getSubscriptions(rowLog.getKey());
             System.out.println("  Number of subscriptions: " + subscriptions.size());
@@ -34,6 +34,9 @@ import org.lilyproject.rowlog.api.RowLogConfig;
  * <br>- minimal process delay : the minimal age a message should have before the processor will process it
  * <br>- wakeup timeout : the time the processor waits (in case no notification was received) 
  * before checking if there are new messages available
+ * <br>- time based seqnr : if the sequence numbers of messages are generated locally rather than through a
+ * counter in the row. Rowlogs created before Lily 2.0 use the counter; they can be switched once all Lily
+ * nodes are upgraded. The existing messages remain valid.
  */
 public class UpdateRowLogCli extends BaseRowLogAdminCli {
     @Override
@@ -55,6 +58,7 @@ public class UpdateRowLogCli extends BaseRowLogAdminCli {
         options.add(notifyDelayOption);
         options.add(minimalProcessDelayOption);
         options.add(wakeupTimeoutOption);
+        options.add(timeBasedSeqNrOption);
 
         return options;
     }
@@ -90,6 +94,9 @@ public class UpdateRowLogCli extends BaseRowLogAdminCli {
         if (wakeupTimeout != null) {
             rowLogConfig.setWakeupTimeout(wakeupTimeout);
         }
+        if (timeBasedSeqNr != null) {
+            rowLogConfig.setTimeBasedSeqNr(timeBasedSeqNr);
+        }
         rowLogConfigurationManager.updateRowLog(rowLogId, rowLogConfig);
         return 0;
     }
@@ -111,7 +111,42 @@ public interface RowLog {
      * @throws InterruptedException 
      */
     RowLogMessage putMessage(byte[] rowKey, byte[] data, byte[] payload, Put put) throws RowLogException, InterruptedException;
-    
+
+    /**
+     * Puts a batch of new messages on the RowLog, one message per supplied {@link Put}. This is the batch
+     * equivalent of {@link #putMessage(byte[], byte[], byte[], Put)}, the row of each message is the row of
+     * its Put.
+     *
+     * <p>The payload and execution state are added to the supplied Put objects, which should afterwards be
+     * applied by the caller (just as for putMessage). The messages are put on the {@link RowLogShard}s with
+     * one multi-row put per shard.
+     *
+     * <p>The caller must hold a row lock (taken through the RowLocker of this RowLog) on all rows. This allows
+     * the sequence numbers of all messages to be allocated with one multi-row get, the new sequence numbers
+     * being stored with a separate multi-row put before the messages are put on the shards, so that they stay
+     * reserved even if the supplied Puts are never applied. If this RowLog has no RowLocker, the sequence
+     * numbers are allocated per row as in putMessage. When time based sequence numbers are enabled (see
+     * {@link RowLogConfig#isTimeBasedSeqNr()}), they are generated locally and no row is read or written for them.
+     *
+     * @param puts the Put objects, one for each message, the rows should be unique within the batch
+     * @param payloads the payloads, in the same order as the puts
+     * @return the created messages, in the same order as the puts. If there are no subscriptions, the list
+     * contains null values (no messages are created in that case).
+     */
+    List<RowLogMessage> putMessages(List<Put> puts, List<byte[]> payloads) throws RowLogException, InterruptedException;
+
+    /**
+     * Same as {@link #putMessages(List, List)}, but the RowLog creates the Put objects itself and applies them,
+     * the batch equivalent of calling {@link #putMessage(byte[], byte[], byte[], Put)} with a null Put.
+     *
+     * <p>The same row lock requirement as for putMessages applies.
+     *
+     * @param rowKeys the rows of the messages, these should be unique within the batch
+     * @param payloads the payloads, in the same order as the rows
+     */
+    List<RowLogMessage> putMessagesForRows(List<byte[]> rowKeys, List<byte[]> payloads)
+            throws RowLogException, InterruptedException;
+
     /**
      * Request each registered {@link RowLogMessageListener} to process a {@link RowLogMessage} explicitly. 
      * This method can be called independently from a {@link RowLogProcessor} and can be used for instance when a message
@@ -138,6 +173,18 @@ public interface RowLog {
      * @return true if the message has been successfully put to done
      */
     boolean messageDone(RowLogMessage message, String subscriptionId) throws RowLogException, InterruptedException;
+
+    /**
+     * Same as {@link #messageDone(RowLogMessage, String)} but for several messages of the same row.
+     *
+     * <p>The execution states of the messages are read at once and are, as far as possible, updated
+     * in a single write.
+     *
+     * @param messages messages of one row
+     * @return true if all messages have been successfully put to done
+     */
+    boolean messagesDone(List<RowLogMessage> messages, String subscriptionId) throws RowLogException,
+            InterruptedException;
     
     /**
      * Checks if the message is done for a certain subscription.
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.api;
+
+import java.util.List;
+
+/**
+ * A {@link RowLogMessageListener} which is able to process several messages of the same row in one go.
+ *
+ * <p>When the rowlog processor is configured to coalesce messages, the outstanding messages of a row are
+ * handed over together to listeners implementing this interface, allowing the listener to act only once
+ * upon the combined effect of the messages. Listeners not implementing this interface get the messages
+ * one by one.
+ */
+public interface RowLogBatchMessageListener extends RowLogMessageListener {
+    /**
+     * Request the listener to process several messages, which all belong to the same row and are
+     * ordered by sequence number.
+     *
+     * <p>The same rules as for {@link #processMessage(RowLogMessage)} apply, but for the messages as a whole:
+     * either all messages are processed (true is returned) or none are and they will all be offered again
+     * later (false is returned).
+     */
+    boolean processMessages(List<RowLogMessage> messages) throws InterruptedException;
+}
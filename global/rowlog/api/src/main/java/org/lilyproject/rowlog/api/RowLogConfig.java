@@ -26,6 +26,7 @@ public class RowLogConfig {
     private long wakeupTimeout;
     private long orphanedMessageDelay;
     private int deleteBufferSize;
+    private boolean timeBasedSeqNr;
 
     /**
      * A value object bundling the configuration paramaters for a rowlog and its processors.
@@ -43,6 +44,19 @@ public class RowLogConfig {
      */
     public RowLogConfig(boolean respsectOrder, boolean enableNotify, long notifyDelay, long minimalProcessDelay,
             long wakeupTimeout, long orphanedMessageDelay, int deleteBufferSize) {
+        this(respsectOrder, enableNotify, notifyDelay, minimalProcessDelay, wakeupTimeout, orphanedMessageDelay,
+                deleteBufferSize, false);
+    }
+
+    /**
+     * @param timeBasedSeqNr true if the sequence numbers of new messages should be generated locally from the
+     *                       clock, rather than by incrementing a counter stored in the row. This avoids a round trip
+     *                       to HBase per message, but should only be enabled once all nodes writing to the rowlog
+     *                       support it.
+     * @see #RowLogConfig(boolean, boolean, long, long, long, long, int)
+     */
+    public RowLogConfig(boolean respsectOrder, boolean enableNotify, long notifyDelay, long minimalProcessDelay,
+            long wakeupTimeout, long orphanedMessageDelay, int deleteBufferSize, boolean timeBasedSeqNr) {
         this.respectOrder = respsectOrder;
         this.enableNotify = enableNotify;
         this.notifyDelay = notifyDelay;
@@ -50,6 +64,7 @@ public class RowLogConfig {
         this.wakeupTimeout = wakeupTimeout;
         this.orphanedMessageDelay = orphanedMessageDelay;
         this.deleteBufferSize = deleteBufferSize;
+        this.timeBasedSeqNr = timeBasedSeqNr;
     }
 
     public boolean isRespectOrder() {
@@ -108,10 +123,18 @@ public class RowLogConfig {
         this.deleteBufferSize = deleteBufferSize;
     }
 
+    public boolean isTimeBasedSeqNr() {
+        return timeBasedSeqNr;
+    }
+
+    public void setTimeBasedSeqNr(boolean timeBasedSeqNr) {
+        this.timeBasedSeqNr = timeBasedSeqNr;
+    }
+
     @Override
     public int hashCode() {
         return Objects.hashCode(enableNotify, minimalProcessDelay, notifyDelay, wakeupTimeout, orphanedMessageDelay,
-                respectOrder, deleteBufferSize);
+                respectOrder, deleteBufferSize, timeBasedSeqNr);
     }
 
     @Override
@@ -129,7 +152,8 @@ public class RowLogConfig {
                 && Objects.equal(wakeupTimeout, other.wakeupTimeout)
                 && Objects.equal(orphanedMessageDelay, other.orphanedMessageDelay)
                 && Objects.equal(respectOrder, other.respectOrder)
-                && Objects.equal(deleteBufferSize, other.deleteBufferSize);
+                && Objects.equal(deleteBufferSize, other.deleteBufferSize)
+                && Objects.equal(timeBasedSeqNr, other.timeBasedSeqNr);
     }
 
     @Override
@@ -137,6 +161,6 @@ public class RowLogConfig {
         return "RowLogConfig [respectOrder=" + respectOrder + ", enableNotify="
                 + enableNotify + ", notifyDelay=" + notifyDelay + ", minimalProcessDelay=" + minimalProcessDelay +
                 ", wakeupTimeout=" + wakeupTimeout + ", orphanedMessageDelay=" + orphanedMessageDelay +
-                ", deleteBufferSize=" + deleteBufferSize + "]";
+                ", deleteBufferSize=" + deleteBufferSize + ", timeBasedSeqNr=" + timeBasedSeqNr + "]";
     }
 }
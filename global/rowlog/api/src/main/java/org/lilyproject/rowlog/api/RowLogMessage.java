@@ -37,6 +37,9 @@ public interface RowLogMessage {
     
     /**
      * A sequence number used to identify the position of the message in order of the messages that were created (events) for the related row.
+     * Depending on the {@link RowLogConfig#isTimeBasedSeqNr() configuration} of the rowlog, this is either a counter
+     * stored in the row, or a number derived from the time the message was created. In both cases, the numbers
+     * increase for subsequent messages of the same row, but they are not necessarily consecutive.
      * @return a sequence number , unique within the context of a row
      */
     long getSeqNr();
@@ -51,4 +51,10 @@ public interface RowLogProcessor {
      * The RowLog for which this processor is working.
      */
     RowLog getRowLog();
+
+    /**
+     * The estimated backlog of each processed shard, for each subscription. Empty when the processor
+     * is not running.
+     */
+    List<ShardBacklog> getShardBacklogs();
 }
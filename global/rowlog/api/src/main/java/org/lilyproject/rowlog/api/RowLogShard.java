@@ -44,6 +44,12 @@ public interface RowLogShard {
      */
     void putMessage(RowLogMessage message) throws RowLogException;
 
+    /**
+     * Puts a batch of RowLogMessages onto the table, for each of the given subscriptions. This is done
+     * with one multi-row put.
+     */
+    void putMessages(List<RowLogMessage> messages, List<String> subscriptionIds) throws RowLogException;
+
     /**
      * Removes the RowLogMessage from the table for the indicated subscription.
      * 
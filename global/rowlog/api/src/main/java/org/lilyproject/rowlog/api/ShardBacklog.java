@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.api;
+
+/**
+ * The estimated backlog of one shard for one subscription, as seen by a {@link RowLogProcessor}.
+ */
+public class ShardBacklog {
+    private final String shardId;
+    private final String subscriptionId;
+    private final long backlog;
+    private final double messageRate;
+    private final long scanInterval;
+
+    /**
+     * @param backlog the estimated number of messages waiting on the shard
+     * @param messageRate the number of messages per second found on the shard by recent scans
+     * @param scanInterval the current interval in milliseconds between two scans of the shard, in absence of
+     *                     processor notifications
+     */
+    public ShardBacklog(String shardId, String subscriptionId, long backlog, double messageRate, long scanInterval) {
+        this.shardId = shardId;
+        this.subscriptionId = subscriptionId;
+        this.backlog = backlog;
+        this.messageRate = messageRate;
+        this.scanInterval = scanInterval;
+    }
+
+    public String getShardId() {
+        return shardId;
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public long getBacklog() {
+        return backlog;
+    }
+
+    public double getMessageRate() {
+        return messageRate;
+    }
+
+    public long getScanInterval() {
+        return scanInterval;
+    }
+}
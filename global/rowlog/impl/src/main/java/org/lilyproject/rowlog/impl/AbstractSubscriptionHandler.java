@@ -15,18 +15,29 @@
  */
 package org.lilyproject.rowlog.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.lilyproject.rowlog.api.*;
 import org.lilyproject.util.Logs;
 
 public abstract class AbstractSubscriptionHandler implements SubscriptionHandler {
+    /**
+     * Maximum number of messages of one row which are handed to a listener at once.
+     */
+    private static final int MAX_COALESCED_MESSAGES = 100;
+
     protected final RowLog rowLog;
     protected final String rowLogId;
     protected final String subscriptionId;
     protected final MessagesWorkQueue messagesWorkQueue;
     private Log log = LogFactory.getLog(AbstractSubscriptionHandler.class);
 	private SubscriptionHandlerMetrics metrics;
+    private volatile boolean coalesceRowMessages = false;
     
     public AbstractSubscriptionHandler(String subscriptionId, MessagesWorkQueue messagesWorkQueue, RowLog rowLog) {
         this.rowLog = rowLog;
@@ -36,6 +47,14 @@ public abstract class AbstractSubscriptionHandler implements SubscriptionHandler
         this.metrics = new SubscriptionHandlerMetrics(rowLog.getId() + "_" + subscriptionId);
     }
 
+    /**
+     * When enabled, all outstanding messages for the row of a message are given at once to the listener,
+     * see {@link RowLogBatchMessageListener}.
+     */
+    public void setCoalesceRowMessages(boolean coalesceRowMessages) {
+        this.coalesceRowMessages = coalesceRowMessages;
+    }
+
     /**
      * Called once on the setup of a worker, thus the WorkerDelegate is suited for keeping any
      * per-worker state. Since a worker only processes one message at a time, this means per-message
@@ -46,6 +65,14 @@ public abstract class AbstractSubscriptionHandler implements SubscriptionHandler
     protected static interface WorkerDelegate {
         boolean processMessage(RowLogMessage message) throws RowLogException, InterruptedException;
 
+        /**
+         * Processes several messages of the same row, see {@link RowLogMessageListeners#processMessages}.
+         *
+         * @return the messages which have been processed
+         */
+        List<RowLogMessage> processMessages(List<RowLogMessage> messages) throws RowLogException,
+                InterruptedException;
+
         /**
          * Called when the worker is stopped.
          */
@@ -94,9 +121,16 @@ public abstract class AbstractSubscriptionHandler implements SubscriptionHandler
                             //   1) there is currently only one rowlog processor
                             //   2) the messagesWorkQueue take() and done() calls make sure messages for the same row are not given to multiple listeners at the same time
                             if (rowLog.isMessageAvailable(message, subscriptionId)) {
+                                List<RowLogMessage> rowMessages = coalesceRowMessages ? getRowMessages(message) : null;
+                                List<RowLogMessage> processedMessages = null;
                                 boolean processMessageResult = false;
                                 try {
-                                    processMessageResult = delegate.processMessage(message);
+                                    if (rowMessages != null) {
+                                        processedMessages = delegate.processMessages(rowMessages);
+                                        processMessageResult = processedMessages.size() == rowMessages.size();
+                                    } else {
+                                        processMessageResult = delegate.processMessage(message);
+                                    }
                                 } catch (RemoteListenerIOException e) {
                                     metrics.ioExceptionRate.inc();
                                     // Logging to info to avoid log-flooding in case of network connection problems
@@ -106,9 +140,18 @@ public abstract class AbstractSubscriptionHandler implements SubscriptionHandler
                                 }
                                 if (processMessageResult) {
                                 	metrics.successRate.inc();
-                                    rowLog.messageDone(message, subscriptionId);
+                                    if (rowMessages != null) {
+                                        metrics.coalescedRate.inc(rowMessages.size() - 1);
+                                        rowLog.messagesDone(rowMessages, subscriptionId);
+                                    } else {
+                                        rowLog.messageDone(message, subscriptionId);
+                                    }
                                 } else {
                                 	metrics.failureRate.inc();
+                                    if (processedMessages != null && !processedMessages.isEmpty()) {
+                                        // Only the failed messages of the row will be offered again
+                                        rowLog.messagesDone(processedMessages, subscriptionId);
+                                    }
                                 }
                             } else {
                                 if (log.isDebugEnabled()) {
@@ -131,4 +174,42 @@ public abstract class AbstractSubscriptionHandler implements SubscriptionHandler
             }
         }
     }
+
+    /**
+     * Returns the outstanding messages for the row of the given message, ordered by sequence number, or
+     * null if there are no other messages for the row which can be processed together with it.
+     */
+    private List<RowLogMessage> getRowMessages(RowLogMessage message) throws RowLogException {
+        List<RowLogMessage> messages = rowLog.getMessages(message.getRowKey(), subscriptionId);
+        if (messages.size() < 2) {
+            return null;
+        }
+        Collections.sort(messages, SEQNR_COMPARATOR);
+
+        boolean respectOrder = rowLog.getConfig().isRespectOrder();
+        List<RowLogMessage> rowMessages = new ArrayList<RowLogMessage>();
+        for (RowLogMessage rowMessage : messages) {
+            if (rowMessages.size() >= MAX_COALESCED_MESSAGES) {
+                break;
+            }
+            if (respectOrder && !rowMessage.equals(message) && !rowLog.isMessageAvailable(rowMessage, subscriptionId)) {
+                // A previous subscription still needs to process this message
+                break;
+            }
+            rowMessages.add(rowMessage);
+        }
+
+        // The message we took from the queue should be part of it, since the caller will mark it done
+        if (rowMessages.size() < 2 || !rowMessages.contains(message)) {
+            return null;
+        }
+        return rowMessages;
+    }
+
+    private static final Comparator<RowLogMessage> SEQNR_COMPARATOR = new Comparator<RowLogMessage>() {
+        @Override
+        public int compare(RowLogMessage o1, RowLogMessage o2) {
+            return o1.getSeqNr() < o2.getSeqNr() ? -1 : (o1.getSeqNr() == o2.getSeqNr() ? 0 : 1);
+        }
+    };
 }
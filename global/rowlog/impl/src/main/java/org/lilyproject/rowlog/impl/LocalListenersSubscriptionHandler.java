@@ -15,6 +15,9 @@
  */
 package org.lilyproject.rowlog.impl;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.lilyproject.rowlog.api.*;
 
 public class LocalListenersSubscriptionHandler extends AbstractListenersSubscriptionHandler {
@@ -38,6 +41,15 @@ public class LocalListenersSubscriptionHandler extends AbstractListenersSubscrip
             return listener.processMessage(message);
         }
 
+        @Override
+        public List<RowLogMessage> processMessages(List<RowLogMessage> messages) throws RowLogException,
+                InterruptedException {
+            RowLogMessageListener listener = RowLogMessageListenerMapping.INSTANCE.get(subscriptionId);
+            if (listener == null)
+                return Collections.emptyList();
+            return RowLogMessageListeners.processMessages(listener, messages);
+        }
+
         @Override
         public void close() {
         }
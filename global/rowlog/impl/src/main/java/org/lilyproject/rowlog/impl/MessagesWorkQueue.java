@@ -15,123 +15,41 @@
  */
 package org.lilyproject.rowlog.impl;
 
-import java.util.*;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
 import org.lilyproject.rowlog.api.RowLogMessage;
-import org.lilyproject.util.ByteArrayKey;
 
-public class MessagesWorkQueue {
-    private final int maxMessages;
-    
-    private final List<RowLogMessage> messageList;
-    
-    private final Set<RowLogMessage> messagesWorkingOn = new HashSet<RowLogMessage>();
+/**
+ * Buffer of messages to be dispatched to the listeners of a subscription, filled by the rowlog processor.
+ *
+ * <p>Implementations guarantee that no two messages of the same row are handed out at the same time: a message
+ * for a row is only returned by {@link #take()} once the previous message for that row has been {@link #done}.
+ */
+public interface MessagesWorkQueue {
+    int DEFAULT_REFILL_THRESHOLD = 5;
 
-    private final Set<ByteArrayKey> rowsWorkingOn = new HashSet<ByteArrayKey>();
-    
     /**
-     * This lock must be obtained by anyone modifying the above lists, or of course when waiting/signalling
-     * the conditions associated with this lock.
+     * Adds a message to the queue, blocks while the queue is full.
      */
-    private final Lock lock = new ReentrantLock();
-
-    private final Condition notFull  = lock.newCondition();
-
-    private final Condition notEmpty = lock.newCondition();
+    void offer(RowLogMessage message) throws InterruptedException;
 
     /**
-     * If the queue contains less than this amount of messages, we'll notify that we want some fresh messages.
+     * Calling take() should always be matched by corresponding done() call.
      */
-    private final int refillThreshold = 5;
-
-    private final Object refillTrigger = new Object();
-
-    public MessagesWorkQueue(int size) {
-        this.maxMessages = size;
-        this.messageList = new LinkedList<RowLogMessage>();
-    }
+    RowLogMessage take() throws InterruptedException;
 
-    public void offer(RowLogMessage message) throws InterruptedException {
-        lock.lock();
-        try {
-            while (messageList.size() >= maxMessages) {
-                notFull.await();
-            }
-            messageList.add(message);
-            notEmpty.signal();
-        } finally {
-            lock.unlock();
-        }
-    }
+    void done(RowLogMessage message);
 
     /**
-     * Calling take() should always be matched by corresponding done() call.
+     * The number of messages in the queue, not counting the messages which are being worked on.
      */
-    public RowLogMessage take() throws InterruptedException {
-        lock.lock();
-        try {
-            while (true) {
-                while (messageList.isEmpty()) {
-                    notEmpty.await();
-                }
-
-                Iterator<RowLogMessage> messages = messageList.iterator();
-                while (messages.hasNext()) {
-                    RowLogMessage message = messages.next();
-                    ByteArrayKey row = new ByteArrayKey(message.getRowKey());
-                    if (messagesWorkingOn.contains(message)) {
-                        messages.remove();
-                        afterMessageRemoval();
-                    } else if (!rowsWorkingOn.contains(row)) {
-                        messages.remove();
-                        afterMessageRemoval();
-                        messagesWorkingOn.add(message);
-                        rowsWorkingOn.add(row);
-                        return message;
-                    }
-                }
+    int size();
 
-                // The messages list is not empty, but only contains messages for rows on which we are already working
-                notEmpty.await();
-            }
-        } finally {
-            lock.unlock();
-        }
-    }
-
-    private void afterMessageRemoval() {
-        notFull.signal();
-        if (messageList.size() <= refillThreshold) {
-            synchronized (refillTrigger) {
-                refillTrigger.notifyAll();
-            }
-        }
-    }
-    
-    public void done(RowLogMessage message) {
-        lock.lock();
-        try {
-            messagesWorkingOn.remove(message);
-            if (rowsWorkingOn.remove(new ByteArrayKey(message.getRowKey()))) {
-                notEmpty.signal();
-            }
-        } finally {
-            lock.unlock();
-        }
-    }
-    
-    public int size() {
-    	return messageList.size();
-    }
+    /**
+     * Sets the number of messages below which the queue wants to be refilled, see {@link #waitOnRefillThreshold}.
+     */
+    void setRefillThreshold(int refillThreshold);
 
-    public void waitOnRefillThreshold() throws InterruptedException {
-        synchronized (refillTrigger) {
-            while (messageList.size() > refillThreshold) {
-                refillTrigger.wait();
-            }
-        }
-    }
+    /**
+     * Blocks until the queue has drained to the point where it makes sense to look for new messages.
+     */
+    void waitOnRefillThreshold() throws InterruptedException;
 }
@@ -15,12 +15,18 @@
  */
 package org.lilyproject.rowlog.impl;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.hadoop.hbase.metrics.MetricsRate;
 import org.apache.hadoop.metrics.MetricsContext;
 import org.apache.hadoop.metrics.MetricsRecord;
 import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
+import org.apache.hadoop.metrics.util.MetricsLongValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
@@ -40,12 +46,32 @@ public class ProcessorMetrics implements Updater {
 
     public MetricsTimeVaryingRate scanDuration = new MetricsTimeVaryingRate("scan_duration", registry);
 
+    /** Duration of the scan of one shard. */
+    public MetricsTimeVaryingRate shardScanDuration = new MetricsTimeVaryingRate("shard_scan_duration", registry);
+
+    /** Time until the first shard responded, from then on messages are put on the work queue. */
+    public MetricsTimeVaryingRate firstShardDuration = new MetricsTimeVaryingRate("first_shard_duration", registry);
+
+    /** Time between the response of the first shard and the end of merging the messages of all shards. */
+    public MetricsTimeVaryingRate mergeDuration = new MetricsTimeVaryingRate("merge_duration", registry);
+
     public MetricsNonTimeRate messagesPerScan = new MetricsNonTimeRate("messagesPerScan", registry);
 
     public MetricsRate wakeups = new MetricsRate("wakeups_rate", registry);
 
-    public ProcessorMetrics(String subscriptionId) {
+    /** Number of shards scanned per scan, idle shards are scanned less often. */
+    public MetricsNonTimeRate shardsPerScan = new MetricsNonTimeRate("shardsPerScan", registry);
+
+    public MetricsIntValue refillThreshold = new MetricsIntValue("refill_threshold", registry);
+
+    /** Estimated backlog per shard, key = shard id. */
+    public final Map<String, MetricsLongValue> shardBacklogs = new HashMap<String, MetricsLongValue>();
+
+    public ProcessorMetrics(String subscriptionId, List<String> shardIds) {
         this.subscriptionId = subscriptionId;
+        for (String shardId : shardIds) {
+            shardBacklogs.put(shardId, new MetricsLongValue("backlog_" + shardId, registry));
+        }
         context = MetricsUtil.getContext("rowlog");
         metricsRecord = MetricsUtil.createRecord(context, subscriptionId);
         context.registerUpdater(this);
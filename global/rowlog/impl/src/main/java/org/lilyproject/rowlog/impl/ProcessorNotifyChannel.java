@@ -0,0 +1,283 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.lilyproject.util.Logs;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+
+/**
+ * Delivers rowlog processor notifications through UDP rather than through a write on ZooKeeper.
+ *
+ * <p>Each rowlog processor advertises a UDP endpoint as an ephemeral node
+ * /lily/rowlog/[rowlog id]/processorNotifyEndpoints/[host]:[port]. A notification is a single datagram
+ * containing the time it was sent and the rowlog id, sent to each of the endpoints of the rowlog (there can
+ * be several when the processing is distributed, see {@link RowLogShardLeases}).
+ *
+ * <p>Datagrams can get lost, but so can ZooKeeper notifications: the processor does not rely on them and
+ * periodically checks for messages anyway, see {@link org.lilyproject.rowlog.api.RowLogConfig#getWakeupTimeout()}.
+ *
+ * <p>During a rolling upgrade, processors running an older Lily version advertise no endpoint. As long as no
+ * processor of the rowlog advertised one, the notifications go through ZooKeeper as before. Once a newer
+ * processor advertised its endpoint, only that one is notified, the older processors then only check for
+ * messages after the wakeup timeout until they are upgraded as well.
+ */
+public class ProcessorNotifyChannel {
+    private final ZooKeeperItf zk;
+    private final String rowLogPath;
+    private final String hostName;
+    private final Receiver receiver;
+    private final ProcessorNotifyMetrics metrics;
+    private DatagramSocket receiveSocket;
+    private Thread receiveThread;
+    private DatagramSocket sendSocket;
+    private volatile String ownEndpoint;
+    private final Map<String, String> advertisedPaths = new ConcurrentHashMap<String, String>();
+    private final Map<String, List<InetSocketAddress>> endpoints = new ConcurrentHashMap<String, List<InetSocketAddress>>();
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * Callback for the notifications received on this node.
+     */
+    public interface Receiver {
+        void notificationReceived(String rowLogId);
+    }
+
+    /**
+     * @param hostName the host name to bind the receiving socket to. If null, this channel can only be used
+     *                 for sending notifications.
+     */
+    public ProcessorNotifyChannel(ZooKeeperItf zk, String rowLogPath, String hostName, Receiver receiver,
+            ProcessorNotifyMetrics metrics) {
+        this.zk = zk;
+        this.rowLogPath = rowLogPath;
+        this.hostName = hostName;
+        this.receiver = receiver;
+        this.metrics = metrics;
+    }
+
+    public synchronized void close() throws InterruptedException {
+        for (String rowLogId : new ArrayList<String>(advertisedPaths.keySet())) {
+            unadvertise(rowLogId);
+        }
+        if (receiveSocket != null) {
+            // Closing the socket makes the receive thread end
+            receiveSocket.close();
+            receiveSocket = null;
+            Logs.logThreadJoin(receiveThread);
+            receiveThread.join();
+        }
+        if (sendSocket != null) {
+            sendSocket.close();
+            sendSocket = null;
+        }
+    }
+
+    /**
+     * Makes the notifications for the given rowlog arrive at this node. Does nothing when no host name
+     * was given.
+     */
+    public synchronized void advertise(String rowLogId) throws InterruptedException, KeeperException {
+        if (hostName == null || advertisedPaths.containsKey(rowLogId)) {
+            return;
+        }
+
+        if (receiveSocket == null) {
+            try {
+                receiveSocket = new DatagramSocket(new InetSocketAddress(hostName, 0));
+            } catch (SocketException e) {
+                log.warn("Could not open processor notify socket on " + hostName + ", will rely on ZooKeeper for "
+                        + "the notifications.", e);
+                return;
+            }
+            ownEndpoint = hostName + ":" + receiveSocket.getLocalPort();
+            receiveThread = new Thread(new ReceiveLoop(receiveSocket), "RowLog processor notify receiver");
+            receiveThread.setDaemon(true);
+            receiveThread.start();
+        }
+
+        String parentPath = endpointsPath(rowLogId);
+        ZkUtil.createPath(zk, parentPath);
+        String path = parentPath + "/" + ownEndpoint;
+        try {
+            zk.create(path, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        } catch (KeeperException.NodeExistsException e) {
+            // ok
+        }
+        advertisedPaths.put(rowLogId, path);
+    }
+
+    public synchronized void unadvertise(String rowLogId) throws InterruptedException {
+        String path = advertisedPaths.remove(rowLogId);
+        if (path != null) {
+            try {
+                zk.delete(path, -1);
+            } catch (KeeperException e) {
+                // NoNode, or the ephemeral node will disappear together with our session
+                log.debug("Error removing processor notify endpoint " + path, e);
+            }
+        }
+    }
+
+    /**
+     * Sends a notification to the processors of the given rowlog running on other nodes.
+     *
+     * @return false if no such processors are known
+     */
+    public boolean send(String rowLogId) throws InterruptedException {
+        List<InetSocketAddress> addresses;
+        try {
+            addresses = getEndpoints(rowLogId);
+        } catch (KeeperException e) {
+            log.debug("Error getting processor notify endpoints for rowlog " + rowLogId, e);
+            return false;
+        }
+        if (addresses.isEmpty()) {
+            return false;
+        }
+
+        byte[] rowLogIdBytes = Bytes.toBytes(rowLogId);
+        byte[] message = new byte[Bytes.SIZEOF_LONG + rowLogIdBytes.length];
+        Bytes.putLong(message, 0, System.currentTimeMillis());
+        System.arraycopy(rowLogIdBytes, 0, message, Bytes.SIZEOF_LONG, rowLogIdBytes.length);
+
+        try {
+            DatagramSocket socket = getSendSocket();
+            for (InetSocketAddress address : addresses) {
+                socket.send(new DatagramPacket(message, message.length, address));
+                metrics.udpSent.inc();
+            }
+        } catch (IOException e) {
+            log.debug("Error sending processor notification for rowlog " + rowLogId, e);
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized DatagramSocket getSendSocket() throws SocketException {
+        if (sendSocket == null) {
+            sendSocket = new DatagramSocket();
+        }
+        return sendSocket;
+    }
+
+    /**
+     * Returns the endpoints of the processors of the given rowlog, except for our own, which is notified
+     * directly.
+     */
+    private List<InetSocketAddress> getEndpoints(final String rowLogId) throws InterruptedException, KeeperException {
+        List<InetSocketAddress> addresses = endpoints.get(rowLogId);
+        if (addresses != null) {
+            return addresses;
+        }
+
+        String path = endpointsPath(rowLogId);
+        Watcher watcher = new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getType() != Event.EventType.None) {
+                    endpoints.remove(rowLogId);
+                }
+            }
+        };
+
+        List<String> children;
+        try {
+            children = zk.getChildren(path, watcher);
+        } catch (KeeperException.NoNodeException e) {
+            // No processor advertised an endpoint yet, we'll be notified when the path is created
+            if (zk.exists(path, watcher) != null) {
+                return getEndpoints(rowLogId);
+            }
+            children = Collections.emptyList();
+        }
+
+        addresses = new ArrayList<InetSocketAddress>(children.size());
+        for (String child : children) {
+            if (child.equals(ownEndpoint)) {
+                continue;
+            }
+            int colonPos = child.lastIndexOf(':');
+            try {
+                addresses.add(new InetSocketAddress(child.substring(0, colonPos),
+                        Integer.parseInt(child.substring(colonPos + 1))));
+            } catch (RuntimeException e) {
+                log.warn("Invalid processor notify endpoint for rowlog " + rowLogId + ": " + child);
+            }
+        }
+        endpoints.put(rowLogId, addresses);
+        return addresses;
+    }
+
+    private String endpointsPath(String rowLogId) {
+        return rowLogPath + "/" + rowLogId + "/processorNotifyEndpoints";
+    }
+
+    private class ReceiveLoop implements Runnable {
+        private final DatagramSocket socket;
+
+        public ReceiveLoop(DatagramSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[512];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (!socket.isClosed()) {
+                try {
+                    packet.setLength(buffer.length);
+                    socket.receive(packet);
+                    if (packet.getLength() <= Bytes.SIZEOF_LONG) {
+                        continue;
+                    }
+                    long sent = Bytes.toLong(buffer, 0);
+                    String rowLogId = Bytes.toString(buffer, Bytes.SIZEOF_LONG, packet.getLength() - Bytes.SIZEOF_LONG);
+                    metrics.udpReceived.inc();
+                    // Between hosts, this includes the clock skew
+                    metrics.notifyLatency.inc(Math.max(System.currentTimeMillis() - sent, 0));
+                    receiver.notificationReceived(rowLogId);
+                } catch (IOException e) {
+                    if (!socket.isClosed()) {
+                        log.warn("Error receiving processor notification", e);
+                    }
+                } catch (Throwable t) {
+                    log.error("Error handling processor notification", t);
+                }
+            }
+        }
+    }
+}
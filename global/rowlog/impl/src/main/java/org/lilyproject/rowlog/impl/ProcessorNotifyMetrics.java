@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.hbase.metrics.MetricsRate;
+import org.apache.hadoop.metrics.MetricsContext;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.MetricsUtil;
+import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+import org.lilyproject.util.hbase.metrics.MBeanUtil;
+import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+
+/**
+ * Metrics on the notifications sent to the rowlog processors, see {@link ProcessorNotifyChannel}.
+ */
+public class ProcessorNotifyMetrics implements Updater {
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final MetricsRecord metricsRecord;
+    private final ProcessorNotifyMetricsMXBean mbean;
+    private final MetricsContext context;
+
+    /** Time between sending a notification and its arrival at the processor. */
+    public MetricsTimeVaryingRate notifyLatency = new MetricsTimeVaryingRate("notify_latency", registry);
+
+    /** Notifications delivered by calling a processor running in the same JVM. */
+    public MetricsRate directNotifies = new MetricsRate("direct_notifies_rate", registry);
+
+    public MetricsRate udpSent = new MetricsRate("udp_sent_rate", registry);
+
+    public MetricsRate udpReceived = new MetricsRate("udp_received_rate", registry);
+
+    /** Notifications which fell back to ZooKeeper, because no processor endpoint was known. */
+    public MetricsRate zkNotifies = new MetricsRate("zk_notifies_rate", registry);
+
+    public ProcessorNotifyMetrics() {
+        context = MetricsUtil.getContext("rowlog");
+        metricsRecord = MetricsUtil.createRecord(context, "processorNotify");
+        context.registerUpdater(this);
+        mbean = new ProcessorNotifyMetricsMXBean(this.registry);
+    }
+
+    public void shutdown() {
+        context.unregisterUpdater(this);
+        mbean.shutdown();
+    }
+
+    @Override
+    public void doUpdates(MetricsContext metricsContext) {
+        synchronized (this) {
+          for (MetricsBase m : registry.getMetricsList()) {
+            m.pushMetric(metricsRecord);
+          }
+        }
+        metricsRecord.update();
+    }
+
+    public class ProcessorNotifyMetricsMXBean extends MetricsDynamicMBeanBase {
+        private final ObjectName mbeanName;
+
+        public ProcessorNotifyMetricsMXBean(MetricsRegistry registry) {
+            super(registry, "Lily Row Log Processor Notify");
+
+            mbeanName = MBeanUtil.registerMBean("Row Log Processor Notify", "processorNotify", this);
+        }
+
+        public void shutdown() {
+            if (mbeanName != null)
+                MBeanUtil.unregisterMBean(mbeanName);
+        }
+    }
+}
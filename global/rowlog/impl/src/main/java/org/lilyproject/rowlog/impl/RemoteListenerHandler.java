@@ -16,7 +16,12 @@
 package org.lilyproject.rowlog.impl;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,7 +40,24 @@ import org.jboss.netty.handler.codec.frame.FrameDecoder;
 import org.lilyproject.rowlog.api.*;
 import org.lilyproject.util.concurrent.CustomThreadFactory;
 
+/**
+ * Receives the messages sent by the {@link RemoteListenersSubscriptionHandler} and hands them over to
+ * the listener.
+ *
+ * <p>A frame can contain several requests, each identified by a request id. A request consists of one message,
+ * or of several messages of the same row when the rowlog processor coalesces messages (these are handed
+ * at once to a {@link RowLogBatchMessageListener}). The requests are processed concurrently by a pool of
+ * processing threads, and a result (request id + a boolean for each message) is sent back for each request as
+ * soon as it has been processed, thus not necessarily in the order the requests were received. The sending side makes
+ * sure that no two requests for the same row are in flight at the same time.
+ */
 public class RemoteListenerHandler {
+    /**
+     * The default number of processing threads, the sending side has at most as many messages in flight (see
+     * {@link RowLogProcessorSettings#getRemoteListenerMaxInFlight()}), so more threads would not be used.
+     */
+    public static final int DEFAULT_PROCESSING_THREADS = RemoteListenersSubscriptionHandler.DEFAULT_MAX_IN_FLIGHT;
+
     private final Log log = LogFactory.getLog(getClass());
     private final RowLogMessageListener rowLogMessageListener;
     private ServerBootstrap bootstrap;
@@ -46,14 +68,26 @@ public class RemoteListenerHandler {
     private final String subscriptionId;
     private final RowLogConfigurationManager rowLogConfMgr;
     private final String hostName;
+    private final ExecutorService processingExecutor;
 
     public RemoteListenerHandler(RowLog rowLog, String subscriptionId, RowLogMessageListener rowLogMessageListener,
             RowLogConfigurationManager rowLogConfMgr, String hostName) throws RowLogException {
+        this(rowLog, subscriptionId, rowLogMessageListener, rowLogConfMgr, hostName, DEFAULT_PROCESSING_THREADS);
+    }
+
+    /**
+     * @param processingThreads the number of threads which concurrently call the rowLogMessageListener
+     */
+    public RemoteListenerHandler(RowLog rowLog, String subscriptionId, RowLogMessageListener rowLogMessageListener,
+            RowLogConfigurationManager rowLogConfMgr, String hostName, int processingThreads) throws RowLogException {
         this.rowLog = rowLog;
         this.subscriptionId = subscriptionId;
         this.rowLogMessageListener = rowLogMessageListener;
         this.rowLogConfMgr = rowLogConfMgr;
         this.hostName = hostName;
+        this.processingExecutor = Executors.newFixedThreadPool(processingThreads < 1 ? 1 : processingThreads,
+                new CustomThreadFactory("rowlog-listener-" + rowLog.getId() + "-processor",
+                        new ThreadGroup("RowLogListenerProcessor_" + subscriptionId)));
         bootstrap = new ServerBootstrap(
                 new NioServerSocketChannelFactory(
                         Executors.newCachedThreadPool(
@@ -67,8 +101,8 @@ public class RemoteListenerHandler {
             public ChannelPipeline getPipeline() throws Exception {
                 ChannelPipeline pipeline = Channels.pipeline();
                 pipeline.addLast("messageDecoder", new MessageDecoder()); // Read enough bytes
-                pipeline.addLast("rowLogMessageDecoder", new RowLogMessageDecoder()); // Decode the bytes into a RowLogMessage
-                pipeline.addLast("messageHandler", new MessageHandler()); // Handle the RowLogMessage
+                pipeline.addLast("rowLogMessageDecoder", new RowLogMessageDecoder()); // Decode the bytes into RowLogMessages
+                pipeline.addLast("messageHandler", new MessageHandler()); // Handle each RowLogMessage
                 pipeline.addLast("resultEncoder", new ResultEncoder()); // Encode the result
                 return pipeline;
             }
@@ -93,6 +127,12 @@ public class RemoteListenerHandler {
 
         bootstrap.releaseExternalResources();
 
+        processingExecutor.shutdownNow();
+        if (!processingExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+            log.warn("Processing threads did not terminate. Row log ID " + rowLog.getId() + ", subscription ID " +
+                    subscriptionId);
+        }
+
         if (listenerId != null) {
             try {
                 rowLogConfMgr.removeListener(rowLog.getId(), subscriptionId, listenerId);
@@ -149,53 +189,102 @@ public class RemoteListenerHandler {
         }
     }
     
+    /**
+     * Decodes a frame: request-count, followed by (request-id + message-count) for each request, each followed
+     * by (timestamp + rowkey-length + rowkey + seqnr + data-length + data) for each message of the request.
+     */
     private class RowLogMessageDecoder extends SimpleChannelUpstreamHandler {
         @Override
         public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
             ChannelBufferInputStream inputStream = new ChannelBufferInputStream((ChannelBuffer)e.getMessage());
-            
-            long timestamp = inputStream.readLong();
-            
-            int rowKeyLength = inputStream.readInt();
-            byte[] rowKey = new byte[rowKeyLength];
-            inputStream.readFully(rowKey, 0, rowKeyLength);
-            
-            long seqnr = inputStream.readLong();
-            
-            int dataLength = inputStream.readInt();
-            byte[] data = null;
-            if (dataLength > 0) {
-                data = new byte[dataLength];
-                inputStream.readFully(data, 0, dataLength);
+
+            int requestCount = inputStream.readInt();
+            for (int i = 0; i < requestCount; i++) {
+                long requestId = inputStream.readLong();
+                int messageCount = inputStream.readInt();
+                List<RowLogMessage> messages = new ArrayList<RowLogMessage>(messageCount);
+                for (int j = 0; j < messageCount; j++) {
+                    long timestamp = inputStream.readLong();
+
+                    int rowKeyLength = inputStream.readInt();
+                    byte[] rowKey = new byte[rowKeyLength];
+                    inputStream.readFully(rowKey, 0, rowKeyLength);
+
+                    long seqnr = inputStream.readLong();
+
+                    int dataLength = inputStream.readInt();
+                    byte[] data = null;
+                    if (dataLength > 0) {
+                        data = new byte[dataLength];
+                        inputStream.readFully(data, 0, dataLength);
+                    }
+                    messages.add(new RowLogMessageImpl(timestamp, rowKey, seqnr, data, rowLog));
+                }
+                Channels.fireMessageReceived(ctx, new RemoteRequest(requestId, messages)); // Give the messages to the MessageHandler
             }
             inputStream.close();
-            RowLogMessage rowLogMessage = new RowLogMessageImpl(timestamp, rowKey, seqnr, data, rowLog);
-            Channels.fireMessageReceived(ctx, rowLogMessage); // Give the message to the MessageHandler
         }
     }
-    
+
+    private static class RemoteRequest {
+        private final long requestId;
+        private final List<RowLogMessage> messages;
+
+        public RemoteRequest(long requestId, List<RowLogMessage> messages) {
+            this.requestId = requestId;
+            this.messages = messages;
+        }
+    }
+
     private class MessageHandler extends SimpleChannelUpstreamHandler {
         @Override
         public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-            RowLogMessage message = (RowLogMessage)e.getMessage();
-            boolean result = rowLogMessageListener.processMessage(message);
-            writeResult(e.getChannel(), result, message);
+            final RemoteRequest request = (RemoteRequest)e.getMessage();
+            final Channel channel = e.getChannel();
+            // Process the message outside of the IO thread, so that the next messages can be read in the meantime
+            processingExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean[] result = new boolean[request.messages.size()];
+                    try {
+                        if (request.messages.size() == 1) {
+                            result[0] = rowLogMessageListener.processMessage(request.messages.get(0));
+                        } else {
+                            List<RowLogMessage> processed =
+                                    RowLogMessageListeners.processMessages(rowLogMessageListener, request.messages);
+                            for (int i = 0; i < result.length; i++) {
+                                result[i] = processed.contains(request.messages.get(i));
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        // Shutting down, the client will retry the message
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (Throwable t) {
+                        // Report the failure for this message only, the other messages in flight on the channel
+                        // are not affected.
+                        log.warn("Exception in MessageHandler while processing message", t);
+                    }
+                    writeResult(channel, request.requestId, result, request.messages.get(0));
+                }
+            });
         }
 
-        private void writeResult(Channel channel, boolean result, RowLogMessage message) throws InterruptedException {
+        private void writeResult(Channel channel, long requestId, boolean[] result, RowLogMessage message) {
             if (channel.isOpen()) {
-                channel.write(Boolean.valueOf(result)).await();
+                channel.write(new RemoteResult(requestId, result));
             } else {
-                log.warn("Failed to send processing result '"+result+"' for message '"+message+"' due to closed channel.");
+                log.warn("Failed to send processing result '" + Arrays.toString(result) + "' for message '" + message +
+                        "' due to closed channel.");
             }
         }
         
         @Override
         public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
-            log.warn("Exception in MessageHandler while processing message", e.getCause());
-            // We won't retry sending the result to avoid exception-loops
+            log.warn("Exception in MessageHandler while receiving messages", e.getCause());
+            // We won't retry sending the results to avoid exception-loops
             // Instead, close the channel so that the client channel gets closed as well.
-            // The client (RemoteListenersSubscriptionHandler) will then retry to set up the channel and send the message 
+            // The client (RemoteListenersSubscriptionHandler) will then retry to set up the channel and send the messages
             e.getChannel().close();
         }
         
@@ -209,9 +298,14 @@ public class RemoteListenerHandler {
     private class ResultEncoder extends SimpleChannelDownstreamHandler {
         @Override
         public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-            Boolean result = (Boolean)e.getMessage();
-            ChannelBuffer channelBuffer = ChannelBuffers.buffer(Bytes.SIZEOF_BOOLEAN);
-            channelBuffer.writeBytes(Bytes.toBytes(result));
+            RemoteResult result = (RemoteResult)e.getMessage();
+            ChannelBuffer channelBuffer = ChannelBuffers.buffer(Bytes.SIZEOF_LONG + Bytes.SIZEOF_INT +
+                    result.result.length * Bytes.SIZEOF_BOOLEAN);
+            channelBuffer.writeLong(result.requestId);
+            channelBuffer.writeInt(result.result.length);
+            for (boolean messageResult : result.result) {
+                channelBuffer.writeBytes(Bytes.toBytes(messageResult));
+            }
             Channels.write(ctx, e.getFuture(), channelBuffer);
         }
     }
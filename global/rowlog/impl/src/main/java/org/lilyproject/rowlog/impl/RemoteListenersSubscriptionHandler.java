@@ -16,10 +16,17 @@
 package org.lilyproject.rowlog.impl;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,125 +42,293 @@ import org.lilyproject.rowlog.api.*;
 import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.io.Closer;
 
+/**
+ * Dispatches the messages of a subscription to remote listeners (see {@link RemoteListenerHandler}).
+ *
+ * <p>All workers for the same remote listener share one channel. Each request (a message, or the coalesced
+ * messages of one row) is sent with a request id, so that multiple requests can be in flight on the channel and
+ * their results can be returned in any order. Requests which are sent concurrently by the workers are grouped
+ * into one frame (up to maxBatchSize requests), the remote listener acknowledges each request individually.
+ */
 public class RemoteListenersSubscriptionHandler extends AbstractListenersSubscriptionHandler {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 50;
+
     private Log log = LogFactory.getLog(getClass());
     private ClientBootstrap bootstrap;
     private NioClientSocketChannelFactory channelFactory;
-    private Map<Integer, RemoteWorkerDelegate> workerDelegates = new ConcurrentHashMap<Integer, RemoteWorkerDelegate>();
+    private final int maxInFlight;
+    private final int maxBatchSize;
+    private final Map<String, ListenerConnection> connections = new ConcurrentHashMap<String, ListenerConnection>();
+    private final Map<Integer, ListenerConnection> channelConnections = new ConcurrentHashMap<Integer, ListenerConnection>();
 
     public RemoteListenersSubscriptionHandler(String subscriptionId, MessagesWorkQueue messagesWorkQueue,
             RowLog rowLog, RowLogConfigurationManager rowLogConfigurationManager) {
+        this(subscriptionId, messagesWorkQueue, rowLog, rowLogConfigurationManager, DEFAULT_MAX_IN_FLIGHT,
+                DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param maxInFlight the maximum number of messages which are concurrently sent to one remote listener
+     * @param maxBatchSize the maximum number of messages to put in one frame
+     */
+    public RemoteListenersSubscriptionHandler(String subscriptionId, MessagesWorkQueue messagesWorkQueue,
+            RowLog rowLog, RowLogConfigurationManager rowLogConfigurationManager, int maxInFlight, int maxBatchSize) {
         super(subscriptionId, messagesWorkQueue, rowLog, rowLogConfigurationManager);
+        this.maxInFlight = maxInFlight < 1 ? 1 : maxInFlight;
+        this.maxBatchSize = maxBatchSize < 1 ? 1 : maxBatchSize;
         initBootstrap();
     }
 
+    @Override
+    protected int getWorkersPerListener() {
+        return maxInFlight;
+    }
+
     @Override
     protected WorkerDelegate createWorkerDelegate(String host) {
-        return new RemoteWorkerDelegate(host);
+        ListenerConnection connection;
+        synchronized (connections) {
+            connection = connections.get(host);
+            if (connection == null) {
+                connection = new ListenerConnection(host);
+                connections.put(host, connection);
+            }
+            connection.refCount++;
+        }
+        return new RemoteWorkerDelegate(connection);
+    }
+
+    private void releaseConnection(ListenerConnection connection) {
+        synchronized (connections) {
+            connection.refCount--;
+            if (connection.refCount == 0) {
+                connections.remove(connection.host);
+                connection.close();
+            }
+        }
     }
 
     private class RemoteWorkerDelegate implements WorkerDelegate {
-        private Boolean remoteProcessMessageResult = null;
-        private Throwable resultHandlerException = null;
-        private Semaphore semaphore = new Semaphore(0);
-        private Channel channel = null;
-        private String host;
+        private final ListenerConnection connection;
 
-        public RemoteWorkerDelegate(String host) {
-            this.host = host;
-            initBootstrap();
+        public RemoteWorkerDelegate(ListenerConnection connection) {
+            this.connection = connection;
         }
 
-        private Channel getListenerChannel(String host) throws RemoteListenerIOException, InterruptedException {
-            return getListenerChannel(host, 9);
+        /**
+         * Processes a message by sending the message to a remote listener.
+         * This method retries (5 times) until a communication channel has been successfully setup and a result has been received
+         * from the remote listener.
+         */
+        @Override
+        public boolean processMessage(RowLogMessage message) throws RowLogException, InterruptedException {
+            return !processMessages(Collections.singletonList(message), 4).isEmpty();
         }
 
-        private Channel getListenerChannel(String host, int triesRemaining) throws RemoteListenerIOException, InterruptedException {
-            String listenerHostAndPort[] = host.split(":");
-            ChannelFuture connectFuture = bootstrap.connect(new InetSocketAddress(listenerHostAndPort[0],
-                    Integer.valueOf(listenerHostAndPort[1])));
-            connectFuture.await();
-            if (connectFuture.isSuccess()) {
-                return connectFuture.getChannel();
-            } else {
+        /**
+         * Sends the messages as one request, the remote listener returns a result for each of the messages.
+         */
+        @Override
+        public List<RowLogMessage> processMessages(List<RowLogMessage> messages) throws RowLogException,
+                InterruptedException {
+            return processMessages(messages, 4);
+        }
+
+        public List<RowLogMessage> processMessages(List<RowLogMessage> messages, int triesRemaining)
+                throws RowLogException, InterruptedException {
+            RemoteRequest request = connection.send(messages);
+            if (request.result == null || request.error != null) {
                 if (triesRemaining > 0) {
+                    // Retry
+                    if (log.isInfoEnabled()) {
+                        log.info("Failed to process message. Retries remaining : " + triesRemaining, request.error);
+                    }
                     Thread.sleep(10);
-                    return getListenerChannel(host, triesRemaining - 1);
+                    return processMessages(messages, triesRemaining - 1);
                 } else {
-                    throw new RemoteListenerIOException("Failed to connect channel to remote listener on host '" + host + "'");
+                    throw new RemoteListenerIOException("Failure in sending message '" + messages.get(0) +
+                            "' to remote listener on host '" + connection.host + "'", request.error);
+                }
+            }
+            List<RowLogMessage> processed = new ArrayList<RowLogMessage>(messages.size());
+            for (int i = 0; i < messages.size() && i < request.result.length; i++) {
+                if (request.result[i]) {
+                    processed.add(messages.get(i));
                 }
             }
+            return processed;
         }
 
-        /**
-         * Processes a message by sending the message to a remote listener.
-         * This method retries (5 times) until a communication channel has been successfully setup and a result has been received
-         * from the remote listener.
-         */
         @Override
-        public boolean processMessage(RowLogMessage message) throws RowLogException, InterruptedException {
-            return processMessage(message, 4);
+        public void close() {
+            releaseConnection(connection);
         }
+    }
 
-        public boolean processMessage(RowLogMessage message, int triesRemaining) throws RowLogException,
-                InterruptedException {
+    /**
+     * One or more messages (of the same row) sent to a remote listener, waiting for their result.
+     */
+    private static class RemoteRequest {
+        private final long id;
+        private final List<RowLogMessage> messages;
+        private final CountDownLatch done = new CountDownLatch(1);
+        /** The result for each of the messages, null as long as no result has been received. */
+        private volatile boolean[] result;
+        private volatile Throwable error;
+
+        public RemoteRequest(long id, List<RowLogMessage> messages) {
+            this.id = id;
+            this.messages = messages;
+        }
+
+        public void succeeded(boolean[] result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        public void failed(Throwable error) {
+            this.error = error;
+            done.countDown();
+        }
+    }
+
+    /**
+     * The channel to one remote listener, shared by all workers for that listener.
+     */
+    private class ListenerConnection {
+        private final String host;
+        private int refCount = 0; // guarded by connections
+        private Channel channel;
+        private final AtomicLong requestIdCounter = new AtomicLong();
+        private final Map<Long, RemoteRequest> pendingRequests = new ConcurrentHashMap<Long, RemoteRequest>();
+        private final Queue<RemoteRequest> outgoingRequests = new ConcurrentLinkedQueue<RemoteRequest>();
+        private final AtomicBoolean flushing = new AtomicBoolean(false);
 
-            remoteProcessMessageResult = null;
-            resultHandlerException = null;
+        public ListenerConnection(String host) {
+            this.host = host;
+        }
+
+        /**
+         * Sends the messages and waits until their result has been received, or until the request failed.
+         */
+        public RemoteRequest send(List<RowLogMessage> messages) throws InterruptedException {
+            RemoteRequest request = new RemoteRequest(requestIdCounter.incrementAndGet(), messages);
+            pendingRequests.put(request.id, request);
             try {
-                if (channel == null || (!channel.isConnected())) {
-                    channel = getListenerChannel(host);
-                }
+                outgoingRequests.add(request);
+                flush();
+                request.done.await();
+                return request;
+            } finally {
+                pendingRequests.remove(request.id);
+                // In case the request got failed or interrupted before it was written
+                outgoingRequests.remove(request);
+            }
+        }
 
-                // We can associate 'this' directly with the channel, as we never handle more than one
-                // message at a time over a channel. If this ever changes, we should rather generate a per-request ID
-                workerDelegates.put(channel.getId(), this);
-
-                ChannelFuture writeFuture = channel.write(message);
-                writeFuture.await();
-                semaphore.acquire();
-                if (remoteProcessMessageResult == null || resultHandlerException != null) {
-                    if (triesRemaining > 0) {
-                        // Retry
-                        if (log.isInfoEnabled()) {
-                            log.info("Failed to process message. Retries remaining : " + triesRemaining,
-                                    resultHandlerException);
+        /**
+         * Writes the outgoing requests to the channel. Only one thread flushes at a time, requests which are
+         * added in the meantime are written in the next batch by that same thread.
+         */
+        private void flush() throws InterruptedException {
+            while (!outgoingRequests.isEmpty() && flushing.compareAndSet(false, true)) {
+                try {
+                    Channel channel;
+                    try {
+                        channel = getChannel();
+                    } catch (RemoteListenerIOException e) {
+                        RemoteRequest request;
+                        while ((request = outgoingRequests.poll()) != null) {
+                            request.failed(e);
                         }
-                        Thread.sleep(10);
-                        return processMessage(message, triesRemaining - 1);
-                    } else {
-                        throw new RemoteListenerIOException("Failure in sending message '" + message +
-                                "' to remote listener on host '" + host + "'", resultHandlerException);
+                        return;
+                    }
+
+                    List<RemoteRequest> batch = new ArrayList<RemoteRequest>();
+                    RemoteRequest request;
+                    while (batch.size() < maxBatchSize && (request = outgoingRequests.poll()) != null) {
+                        batch.add(request);
+                    }
+                    if (!batch.isEmpty()) {
+                        write(channel, batch);
                     }
+                } finally {
+                    flushing.set(false);
                 }
+            }
+        }
 
-                return remoteProcessMessageResult;
-            } catch (InterruptedException e) {
-                if (channel != null) {
-                    channel.close().awaitUninterruptibly();
+        private void write(Channel channel, final List<RemoteRequest> batch) {
+            channel.write(batch).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (!future.isSuccess()) {
+                        for (RemoteRequest request : batch) {
+                            request.failed(future.getCause());
+                        }
+                    }
                 }
-                throw e;
-            } finally {
-                if (channel != null) {
-                    workerDelegates.remove(channel.getId());
+            });
+        }
+
+        private synchronized Channel getChannel() throws RemoteListenerIOException, InterruptedException {
+            if (channel == null || (!channel.isConnected())) {
+                channel = getListenerChannel(9);
+                channelConnections.put(channel.getId(), this);
+            }
+            return channel;
+        }
+
+        private Channel getListenerChannel(int triesRemaining) throws RemoteListenerIOException, InterruptedException {
+            String listenerHostAndPort[] = host.split(":");
+            ChannelFuture connectFuture = bootstrap.connect(new InetSocketAddress(listenerHostAndPort[0],
+                    Integer.valueOf(listenerHostAndPort[1])));
+            connectFuture.await();
+            if (connectFuture.isSuccess()) {
+                return connectFuture.getChannel();
+            } else {
+                if (triesRemaining > 0) {
+                    Thread.sleep(10);
+                    return getListenerChannel(triesRemaining - 1);
+                } else {
+                    throw new RemoteListenerIOException("Failed to connect channel to remote listener on host '" + host + "'");
                 }
             }
         }
 
-        @Override
-        public void close() {
+        public void resultReceived(long requestId, boolean[] result) {
+            RemoteRequest request = pendingRequests.get(requestId);
+            if (request != null) {
+                request.succeeded(result);
+            } else if (log.isDebugEnabled()) {
+                // e.g. the worker waiting for it got interrupted
+                log.debug("Received result for unknown request " + requestId + " from remote listener on host '" +
+                        host + "'");
+            }
+        }
+
+        /**
+         * Fails all requests waiting for a result, the workers will retry them.
+         */
+        public void failPendingRequests(Throwable cause) {
+            for (RemoteRequest request : pendingRequests.values()) {
+                request.failed(cause);
+            }
+        }
+
+        public synchronized void close() {
             if (channel != null) {
                 channel.close().awaitUninterruptibly();
+                channelConnections.remove(channel.getId());
             }
         }
-
     }
 
-    private RemoteWorkerDelegate getWorkerDelegate(ChannelHandlerContext ctx) {
-        return workerDelegates.get(ctx.getChannel().getId());
+    private ListenerConnection getConnection(ChannelHandlerContext ctx) {
+        return channelConnections.get(ctx.getChannel().getId());
     }
 
-
     private void initBootstrap() {
         if (bootstrap == null) {
             if (channelFactory == null) {
@@ -173,15 +348,14 @@ public class RemoteListenersSubscriptionHandler extends AbstractListenersSubscri
     }
 
     private final class ChannelPipelineFactoryImplementation implements ChannelPipelineFactory {
-        private final ResultDecoder RESULT_DECODER = new ResultDecoder();
         private final MessageEncoder MESSAGE_ENCODER = new MessageEncoder();
 
         @Override
         public ChannelPipeline getPipeline() {
             ChannelPipeline pipeline = Channels.pipeline();
-            pipeline.addLast("resultDecoder", RESULT_DECODER); // Read enough bytes and decode the result
+            pipeline.addLast("resultDecoder", new ResultDecoder()); // Read enough bytes and decode the result
             pipeline.addLast("resultHandler", new ResultHandler()); // Handle the result
-            pipeline.addLast("messageEncoder", MESSAGE_ENCODER); // Encode and send the RowLogMessage
+            pipeline.addLast("messageEncoder", MESSAGE_ENCODER); // Encode and send the RowLogMessages
             return pipeline;
         }
     }
@@ -190,65 +364,101 @@ public class RemoteListenersSubscriptionHandler extends AbstractListenersSubscri
 
         @Override
         public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-            RemoteWorkerDelegate worker = getWorkerDelegate(ctx);
-            worker.remoteProcessMessageResult = (Boolean) e.getMessage();
-            worker.semaphore.release(); // We received the message, the processMessage call can continue
+            ListenerConnection connection = getConnection(ctx);
+            if (connection != null) {
+                RemoteResult result = (RemoteResult) e.getMessage();
+                connection.resultReceived(result.requestId, result.result);
+            }
         }
 
         @Override
         public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
             log.debug("Receive response from listener: error occurred", e.getCause());
-            RemoteWorkerDelegate worker = getWorkerDelegate(ctx);
-            if (worker != null) {
-                worker.resultHandlerException = e.getCause();
-                worker.semaphore.release(); // An exception occurred, the processMessage call should handle it
+            ListenerConnection connection = getConnection(ctx);
+            if (connection != null) {
+                // The stream can't be trusted anymore, the workers will retry over a new channel
+                e.getChannel().close();
+                connection.failPendingRequests(e.getCause());
             }
         }
 
         @Override
         public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
             log.debug("Receive response from listener: channel was closed");
-            RemoteWorkerDelegate worker = getWorkerDelegate(ctx);
-            if (worker != null) {
-                worker.semaphore.release(); // The remoteProcessMessageResult will still be null
-                super.channelClosed(ctx, e);
+            ListenerConnection connection = channelConnections.remove(ctx.getChannel().getId());
+            if (connection != null) {
+                connection.failPendingRequests(null); // The results will still be null
             }
+            super.channelClosed(ctx, e);
         }
     }
 
+    /**
+     * Decodes the results: each result is a request id and a message-count, followed by a boolean for each
+     * message of the request.
+     */
     private class ResultDecoder extends FrameDecoder {
         @Override
-        protected Boolean decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
-            if (buffer.readableBytes() < Bytes.SIZEOF_BOOLEAN) {
+        protected RemoteResult decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+            if (buffer.readableBytes() < Bytes.SIZEOF_LONG + Bytes.SIZEOF_INT) {
+                return null;
+            }
+            buffer.markReaderIndex();
+            long requestId = buffer.readLong();
+            int messageCount = buffer.readInt();
+            if (buffer.readableBytes() < messageCount * Bytes.SIZEOF_BOOLEAN) {
+                buffer.resetReaderIndex();
                 return null;
             }
-            return Bytes.toBoolean(buffer.readBytes(Bytes.SIZEOF_BOOLEAN).array()); // Send the result to the ResultHandler
+            boolean[] result = new boolean[messageCount];
+            for (int i = 0; i < messageCount; i++) {
+                result[i] = Bytes.toBoolean(buffer.readBytes(Bytes.SIZEOF_BOOLEAN).array());
+            }
+            return new RemoteResult(requestId, result); // Send the result to the ResultHandler
         }
     }
 
+    /**
+     * Encodes a batch of requests into one frame: frame-length + request-count, followed by
+     * (request-id + message-count) for each request, each followed by
+     * (timestamp + rowkey-length + rowkey + seqnr + data-length + data) for each message of the request.
+     */
     private class MessageEncoder extends SimpleChannelDownstreamHandler {
         @Override
+        @SuppressWarnings("unchecked")
         public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
             ChannelBufferOutputStream outputStream = null;
             try {
-                RowLogMessage message = (RowLogMessage) e.getMessage();
-                byte[] rowKey = message.getRowKey();
-                byte[] data = message.getData();
-                int msgLength = 8 + 4 + rowKey.length + 8 + 4; // timestamp + rowkey-length + rowkey + seqnr + data-length + data
-                if (data != null)
-                    msgLength = msgLength + data.length;
-                ChannelBuffer channelBuffer = ChannelBuffers.buffer(4 + msgLength);
+                List<RemoteRequest> requests = (List<RemoteRequest>) e.getMessage();
+                int frameLength = 4; // request-count
+                for (RemoteRequest request : requests) {
+                    frameLength += 8 + 4;
+                    for (RowLogMessage message : request.messages) {
+                        byte[] data = message.getData();
+                        frameLength += 8 + 4 + message.getRowKey().length + 8 + 4 + (data != null ? data.length : 0);
+                    }
+                }
+                ChannelBuffer channelBuffer = ChannelBuffers.buffer(4 + frameLength);
                 outputStream = new ChannelBufferOutputStream(channelBuffer);
-                outputStream.writeInt(msgLength);
-                outputStream.writeLong(message.getTimestamp());
-                outputStream.writeInt(rowKey.length);
-                outputStream.write(rowKey);
-                outputStream.writeLong(message.getSeqNr());
-                if (data != null) {
-                    outputStream.writeInt(data.length);
-                    outputStream.write(data);
-                } else {
-                    outputStream.writeInt(0);
+                outputStream.writeInt(frameLength);
+                outputStream.writeInt(requests.size());
+                for (RemoteRequest request : requests) {
+                    outputStream.writeLong(request.id);
+                    outputStream.writeInt(request.messages.size());
+                    for (RowLogMessage message : request.messages) {
+                        byte[] rowKey = message.getRowKey();
+                        byte[] data = message.getData();
+                        outputStream.writeLong(message.getTimestamp());
+                        outputStream.writeInt(rowKey.length);
+                        outputStream.write(rowKey);
+                        outputStream.writeLong(message.getSeqNr());
+                        if (data != null) {
+                            outputStream.writeInt(data.length);
+                            outputStream.write(data);
+                        } else {
+                            outputStream.writeInt(0);
+                        }
+                    }
                 }
                 Channels.write(ctx, e.getFuture(), channelBuffer);
             } finally {
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl;
+
+/**
+ * The result of a request sent by the {@link RemoteListenersSubscriptionHandler} to a
+ * {@link RemoteListenerHandler}: the request id and whether each of the messages of the request was processed.
+ */
+class RemoteResult {
+    final long requestId;
+    final boolean[] result;
+
+    RemoteResult(long requestId, boolean[] result) {
+        this.requestId = requestId;
+        this.result = result;
+    }
+}
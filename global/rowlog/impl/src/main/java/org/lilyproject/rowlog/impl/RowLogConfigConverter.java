@@ -47,9 +47,12 @@ public class RowLogConfigConverter {
         long orphanedMessageDelay = JsonUtil.getLong(node, "orphanedMessageDelay", 120000L);
         // For deleteBufferSize we supply a default because the parameter was new in Lily 1.2
         int deleteBufferSize = JsonUtil.getInt(node, "deleteBufferSize", 100);
+        // For timeBasedSeqNr we supply a default because the parameter was new in Lily 2.0. Rowlogs created
+        // before keep using the counter-based sequence numbers until they are switched over explicitly.
+        boolean timeBasedSeqNr = JsonUtil.getBoolean(node, "timeBasedSeqNr", false);
 
         return new RowLogConfig(respectOrder, enableNotify, notifyDelay, minimalProcessDelay, wakeupTimeout,
-                orphanedMessageDelay, deleteBufferSize);
+                orphanedMessageDelay, deleteBufferSize, timeBasedSeqNr);
     }
 
     public byte[] toJsonBytes(String rowLogId, RowLogConfig config) {
@@ -71,6 +74,7 @@ public class RowLogConfigConverter {
         node.put("wakeupTimeout", config.getWakeupTimeout());
         node.put("orphanedMessageDelay", config.getOrphanedMessageDelay());
         node.put("deleteBufferSize", config.getDeleteBufferSize());
+        node.put("timeBasedSeqNr", config.isTimeBasedSeqNr());
 
         return node;
     }
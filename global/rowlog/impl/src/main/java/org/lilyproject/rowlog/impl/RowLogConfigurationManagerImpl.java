@@ -53,6 +53,7 @@ import org.lilyproject.util.zookeeper.ZooKeeperOperation;
 // The paths used in zookeeper to store the data are :
 // /lily/rowlog/<rowlogid>+<data>
 // /lily/rowlog/<rowlogid>/shards/<shardid>/processorNotify+<data>
+// /lily/rowlog/<rowlogid>/processorNotifyEndpoints/<host>:<port>
 // /lily/rowlog/<rowlogid>/subscriptions/<subscriptionid>/<listenerid>
 
 public class RowLogConfigurationManagerImpl implements RowLogConfigurationManager {
@@ -63,17 +64,42 @@ public class RowLogConfigurationManagerImpl implements RowLogConfigurationManage
 
     private ObserverSupport observerSupport = new ObserverSupport();
 
+    private final ProcessorNotifyMetrics processorNotifyMetrics;
+
+    private final ProcessorNotifyChannel processorNotifyChannel;
+
     private Log log = LogFactory.getLog(getClass());
     
     public RowLogConfigurationManagerImpl(ZooKeeperItf zooKeeper) throws RowLogException {
+        this(zooKeeper, null);
+    }
+
+    /**
+     * @param hostName host name on which the rowlog processors running in this JVM receive their notifications
+     *                 from other nodes. If null, they will only be notified by this JVM or through ZooKeeper.
+     */
+    public RowLogConfigurationManagerImpl(ZooKeeperItf zooKeeper, String hostName) throws RowLogException {
         this.zooKeeper = zooKeeper;
         this.observerSupport = new ObserverSupport();
+        this.processorNotifyMetrics = new ProcessorNotifyMetrics();
+        this.processorNotifyChannel = new ProcessorNotifyChannel(zooKeeper, rowLogPath, hostName,
+                new ProcessorNotifyChannel.Receiver() {
+                    @Override
+                    public void notificationReceived(String rowLogId) {
+                        ProcessorNotifyObserver observer = observerSupport.processorNotifyObservers.get(rowLogId);
+                        if (observer != null) {
+                            observer.notifyProcessor();
+                        }
+                    }
+                }, processorNotifyMetrics);
         observerSupport.start();
     }
 
     @PreDestroy
     public void shutdown() throws InterruptedException {
+        processorNotifyChannel.close();
         observerSupport.shutdown();
+        processorNotifyMetrics.shutdown();
     }
     
     // RowLogs
@@ -399,20 +425,51 @@ public class RowLogConfigurationManagerImpl implements RowLogConfigurationManage
     @Override
     public void addProcessorNotifyObserver(String rowLogId, ProcessorNotifyObserver observer) {
     	observerSupport.addProcessorNotifyObserver(rowLogId, observer);
+        try {
+            processorNotifyChannel.advertise(rowLogId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (KeeperException e) {
+            log.warn("Error advertising processor notify endpoint for rowlog " + rowLogId + ", will rely on " +
+                    "ZooKeeper for the notifications.", e);
+        }
     }
     
     @Override
     public void removeProcessorNotifyObserver(String rowLogId) {
     	observerSupport.removeProcessorNotifyObserver(rowLogId);
+        try {
+            processorNotifyChannel.unadvertise(rowLogId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
     
+    /**
+     * Notifies the processor(s) of the rowlog: a processor running in this JVM is called directly, processors on
+     * other nodes through {@link ProcessorNotifyChannel}. Only when neither is known, which is also the case when
+     * the processor runs an older Lily version, the notification goes through ZooKeeper. Processors of an older
+     * version are thus not notified while a newer processor of the same rowlog is running, see
+     * {@link ProcessorNotifyChannel}.
+     */
     @Override
     public void notifyProcessor(String rowLogId) throws InterruptedException, KeeperException {
-    	try {
-    		zooKeeper.setData(processorNotifyPath(rowLogId), null, -1);
-		} catch (KeeperException.NoNodeException e) {
-			// No RowLogProcessor is listening
-		}
+        ProcessorNotifyObserver localObserver = observerSupport.processorNotifyObservers.get(rowLogId);
+        if (localObserver != null) {
+            localObserver.notifyProcessor();
+            processorNotifyMetrics.directNotifies.inc();
+        }
+
+        boolean sent = processorNotifyChannel.send(rowLogId);
+
+        if (localObserver == null && !sent) {
+            processorNotifyMetrics.zkNotifies.inc();
+            try {
+                zooKeeper.setData(processorNotifyPath(rowLogId), null, -1);
+            } catch (KeeperException.NoNodeException e) {
+                // No RowLogProcessor is listening
+            }
+        }
     }
     
     // Paths
@@ -23,8 +23,8 @@ import java.util.*;
 
 /**
  * Assigns messages to shards based on the hash of the row key. Messages thus always
- * end up in the same shard (as long as the number of shards stays the same), though
- * currently this is not necessary since there is one central rowlog processor which
+ * end up in the same shard (as long as the number of shards stays the same). When the shards
+ * are divided over several rowlog processors (see {@link RowLogShardLeases}), this is what
  * guarantees that no two messages of the same row will be processed concurrently.
  */
 public class RowLogHashShardRouter implements RowLogShardRouter {
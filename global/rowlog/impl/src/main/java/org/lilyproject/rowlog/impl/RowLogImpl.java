@@ -62,6 +62,7 @@ public class RowLogImpl implements RowLog, RowLogImplMBean, SubscriptionsObserve
     private byte[] payloadPrefix;
     private byte[] executionStatePrefix;
     private byte[] seqNrQualifier;
+    private final TimeBasedSeqNrGenerator seqNrGenerator = new TimeBasedSeqNrGenerator();
     private ObjectName mbeanName;
 
     /**
@@ -178,7 +179,12 @@ public class RowLogImpl implements RowLog, RowLogImplMBean, SubscriptionsObserve
                 return null;
 
             // Get a sequence number for this new message
-            long seqnr = rowTable.incrementColumnValue(rowKey, rowLogColumnFamily, seqNrQualifier, 1L);
+            long seqnr;
+            if (rowLogConfig.isTimeBasedSeqNr()) {
+                seqnr = seqNrGenerator.nextSeqNr();
+            } else {
+                seqnr = rowTable.incrementColumnValue(rowKey, rowLogColumnFamily, seqNrQualifier, 1L);
+            }
 
             // Create Put object if not supplied
             boolean ownPut = false;
@@ -236,12 +242,156 @@ public class RowLogImpl implements RowLog, RowLogImplMBean, SubscriptionsObserve
         }
     }
 
+    @Override
+    public List<RowLogMessage> putMessages(List<Put> puts, List<byte[]> payloads)
+            throws RowLogException, InterruptedException {
+        if (puts.size() != payloads.size()) {
+            throw new IllegalArgumentException("The number of puts and payloads should be equal, got " + puts.size()
+                    + " puts and " + payloads.size() + " payloads.");
+        }
+
+        List<RowLogMessage> messages = new ArrayList<RowLogMessage>(puts.size());
+
+        // Take current snapshot of the subscriptions, see putMessage
+        List<RowLogSubscription> subscriptions = getSubscriptions();
+        if (subscriptions.isEmpty()) {
+            for (int i = 0; i < puts.size(); i++) {
+                messages.add(null);
+            }
+            return messages;
+        }
+
+        if (puts.isEmpty())
+            return messages;
+
+        try {
+            long[] seqnrs = allocateSequenceNumbers(puts);
+
+            long now = System.currentTimeMillis();
+
+            for (int i = 0; i < puts.size(); i++) {
+                Put put = puts.get(i);
+                putPayload(seqnrs[i], payloads.get(i), now, put);
+                messages.add(new RowLogMessageImpl(now, put.getRow(), seqnrs[i], null, payloads.get(i), this));
+            }
+
+            putMessagesOnShards(messages, subscriptions);
+
+            for (int i = 0; i < puts.size(); i++) {
+                initializeSubscriptions(messages.get(i), puts.get(i), subscriptions);
+            }
+
+            return messages;
+        } catch (IOException e) {
+            throw new RowLogException("Failed to put messages on RowLog", e);
+        }
+    }
+
+    @Override
+    public List<RowLogMessage> putMessagesForRows(List<byte[]> rowKeys, List<byte[]> payloads)
+            throws RowLogException, InterruptedException {
+        List<Put> puts = new ArrayList<Put>(rowKeys.size());
+        for (byte[] rowKey : rowKeys) {
+            puts.add(new Put(rowKey));
+        }
+
+        List<RowLogMessage> messages = putMessages(puts, payloads);
+
+        // Without subscriptions nothing was added to the puts
+        if (!puts.isEmpty() && messages.get(0) != null) {
+            try {
+                rowTable.put(puts);
+            } catch (IOException e) {
+                throw new RowLogException("Failed to put messages on RowLog", e);
+            }
+
+            // As in putMessage, notify only after the put on the row-local queues
+            if (rowLogConfig.isEnableNotify()) {
+                processorNotifier.notifyProcessor(id);
+            }
+        }
+
+        return messages;
+    }
+
+    /**
+     * Allocates a sequence number for each of the rows of the given puts.
+     *
+     * <p>When time based sequence numbers are enabled, these are generated locally without accessing HBase.
+     * Otherwise, when a rowLocker is available, the rows are assumed to be locked by the caller, so we can
+     * read all current sequence numbers with one multi-get and store the incremented values with one
+     * multi-put, rather than doing one incrementColumnValue call per row.
+     *
+     * <p>The incremented values are stored before the messages are put on the shards, rather than through
+     * the puts of the caller: should applying those fail, the sequence numbers are still reserved and will
+     * not be handed out again for other messages.
+     */
+    private long[] allocateSequenceNumbers(List<Put> puts) throws IOException {
+        long[] seqnrs = new long[puts.size()];
+
+        if (rowLogConfig.isTimeBasedSeqNr()) {
+            for (int i = 0; i < puts.size(); i++) {
+                seqnrs[i] = seqNrGenerator.nextSeqNr();
+            }
+            return seqnrs;
+        }
+
+        if (rowLocker == null) {
+            for (int i = 0; i < puts.size(); i++) {
+                seqnrs[i] = rowTable.incrementColumnValue(puts.get(i).getRow(), rowLogColumnFamily, seqNrQualifier, 1L);
+            }
+            return seqnrs;
+        }
+
+        List<Get> gets = new ArrayList<Get>(puts.size());
+        for (Put put : puts) {
+            Get get = new Get(put.getRow());
+            get.addColumn(rowLogColumnFamily, seqNrQualifier);
+            gets.add(get);
+        }
+
+        Result[] results = rowTable.get(gets);
+        List<Put> seqnrPuts = new ArrayList<Put>(puts.size());
+        for (int i = 0; i < puts.size(); i++) {
+            byte[] currentSeqnr = results[i] == null ? null : results[i].getValue(rowLogColumnFamily, seqNrQualifier);
+            seqnrs[i] = currentSeqnr == null ? 1L : Bytes.toLong(currentSeqnr) + 1;
+            Put seqnrPut = new Put(puts.get(i).getRow());
+            seqnrPut.add(rowLogColumnFamily, seqNrQualifier, Bytes.toBytes(seqnrs[i]));
+            seqnrPuts.add(seqnrPut);
+        }
+        rowTable.put(seqnrPuts);
+        return seqnrs;
+    }
+
     protected void putMessageOnShard(RowLogMessage message, List<RowLogSubscription> subscriptions)
             throws RowLogException {
         List<String> subscriptionIds = getSubscriptionIds();
         getShard(message).putMessage(message, subscriptionIds);
     }
 
+    protected void putMessagesOnShards(List<RowLogMessage> messages, List<RowLogSubscription> subscriptions)
+            throws RowLogException {
+        List<String> subscriptionIds = getSubscriptionIds();
+        for (Map.Entry<RowLogShard, List<RowLogMessage>> entry : groupByShard(messages).entrySet()) {
+            entry.getKey().putMessages(entry.getValue(), subscriptionIds);
+        }
+    }
+
+    protected Map<RowLogShard, List<RowLogMessage>> groupByShard(List<RowLogMessage> messages)
+            throws RowLogException {
+        Map<RowLogShard, List<RowLogMessage>> messagesByShard = new HashMap<RowLogShard, List<RowLogMessage>>();
+        for (RowLogMessage message : messages) {
+            RowLogShard shard = getShard(message);
+            List<RowLogMessage> shardMessages = messagesByShard.get(shard);
+            if (shardMessages == null) {
+                shardMessages = new ArrayList<RowLogMessage>();
+                messagesByShard.put(shard, shardMessages);
+            }
+            shardMessages.add(message);
+        }
+        return messagesByShard;
+    }
+
     
     private void initializeSubscriptions(RowLogMessage message, Put put, List<RowLogSubscription> subscriptions)
             throws IOException {
@@ -374,25 +524,33 @@ public class RowLogImpl implements RowLog, RowLogImplMBean, SubscriptionsObserve
     @Override
     public boolean messageDone(RowLogMessage message, String subscriptionId) throws RowLogException, InterruptedException {
         if (rowLocker != null) { // If the rowLocker exists the lock should be a RowLock
-            RowLock rowLock = null;
+            RowLock rowLock = lockRow(message.getRowKey());
+            return messageDoneRowLocked(message, subscriptionId, rowLock);
+        }
+        return messageDone(message, subscriptionId, 0); 
+    }
+
+    /**
+     * Takes a lock on the row, retrying until it is obtained.
+     */
+    private RowLock lockRow(byte[] rowKey) throws InterruptedException {
+        RowLock rowLock = null;
+        try {
+            rowLock = rowLocker.lockRow(rowKey);
+        } catch (IOException e) {
+            log.debug("Exception occurred while trying to take lock, retrying", e);
+            // retry
+        }
+        while (rowLock == null) {
+            Thread.sleep(10);
             try {
-                rowLock = rowLocker.lockRow(message.getRowKey());
+                rowLock = rowLocker.lockRow(rowKey);
             } catch (IOException e) {
                 log.debug("Exception occurred while trying to take lock, retrying", e);
                 // retry
             }
-            while (rowLock == null) {
-                Thread.sleep(10);
-                try {
-                    rowLock = rowLocker.lockRow(message.getRowKey());
-                } catch (IOException e) {
-                    log.debug("Exception occurred while trying to take lock, retrying", e);
-                    // retry
-                }
-            }
-            return messageDoneRowLocked(message, subscriptionId, rowLock);
         }
-        return messageDone(message, subscriptionId, 0); 
+        return rowLock;
     }
     
     private boolean messageDoneRowLocked(RowLogMessage message, String subscriptionId, RowLock rowLock) throws RowLogException {
@@ -465,6 +623,94 @@ public class RowLogImpl implements RowLog, RowLogImplMBean, SubscriptionsObserve
         }
     }
  
+    @Override
+    public boolean messagesDone(List<RowLogMessage> messages, String subscriptionId) throws RowLogException,
+            InterruptedException {
+        if (messages.isEmpty()) {
+            return true;
+        }
+        byte[] rowKey = messages.get(0).getRowKey();
+        for (RowLogMessage message : messages) {
+            if (!Arrays.equals(rowKey, message.getRowKey())) {
+                throw new IllegalArgumentException("Messages should all belong to the same row.");
+            }
+        }
+
+        RowLock rowLock = rowLocker != null ? lockRow(rowKey) : null;
+        try {
+            Get get = new Get(rowKey);
+            for (RowLogMessage message : messages) {
+                get.addColumn(rowLogColumnFamily, executionStateQualifier(message.getSeqNr(), message.getTimestamp()));
+            }
+            Result result = rowTable.get(get);
+
+            // Execution states which become all done are removed together with their payload. The other ones
+            // are updated in one put when we have the row lock, otherwise they need one checkAndPut each.
+            Put put = new Put(rowKey);
+            Delete delete = new Delete(rowKey);
+            List<RowLogMessage> uncheckedMessages = new ArrayList<RowLogMessage>();
+            List<RowLogMessage> checkAndPutMessages = new ArrayList<RowLogMessage>();
+            for (RowLogMessage message : messages) {
+                byte[] executionStateQualifier = executionStateQualifier(message.getSeqNr(), message.getTimestamp());
+                byte[] previousValue = result.getValue(rowLogColumnFamily, executionStateQualifier);
+                if (previousValue == null) {
+                    uncheckedMessages.add(message);
+                    continue;
+                }
+                ExecutionState executionState = SubscriptionExecutionState.fromBytes(previousValue);
+                executionState.setState(subscriptionId, true);
+                if (executionState.allDone()) {
+                    delete.deleteColumns(rowLogColumnFamily, executionStateQualifier);
+                    delete.deleteColumns(rowLogColumnFamily, payloadQualifier(message.getSeqNr(),
+                            message.getTimestamp()));
+                    uncheckedMessages.add(message);
+                } else if (rowLock != null) {
+                    put.add(rowLogColumnFamily, executionStateQualifier, executionState.toBytes());
+                    uncheckedMessages.add(message);
+                } else {
+                    checkAndPutMessages.add(message);
+                }
+            }
+
+            boolean success = true;
+            if (!put.isEmpty()) {
+                success = rowLocker.put(put, rowLock);
+            }
+            if (success && !delete.isEmpty()) {
+                if (rowLock != null) {
+                    success = rowLocker.delete(delete, rowLock);
+                } else {
+                    rowTable.delete(delete);
+                }
+            }
+            if (!success) {
+                return false;
+            }
+            for (RowLogMessage message : uncheckedMessages) {
+                removeMessageFromShard(message, subscriptionId);
+            }
+            for (RowLogMessage message : checkAndPutMessages) {
+                // Also removes the message from the shard
+                success = messageDone(message, subscriptionId, 0) && success;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Messages done: " + messages.size() + " messages of row " + Bytes.toStringBinary(rowKey) +
+                        ", success: " + success);
+            }
+            return success;
+        } catch (IOException e) {
+            throw new RowLogException("Failed to put messages to done", e);
+        } finally {
+            if (rowLock != null) {
+                try {
+                    rowLocker.unlockRow(rowLock);
+                } catch (IOException e) {
+                    log.warn("Failed to unlock row " + Bytes.toStringBinary(rowKey), e);
+                }
+            }
+        }
+    }
+
     protected void removeMessageFromShard(RowLogMessage message, String subscriptionId) throws RowLogException {
         getShard(message).removeMessage(message, subscriptionId);
     }
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.rowlog.api.RowLogBatchMessageListener;
+import org.lilyproject.rowlog.api.RowLogMessage;
+import org.lilyproject.rowlog.api.RowLogMessageListener;
+
+public class RowLogMessageListeners {
+    private static final Log log = LogFactory.getLog(RowLogMessageListeners.class);
+
+    private RowLogMessageListeners() {
+    }
+
+    /**
+     * Hands the messages to the listener at once if it is a {@link RowLogBatchMessageListener}, otherwise
+     * one by one.
+     *
+     * <p>Returns the messages which have been processed. For a batch listener these are either all or none
+     * of the messages. Otherwise, a message which fails is skipped and will be offered again later, while the
+     * messages following it are still processed, as if the messages had been offered separately.
+     */
+    public static List<RowLogMessage> processMessages(RowLogMessageListener listener, List<RowLogMessage> messages)
+            throws InterruptedException {
+        if (listener instanceof RowLogBatchMessageListener) {
+            if (((RowLogBatchMessageListener)listener).processMessages(messages)) {
+                return messages;
+            }
+            return Collections.emptyList();
+        }
+
+        List<RowLogMessage> processed = new ArrayList<RowLogMessage>(messages.size());
+        for (RowLogMessage message : messages) {
+            try {
+                if (listener.processMessage(message)) {
+                    processed.add(message);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Exception while processing message " + message + ", it will be offered again later", e);
+            }
+        }
+        return processed;
+    }
+}
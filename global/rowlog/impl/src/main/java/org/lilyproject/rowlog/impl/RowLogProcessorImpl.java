@@ -25,7 +25,11 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -40,6 +44,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.metrics.util.MetricsLongValue;
 import org.lilyproject.rowlog.api.ProcessorNotifyObserver;
 import org.lilyproject.rowlog.api.RowLog;
 import org.lilyproject.rowlog.api.RowLogConfig;
@@ -50,6 +55,7 @@ import org.lilyproject.rowlog.api.RowLogObserver;
 import org.lilyproject.rowlog.api.RowLogProcessor;
 import org.lilyproject.rowlog.api.RowLogShard;
 import org.lilyproject.rowlog.api.RowLogSubscription;
+import org.lilyproject.rowlog.api.ShardBacklog;
 import org.lilyproject.rowlog.api.SubscriptionsObserver;
 import org.lilyproject.util.Logs;
 import org.lilyproject.util.concurrent.CustomThreadFactory;
@@ -68,6 +74,7 @@ public class RowLogProcessorImpl implements RowLogProcessor, RowLogObserver, Sub
     private Configuration hbaseConf;
     private RowLogProcessorSettings settings;
     private Triggerable bufferedProcessorNotifier;
+    private volatile Set<String> shardIds;
 
     private final AtomicBoolean initialRowLogConfigLoaded = new AtomicBoolean(false);
     
@@ -88,6 +95,36 @@ public class RowLogProcessorImpl implements RowLogProcessor, RowLogObserver, Sub
     public RowLog getRowLog() {
         return rowLog;
     }
+
+    /**
+     * Restricts this processor to the shards with the given ids, for when the shards of the rowlog are divided
+     * over several processors (see {@link RowLogShardLeases}). By default, or when null is given, all shards
+     * are processed.
+     *
+     * <p>This should only be changed while the processor is stopped.
+     */
+    public void setShardIds(Set<String> shardIds) {
+        this.shardIds = shardIds;
+    }
+
+    /**
+     * Returns the shards which are processed by this processor.
+     */
+    protected List<RowLogShard> getProcessedShards() {
+        List<RowLogShard> shards = rowLog.getShards();
+        Set<String> shardIds = this.shardIds;
+        if (shardIds == null) {
+            return shards;
+        }
+
+        List<RowLogShard> result = new ArrayList<RowLogShard>(shardIds.size());
+        for (RowLogShard shard : shards) {
+            if (shardIds.contains(shard.getId())) {
+                result.add(shard);
+            }
+        }
+        return result;
+    }
     
     @Override
     public synchronized void start() throws InterruptedException, IOException {
@@ -167,8 +204,8 @@ public class RowLogProcessorImpl implements RowLogProcessor, RowLogObserver, Sub
         threads = threads > 30 ? 30 : threads < 1 ? 1 : threads;
 
         // don't need more threads than there are shards
-        int shardCount = rowLog.getShards().size();
-        threads = threads > shardCount ? shardCount : threads;
+        int shardCount = getProcessedShards().size();
+        threads = threads > shardCount ? shardCount : threads < 1 ? 1 : threads;
 
         return threads;
     }
@@ -290,6 +327,17 @@ public class RowLogProcessorImpl implements RowLogProcessor, RowLogObserver, Sub
     public boolean isRunning(String subscriptionId) {
         return subscriptionThreads.get(subscriptionId) != null;
     }
+
+    @Override
+    public List<ShardBacklog> getShardBacklogs() {
+        List<ShardBacklog> result = new ArrayList<ShardBacklog>();
+        synchronized (subscriptionThreads) {
+            for (SubscriptionThread thread : subscriptionThreads.values()) {
+                result.addAll(thread.backlogTracker.getShardBacklogs(thread.subscription.getId()));
+            }
+        }
+        return result;
+    }
             
     /**
      * Called when a message has been posted on the rowlog that needs to be processed by this RowLogProcessor.
@@ -317,38 +365,56 @@ public class RowLogProcessorImpl implements RowLogProcessor, RowLogObserver, Sub
 
     protected class SubscriptionThread extends Thread {
         private long lastWakeup;
+        private volatile boolean wakeupPending = false;
         private ProcessorMetrics metrics;
         private volatile boolean stopRequested = false; // do not rely only on Thread.interrupt since some libraries eat interruptions
         private final MessagesWorkQueue messagesWorkQueue;
         private SubscriptionHandler subscriptionHandler;
         private final RowLogSubscription subscription;
-        private boolean firstRun = true;
-        private final int scanBatchPerShard;
+        private final Map<String, RowLogShard> shards = new HashMap<String, RowLogShard>();
+        private final ShardBacklogTracker backlogTracker;
+        /** Messages taken from the work queue per millisecond, smoothed. */
+        private double consumptionRate;
 
         public SubscriptionThread(RowLogSubscription subscription) {
             super(new ThreadGroup("RowLogProcessor"), "Row log SubscriptionThread for " + subscription.getId());
             this.subscription = subscription;
-            this.metrics = new ProcessorMetrics(rowLog.getId()+"_"+subscription.getId());
 
-            int scanBatchPerShard = settings.getScanBatchSize() / rowLog.getShards().size();
-            if (scanBatchPerShard < 1) {
-                scanBatchPerShard = 1;
+            List<String> shardIds = new ArrayList<String>();
+            for (RowLogShard shard : getProcessedShards()) {
+                shards.put(shard.getId(), shard);
+                shardIds.add(shard.getId());
             }
-            this.scanBatchPerShard = scanBatchPerShard;
-            log.info("RowLog scan batch size (on each shard/split): " + scanBatchPerShard);
+            this.backlogTracker = new ShardBacklogTracker(shardIds, settings.getScanBatchSize());
+            this.metrics = new ProcessorMetrics(rowLog.getId()+"_"+subscription.getId(), shardIds);
+            log.info("RowLog scan batch size (divided over the shards/splits): " + settings.getScanBatchSize());
 
-            messagesWorkQueue = new MessagesWorkQueue(settings.getMessagesWorkQueueSize());
-            log.info("RowLog messages work queue size: " + settings.getMessagesWorkQueueSize());
+            switch (settings.getMessagesWorkQueueType()) {
+                case ROW_PARTITIONED:
+                    messagesWorkQueue = new RowPartitionedMessagesWorkQueue(settings.getMessagesWorkQueueSize());
+                    break;
+
+                default:
+                    messagesWorkQueue = new LinkedListMessagesWorkQueue(settings.getMessagesWorkQueueSize());
+                    break;
+            }
+            log.info("RowLog messages work queue size: " + settings.getMessagesWorkQueueSize() + ", type: " +
+                    settings.getMessagesWorkQueueType());
 
             switch (subscription.getType()) {
                 case VM:
-                    subscriptionHandler =new LocalListenersSubscriptionHandler(subscription.getId(), messagesWorkQueue,
-                            rowLog, rowLogConfigurationManager);
+                    LocalListenersSubscriptionHandler localHandler = new LocalListenersSubscriptionHandler(
+                            subscription.getId(), messagesWorkQueue, rowLog, rowLogConfigurationManager);
+                    localHandler.setCoalesceRowMessages(settings.getCoalesceRowMessages());
+                    subscriptionHandler = localHandler;
                     break;
 
                 case Netty:
-                    subscriptionHandler = new RemoteListenersSubscriptionHandler(subscription.getId(),
-                            messagesWorkQueue, rowLog, rowLogConfigurationManager);
+                    RemoteListenersSubscriptionHandler remoteHandler = new RemoteListenersSubscriptionHandler(
+                            subscription.getId(), messagesWorkQueue, rowLog, rowLogConfigurationManager,
+                            settings.getRemoteListenerMaxInFlight(), settings.getRemoteListenerMaxBatchSize());
+                    remoteHandler.setCoalesceRowMessages(settings.getCoalesceRowMessages());
+                    subscriptionHandler = remoteHandler;
                     break;
 
                 case WAL:
@@ -368,6 +434,7 @@ public class RowLogProcessorImpl implements RowLogProcessor, RowLogObserver, Sub
         public synchronized void wakeup() {
             metrics.wakeups.inc();
             lastWakeup = System.currentTimeMillis();
+            wakeupPending = true;
             this.notify();
         }
         
@@ -387,7 +454,6 @@ public class RowLogProcessorImpl implements RowLogProcessor, RowLogObserver, Sub
         @Override
         public void run() {
             try {
-                Long minimalTimestamp = null;
                 // scanFirstMessageOnly: for the WAL use case, where there is a minimal process delay and messages
                 // are normally processed directly and only in case of recovery by the RowLogProcessor, it does not
                 // make sense to scan e.g. 200 messages just to see their minimalProcessDelay has not yet passed.
@@ -397,27 +463,44 @@ public class RowLogProcessorImpl implements RowLogProcessor, RowLogObserver, Sub
                 while (!isInterrupted() && !stopRequested) {
                     final String subscriptionId = subscription.getId();
                     try {
-                        metrics.scans.inc();
-
                         long tsBeforeGetMessages = System.currentTimeMillis();
+                        int queueSizeBefore = messagesWorkQueue.size();
+                        int offerCount = 0;
+
+                        if (wakeupPending) {
+                            wakeupPending = false;
+                            backlogTracker.wakeup();
+                        }
+
+                        List<String> shardsToScan = backlogTracker.getShardsToScan(tsBeforeGetMessages);
+                        if (!shardsToScan.isEmpty()) {
+                            metrics.scans.inc();
+                            metrics.shardsPerScan.inc(shardsToScan.size());
+                        }
 
                         // Scan in parallel over the different regions
                         // Ideally, we would figure out on what servers what regions are deployed and then do the
                         // requests such that we touch the maximum number of different servers. For now, we keep
                         // it simple and assume the requests will be distributed enough by chance.
-                        final int batchSize = scanFirstMessageOnly ? 1 : scanBatchPerShard;
-                        List<RowLogMessage> messages = new ArrayList<RowLogMessage>();
-                        int maxMessagesFromOneShard = 0;
-                        List<Future<List<RowLogMessage>>> scanFutures = new ArrayList<Future<List<RowLogMessage>>>();
-                        final Long currentMinimalTimestamp = minimalTimestamp;
-                        for (final RowLogShard shard : rowLog.getShards()) {
+                        CompletionService<ShardScanResult> scanService =
+                                new ExecutorCompletionService<ShardScanResult>(globalQScanExecutor);
+                        int scanCount = 0;
+                        for (String shardId : shardsToScan) {
+                            final RowLogShard shard = shards.get(shardId);
+                            final int batchSize = scanFirstMessageOnly ? 1 : backlogTracker.getBatchSize(shardId);
+                            final Long minimalTimestamp = backlogTracker.getMinimalTimestamp(shardId);
                             try {
-                                scanFutures.add(globalQScanExecutor.submit(new Callable<List<RowLogMessage>>() {
+                                scanService.submit(new Callable<ShardScanResult>() {
                                     @Override
-                                    public List<RowLogMessage> call() throws Exception {
-                                        return shard.next(subscriptionId, currentMinimalTimestamp, batchSize);
+                                    public ShardScanResult call() throws Exception {
+                                        long before = System.currentTimeMillis();
+                                        List<RowLogMessage> shardMessages =
+                                                shard.next(subscriptionId, minimalTimestamp, batchSize);
+                                        metrics.shardScanDuration.inc(System.currentTimeMillis() - before);
+                                        return new ShardScanResult(shard.getId(), batchSize, shardMessages);
                                     }
-                                }));
+                                });
+                                scanCount++;
                             } catch (RejectedExecutionException e) {
                                 // The only reason this could occur is because we're shutting down, since there
                                 // is no limit on the size of the queue
@@ -426,86 +509,120 @@ public class RowLogProcessorImpl implements RowLogProcessor, RowLogObserver, Sub
                             }
                         }
 
-                        for (Future<List<RowLogMessage>> future : scanFutures) {
-                            List<RowLogMessage> shardMessages = future.get();
-                            messages.addAll(shardMessages);
-                            if (shardMessages.size() > maxMessagesFromOneShard) {
-                                 maxMessagesFromOneShard = shardMessages.size();
+                        // The messages returned by each shard are sorted, we merge them as the shards respond
+                        // rather than waiting for the slowest shard: each time one or more shards responded,
+                        // the messages received so far are merged and put on the work queue. Messages from a
+                        // shard which responds later can hence be older than messages already put on the queue,
+                        // but since messages are routed to shards based on their row key, the messages of
+                        // one row are still offered in order.
+                        PriorityQueue<ShardMessages> mergeQueue = new PriorityQueue<ShardMessages>(Math.max(scanCount, 1));
+                        int messageCount = 0;
+                        boolean fullBatch = false;
+                        boolean delayed = false;
+                        long tsFirstResponse = -1;
+                        int responseCount = 0;
+                        while (responseCount < scanCount) {
+                            Future<ShardScanResult> future = scanService.take();
+                            if (tsFirstResponse == -1) {
+                                tsFirstResponse = System.currentTimeMillis();
+                                metrics.firstShardDuration.inc(tsFirstResponse - tsBeforeGetMessages);
                             }
-                        }
-
-                        // Sort the messages from the different shards by timestamp
-                        // TODO this could be improved, knowing that the lists from shard.next() are already sorted
-                        Collections.sort(messages, new Comparator<RowLogMessage>() {
-                            @Override
-                            public int compare(RowLogMessage o1, RowLogMessage o2) {
-                                return ComparisonChain.start()
-                                        .compare(o1.getTimestamp(), o2.getTimestamp())
-                                        .compare(o1.getRowKey(), o2.getRowKey(), Bytes.BYTES_RAWCOMPARATOR)
-                                        .compare(o1.getSeqNr(), o2.getSeqNr())
-                                        .result();
-                            }
-                        });
-
-                        metrics.scanDuration.inc(System.currentTimeMillis() - tsBeforeGetMessages);
-
-                        if (log.isDebugEnabled()) {
-                            log.debug(String.format("[%1$s - %2$s] Scanned with minimal timestamp of %3$s, got %4$s messages.",
-                                    rowLog.getId(), subscriptionId, minimalTimestamp, messages.size()));
-                        }
-
-                        if (stopRequested) {
-                            // Check if not stopped because HBase hides thread interruptions
-                            return;
-                        }
-
-                        if (firstRun) {
-                            firstRun = false;
-                            if (messages.isEmpty()) {
-                                // If on startup of this processor, we have no messages, we initialize the
-                                // minimalTimestamp manually so that we would not always scan from the start
-                                // of the table.
-                                minimalTimestamp = tsBeforeGetMessages - settings.getMsgTimestampMargin();
-
-                                if (log.isDebugEnabled()) {
-                                    log.debug(String.format("[%1$s - %2$s] On initial scan, got no messages from HBase, " +
-                                            "setting minimal timestamp to %3$s", rowLog.getId(), subscriptionId, minimalTimestamp));
+                            // Also take along the results of all other shards which responded in the meantime
+                            while (future != null) {
+                                responseCount++;
+                                ShardScanResult result = future.get();
+                                List<RowLogMessage> shardMessages = result.messages;
+                                backlogTracker.scanned(result.shardId, shardMessages.size(), result.batchSize,
+                                        System.currentTimeMillis(), rowLogConfig.getWakeupTimeout());
+                                if (shardMessages.size() >= result.batchSize) {
+                                    fullBatch = true;
+                                }
+                                if (!shardMessages.isEmpty()) {
+                                    messageCount += shardMessages.size();
+                                    backlogTracker.setMinimalTimestamp(result.shardId,
+                                            shardMessages.get(0).getTimestamp() - settings.getMsgTimestampMargin());
+                                    if (!delayed) {
+                                        mergeQueue.add(new ShardMessages(shardMessages));
+                                    }
+                                } else if (backlogTracker.getMinimalTimestamp(result.shardId) == null) {
+                                    // If on the first scan of a shard we got no messages, we initialize its
+                                    // minimal timestamp manually so that we would not always scan from the start
+                                    // of the shard.
+                                    backlogTracker.setMinimalTimestamp(result.shardId,
+                                            tsBeforeGetMessages - settings.getMsgTimestampMargin());
                                 }
+                                future = responseCount < scanCount ? scanService.poll() : null;
                             }
-                        }
 
-                        metrics.messagesPerScan.inc(messages != null ? messages.size() : 0);
-						if (messages != null && !messages.isEmpty()) {
-						    minimalTimestamp = messages.get(0).getTimestamp() - settings.getMsgTimestampMargin();
-                            for (RowLogMessage message : messages) {
+                            while (!mergeQueue.isEmpty()) {
                                 if (stopRequested)
                                     return;
 
+                                ShardMessages shardMessages = mergeQueue.poll();
+                                RowLogMessage message = shardMessages.next();
+                                if (shardMessages.hasNext()) {
+                                    mergeQueue.add(shardMessages);
+                                }
+
                                 if (checkMinimalProcessDelay(message)) {
                                     scanFirstMessageOnly = true;
-                                	break; // Rescan the messages since they might have been processed in the meanwhile
+                                    // Rescan the messages since they might have been processed in the meanwhile.
+                                    // We still wait for the remaining shards to determine the oldest timestamp.
+                                    delayed = true;
+                                    mergeQueue.clear();
+                                    break;
                                 } else {
                                     scanFirstMessageOnly = false;
                                 }
 
                                 messagesWorkQueue.offer(message);
+                                offerCount++;
                             }
                         }
 
-                        // If we had a full batch of messages, we will immediately request the next batch, without
-                        // sleeping. If we got less, we sleep unless we received a wake-up signal after we started
-                        // scanning for messages.
+                        long tsAfterMerge = System.currentTimeMillis();
+                        metrics.scanDuration.inc(tsAfterMerge - tsBeforeGetMessages);
+                        if (tsFirstResponse != -1) {
+                            metrics.mergeDuration.inc(tsAfterMerge - tsFirstResponse);
+                        }
+
+                        if (log.isDebugEnabled()) {
+                            log.debug(String.format("[%1$s - %2$s] Scanned %3$s shards, got %4$s messages.",
+                                    rowLog.getId(), subscriptionId, scanCount, messageCount));
+                        }
+
+                        if (stopRequested) {
+                            // Check if not stopped because HBase hides thread interruptions
+                            return;
+                        }
+
+                        if (scanCount > 0) {
+                            metrics.messagesPerScan.inc(messageCount);
+                        }
+                        for (Map.Entry<String, MetricsLongValue> entry : metrics.shardBacklogs.entrySet()) {
+                            entry.getValue().set(backlogTracker.getBacklog(entry.getKey()));
+                        }
+
+                        // If a shard returned a full batch of messages, we will immediately request the next batch,
+                        // without sleeping. Otherwise, we sleep until the next shard is due to be scanned, unless
+                        // we received a wake-up signal after we started scanning for messages.
                         // Also: the minimalProcessDelay setting is not taken into account: as it currently is,
                         // this is only relevant for the WAL, which does not make use of the wake-up signal.
-                        if (maxMessagesFromOneShard < scanBatchPerShard && lastWakeup < tsBeforeGetMessages) {
-                            synchronized (this) {
-                                // The timeout covers two cases:
-                                //   (1) a safety fallback, in case a wake-up got lost or so
-                                //   (2) the WAL, which does not make use of wake-ups
-                                wait(rowLogConfig.getWakeupTimeout());
+                        if (!fullBatch && lastWakeup < tsBeforeGetMessages) {
+                            long sleep = Math.min(backlogTracker.getNextScanTime() - System.currentTimeMillis(),
+                                    rowLogConfig.getWakeupTimeout() * ShardBacklogTracker.MAX_IDLE_BACKOFF);
+                            if (sleep > 0) {
+                                synchronized (this) {
+                                    // The timeout covers two cases:
+                                    //   (1) a safety fallback, in case a wake-up got lost or so
+                                    //   (2) the WAL, which does not make use of wake-ups
+                                    wait(sleep);
+                                }
                             }
                         }
 
+                        adjustRefillThreshold(queueSizeBefore, offerCount, tsBeforeGetMessages, tsAfterMerge);
+
                         // It makes no sense to scan for new messages if the work-queue is still full. The messages
                         // which would be retrieved by the scan would be messages which are still in the work-queue
                         // anyway (minus those meanwhile consumed by the listeners). When no listeners are active,
@@ -526,6 +643,28 @@ public class RowLogProcessorImpl implements RowLogProcessor, RowLogObserver, Sub
             }
         }
 
+        /**
+         * Adapts the refill threshold of the work queue to the rate at which the listeners consume messages:
+         * the queue should not run dry during the next scan.
+         */
+        private void adjustRefillThreshold(int queueSizeBefore, int offerCount, long loopStart, long scanEnd) {
+            long now = System.currentTimeMillis();
+            if (now <= loopStart) {
+                return;
+            }
+            int consumed = Math.max(queueSizeBefore + offerCount - messagesWorkQueue.size(), 0);
+            double rate = (double)consumed / (now - loopStart);
+            consumptionRate = 0.3 * rate + 0.7 * consumptionRate;
+
+            long scanDuration = Math.max(scanEnd - loopStart, 1);
+            int threshold = (int)Math.ceil(consumptionRate * scanDuration * 2);
+            threshold = Math.max(threshold, MessagesWorkQueue.DEFAULT_REFILL_THRESHOLD);
+            threshold = Math.min(threshold, Math.max(settings.getMessagesWorkQueueSize() / 2,
+                    MessagesWorkQueue.DEFAULT_REFILL_THRESHOLD));
+            messagesWorkQueue.setRefillThreshold(threshold);
+            metrics.refillThreshold.set(threshold);
+        }
+
         /**
          * Check if the message is old enough to be processed. If not, wait
          * until it is. Any other messages that might be in the queue to be
@@ -549,6 +688,57 @@ public class RowLogProcessorImpl implements RowLogProcessor, RowLogObserver, Sub
         }
     }
     
+    /**
+     * Orders messages by timestamp, which is also the order in which they are returned by a shard.
+     */
+    private static final Comparator<RowLogMessage> MESSAGE_COMPARATOR = new Comparator<RowLogMessage>() {
+        @Override
+        public int compare(RowLogMessage o1, RowLogMessage o2) {
+            return ComparisonChain.start()
+                    .compare(o1.getTimestamp(), o2.getTimestamp())
+                    .compare(o1.getRowKey(), o2.getRowKey(), Bytes.BYTES_RAWCOMPARATOR)
+                    .compare(o1.getSeqNr(), o2.getSeqNr())
+                    .result();
+        }
+    };
+
+    private static class ShardScanResult {
+        private final String shardId;
+        private final int batchSize;
+        private final List<RowLogMessage> messages;
+
+        public ShardScanResult(String shardId, int batchSize, List<RowLogMessage> messages) {
+            this.shardId = shardId;
+            this.batchSize = batchSize;
+            this.messages = messages;
+        }
+    }
+
+    /**
+     * The not yet merged messages of one shard, ordered in the merge queue by their first message.
+     */
+    private static class ShardMessages implements Comparable<ShardMessages> {
+        private final List<RowLogMessage> messages;
+        private int position = 0;
+
+        public ShardMessages(List<RowLogMessage> messages) {
+            this.messages = messages;
+        }
+
+        public boolean hasNext() {
+            return position < messages.size();
+        }
+
+        public RowLogMessage next() {
+            return messages.get(position++);
+        }
+
+        @Override
+        public int compareTo(ShardMessages other) {
+            return MESSAGE_COMPARATOR.compare(messages.get(position), other.messages.get(other.position));
+        }
+    }
+
     @Override
     public void rowLogConfigChanged(RowLogConfig rowLogConfig) {
         this.rowLogConfig = rowLogConfig;
@@ -18,6 +18,13 @@ package org.lilyproject.rowlog.impl;
 import org.lilyproject.rowlog.api.RowLogProcessor;
 
 public class RowLogProcessorSettings {
+    public enum MessagesWorkQueueType {
+        /** See {@link LinkedListMessagesWorkQueue}. */
+        LINKED_LIST,
+        /** See {@link RowPartitionedMessagesWorkQueue}. */
+        ROW_PARTITIONED
+    }
+
     private int scanThreadCount = -1;
 
     private int msgTimestampMargin = RowLogProcessor.DEFAULT_MSG_TIMESTAMP_MARGIN;
@@ -26,6 +33,14 @@ public class RowLogProcessorSettings {
     
     private int messagesWorkQueueSize = 1000;
 
+    private MessagesWorkQueueType messagesWorkQueueType = MessagesWorkQueueType.LINKED_LIST;
+
+    private int remoteListenerMaxInFlight = RemoteListenersSubscriptionHandler.DEFAULT_MAX_IN_FLIGHT;
+
+    private int remoteListenerMaxBatchSize = RemoteListenersSubscriptionHandler.DEFAULT_MAX_BATCH_SIZE;
+
+    private boolean coalesceRowMessages = false;
+
     public int getScanThreadCount() {
         return scanThreadCount;
     }
@@ -79,4 +94,54 @@ public class RowLogProcessorSettings {
     public void setMessagesWorkQueueSize(int messagesWorkQueueSize) {
         this.messagesWorkQueueSize = messagesWorkQueueSize;
     }
+
+    public MessagesWorkQueueType getMessagesWorkQueueType() {
+        return messagesWorkQueueType;
+    }
+
+    /**
+     * The implementation of the messages work queue. The row partitioned queue avoids contention between
+     * the listener threads and does not need to scan over the messages of rows which are being worked on,
+     * which matters when there are many messages for the same rows.
+     */
+    public void setMessagesWorkQueueType(MessagesWorkQueueType messagesWorkQueueType) {
+        this.messagesWorkQueueType = messagesWorkQueueType;
+    }
+
+    public int getRemoteListenerMaxInFlight() {
+        return remoteListenerMaxInFlight;
+    }
+
+    /**
+     * The maximum number of messages which are sent to one remote listener without having received
+     * their result yet.
+     */
+    public void setRemoteListenerMaxInFlight(int remoteListenerMaxInFlight) {
+        this.remoteListenerMaxInFlight = remoteListenerMaxInFlight;
+    }
+
+    public int getRemoteListenerMaxBatchSize() {
+        return remoteListenerMaxBatchSize;
+    }
+
+    /**
+     * The maximum number of messages which are sent to a remote listener in one network frame.
+     */
+    public void setRemoteListenerMaxBatchSize(int remoteListenerMaxBatchSize) {
+        this.remoteListenerMaxBatchSize = remoteListenerMaxBatchSize;
+    }
+
+    public boolean getCoalesceRowMessages() {
+        return coalesceRowMessages;
+    }
+
+    /**
+     * When enabled, a listener thread which takes a message from the work queue also picks up the other
+     * outstanding messages of the same row, and hands them at once to the listener if it is a
+     * {@link org.lilyproject.rowlog.api.RowLogBatchMessageListener}. The execution state of the row is then
+     * updated once for all these messages.
+     */
+    public void setCoalesceRowMessages(boolean coalesceRowMessages) {
+        this.coalesceRowMessages = coalesceRowMessages;
+    }
 }
@@ -74,6 +74,26 @@ public class RowLogShardImpl implements RowLogShard {
         }
     }
 
+    @Override
+    public void putMessages(List<RowLogMessage> messages, List<String> subscriptionIds) throws RowLogException {
+        if (messages.isEmpty())
+            return;
+        List<Put> puts = new ArrayList<Put>(messages.size() * subscriptionIds.size());
+        for (RowLogMessage message : messages) {
+            byte[] encodedMessage = encodeMessage(message);
+            for (String subscriptionId : subscriptionIds) {
+                Put put = new Put(createRowKey(message, subscriptionId));
+                put.add(MESSAGES_CF, MESSAGE_COLUMN, encodedMessage);
+                puts.add(put);
+            }
+        }
+        try {
+            table.put(puts);
+        } catch (IOException e) {
+            throw new RowLogException("Failed to put messages on RowLogShard", e);
+        }
+    }
+
     private void putMessage(RowLogMessage message, String subscriptionId) throws RowLogException {
         byte[] rowKey = createRowKey(message, subscriptionId);
         Put put = new Put(rowKey);
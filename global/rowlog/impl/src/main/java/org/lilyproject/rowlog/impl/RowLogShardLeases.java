@@ -0,0 +1,343 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
+import org.lilyproject.rowlog.api.RowLogShard;
+import org.lilyproject.util.Logs;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+import org.lilyproject.util.zookeeper.ZooKeeperOperation;
+
+/**
+ * Divides the shards of a rowlog over all nodes running a RowLogProcessor for it, as an alternative to
+ * {@link RowLogProcessorElection} where one node processes all shards.
+ *
+ * <p>Each node registers itself with an ephemeral sequential node below /lily/rowlog/[rowlog id]/shardprocessors.
+ * The shards are assigned round-robin to these nodes, in the order of registration. Before processing a shard,
+ * a node has to take the lease on it, which is an ephemeral node /lily/rowlog/[rowlog id]/shardleases/[shard id].
+ * When the nodes change, a node first stops processing and releases the shards which are no longer assigned to
+ * it, while the nodes which get them assigned wait for the lease to be released. Since the messages of a row
+ * always end up in the same shard, no two nodes deliver messages for the same row at the same time.
+ *
+ * <p>Similar to the leader election, processing is stopped as soon as we get disconnected from ZooKeeper, since
+ * our leases might expire in the meantime. When the session does expire, our leases and registration are gone
+ * and might already be taken by other nodes, so we forget about them and register again with the new session.
+ *
+ * <p>Changes to the processed shards are done from a separate thread, which restarts the processor with the new
+ * set of shards, since the handling of a ZooKeeper event should not block.
+ */
+public class RowLogShardLeases {
+    private final ZooKeeperItf zk;
+    private final RowLogProcessorImpl rowLogProcessor;
+    private final String hostName;
+    private final String processorsPath;
+    private final String leasesPath;
+    private String sessionPrefix;
+    private final Set<String> leases = new HashSet<String>();
+    private Set<String> processedShards = Collections.emptySet();
+    private final Watcher watcher = new RebalanceWatcher();
+    private final Watcher connectStateWatcher = new ConnectStateWatcher();
+    private volatile boolean connected = true;
+    private volatile boolean sessionExpired = false;
+    private boolean registered = false;
+    private volatile boolean stopped = false;
+    private boolean rebalanceRequested = true;
+    private final Object rebalanceLock = new Object();
+    private Thread thread;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    public RowLogShardLeases(ZooKeeperItf zk, RowLogProcessorImpl rowLogProcessor, String hostName) {
+        this.zk = zk;
+        this.rowLogProcessor = rowLogProcessor;
+        this.hostName = hostName;
+        String rowLogPath = "/lily/rowlog/" + rowLogProcessor.getRowLog().getId();
+        this.processorsPath = rowLogPath + "/shardprocessors";
+        this.leasesPath = rowLogPath + "/shardleases";
+    }
+
+    @PostConstruct
+    public void start() throws InterruptedException, KeeperException {
+        ZkUtil.createPath(zk, processorsPath);
+        ZkUtil.createPath(zk, leasesPath);
+        register();
+
+        stopped = false;
+        sessionExpired = false;
+        zk.addDefaultWatcher(connectStateWatcher);
+        // Also needed when we are started again after being stopped
+        requestRebalance();
+        thread = new Thread(new Rebalancer(), "RowLogShardLeases for " + rowLogProcessor.getRowLog().getId());
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        // Note that ZooKeeper does not have a way to remove watches (see ZOOKEEPER-422)
+        stopped = true;
+        zk.removeDefaultWatcher(connectStateWatcher);
+        if (thread != null) {
+            thread.interrupt();
+            Logs.logThreadJoin(thread);
+            thread.join();
+            thread = null;
+        }
+
+        applyProcessedShards(Collections.<String>emptySet());
+
+        // Release our leases and registration, so that the other nodes can take over without waiting
+        // for our session to expire
+        try {
+            for (String shardId : new ArrayList<String>(leases)) {
+                releaseLease(shardId);
+            }
+            for (String child : zk.getChildren(processorsPath, false)) {
+                if (child.startsWith(sessionPrefix)) {
+                    zk.delete(processorsPath + "/" + child, -1);
+                }
+            }
+        } catch (KeeperException e) {
+            log.warn("Error releasing rowlog shard leases of " + rowLogProcessor.getRowLog().getId(), e);
+        }
+    }
+
+    private void register() throws InterruptedException, KeeperException {
+        // The session id is embedded in the name, so that we can recognize our own node(s), also when the
+        // creation was retried after a connection loss.
+        sessionPrefix = "p_" + Long.toHexString(zk.getSessionId()) + "_";
+        zk.retryOperation(new ZooKeeperOperation<String>() {
+            @Override
+            public String execute() throws KeeperException, InterruptedException {
+                return zk.create(processorsPath + "/" + sessionPrefix, Bytes.toBytes(hostName),
+                        ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+            }
+        });
+        registered = true;
+    }
+
+    private void requestRebalance() {
+        synchronized (rebalanceLock) {
+            rebalanceRequested = true;
+            rebalanceLock.notifyAll();
+        }
+    }
+
+    private void rebalance() throws InterruptedException, KeeperException {
+        if (sessionExpired) {
+            // Our ephemeral leases and registration disappeared together with the session, the shards might
+            // already be processed by other nodes. Don't delete anything, the nodes are not ours anymore.
+            sessionExpired = false;
+            applyProcessedShards(Collections.<String>emptySet());
+            leases.clear();
+            registered = false;
+            log.warn("ZooKeeper session expired, dropped the shard leases of rowlog " +
+                    rowLogProcessor.getRowLog().getId());
+        }
+
+        if (!connected) {
+            // Our leases are still ours as long as the session does not expire, but we can not rely on that
+            applyProcessedShards(Collections.<String>emptySet());
+            return;
+        }
+
+        if (!registered) {
+            register();
+        }
+
+        List<String> processors = zk.getChildren(processorsPath, watcher);
+        // Order by the sequence number, which follows the order of registration
+        Collections.sort(processors, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return o1.substring(o1.lastIndexOf('_')).compareTo(o2.substring(o2.lastIndexOf('_')));
+            }
+        });
+
+        Set<String> assignedShards = new HashSet<String>();
+        List<RowLogShard> shards = rowLogProcessor.getRowLog().getShards();
+        for (int i = 0; i < shards.size() && !processors.isEmpty(); i++) {
+            if (processors.get(i % processors.size()).startsWith(sessionPrefix)) {
+                assignedShards.add(shards.get(i).getId());
+            }
+        }
+
+        // First stop processing the shards which are no longer assigned to us, and only then release them
+        Set<String> keptShards = new HashSet<String>(leases);
+        keptShards.retainAll(assignedShards);
+        if (!keptShards.containsAll(processedShards)) {
+            applyProcessedShards(keptShards);
+        }
+        for (String shardId : new ArrayList<String>(leases)) {
+            if (!assignedShards.contains(shardId)) {
+                releaseLease(shardId);
+            }
+        }
+
+        // Take the leases of the newly assigned shards, for those still taken by another node we'll be
+        // notified when they are released
+        for (String shardId : assignedShards) {
+            if (!leases.contains(shardId)) {
+                acquireLease(shardId);
+            }
+        }
+
+        applyProcessedShards(new HashSet<String>(leases));
+    }
+
+    private void acquireLease(String shardId) throws InterruptedException, KeeperException {
+        String leasePath = leasesPath + "/" + shardId;
+        try {
+            zk.create(leasePath, Bytes.toBytes(hostName), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+            leases.add(shardId);
+            log.info("Took lease on shard " + shardId + " of rowlog " + rowLogProcessor.getRowLog().getId());
+        } catch (KeeperException.NodeExistsException e) {
+            Stat stat = zk.exists(leasePath, watcher);
+            if (stat == null) {
+                // Released in the meantime
+                requestRebalance();
+            } else if (stat.getEphemeralOwner() == zk.getSessionId()) {
+                // We took the lease before, e.g. when its creation was interrupted by a connection loss
+                leases.add(shardId);
+            } else if (log.isDebugEnabled()) {
+                log.debug("Waiting for the release of the lease on shard " + shardId + " of rowlog " +
+                        rowLogProcessor.getRowLog().getId());
+            }
+        }
+    }
+
+    private void releaseLease(String shardId) throws InterruptedException, KeeperException {
+        // Only delete the lease when it is ours, after our session expired it might belong to another node
+        String leasePath = leasesPath + "/" + shardId;
+        Stat stat = zk.exists(leasePath, false);
+        if (stat != null && stat.getEphemeralOwner() == zk.getSessionId()) {
+            try {
+                zk.delete(leasePath, stat.getVersion());
+            } catch (KeeperException.NoNodeException e) {
+                // already gone
+            }
+        }
+        leases.remove(shardId);
+        log.info("Released lease on shard " + shardId + " of rowlog " + rowLogProcessor.getRowLog().getId());
+    }
+
+    private void applyProcessedShards(Set<String> shardIds) throws InterruptedException {
+        if (shardIds.equals(processedShards)) {
+            return;
+        }
+
+        String rowLogId = rowLogProcessor.getRowLog().getId();
+        log.info("Processing shards " + shardIds + " of rowlog " + rowLogId);
+        rowLogProcessor.stop();
+        processedShards = shardIds;
+        rowLogProcessor.setShardIds(shardIds);
+        if (!shardIds.isEmpty()) {
+            try {
+                rowLogProcessor.start();
+            } catch (IOException e) {
+                // Retry on the next rebalance
+                processedShards = Collections.emptySet();
+                log.error("Error starting row log processor for " + rowLogId, e);
+            }
+        }
+    }
+
+    private class Rebalancer implements Runnable {
+        @Override
+        public void run() {
+            while (!Thread.interrupted() && !stopped) {
+                try {
+                    synchronized (rebalanceLock) {
+                        while (!rebalanceRequested && !stopped) {
+                            rebalanceLock.wait();
+                        }
+                        rebalanceRequested = false;
+                    }
+                    if (!stopped) {
+                        rebalance();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Throwable t) {
+                    log.error("Error dividing the shards of rowlog " + rowLogProcessor.getRowLog().getId(), t);
+                    // Try again, unless we are disconnected, then we'll retry on reconnect
+                    if (connected) {
+                        try {
+                            Thread.sleep(1000);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        requestRebalance();
+                    }
+                }
+            }
+        }
+    }
+
+    private class RebalanceWatcher implements Watcher {
+        @Override
+        public void process(WatchedEvent event) {
+            if (!stopped && event.getType() != EventType.None) {
+                requestRebalance();
+            }
+        }
+    }
+
+    private class ConnectStateWatcher implements Watcher {
+        @Override
+        public void process(WatchedEvent event) {
+            if (stopped || event.getType() != EventType.None) {
+                return;
+            }
+
+            if (event.getState() == KeeperState.Disconnected) {
+                connected = false;
+                requestRebalance();
+            } else if (event.getState() == KeeperState.Expired) {
+                connected = false;
+                sessionExpired = true;
+                requestRebalance();
+            } else if (event.getState() == KeeperState.SyncConnected) {
+                // Upon reconnect with the same session, our leases will still exist. If the session expired
+                // and the handle reconnected with a new one, the rebalance registers us again.
+                connected = true;
+                requestRebalance();
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lilyproject.rowlog.api.RowLogMessage;
+import org.lilyproject.util.ByteArrayKey;
+
+/**
+ * A {@link MessagesWorkQueue} which partitions the messages per row into FIFO lanes.
+ *
+ * <p>Only lanes which have messages and for which no message is being worked on are put on the ready queue,
+ * so take() simply picks the next lane from that queue, rather than walking over all messages to find one
+ * for a row which is not being worked on. When a message is done, its lane goes back on the ready queue
+ * if more messages for the row arrived in the meantime.
+ *
+ * <p>There is no lock over the whole queue: the ready queue is a non-blocking queue, each lane is
+ * synchronized on its own, and blocking in offer() and take() is done through semaphores.
+ */
+public class RowPartitionedMessagesWorkQueue implements MessagesWorkQueue {
+    private final ConcurrentMap<ByteArrayKey, Lane> lanes = new ConcurrentHashMap<ByteArrayKey, Lane>();
+
+    private final Queue<Lane> readyLanes = new ConcurrentLinkedQueue<Lane>();
+
+    /**
+     * Permits correspond to the number of lanes in readyLanes.
+     */
+    private final Semaphore readyPermits = new Semaphore(0);
+
+    /**
+     * Permits correspond to the free space in the queue.
+     */
+    private final Semaphore freePermits;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * If the queue contains less than this amount of messages, we'll notify that we want some fresh messages.
+     */
+    private volatile int refillThreshold = DEFAULT_REFILL_THRESHOLD;
+
+    private final Object refillTrigger = new Object();
+
+    public RowPartitionedMessagesWorkQueue(int size) {
+        this.freePermits = new Semaphore(size);
+    }
+
+    @Override
+    public void offer(RowLogMessage message) throws InterruptedException {
+        freePermits.acquire();
+        ByteArrayKey row = new ByteArrayKey(message.getRowKey());
+        while (true) {
+            Lane lane = lanes.get(row);
+            if (lane == null) {
+                Lane newLane = new Lane();
+                lane = lanes.putIfAbsent(row, newLane);
+                if (lane == null) {
+                    lane = newLane;
+                }
+            }
+            synchronized (lane) {
+                if (lane.removed) {
+                    // The lane got emptied and removed in the meantime, retry with a new one
+                    continue;
+                }
+                if (message.equals(lane.current) || lane.messages.contains(message)) {
+                    // Scans can return messages which are still queued or being worked on
+                    freePermits.release();
+                    return;
+                }
+                lane.messages.add(message);
+                size.incrementAndGet();
+                if (lane.current == null && !lane.ready) {
+                    makeReady(lane);
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public RowLogMessage take() throws InterruptedException {
+        readyPermits.acquire();
+        Lane lane = readyLanes.poll();
+        RowLogMessage message;
+        synchronized (lane) {
+            lane.ready = false;
+            message = lane.messages.poll();
+            lane.current = message;
+        }
+        size.decrementAndGet();
+        freePermits.release();
+        afterMessageRemoval();
+        return message;
+    }
+
+    @Override
+    public void done(RowLogMessage message) {
+        ByteArrayKey row = new ByteArrayKey(message.getRowKey());
+        Lane lane = lanes.get(row);
+        if (lane == null) {
+            return;
+        }
+        synchronized (lane) {
+            if (!message.equals(lane.current)) {
+                return;
+            }
+            lane.current = null;
+            if (lane.messages.isEmpty()) {
+                lane.removed = true;
+                lanes.remove(row, lane);
+            } else {
+                makeReady(lane);
+            }
+        }
+    }
+
+    /**
+     * Should be called while synchronized on the lane.
+     */
+    private void makeReady(Lane lane) {
+        lane.ready = true;
+        readyLanes.add(lane);
+        readyPermits.release();
+    }
+
+    private void afterMessageRemoval() {
+        if (size.get() <= refillThreshold) {
+            synchronized (refillTrigger) {
+                refillTrigger.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void setRefillThreshold(int refillThreshold) {
+        this.refillThreshold = refillThreshold;
+    }
+
+    @Override
+    public void waitOnRefillThreshold() throws InterruptedException {
+        synchronized (refillTrigger) {
+            while (size.get() > refillThreshold) {
+                refillTrigger.wait();
+            }
+        }
+    }
+
+    /**
+     * The messages of one row. Instances are guarded by their own monitor.
+     */
+    private static class Lane {
+        private final Queue<RowLogMessage> messages = new LinkedList<RowLogMessage>();
+        /** The message which is being worked on, if any. */
+        private RowLogMessage current;
+        /** True if the lane is on the ready queue. */
+        private boolean ready;
+        /** True if the lane has been removed from the lanes map, it should not be used anymore. */
+        private boolean removed;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lilyproject.rowlog.api.ShardBacklog;
+
+/**
+ * Keeps track of the backlog of the shards for one subscription, and based on this decides which shards to scan
+ * and how many messages to scan from each of them.
+ *
+ * <ul>
+ *     <li>A shard which returned a full batch is scanned again immediately, a shard which returned less than a full
+ *     batch is scanned again after the wakeup timeout, unless the processor is notified of new messages before.</li>
+ *     <li>A shard which returned no messages is scanned ever less frequently, up to {@link #MAX_IDLE_BACKOFF} times
+ *     the wakeup timeout. A notification resets this back-off, since we do not know for which shard it is.</li>
+ *     <li>The total scan batch size is divided over the shards in proportion to their backlog, so that busy shards
+ *     get bigger batches.</li>
+ *     <li>Since not all shards are scanned in each round, each shard has its own minimal timestamp from which it
+ *     is scanned.</li>
+ * </ul>
+ *
+ * <p>This class is not thread safe, except for {@link #getShardBacklogs}.
+ */
+public class ShardBacklogTracker {
+    static final int MAX_IDLE_BACKOFF = 8;
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final Map<String, ShardState> shards = new LinkedHashMap<String, ShardState>();
+    private final int totalBatchSize;
+    private final int minBatchSize;
+
+    public ShardBacklogTracker(List<String> shardIds, int totalBatchSize) {
+        for (String shardId : shardIds) {
+            shards.put(shardId, new ShardState());
+        }
+        this.totalBatchSize = Math.max(totalBatchSize, 1);
+        this.minBatchSize = Math.max(this.totalBatchSize / Math.max(shardIds.size() * 2, 1), 1);
+    }
+
+    /**
+     * Returns the shards which should be scanned at the given time.
+     */
+    public List<String> getShardsToScan(long now) {
+        List<String> result = new ArrayList<String>(shards.size());
+        for (Map.Entry<String, ShardState> entry : shards.entrySet()) {
+            if (entry.getValue().nextScan <= now) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the time of the first upcoming scan.
+     */
+    public long getNextScanTime() {
+        long next = Long.MAX_VALUE;
+        for (ShardState state : shards.values()) {
+            next = Math.min(next, state.nextScan);
+        }
+        return next;
+    }
+
+    /**
+     * Returns the number of messages to scan from the given shard: its share of the total batch size,
+     * proportional to its backlog.
+     */
+    public int getBatchSize(String shardId) {
+        long totalWeight = 0;
+        for (ShardState state : shards.values()) {
+            totalWeight += state.backlog + 1;
+        }
+        long weight = shards.get(shardId).backlog + 1;
+        int batchSize = (int)(totalBatchSize * weight / totalWeight);
+        return Math.min(Math.max(batchSize, minBatchSize), totalBatchSize);
+    }
+
+    /**
+     * Updates the state of a shard after it has been scanned.
+     *
+     * @param messageCount the number of messages returned by the scan
+     * @param batchSize the maximum number of messages the scan could have returned
+     */
+    public void scanned(String shardId, int messageCount, int batchSize, long now, long wakeupTimeout) {
+        ShardState state = shards.get(shardId);
+
+        if (messageCount < batchSize) {
+            // We've seen everything that is available
+            state.backlog = messageCount;
+        } else {
+            state.backlog = Math.max(state.backlog, messageCount);
+        }
+
+        if (state.lastScan > 0 && now > state.lastScan) {
+            double rate = messageCount * 1000d / (now - state.lastScan);
+            state.messageRate = RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * state.messageRate;
+        }
+        state.lastScan = now;
+
+        if (messageCount >= batchSize) {
+            state.idleScans = 0;
+            state.scanInterval = 0;
+        } else if (messageCount > 0) {
+            state.idleScans = 0;
+            state.scanInterval = wakeupTimeout;
+        } else {
+            state.idleScans++;
+            state.scanInterval = wakeupTimeout * Math.min(1L << Math.min(state.idleScans - 1, 30), MAX_IDLE_BACKOFF);
+        }
+        state.nextScan = now + state.scanInterval;
+    }
+
+    /**
+     * Returns the minimal timestamp of the messages to scan from the given shard, or null if the shard should be
+     * scanned from its start.
+     */
+    public Long getMinimalTimestamp(String shardId) {
+        return shards.get(shardId).minimalTimestamp;
+    }
+
+    public void setMinimalTimestamp(String shardId, Long minimalTimestamp) {
+        shards.get(shardId).minimalTimestamp = minimalTimestamp;
+    }
+
+    /**
+     * To be called when the processor got notified of new messages: all shards will be scanned on the next round.
+     */
+    public void wakeup() {
+        for (ShardState state : shards.values()) {
+            state.nextScan = 0;
+        }
+    }
+
+    public long getBacklog(String shardId) {
+        return shards.get(shardId).backlog;
+    }
+
+    public List<ShardBacklog> getShardBacklogs(String subscriptionId) {
+        List<ShardBacklog> result = new ArrayList<ShardBacklog>(shards.size());
+        for (Map.Entry<String, ShardState> entry : shards.entrySet()) {
+            ShardState state = entry.getValue();
+            result.add(new ShardBacklog(entry.getKey(), subscriptionId, state.backlog, state.messageRate,
+                    state.scanInterval));
+        }
+        return result;
+    }
+
+    private static class ShardState {
+        private volatile long backlog;
+        private volatile double messageRate;
+        private volatile long scanInterval;
+        private long lastScan;
+        private long nextScan;
+        private int idleScans;
+        private Long minimalTimestamp;
+    }
+}
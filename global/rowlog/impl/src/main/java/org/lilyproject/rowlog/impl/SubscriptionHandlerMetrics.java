@@ -39,6 +39,8 @@ public class SubscriptionHandlerMetrics implements Updater {
     public MetricsTimeVaryingInt failureRate = new MetricsTimeVaryingInt("failure_rate", registry);
     public MetricsTimeVaryingInt ioExceptionRate = new MetricsTimeVaryingInt("ioexception_rate", registry);
     public MetricsIntValue queueSize = new MetricsIntValue("queueSize", registry);
+    /** Number of messages which were handed to the listener together with another message of the same row. */
+    public MetricsTimeVaryingInt coalescedRate = new MetricsTimeVaryingInt("coalesced_rate", registry);
 
     public SubscriptionHandlerMetrics(String subscriptionId) {
         this.subscriptionId = subscriptionId;
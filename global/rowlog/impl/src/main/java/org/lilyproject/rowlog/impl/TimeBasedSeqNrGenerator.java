@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates rowlog message sequence numbers without contacting HBase.
+ *
+ * <p>Traditionally, the sequence number of a message is allocated by incrementing a counter stored in the row
+ * itself, which costs an extra round trip per message. The sequence numbers generated here are instead composed of:
+ *
+ * <ul>
+ *     <li>41 bits: the time in milliseconds since 2012-01-01, which lasts until the year 2081</li>
+ *     <li>12 bits: a per-process counter to distinguish the numbers generated within the same millisecond</li>
+ *     <li>10 bits: an identifier of the generating process, chosen randomly at startup</li>
+ * </ul>
+ *
+ * <p>The numbers are strictly increasing within one process, also when the clock is set back. Between processes,
+ * the order of the numbers follows the order in which they were generated, as long as the clock skew between the
+ * servers is smaller than the time between two updates of the same row. Since the updates of a row are serialized
+ * through its row lock, and the rowlog already relies on the server clocks for its message timestamps and lock
+ * timeouts, this is an acceptable assumption. The process identifier makes sure that two processes never generate
+ * the same number during the same millisecond, except for the unlikely case that both picked the same identifier.
+ * Since a message is identified by its row key, timestamp and sequence number together, such a collision would
+ * in addition require both processes to create a message for the same row in the same millisecond.
+ *
+ * <p>The generated numbers are always much larger than the values of the per-row counters, so messages created
+ * with the counter before switching to this generator still sort before the new ones.
+ */
+public class TimeBasedSeqNrGenerator {
+    /** 2012-01-01T00:00:00Z */
+    private static final long EPOCH = 1325376000000L;
+    private static final int COUNTER_BITS = 12;
+    private static final int PROCESS_ID_BITS = 10;
+
+    private final long processId;
+    private final AtomicLong lastTick = new AtomicLong();
+
+    public TimeBasedSeqNrGenerator() {
+        this(new SecureRandom().nextInt(1 << PROCESS_ID_BITS));
+    }
+
+    public TimeBasedSeqNrGenerator(int processId) {
+        if (processId < 0 || processId >= (1 << PROCESS_ID_BITS)) {
+            throw new IllegalArgumentException("Process id should be between 0 and " + ((1 << PROCESS_ID_BITS) - 1)
+                    + ", got: " + processId);
+        }
+        this.processId = processId;
+    }
+
+    public long nextSeqNr() {
+        return nextSeqNr(System.currentTimeMillis());
+    }
+
+    /**
+     * Generates the next sequence number, using the given time instead of the current time. Mainly useful for
+     * testing.
+     */
+    public long nextSeqNr(long now) {
+        long candidate = (now - EPOCH) << COUNTER_BITS;
+        while (true) {
+            long last = lastTick.get();
+            // When more than 4096 numbers are generated within one millisecond, or when the clock went back,
+            // we continue from the last tick, which borrows from the next millisecond(s).
+            long tick = candidate > last ? candidate : last + 1;
+            if (lastTick.compareAndSet(last, tick)) {
+                return (tick << PROCESS_ID_BITS) | processId;
+            }
+        }
+    }
+}
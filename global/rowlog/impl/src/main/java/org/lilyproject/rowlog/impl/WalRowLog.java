@@ -18,6 +18,7 @@ package org.lilyproject.rowlog.impl;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.lilyproject.rowlock.RowLock;
@@ -56,6 +57,17 @@ public class WalRowLog extends RowLogImpl {
         // Ignore subscriptions and put a message for the 'meta' wal subscription
         getShard(message).putMessage(message, Arrays.asList(WAL_SUBSCRIPTIONID));
     }
+
+    /**
+     * Batch variant of {@link #putMessageOnShard}, again only for the 'meta' subscription id.
+     */
+    @Override
+    protected void putMessagesOnShards(List<RowLogMessage> messages, List<RowLogSubscription> subscriptions)
+            throws RowLogException {
+        for (Map.Entry<RowLogShard, List<RowLogMessage>> entry : groupByShard(messages).entrySet()) {
+            entry.getKey().putMessages(entry.getValue(), Arrays.asList(WAL_SUBSCRIPTIONID));
+        }
+    }
     
     /**
      * Requests to remove the message from the shard for individual subscriptions are ignored.
@@ -86,6 +98,11 @@ public class WalRowLog extends RowLogImpl {
         // The 'meta' message has been removed by the handleAllDone call.
         return true;
     }
+
+    @Override
+    public boolean messagesDone(List<RowLogMessage> messages, String subscriptionId) {
+        return true;
+    }
     
     /**
      * The message for the meta wal subscription are always orphan, so we don't remove them 
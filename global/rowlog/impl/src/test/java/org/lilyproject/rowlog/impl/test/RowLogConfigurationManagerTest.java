@@ -317,6 +317,84 @@ public class RowLogConfigurationManagerTest {
         callBack2.validate();
     }
     
+    /**
+     * Notifications for processors on other nodes go through the UDP endpoints they advertise, or through
+     * ZooKeeper when no endpoint is known.
+     */
+    @Test
+    public void testProcessorNotifyChannel() throws Exception {
+        String rowLogId = "testProcessorNotifyChannelRowLogId";
+        String endpointsPath = "/lily/rowlog/" + rowLogId + "/processorNotifyEndpoints";
+        String notifyPath = "/lily/rowlog/" + rowLogId + "/processorNotify";
+
+        // A processor node without host name advertises no endpoint, like the processors of older Lily versions
+        RowLogConfigurationManagerImpl oldProcessorNode = new RowLogConfigurationManagerImpl(zooKeeper);
+        RowLogConfigurationManagerImpl newProcessorNode = new RowLogConfigurationManagerImpl(zooKeeper, "localhost");
+        RowLogConfigurationManagerImpl sender = new RowLogConfigurationManagerImpl(zooKeeper);
+        try {
+            ProcessorNotifyCallBack oldCallBack = new ProcessorNotifyCallBack();
+            oldCallBack.expect(true);
+            oldProcessorNode.addProcessorNotifyObserver(rowLogId, oldCallBack);
+            oldCallBack.validate();
+
+            // No endpoint is known, the notification goes through ZooKeeper
+            int version = zooKeeper.exists(notifyPath, false).getVersion();
+            oldCallBack.expect(true);
+            sender.notifyProcessor(rowLogId);
+            oldCallBack.validate();
+            Assert.assertEquals(version + 1, zooKeeper.exists(notifyPath, false).getVersion());
+
+            // Once a processor advertised its endpoint, the sender picks it up and notifies it through UDP
+            ProcessorNotifyCallBack newCallBack = new ProcessorNotifyCallBack();
+            newCallBack.expect(true);
+            newProcessorNode.addProcessorNotifyObserver(rowLogId, newCallBack);
+            newCallBack.validate();
+            Assert.assertEquals(1, zooKeeper.getChildren(endpointsPath, false).size());
+            Assert.assertTrue("Notification still goes through ZooKeeper",
+                    waitForNotifyThroughZk(sender, rowLogId, notifyPath, false));
+
+            // The processor of the older version then only wakes up after its wakeup timeout
+            Thread.sleep(1000);
+            newCallBack.expect(true);
+            oldCallBack.expect(false);
+            sender.notifyProcessor(rowLogId);
+            newCallBack.validate();
+            oldCallBack.validate();
+
+            // Once the endpoint is gone, the sender falls back to ZooKeeper again
+            newProcessorNode.removeProcessorNotifyObserver(rowLogId);
+            Assert.assertEquals(0, zooKeeper.getChildren(endpointsPath, false).size());
+            Assert.assertTrue("Notification does not go through ZooKeeper",
+                    waitForNotifyThroughZk(sender, rowLogId, notifyPath, true));
+            Thread.sleep(1000);
+            oldCallBack.expect(true);
+            sender.notifyProcessor(rowLogId);
+            oldCallBack.validate();
+        } finally {
+            sender.shutdown();
+            newProcessorNode.shutdown();
+            oldProcessorNode.shutdown();
+        }
+    }
+
+    /**
+     * Notifies until the notification does (not) go through ZooKeeper, since the endpoints cached by the sender
+     * are only invalidated once it received the ZooKeeper event.
+     */
+    private boolean waitForNotifyThroughZk(RowLogConfigurationManagerImpl sender, String rowLogId, String notifyPath,
+            boolean throughZk) throws Exception {
+        long waitUntil = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < waitUntil) {
+            int version = zooKeeper.exists(notifyPath, false).getVersion();
+            sender.notifyProcessor(rowLogId);
+            if ((zooKeeper.exists(notifyPath, false).getVersion() != version) == throughZk) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
     private class ProcessorNotifyCallBack implements ProcessorNotifyObserver {
         
         private Semaphore semaphore = new Semaphore(0);
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl.test;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.rowlog.api.RowLog;
+import org.lilyproject.rowlog.api.RowLogBatchMessageListener;
+import org.lilyproject.rowlog.api.RowLogMessage;
+import org.lilyproject.rowlog.api.RowLogMessageListener;
+import org.lilyproject.rowlog.impl.RowLogMessageImpl;
+import org.lilyproject.rowlog.impl.RowLogMessageListeners;
+
+public class RowLogMessageListenersTest {
+    private RowLogMessage message1;
+    private RowLogMessage message2;
+    private RowLogMessage message3;
+    private List<RowLogMessage> messages;
+
+    @Before
+    public void setUp() throws Exception {
+        RowLog rowLog = createNiceMock(RowLog.class);
+        replay(rowLog);
+        message1 = newMessage(1, rowLog);
+        message2 = newMessage(2, rowLog);
+        message3 = newMessage(3, rowLog);
+        messages = Arrays.asList(message1, message2, message3);
+    }
+
+    @Test
+    public void testOneByOne() throws Exception {
+        FailingListener listener = new FailingListener();
+        assertEquals(messages, RowLogMessageListeners.processMessages(listener, messages));
+        assertEquals(messages, listener.offered);
+    }
+
+    @Test
+    public void testOneByOneSkipsOnlyFailedMessage() throws Exception {
+        FailingListener listener = new FailingListener(2);
+        assertEquals(Arrays.asList(message1, message3), RowLogMessageListeners.processMessages(listener, messages));
+        assertEquals(messages, listener.offered);
+
+        // Failing with an exception has the same effect
+        listener = new FailingListener(1);
+        listener.throwException = true;
+        assertEquals(Arrays.asList(message2, message3), RowLogMessageListeners.processMessages(listener, messages));
+        assertEquals(messages, listener.offered);
+
+        listener = new FailingListener(1, 2, 3);
+        assertTrue(RowLogMessageListeners.processMessages(listener, messages).isEmpty());
+        assertEquals(messages, listener.offered);
+    }
+
+    @Test
+    public void testBatchListener() throws Exception {
+        BatchListener listener = new BatchListener();
+        assertEquals(messages, RowLogMessageListeners.processMessages(listener, messages));
+        assertEquals(1, listener.batches);
+
+        listener.result = false;
+        assertTrue(RowLogMessageListeners.processMessages(listener, messages).isEmpty());
+        assertEquals(2, listener.batches);
+    }
+
+    private static RowLogMessage newMessage(long seqnr, RowLog rowLog) {
+        return new RowLogMessageImpl(System.currentTimeMillis(), new byte[] {1, 2, 3}, seqnr, null, rowLog);
+    }
+
+    private static class FailingListener implements RowLogMessageListener {
+        private final Set<Long> failingSeqNrs = new HashSet<Long>();
+        private final List<RowLogMessage> offered = new ArrayList<RowLogMessage>();
+        private boolean throwException = false;
+
+        public FailingListener(long... failingSeqNrs) {
+            for (long seqnr : failingSeqNrs) {
+                this.failingSeqNrs.add(seqnr);
+            }
+        }
+
+        @Override
+        public boolean processMessage(RowLogMessage message) {
+            offered.add(message);
+            if (failingSeqNrs.contains(message.getSeqNr())) {
+                if (throwException) {
+                    throw new RuntimeException("Failure processing message " + message.getSeqNr());
+                }
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private static class BatchListener implements RowLogBatchMessageListener {
+        private boolean result = true;
+        private int batches = 0;
+
+        @Override
+        public boolean processMessages(List<RowLogMessage> messages) {
+            batches++;
+            return result;
+        }
+
+        @Override
+        public boolean processMessage(RowLogMessage message) {
+            throw new IllegalStateException("Messages should be given as batch");
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl.test;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.hadooptestfw.HBaseProxy;
+import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.rowlog.api.RowLog;
+import org.lilyproject.rowlog.api.RowLogConfig;
+import org.lilyproject.rowlog.api.RowLogMessage;
+import org.lilyproject.rowlog.api.RowLogShard;
+import org.lilyproject.rowlog.api.RowLogSubscription;
+import org.lilyproject.rowlog.impl.RowLogConfigurationManagerImpl;
+import org.lilyproject.rowlog.impl.RowLogMessageImpl;
+import org.lilyproject.rowlog.impl.RowLogProcessorImpl;
+import org.lilyproject.rowlog.impl.RowLogProcessorSettings;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+
+/**
+ * Tests how the rowlog processor scans shards which are not all scanned in the same rounds.
+ */
+public class RowLogProcessorShardScanTest {
+    private static final String ROWLOG_ID = "ShardScanRowLog";
+    private static final String SUBSCRIPTION_ID = "ShardScanSubscription";
+    private static HBaseProxy HBASE_PROXY;
+    private static Configuration configuration;
+    private static ZooKeeperItf zooKeeper;
+    private static RowLogConfigurationManagerImpl rowLogConfigurationManager;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        TestHelper.setupLogging();
+        HBASE_PROXY = new HBaseProxy();
+        HBASE_PROXY.start();
+        configuration = HBASE_PROXY.getConf();
+        zooKeeper = ZkUtil.connect(HBASE_PROXY.getZkConnectString(), 120000);
+        rowLogConfigurationManager = new RowLogConfigurationManagerImpl(zooKeeper);
+        // A short wakeup timeout, notifications are disabled
+        rowLogConfigurationManager.addRowLog(ROWLOG_ID, new RowLogConfig(true, false, 100L, 0L, 200L, 5000L, 100));
+        rowLogConfigurationManager.addSubscription(ROWLOG_ID, SUBSCRIPTION_ID, RowLogSubscription.Type.VM, 1);
+        rowLogConfigurationManager.addListener(ROWLOG_ID, SUBSCRIPTION_ID, "listener1");
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        Closer.close(rowLogConfigurationManager);
+        Closer.close(zooKeeper);
+        HBASE_PROXY.stop();
+    }
+
+    /**
+     * A shard which always returns a full batch is scanned every round, a shard which returns a partial batch only
+     * after the wakeup timeout. The messages of the busy shard should not make the processor skip the older
+     * message of the other shard.
+     */
+    @Test(timeout=60000)
+    public void testMinimalTimestampPerShard() throws Exception {
+        // The message stays in the shard since the rowlog never reports it as available and done
+        RowLog rowLog = createNiceMock(RowLog.class);
+        expect(rowLog.getId()).andReturn(ROWLOG_ID).anyTimes();
+        replay(rowLog);
+
+        long oldTimestamp = System.currentTimeMillis() - 60000;
+        final FakeShard busyShard = new FakeShard("busy", rowLog, null);
+        final FakeShard slowShard = new FakeShard("slow", rowLog,
+                new RowLogMessageImpl(oldTimestamp, Bytes.toBytes("oldrow"), 1, null, rowLog));
+
+        RowLogProcessorSettings settings = new RowLogProcessorSettings();
+        settings.setScanBatchSize(20);
+        settings.setMsgTimestampMargin(100);
+        settings.setScanThreadCount(2);
+        RowLogProcessorImpl processor = new RowLogProcessorImpl(rowLog, rowLogConfigurationManager, configuration,
+                settings) {
+            @Override
+            protected List<RowLogShard> getProcessedShards() {
+                return Arrays.<RowLogShard>asList(busyShard, slowShard);
+            }
+        };
+
+        processor.start();
+        try {
+            while (slowShard.scanCount.get() < 5) {
+                Thread.sleep(50);
+            }
+        } finally {
+            processor.stop();
+        }
+
+        assertTrue("The busy shard should be scanned more often than the other one",
+                busyShard.scanCount.get() > slowShard.scanCount.get());
+        assertEquals("Scans of the slow shard which skipped its message", 0, slowShard.missedScanCount.get());
+    }
+
+    private static class FakeShard implements RowLogShard {
+        private final String id;
+        private final RowLog rowLog;
+        /** The message this shard always returns, or null to return a full batch of new messages on each scan. */
+        private final RowLogMessage message;
+        private final AtomicInteger scanCount = new AtomicInteger();
+        private final AtomicInteger missedScanCount = new AtomicInteger();
+        private final AtomicLong seqnr = new AtomicLong();
+
+        public FakeShard(String id, RowLog rowLog, RowLogMessage message) {
+            this.id = id;
+            this.rowLog = rowLog;
+            this.message = message;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public List<RowLogMessage> next(String subscription, Long minimalTimestamp, int batchSize) {
+            scanCount.incrementAndGet();
+            if (message == null) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Collections.emptyList();
+                }
+                List<RowLogMessage> messages = new ArrayList<RowLogMessage>(batchSize);
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < batchSize; i++) {
+                    long nr = seqnr.incrementAndGet();
+                    messages.add(new RowLogMessageImpl(now, Bytes.toBytes("row" + nr), nr, null, rowLog));
+                }
+                return messages;
+            }
+
+            if (minimalTimestamp != null && minimalTimestamp > message.getTimestamp()) {
+                missedScanCount.incrementAndGet();
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(message);
+        }
+
+        @Override
+        public List<RowLogMessage> next(String subscription, int batchSize) {
+            return next(subscription, null, batchSize);
+        }
+
+        @Override
+        public void putMessage(RowLogMessage message, List<String> subscriptionIds) {
+        }
+
+        @Override
+        public void putMessage(RowLogMessage message) {
+        }
+
+        @Override
+        public void putMessages(List<RowLogMessage> messages, List<String> subscriptionIds) {
+        }
+
+        @Override
+        public void removeMessage(RowLogMessage message, String subscription) {
+        }
+
+        @Override
+        public void flushMessageDeleteBuffer() {
+        }
+    }
+}
@@ -15,11 +15,21 @@
  */
 package org.lilyproject.rowlog.impl.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.lilyproject.rowlog.api.RowLogMessage;
+import org.lilyproject.rowlog.api.RowLogMessageListener;
 import org.lilyproject.rowlog.api.RowLogSubscription;
 import org.lilyproject.rowlog.impl.RemoteListenerHandler;
 
@@ -81,4 +91,95 @@ public class RowLogRemoteEndToEndTest extends AbstractRowLogEndToEndTest {
         remoteListener2.stop();
         rowLogConfigurationManager.removeSubscription(rowLog.getId(), subscriptionId2);
     }
+
+    /**
+     * A listener with several processing threads gets several messages in flight, the results which come back
+     * in another order than the requests were sent should be acknowledged for the right messages, and the
+     * messages of a row should still be processed in order.
+     */
+    @Test(timeout=270000)
+    public void testMessagesInFlight() throws Exception {
+        String subscriptionId2 = "InFlight";
+        rowLogConfigurationManager.addSubscription(rowLog.getId(), subscriptionId2, RowLogSubscription.Type.Netty, 3);
+        waitForSubscription(rowLog, subscriptionId2);
+        ConcurrencyListener listener = new ConcurrencyListener();
+        RemoteListenerHandler remoteListener2 = new RemoteListenerHandler(rowLog, subscriptionId2, listener,
+                rowLogConfigurationManager, "localhost", 4);
+        remoteListener2.start();
+        try {
+            List<RowLogMessage> messages = new ArrayList<RowLogMessage>();
+            for (int seqnr = 0; seqnr < 3; seqnr++) {
+                for (int rownr = 30; rownr < 34; rownr++) {
+                    messages.add(rowLog.putMessage(Bytes.toBytes("row" + rownr), null, null, null));
+                }
+            }
+            // The result for this message is false the first time, it should be retried rather than be marked done
+            listener.messageToFail = messages.get(5);
+
+            processor.start();
+            long waitUntil = System.currentTimeMillis() + 120000;
+            while (!rowLog.getShards().get(0).next(subscriptionId2, 20).isEmpty()
+                    && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(100);
+            }
+            processor.stop();
+
+            assertTrue("Messages still to be processed", rowLog.getShards().get(0).next(subscriptionId2, 20).isEmpty());
+            assertTrue("No messages were processed concurrently", listener.maxConcurrent.get() > 1);
+            for (RowLogMessage message : messages) {
+                int expected = message.equals(messages.get(5)) ? 2 : 1;
+                assertEquals("Times processed " + message, expected, listener.count(message));
+            }
+            for (List<Long> seqnrs : listener.seqnrsByRow.values()) {
+                for (int i = 1; i < seqnrs.size(); i++) {
+                    assertTrue("Messages of a row processed out of order: " + seqnrs,
+                            seqnrs.get(i - 1) <= seqnrs.get(i));
+                }
+            }
+        } finally {
+            remoteListener2.stop();
+            rowLogConfigurationManager.removeSubscription(rowLog.getId(), subscriptionId2);
+        }
+    }
+
+    private static class ConcurrencyListener implements RowLogMessageListener {
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final Map<String, List<Long>> seqnrsByRow = new HashMap<String, List<Long>>();
+        private final Map<RowLogMessage, Integer> counts = new HashMap<RowLogMessage, Integer>();
+        private volatile RowLogMessage messageToFail;
+
+        @Override
+        public boolean processMessage(RowLogMessage message) throws InterruptedException {
+            int current = concurrent.incrementAndGet();
+            try {
+                synchronized (this) {
+                    maxConcurrent.set(Math.max(maxConcurrent.get(), current));
+                    String row = Bytes.toString(message.getRowKey());
+                    List<Long> seqnrs = seqnrsByRow.get(row);
+                    if (seqnrs == null) {
+                        seqnrs = new ArrayList<Long>();
+                        seqnrsByRow.put(row, seqnrs);
+                    }
+                    seqnrs.add(message.getSeqNr());
+                    Integer count = counts.get(message);
+                    counts.put(message, count == null ? 1 : count + 1);
+                }
+                // Vary the processing time, so that the results are sent back in another order
+                Thread.sleep(message.getRowKey()[message.getRowKey().length - 1] % 2 == 0 ? 300 : 50);
+                if (message.equals(messageToFail)) {
+                    messageToFail = null;
+                    return false;
+                }
+                return true;
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+
+        public synchronized int count(RowLogMessage message) {
+            Integer count = counts.get(message);
+            return count == null ? 0 : count;
+        }
+    }
 }
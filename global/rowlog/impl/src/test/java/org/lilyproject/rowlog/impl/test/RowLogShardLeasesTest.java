@@ -0,0 +1,265 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl.test;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.hadooptestfw.HBaseProxy;
+import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.rowlog.api.RowLog;
+import org.lilyproject.rowlog.api.RowLogShard;
+import org.lilyproject.rowlog.impl.RowLogProcessorImpl;
+import org.lilyproject.rowlog.impl.RowLogShardLeases;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.zookeeper.ZooKeeperImpl;
+import org.lilyproject.util.zookeeper.ZooKeeperMXBean;
+
+/**
+ * Tests how the shards of a rowlog are divided over the nodes when nodes join, leave or lose their session.
+ */
+public class RowLogShardLeasesTest {
+    private static final int SESSION_TIMEOUT = 20000;
+    private static final long WAIT_TIMEOUT = 30000;
+    private static HBaseProxy HBASE_PROXY;
+    private static String zkConnectString;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        TestHelper.setupLogging();
+        HBASE_PROXY = new HBaseProxy();
+        HBASE_PROXY.start();
+        zkConnectString = HBASE_PROXY.getZkConnectString();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        HBASE_PROXY.stop();
+    }
+
+    @Test(timeout=120000)
+    public void testJoinAndLeave() throws Exception {
+        RowLog rowLog = createRowLog("ShardLeasesRowLog1", 4);
+        Map<String, RecordingProcessor> owners = new HashMap<String, RecordingProcessor>();
+        Set<String> overlaps = Collections.synchronizedSet(new HashSet<String>());
+
+        ReconnectableZooKeeper zk1 = connect();
+        ReconnectableZooKeeper zk2 = connect();
+        RecordingProcessor processor1 = new RecordingProcessor(rowLog, owners, overlaps);
+        RecordingProcessor processor2 = new RecordingProcessor(rowLog, owners, overlaps);
+        RowLogShardLeases leases1 = new RowLogShardLeases(zk1, processor1, "host1");
+        RowLogShardLeases leases2 = new RowLogShardLeases(zk2, processor2, "host2");
+        try {
+            // A single node processes all shards
+            leases1.start();
+            waitForShards(processor1, "shard0", "shard1", "shard2", "shard3");
+
+            // A joining node gets half of the shards, once the first node released them
+            leases2.start();
+            waitForShards(processor1, "shard0", "shard2");
+            waitForShards(processor2, "shard1", "shard3");
+
+            // When the first node leaves, the second one takes over all shards
+            leases1.stop();
+            waitForShards(processor1);
+            waitForShards(processor2, "shard0", "shard1", "shard2", "shard3");
+
+            // And hands half of them back when the first node joins again, now as the second node
+            leases1.start();
+            waitForShards(processor2, "shard0", "shard2");
+            waitForShards(processor1, "shard1", "shard3");
+        } finally {
+            leases1.stop();
+            leases2.stop();
+            Closer.close(zk1);
+            Closer.close(zk2);
+        }
+
+        assertEquals("Shards processed by two nodes at the same time", Collections.emptySet(), overlaps);
+    }
+
+    @Test(timeout=120000)
+    public void testSessionExpiry() throws Exception {
+        RowLog rowLog = createRowLog("ShardLeasesRowLog2", 4);
+        Map<String, RecordingProcessor> owners = new HashMap<String, RecordingProcessor>();
+        Set<String> overlaps = Collections.synchronizedSet(new HashSet<String>());
+
+        ReconnectableZooKeeper zk1 = connect();
+        ReconnectableZooKeeper zk2 = connect();
+        RecordingProcessor processor1 = new RecordingProcessor(rowLog, owners, overlaps);
+        RecordingProcessor processor2 = new RecordingProcessor(rowLog, owners, overlaps);
+        RowLogShardLeases leases1 = new RowLogShardLeases(zk1, processor1, "host1");
+        RowLogShardLeases leases2 = new RowLogShardLeases(zk2, processor2, "host2");
+        try {
+            leases1.start();
+            waitForShards(processor1, "shard0", "shard1", "shard2", "shard3");
+            leases2.start();
+            waitForShards(processor1, "shard0", "shard2");
+            waitForShards(processor2, "shard1", "shard3");
+
+            // The expired node stops processing, its leases disappeared so the other node takes over
+            final CountDownLatch expired = new CountDownLatch(1);
+            zk1.addDefaultWatcher(new Watcher() {
+                @Override
+                public void process(WatchedEvent event) {
+                    if (event.getState() == KeeperState.Expired) {
+                        expired.countDown();
+                    }
+                }
+            });
+            new ZooKeeperMXBean(zkConnectString, SESSION_TIMEOUT, zk1).invalidateSession();
+            assertTrue("Session did not expire", expired.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+            waitForShards(processor1);
+            waitForShards(processor2, "shard0", "shard1", "shard2", "shard3");
+
+            // With a new session, the node registers again and gets its share of the shards, without having
+            // deleted the leases which now belong to the other node
+            zk1.reconnect();
+            waitForShards(processor2, "shard0", "shard2");
+            waitForShards(processor1, "shard1", "shard3");
+            assertEquals(2, zk2.getChildren("/lily/rowlog/ShardLeasesRowLog2/shardprocessors", false).size());
+            assertEquals(4, zk2.getChildren("/lily/rowlog/ShardLeasesRowLog2/shardleases", false).size());
+        } finally {
+            leases1.stop();
+            leases2.stop();
+            Closer.close(zk1);
+            Closer.close(zk2);
+        }
+    }
+
+    private RowLog createRowLog(String rowLogId, int shardCount) {
+        List<RowLogShard> shards = new ArrayList<RowLogShard>();
+        for (int i = 0; i < shardCount; i++) {
+            RowLogShard shard = createNiceMock(RowLogShard.class);
+            expect(shard.getId()).andReturn("shard" + i).anyTimes();
+            replay(shard);
+            shards.add(shard);
+        }
+
+        RowLog rowLog = createNiceMock(RowLog.class);
+        expect(rowLog.getId()).andReturn(rowLogId).anyTimes();
+        expect(rowLog.getShards()).andReturn(shards).anyTimes();
+        replay(rowLog);
+        return rowLog;
+    }
+
+    private ReconnectableZooKeeper connect() throws Exception {
+        ReconnectableZooKeeper zk = new ReconnectableZooKeeper(zkConnectString, SESSION_TIMEOUT);
+        zk.waitForConnection();
+        return zk;
+    }
+
+    private void waitForShards(RecordingProcessor processor, String... shardIds) throws InterruptedException {
+        Set<String> expected = new HashSet<String>(Arrays.asList(shardIds));
+        long waitUntil = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (!expected.equals(processor.getRecordedShards()) && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(50);
+        }
+        assertEquals(expected, processor.getRecordedShards());
+    }
+
+    /**
+     * Records the shards it processes, and which of them are processed by another processor at the same time.
+     */
+    private static class RecordingProcessor extends RowLogProcessorImpl {
+        private final Map<String, RecordingProcessor> owners;
+        private final Set<String> overlaps;
+        private Set<String> shardIds = Collections.emptySet();
+        private Set<String> processedShards = Collections.emptySet();
+
+        public RecordingProcessor(RowLog rowLog, Map<String, RecordingProcessor> owners, Set<String> overlaps) {
+            super(rowLog, null, null);
+            this.owners = owners;
+            this.overlaps = overlaps;
+        }
+
+        @Override
+        public synchronized void setShardIds(Set<String> shardIds) {
+            this.shardIds = shardIds;
+        }
+
+        @Override
+        public synchronized void start() {
+            synchronized (owners) {
+                for (String shardId : shardIds) {
+                    RecordingProcessor owner = owners.get(shardId);
+                    if (owner != null && owner != this) {
+                        overlaps.add(shardId);
+                    }
+                    owners.put(shardId, this);
+                }
+            }
+            processedShards = new HashSet<String>(shardIds);
+        }
+
+        @Override
+        public synchronized void stop() {
+            synchronized (owners) {
+                for (String shardId : processedShards) {
+                    if (owners.get(shardId) == this) {
+                        owners.remove(shardId);
+                    }
+                }
+            }
+            processedShards = Collections.emptySet();
+        }
+
+        public synchronized Set<String> getRecordedShards() {
+            return processedShards;
+        }
+    }
+
+    /**
+     * A ZooKeeper handle which can continue with a new session after its session expired.
+     */
+    private static class ReconnectableZooKeeper extends ZooKeeperImpl {
+        private final String connectString;
+        private final int sessionTimeout;
+
+        public ReconnectableZooKeeper(String connectString, int sessionTimeout) throws IOException {
+            super(connectString, sessionTimeout);
+            this.connectString = connectString;
+            this.sessionTimeout = sessionTimeout;
+        }
+
+        public void reconnect() throws IOException, InterruptedException {
+            delegate.close();
+            setDelegate(new ZooKeeper(connectString, sessionTimeout, new MyWatcher()));
+        }
+    }
+}
@@ -23,9 +23,13 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.easymock.classextension.IMocksControl;
 import org.junit.*;
@@ -37,6 +41,8 @@ import org.lilyproject.rowlog.impl.RowLogImpl;
 import org.lilyproject.rowlog.impl.RowLogMessageImpl;
 import org.lilyproject.hadooptestfw.HBaseProxy;
 import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.rowlock.HBaseRowLocker;
+import org.lilyproject.rowlock.RowLocker;
 import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.zookeeper.ZkUtil;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
@@ -145,6 +151,63 @@ public class RowLogTest {
         control.verify();
     }
     
+    @Test
+    public void testPutMessagesReservesSeqNrs() throws Exception {
+        shard.putMessages(isA(List.class), eq(subscriptionIds));
+        expectLastCall().times(2);
+        control.replay();
+
+        RowLocker rowLocker = new HBaseRowLocker(rowTable, rowLogColumnFamily, Bytes.toBytes("lock"), 10000);
+        RowLog lockingRowLog = new RowLogImpl(rowLogId, rowTable, rowLogColumnFamily, (byte)1, configurationManager,
+                rowLocker, new RowLogHashShardRouter());
+        try {
+            AbstractRowLogEndToEndTest.waitForSubscription(lockingRowLog, subscriptionId1);
+            lockingRowLog.getShardList().addShard(shard);
+            byte[] rowKey = Bytes.toBytes("row3");
+            List<byte[]> payloads = Collections.singletonList(Bytes.toBytes("payload"));
+
+            // The puts are not applied, as when the caller fails after the messages were put on the shards
+            RowLogMessage message1 = lockingRowLog.putMessages(Arrays.asList(new Put(rowKey)), payloads).get(0);
+            RowLogMessage message2 = lockingRowLog.putMessages(Arrays.asList(new Put(rowKey)), payloads).get(0);
+            assertTrue("Sequence number was handed out twice", message2.getSeqNr() > message1.getSeqNr());
+            control.verify();
+        } finally {
+            Closer.close(lockingRowLog);
+        }
+    }
+
+    @Test
+    public void testPutMessagesForRowsNotifiesProcessor() throws Exception {
+        shard.putMessages(isA(List.class), eq(subscriptionIds));
+        control.replay();
+        rowLog.getShardList().addShard(shard);
+
+        final Semaphore notifications = new Semaphore(0);
+        configurationManager.addProcessorNotifyObserver(rowLogId, new ProcessorNotifyObserver() {
+            @Override
+            public void notifyProcessor() {
+                notifications.release();
+            }
+        });
+        try {
+            // Adding the observer notifies it once
+            assertTrue(notifications.tryAcquire(10, TimeUnit.SECONDS));
+            notifications.drainPermits();
+
+            List<byte[]> rowKeys = Arrays.asList(Bytes.toBytes("row4"), Bytes.toBytes("row5"));
+            List<byte[]> payloads = Arrays.asList(Bytes.toBytes("payload4"), Bytes.toBytes("payload5"));
+            List<RowLogMessage> messages = rowLog.putMessagesForRows(rowKeys, payloads);
+            assertEquals(2, messages.size());
+            assertEquals(1, rowLog.getMessages(Bytes.toBytes("row4")).size());
+
+            assertTrue("Processor was not notified of the new messages",
+                    notifications.tryAcquire(10, TimeUnit.SECONDS));
+            control.verify();
+        } finally {
+            configurationManager.removeProcessorNotifyObserver(rowLogId);
+        }
+    }
+
     @Test
     public void testNoShardsRegistered() throws Exception {
 
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.lilyproject.rowlog.api.RowLogMessage;
+import org.lilyproject.rowlog.impl.RowLogMessageImpl;
+import org.lilyproject.rowlog.impl.RowPartitionedMessagesWorkQueue;
+
+public class RowPartitionedMessagesWorkQueueTest {
+
+    @Test
+    public void testRowsInOrder() throws Exception {
+        RowPartitionedMessagesWorkQueue queue = new RowPartitionedMessagesWorkQueue(10);
+        RowLogMessage row1msg1 = message("row1", 1);
+        RowLogMessage row1msg2 = message("row1", 2);
+        RowLogMessage row2msg1 = message("row2", 1);
+        queue.offer(row1msg1);
+        queue.offer(row1msg2);
+        queue.offer(row2msg1);
+        assertEquals(3, queue.size());
+
+        assertEquals(row1msg1, queue.take());
+        // The next message of row1 is only handed out when the first one is done
+        assertEquals(row2msg1, queue.take());
+        assertEquals(1, queue.size());
+
+        queue.done(row1msg1);
+        assertEquals(row1msg2, queue.take());
+        assertEquals(0, queue.size());
+        queue.done(row1msg2);
+        queue.done(row2msg1);
+    }
+
+    @Test
+    public void testDuplicatesIgnored() throws Exception {
+        RowPartitionedMessagesWorkQueue queue = new RowPartitionedMessagesWorkQueue(10);
+        RowLogMessage msg1 = message("row1", 1);
+        RowLogMessage msg2 = message("row1", 2);
+        queue.offer(msg1);
+        queue.offer(msg2);
+        queue.offer(msg2);
+        assertEquals(2, queue.size());
+
+        assertEquals(msg1, queue.take());
+        // The message being worked on is offered again by a next scan
+        queue.offer(message("row1", 1));
+        assertEquals(1, queue.size());
+        queue.done(msg1);
+
+        assertEquals(msg2, queue.take());
+        queue.done(msg2);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testTakeBlocksOnBusyRow() throws Exception {
+        final RowPartitionedMessagesWorkQueue queue = new RowPartitionedMessagesWorkQueue(10);
+        RowLogMessage msg1 = message("row1", 1);
+        RowLogMessage msg2 = message("row1", 2);
+        queue.offer(msg1);
+        queue.offer(msg2);
+        assertEquals(msg1, queue.take());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<RowLogMessage> future = executor.submit(new Callable<RowLogMessage>() {
+                @Override
+                public RowLogMessage call() throws Exception {
+                    return queue.take();
+                }
+            });
+            try {
+                future.get(200, TimeUnit.MILLISECONDS);
+                assertTrue("take should block while the row is being worked on", false);
+            } catch (TimeoutException e) {
+                // expected
+            }
+            queue.done(msg1);
+            assertEquals(msg2, future.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private RowLogMessage message(String row, long seqnr) {
+        return new RowLogMessageImpl(1000L, Bytes.toBytes(row), seqnr, null, null);
+    }
+}
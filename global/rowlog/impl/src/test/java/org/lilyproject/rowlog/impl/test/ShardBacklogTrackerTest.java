@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.lilyproject.rowlog.impl.ShardBacklogTracker;
+
+public class ShardBacklogTrackerTest {
+    private static final long WAKEUP_TIMEOUT = 1000;
+
+    @Test
+    public void testScheduling() throws Exception {
+        ShardBacklogTracker tracker = new ShardBacklogTracker(Arrays.asList("a", "b"), 100);
+        long now = 10000;
+
+        // Initially, all shards are scanned
+        assertEquals(Arrays.asList("a", "b"), tracker.getShardsToScan(now));
+
+        // A full batch is scanned again immediately, a partial batch after the wakeup timeout
+        tracker.scanned("a", 50, 50, now, WAKEUP_TIMEOUT);
+        tracker.scanned("b", 10, 50, now, WAKEUP_TIMEOUT);
+        assertEquals(Arrays.asList("a"), tracker.getShardsToScan(now));
+        assertEquals(now, tracker.getNextScanTime());
+        assertEquals(Arrays.asList("a", "b"), tracker.getShardsToScan(now + WAKEUP_TIMEOUT));
+
+        // An idle shard backs off, up to a maximum
+        long time = now;
+        for (int i = 0; i < 10; i++) {
+            time += WAKEUP_TIMEOUT * 10;
+            tracker.scanned("b", 0, 50, time, WAKEUP_TIMEOUT);
+        }
+        tracker.scanned("a", 0, 50, time, WAKEUP_TIMEOUT);
+        assertTrue(tracker.getShardsToScan(time + WAKEUP_TIMEOUT - 1).isEmpty());
+        assertEquals(Arrays.asList("a"), tracker.getShardsToScan(time + WAKEUP_TIMEOUT * 8 - 1));
+        assertEquals(Arrays.asList("a", "b"), tracker.getShardsToScan(time + WAKEUP_TIMEOUT * 8));
+
+        // A notification makes all shards due again
+        tracker.wakeup();
+        assertEquals(Arrays.asList("a", "b"), tracker.getShardsToScan(time));
+    }
+
+    @Test
+    public void testBatchSize() throws Exception {
+        ShardBacklogTracker tracker = new ShardBacklogTracker(Arrays.asList("a", "b", "c", "d"), 100);
+
+        // Without backlog, the batch size is divided evenly
+        assertEquals(25, tracker.getBatchSize("a"));
+
+        tracker.scanned("a", 25, 25, 1000, WAKEUP_TIMEOUT);
+        assertEquals(25, tracker.getBacklog("a"));
+        assertEquals(0, tracker.getBacklog("b"));
+
+        // The busy shard gets the biggest share, the others don't go below their minimum
+        assertTrue(tracker.getBatchSize("a") > 25);
+        assertEquals(12, tracker.getBatchSize("b"));
+        assertEquals(4, tracker.getShardBacklogs("sub").size());
+    }
+
+    @Test
+    public void testMinimalTimestamp() throws Exception {
+        ShardBacklogTracker tracker = new ShardBacklogTracker(Arrays.asList("a", "b"), 100);
+
+        // Initially, the shards are scanned from the start
+        assertNull(tracker.getMinimalTimestamp("a"));
+        assertNull(tracker.getMinimalTimestamp("b"));
+
+        // Each shard keeps its own minimal timestamp
+        tracker.setMinimalTimestamp("a", 5000L);
+        tracker.setMinimalTimestamp("b", 1000L);
+        tracker.setMinimalTimestamp("a", 6000L);
+        assertEquals(Long.valueOf(6000L), tracker.getMinimalTimestamp("a"));
+        assertEquals(Long.valueOf(1000L), tracker.getMinimalTimestamp("b"));
+
+        // A notification does not change them
+        tracker.wakeup();
+        assertEquals(Long.valueOf(1000L), tracker.getMinimalTimestamp("b"));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rowlog.impl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.lilyproject.rowlog.impl.TimeBasedSeqNrGenerator;
+
+public class TimeBasedSeqNrGeneratorTest {
+
+    @Test
+    public void testIncreasing() throws Exception {
+        TimeBasedSeqNrGenerator generator = new TimeBasedSeqNrGenerator(5);
+        long now = System.currentTimeMillis();
+
+        long seqNr1 = generator.nextSeqNr(now);
+        long seqNr2 = generator.nextSeqNr(now);
+        long seqNr3 = generator.nextSeqNr(now + 1);
+        // The clock going back should not produce lower numbers
+        long seqNr4 = generator.nextSeqNr(now - 1000);
+
+        assertTrue(seqNr1 < seqNr2);
+        assertTrue(seqNr2 < seqNr3);
+        assertTrue(seqNr3 < seqNr4);
+        assertEquals(5, seqNr1 & 0x3FF);
+        assertEquals(5, seqNr4 & 0x3FF);
+    }
+
+    @Test
+    public void testLaterThanCounter() throws Exception {
+        // Numbers from a generator which was started later sort after those of an earlier one, and
+        // all of them sort after the values of the per-row counters which were used before
+        long now = System.currentTimeMillis();
+        long seqNr1 = new TimeBasedSeqNrGenerator(1023).nextSeqNr(now);
+        long seqNr2 = new TimeBasedSeqNrGenerator(0).nextSeqNr(now + 1);
+
+        assertTrue(seqNr1 > Integer.MAX_VALUE);
+        assertTrue(seqNr1 < seqNr2);
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+        final TimeBasedSeqNrGenerator generator = new TimeBasedSeqNrGenerator();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() throws Exception {
+                    long[] seqNrs = new long[10000];
+                    for (int i = 0; i < seqNrs.length; i++) {
+                        seqNrs[i] = generator.nextSeqNr();
+                        if (i > 0) {
+                            assertTrue(seqNrs[i] > seqNrs[i - 1]);
+                        }
+                    }
+                    return seqNrs;
+                }
+            }));
+        }
+
+        Set<Long> seqNrs = new HashSet<Long>();
+        for (Future<long[]> future : futures) {
+            for (long seqNr : future.get()) {
+                seqNrs.add(seqNr);
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(40000, seqNrs.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidProcessId() throws Exception {
+        new TimeBasedSeqNrGenerator(1024);
+    }
+}